@@ -0,0 +1,137 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.explore;
+
+import com.o19s.es.TestExpressionsPlugin;
+import com.o19s.es.explore.StatisticsHelper.AggrType;
+import com.o19s.es.termstat.TermStatQuery;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.script.DoubleValuesScript;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to score every doc of an index with 20 terms queries reading term statistics.
+ *
+ * The index has the shape of the term stats tests: docs of 0 to 49 terms out of a vocabulary
+ * of 200. The collection statistics of the terms are looked up once per query in a
+ * {@link TermStatsTable}, the per doc work of the {@link TermStatQuery} and of the per doc
+ * {@link ExplorerQuery} types is reading the postings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TermStatsTableBenchmark {
+    private static final int VOCABULARY_SIZE = 200;
+    private static final int NUM_QUERY_TERMS = 20;
+
+    @Param({ "1000000" })
+    public int numDocs;
+
+    private Directory directory;
+    private DirectoryReader reader;
+    private IndexSearcher searcher;
+    private TermStatQuery termStatQuery;
+    private ExplorerQuery explorerQuery;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < numDocs; i++) {
+                text.setLength(0);
+                int numTerms = random.nextInt(50);
+                for (int j = 0; j < numTerms; j++) {
+                    text.append("term").append(random.nextInt(VOCABULARY_SIZE)).append(' ');
+                }
+                Document doc = new Document();
+                doc.add(new TextField("text", text.toString(), Field.Store.NO));
+                writer.addDocument(doc);
+            }
+            writer.forceMerge(1);
+        }
+        reader = DirectoryReader.open(directory);
+        searcher = new IndexSearcher(reader);
+        searcher.setQueryCache(null);
+
+        Set<Term> terms = new HashSet<>();
+        while (terms.size() < NUM_QUERY_TERMS) {
+            terms.add(new Term("text", "term" + random.nextInt(VOCABULARY_SIZE)));
+        }
+        DoubleValuesScript expr = new TestExpressionsPlugin.ExpressionScriptEngine()
+                .compileInternal("tf * idf + tp", DoubleValuesScript.CONTEXT)
+                .newInstance();
+        termStatQuery = new TermStatQuery(expr, AggrType.AVG, AggrType.AVG, terms);
+
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (Term term : terms) {
+            builder.add(new TermQuery(term), BooleanClause.Occur.SHOULD);
+        }
+        explorerQuery = new ExplorerQuery(builder.build(), "mean_raw_tf");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+    @Benchmark
+    public TopDocs termStatQuery() throws IOException {
+        return searcher.search(termStatQuery, 10);
+    }
+
+    @Benchmark
+    public TopDocs explorerQuery() throws IOException {
+        return searcher.search(explorerQuery, 10);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.ranker.dectree;
+
+import com.o19s.es.ltr.feature.store.StoredFeature;
+import com.o19s.es.ltr.feature.store.StoredFeatureSet;
+import com.o19s.es.ltr.ranker.LtrRanker;
+import com.o19s.es.ltr.ranker.normalizer.Normalizers;
+import com.o19s.es.ltr.ranker.parser.XGBoostJsonParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to score a single doc with a tree model, per {@link TreeEvaluator}.
+ *
+ * The xgboost-wmf model is the XGBoost fixture of the tests (8 features), the random
+ * model has 500 trees of depth 6 over 100 features like the large models QuickScorer
+ * targets. The RankLib models of sample_models are evaluated by RankLib and are not
+ * covered.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TreeEvaluatorBenchmark {
+    private static final int NUM_VECTORS = 1024;
+    private static final String[] WMF_FEATURES = new String[] { "all_near_match", "category", "heading", "incoming_links",
+            "popularity_score", "redirect_or_suggest_dismax", "text_or_opening_text_dismax", "title" };
+
+    @Param({ "naive", "quickscorer" })
+    public String evaluator;
+
+    @Param({ "xgboost-wmf", "random" })
+    public String model;
+
+    /**
+     * Share of the features that have a value, the others are missing.
+     */
+    @Param({ "1", "0.1" })
+    public float density;
+
+    private LtrRanker ranker;
+    private LtrRanker.FeatureVector[] vectors;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        NaiveAdditiveDecisionTree tree = "random".equals(model) ? randomTrees(random, 100, 500, 6) : parseWmfModel();
+        ranker = TreeEvaluator.fromName(evaluator).compile(tree);
+        vectors = new LtrRanker.FeatureVector[NUM_VECTORS];
+        for (int v = 0; v < NUM_VECTORS; v++) {
+            LtrRanker.FeatureVector vector = ranker.newFeatureVector(null);
+            for (int i = 0; i < tree.size(); i++) {
+                vector.setFeatureScore(i, random.nextFloat() < density ? randomValue(random) : Float.NaN);
+            }
+            vectors[v] = vector;
+        }
+    }
+
+    @Benchmark
+    public float score() {
+        LtrRanker.FeatureVector vector = vectors[next];
+        next = (next + 1) % NUM_VECTORS;
+        return ranker.score(vector);
+    }
+
+    static NaiveAdditiveDecisionTree parseWmfModel() throws IOException {
+        String definition;
+        try (InputStream is = TreeEvaluatorBenchmark.class.getResourceAsStream("/models/xgboost-wmf.json")) {
+            definition = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        List<StoredFeature> features = new ArrayList<>();
+        for (String name : WMF_FEATURES) {
+            features.add(new StoredFeature(name, Collections.singletonList("query"), "mustache", "{\"match_all\":{}}"));
+        }
+        return new XGBoostJsonParser().parse(new StoredFeatureSet("set", features), definition);
+    }
+
+    static NaiveAdditiveDecisionTree randomTrees(Random random, int nbFeatures, int nbTrees, int maxDepth) {
+        NaiveAdditiveDecisionTree.Node[] trees = new NaiveAdditiveDecisionTree.Node[nbTrees];
+        float[] weights = new float[nbTrees];
+        for (int i = 0; i < nbTrees; i++) {
+            trees[i] = randomNode(random, nbFeatures, 0, maxDepth);
+            weights[i] = randomValue(random);
+        }
+        return new NaiveAdditiveDecisionTree(trees, weights, nbFeatures, Normalizers.get(Normalizers.NOOP_NORMALIZER_NAME));
+    }
+
+    private static NaiveAdditiveDecisionTree.Node randomNode(Random random, int nbFeatures, int depth, int maxDepth) {
+        if (depth >= maxDepth || (depth > 0 && random.nextInt(4) == 0)) {
+            return new NaiveAdditiveDecisionTree.Leaf(random.nextFloat() * 2F - 1F);
+        }
+        return new NaiveAdditiveDecisionTree.Split(randomNode(random, nbFeatures, depth + 1, maxDepth),
+                randomNode(random, nbFeatures, depth + 1, maxDepth), random.nextInt(nbFeatures), randomValue(random),
+                1, random.nextBoolean() ? 1 : 2);
+    }
+
+    /**
+     * Same distribution as the feature values and thresholds of the tests.
+     */
+    private static float randomValue(Random random) {
+        return (float) (random.nextInt(100000) + 1) / (float) (random.nextInt(100000) + 1);
+    }
+}
@@ -60,10 +60,12 @@ public class LTRStatsActionIT extends BaseIntegrationTest {
         assertTrue(nodeStats.containsKey(StatName.CACHE.getName()));
 
         Map<String, Object> cacheStats = (Map<String, Object>) nodeStats.get(StatName.CACHE.getName());
-        assertEquals(3, cacheStats.size());
+        assertEquals(5, cacheStats.size());
         assertTrue(cacheStats.containsKey(CacheStatsOnNodeSupplier.Stat.CACHE_FEATURE.getName()));
         assertTrue(cacheStats.containsKey(CacheStatsOnNodeSupplier.Stat.CACHE_FEATURE_SET.getName()));
         assertTrue(cacheStats.containsKey(CacheStatsOnNodeSupplier.Stat.CACHE_MODEL.getName()));
+        assertTrue(cacheStats.containsKey(CacheStatsOnNodeSupplier.Stat.CACHE_FEATURE_SCORE.getName()));
+        assertTrue(cacheStats.containsKey(CacheStatsOnNodeSupplier.Stat.CACHE_FEATURE_QUERY.getName()));
 
         Map<String, Object> featureCacheStats =
                 (Map<String, Object>) cacheStats.get(CacheStatsOnNodeSupplier.Stat.CACHE_FEATURE.getName());
@@ -29,6 +29,7 @@ import org.apache.lucene.tests.util.TestUtil;
 import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.action.DocWriteResponse;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.core.CheckedRunnable;
 import org.elasticsearch.common.lucene.search.function.FieldValueFactorFunction;
 import org.elasticsearch.common.lucene.search.function.FunctionScoreQuery;
 import org.elasticsearch.index.query.InnerHitBuilder;
@@ -48,6 +49,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import org.junit.Ignore;
 
@@ -344,10 +346,61 @@ public class LoggingIT extends BaseIntegrationTest {
         assertResponse(client().prepareSearch("test_index").setSource(sourceBuilder), resp -> assertSearchHitsExtraLogging(docs, resp));
     }
 
+    public void testLogExtraLoggingWithFeatureScoreCache() throws Exception {
+        assertLogWithFeatureScoreCache(this::prepareModelsExtraLogging, this::assertSearchHitsExtraLogging);
+    }
+
     public void testLogWithFeatureScoreCache() throws Exception {
+        assertLogWithFeatureScoreCache(this::prepareModels, this::assertSearchHits);
+    }
+
+    public void testLogWithFeatureScoreCacheUnderBoostedQuery() throws Exception {
         prepareModels();
         Map<String, Doc> docs = buildIndex();
 
+        Map<String, Object> params = new HashMap<>();
+        params.put("query", "found");
+        List<String> idsColl = new ArrayList<>(docs.keySet());
+        Collections.shuffle(idsColl, random());
+        String[] ids = idsColl.subList(0, TestUtil.nextInt(random(), 5, 15)).toArray(new String[0]);
+        StoredLtrQueryBuilder sbuilder = new StoredLtrQueryBuilder(LtrTestUtils.nullLoader())
+                .modelName("my_model")
+                .params(params)
+                .queryName("test")
+                .featureScoreCacheFlag(Boolean.TRUE);
+
+        StoredLtrQueryBuilder sbuilder_rescore = new StoredLtrQueryBuilder(LtrTestUtils.nullLoader())
+                .modelName("my_model")
+                .params(params)
+                .queryName("test_rescore")
+                .featureScoreCacheFlag(Boolean.TRUE);
+
+        // the enclosing boost scales the scores of the cached query, they must not be logged
+        QueryBuilder query = QueryBuilders.boolQuery().must(new WrapperQueryBuilder(sbuilder.toString()))
+                .filter(QueryBuilders.idsQuery().addIds(ids))
+                .boost(TestUtil.nextInt(random(), 2, 5));
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder().query(query)
+                .fetchSource(false)
+                .size(10)
+                .addRescorer(new QueryRescorerBuilder(new WrapperQueryBuilder(sbuilder_rescore.toString())))
+                .ext(Collections.singletonList(
+                        new LoggingSearchExtBuilder()
+                                .addQueryLogging("first_log", "test", false)
+                                .addRescoreLogging("second_log", 0, true)));
+        assertResponse(client().prepareSearch("test_index").setSource(sourceBuilder), resp -> assertSearchHits(docs, resp));
+
+        // the same query without the boost must not reuse the scores of the previous search
+        query = QueryBuilders.boolQuery().must(new WrapperQueryBuilder(sbuilder.toString()))
+                .filter(QueryBuilders.idsQuery().addIds(ids));
+        sourceBuilder.query(query);
+        assertResponse(client().prepareSearch("test_index").setSource(sourceBuilder), resp -> assertSearchHits(docs, resp));
+    }
+
+    private void assertLogWithFeatureScoreCache(CheckedRunnable<Exception> prepare,
+                                                BiConsumer<Map<String, Doc>, SearchResponse> assertHits) throws Exception {
+        prepare.run();
+        Map<String, Doc> docs = buildIndex();
+
         Map<String, Object> params = new HashMap<>();
         params.put("query", "found");
         List<String> idsColl = new ArrayList<>(docs.keySet());
@@ -357,18 +410,14 @@ public class LoggingIT extends BaseIntegrationTest {
                 .featureSetName("my_set")
                 .params(params)
                 .queryName("test")
-                .boost(1)
+                .boost(random().nextInt(3))
                 .featureScoreCacheFlag(Boolean.TRUE);
-        /*
-            Note: Feature score caching with boosts other than 1 affects logged feature scores.
-            This behavior is a bug. See: https://github.com/o19s/elasticsearch-learning-to-rank/issues/368
-        */
 
         StoredLtrQueryBuilder sbuilder_rescore = new StoredLtrQueryBuilder(LtrTestUtils.nullLoader())
                 .featureSetName("my_set")
                 .params(params)
                 .queryName("test_rescore")
-                .boost(1)
+                .boost(random().nextInt(3))
                 .featureScoreCacheFlag(Boolean.TRUE);
 
         QueryBuilder query = QueryBuilders.boolQuery().must(new WrapperQueryBuilder(sbuilder.toString()))
@@ -382,11 +431,13 @@ public class LoggingIT extends BaseIntegrationTest {
                                 .addQueryLogging("first_log", "test", false)
                                 .addRescoreLogging("second_log", 0, true)));
 
-        assertResponse(client().prepareSearch("test_index").setSource(sourceBuilder), resp -> assertSearchHits(docs, resp));
+        assertResponse(client().prepareSearch("test_index").setSource(sourceBuilder), resp -> assertHits.accept(docs, resp));
         sbuilder.featureSetName(null);
         sbuilder.modelName("my_model");
+        sbuilder.boost(random().nextInt(3));
         sbuilder_rescore.featureSetName(null);
         sbuilder_rescore.modelName("my_model");
+        sbuilder_rescore.boost(random().nextInt(3));
 
         query = QueryBuilders.boolQuery().must(new WrapperQueryBuilder(sbuilder.toString()))
                 .filter(QueryBuilders.idsQuery().addIds(ids));
@@ -399,7 +450,7 @@ public class LoggingIT extends BaseIntegrationTest {
                                 .addQueryLogging("first_log", "test", false)
                                 .addRescoreLogging("second_log", 0, true)));
 
-        assertResponse(client().prepareSearch("test_index").setSource(sourceBuilder), resp -> assertSearchHits(docs, resp));
+        assertResponse(client().prepareSearch("test_index").setSource(sourceBuilder), resp -> assertHits.accept(docs, resp));
 
         query = QueryBuilders.boolQuery()
                 .must(new WrapperQueryBuilder(sbuilder.toString()))
@@ -418,7 +469,7 @@ public class LoggingIT extends BaseIntegrationTest {
                         new LoggingSearchExtBuilder()
                                 .addQueryLogging("first_log", "test", false)
                                 .addRescoreLogging("second_log", 0, true)));
-        assertResponse(client().prepareSearch("test_index").setSource(sourceBuilder), resp -> assertSearchHits(docs, resp));
+        assertResponse(client().prepareSearch("test_index").setSource(sourceBuilder), resp -> assertHits.accept(docs, resp));
 
         query = QueryBuilders.boolQuery().filter(QueryBuilders.idsQuery().addIds(ids));
         sourceBuilder = new SearchSourceBuilder().query(query)
@@ -431,7 +482,7 @@ public class LoggingIT extends BaseIntegrationTest {
                                 .addRescoreLogging("first_log", 0, false)
                                 .addRescoreLogging("second_log", 1, true)));
 
-        assertResponse(client().prepareSearch("test_index").setSource(sourceBuilder), resp -> assertSearchHits(docs, resp));
+        assertResponse(client().prepareSearch("test_index").setSource(sourceBuilder), resp -> assertHits.accept(docs, resp));
     }
 
     public void testScriptLogInternalParams() throws Exception {
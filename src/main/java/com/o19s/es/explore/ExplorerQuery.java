@@ -18,13 +18,11 @@ package com.o19s.es.explore;
 
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.index.TermStates;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.QueryVisitor;
 import org.apache.lucene.search.ScoreMode;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Weight;
-import org.apache.lucene.search.TermStatistics;
 import org.apache.lucene.search.ConstantScoreWeight;
 import org.apache.lucene.search.Explanation;
 import org.apache.lucene.search.Scorer;
@@ -32,12 +30,13 @@ import org.apache.lucene.search.ScorerSupplier;
 import org.apache.lucene.search.ConstantScoreScorer;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BoostQuery;
 
 import org.apache.lucene.search.DocIdSetIterator;
-import org.apache.lucene.search.similarities.ClassicSimilarity;
 
 import java.io.IOException;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Objects;
 import java.util.Set;
 
@@ -101,23 +100,15 @@ public class ExplorerQuery extends Query {
         final Set<Term> terms = new HashSet<>();
         this.visit(QueryVisitor.termCollector(terms));
         if (isCollectionScoped()) {
-            ClassicSimilarity sim = new ClassicSimilarity();
+            TermStatsTable table = TermStatsTable.build(searcher, terms);
             StatisticsHelper df_stats = new StatisticsHelper();
             StatisticsHelper idf_stats = new StatisticsHelper();
             StatisticsHelper ttf_stats = new StatisticsHelper();
 
-            for (Term term : terms) {
-                TermStates ctx = TermStates.build(searcher, term, scoreMode.needsScores());
-                if (ctx != null && ctx.docFreq() > 0) {
-                    TermStatistics tStats = searcher.termStatistics(term, ctx.docFreq(), ctx.totalTermFreq());
-                    df_stats.add(tStats.docFreq());
-                    idf_stats.add(sim.idf(tStats.docFreq(), searcher.collectionStatistics(term.field()).docCount()));
-                    ttf_stats.add(tStats.totalTermFreq());
-                } else {
-                    df_stats.add(0.0f);
-                    idf_stats.add(0.0f);
-                    ttf_stats.add(0.0f);
-                }
+            for (int i = 0; i < table.size(); i++) {
+                df_stats.add(table.docFreq(i));
+                idf_stats.add(table.idf(i));
+                ttf_stats.add(table.totalTermFreq(i));
             }
 
             /*
@@ -209,6 +200,12 @@ public class ExplorerQuery extends Query {
                 }
 
             };
+        } else if (PostingsProximityQuery.Type.fromStatsType(type) != null) {
+            // Positions of all the terms are walked at once, ordered pairs need the terms in query order
+            Set<Term> orderedTerms = new LinkedHashSet<>();
+            collectTermsInOrder(query, orderedTerms);
+            Query q = new PostingsProximityQuery(orderedTerms.toArray(new Term[0]), PostingsProximityQuery.Type.fromStatsType(type));
+            return searcher.createWeight(q, scoreMode, boost);
         } else if (type.endsWith("_raw_tf") || type.endsWith("_raw_tp"))
 
         {
@@ -229,12 +226,35 @@ public class ExplorerQuery extends Query {
         throw new IllegalArgumentException("Unknown ExplorerQuery type [" + type + "]");
     }
 
+    /**
+     * Visiting a boolean query does not follow the order of its clauses, walk them.
+     */
+    private static void collectTermsInOrder(Query query, Set<Term> terms) {
+        if (query instanceof BoostQuery) {
+            collectTermsInOrder(((BoostQuery) query).getQuery(), terms);
+        } else if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+                if (clause.occur() != BooleanClause.Occur.MUST_NOT) {
+                    collectTermsInOrder(clause.query(), terms);
+                }
+            }
+        } else {
+            query.visit(QueryVisitor.termCollector(terms));
+        }
+    }
+
     private BooleanClause makeBooleanClause(Term term, String type) throws IllegalArgumentException {
         if (type.endsWith("_raw_tf")) {
             return new BooleanClause(new PostingsExplorerQuery(term, PostingsExplorerQuery.Type.TF),
                     BooleanClause.Occur.SHOULD);
-        } else if (type.endsWith("_raw_tp")) {
-            return new BooleanClause(new PostingsExplorerQuery(term, PostingsExplorerQuery.Type.TP),
+        } else if (type.equals("avg_raw_tp")) {
+            return new BooleanClause(new PostingsExplorerQuery(term, PostingsExplorerQuery.Type.TP_AVG),
+                    BooleanClause.Occur.SHOULD);
+        } else if (type.equals("max_raw_tp")) {
+            return new BooleanClause(new PostingsExplorerQuery(term, PostingsExplorerQuery.Type.TP_MAX),
+                    BooleanClause.Occur.SHOULD);
+        } else if (type.equals("min_raw_tp")) {
+            return new BooleanClause(new PostingsExplorerQuery(term, PostingsExplorerQuery.Type.TP_MIN),
                     BooleanClause.Occur.SHOULD);
         }
         throw new IllegalArgumentException("Unknown ExplorerQuery type [" + type + "]");
@@ -23,6 +23,7 @@ import java.io.IOException;
 public class ExplorerScorer extends Scorer {
     private final Scorer subScorer;
     private final String type;
+    private final StatisticsHelper tf_stats = new StatisticsHelper();
 
     protected ExplorerScorer(String type, Scorer subScorer) {
         this.type = type;
@@ -31,7 +32,7 @@ public class ExplorerScorer extends Scorer {
 
     @Override
     public float score() throws IOException {
-        StatisticsHelper tf_stats = new StatisticsHelper();
+        tf_stats.reset();
 
         // Grab freq from subscorer, or the children if available
         if (subScorer.getChildren().size() > 0) {
@@ -40,14 +41,12 @@ public class ExplorerScorer extends Scorer {
                 PostingsExplorerQuery.PostingsExplorerScorer scorer = (PostingsExplorerQuery.PostingsExplorerScorer) child
                         .child();
                 if (scorer.docID() == docID()) {
-                    scorer.setType(type);
-                    tf_stats.add(child.child().score());
+                    tf_stats.add(scorer.score());
                 }
             }
         } else {
             assert subScorer instanceof PostingsExplorerQuery.PostingsExplorerScorer;
             assert subScorer.docID() == docID();
-            ((PostingsExplorerQuery.PostingsExplorerScorer) subScorer).setType(type);
             tf_stats.add(subScorer.score());
         }
 
@@ -0,0 +1,122 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.o19s.es.explore;
+
+import com.o19s.es.explore.StatisticsHelper.AggrType;
+import org.apache.lucene.index.PostingsEnum;
+
+import java.io.IOException;
+
+/**
+ * Aggregates the positions of a term in the current document of its postings.
+ *
+ * Positions are read in a single pass without buffering them, they are reported starting
+ * at 1 and are aggregated like a {@link StatisticsHelper} would. Postings return positions
+ * in increasing order so min and max do not need to compare them.
+ */
+public enum PositionAggregator {
+    AVG {
+        @Override
+        float aggregate(PostingsEnum postings, int freq) throws IOException {
+            float sum = 0.0f;
+            for (int i = 0; i < freq; i++) {
+                sum += (float) postings.nextPosition() + 1;
+            }
+            return sum / freq;
+        }
+    },
+    MAX {
+        @Override
+        float aggregate(PostingsEnum postings, int freq) throws IOException {
+            int position = -1;
+            for (int i = 0; i < freq; i++) {
+                position = postings.nextPosition();
+            }
+            return (float) position + 1;
+        }
+    },
+    MIN {
+        @Override
+        float aggregate(PostingsEnum postings, int freq) throws IOException {
+            return (float) postings.nextPosition() + 1;
+        }
+    },
+    SUM {
+        @Override
+        float aggregate(PostingsEnum postings, int freq) throws IOException {
+            float sum = 0.0f;
+            for (int i = 0; i < freq; i++) {
+                sum += (float) postings.nextPosition() + 1;
+            }
+            return sum;
+        }
+    },
+    STDDEV {
+        @Override
+        float aggregate(PostingsEnum postings, int freq) throws IOException {
+            double mean = 0.0;
+            double m2 = 0.0;
+            for (int i = 0; i < freq; i++) {
+                float position = (float) postings.nextPosition() + 1;
+                double delta = position - mean;
+                mean += delta / (i + 1);
+                m2 += delta * (position - mean);
+            }
+            return (float) Math.sqrt((float) (m2 / freq));
+        }
+    },
+    NONE {
+        @Override
+        float aggregate(PostingsEnum postings, int freq) {
+            return 0.0f;
+        }
+    };
+
+    abstract float aggregate(PostingsEnum postings, int freq) throws IOException;
+
+    /**
+     * @param postings postings positioned on a document
+     * @return the aggregated positions of the document, 0 if the term has no frequency
+     */
+    public float aggregate(PostingsEnum postings) throws IOException {
+        int freq = postings.freq();
+        if (freq <= 0) {
+            return 0.0f;
+        }
+        return aggregate(postings, freq);
+    }
+
+    /**
+     * @param type an aggregation type
+     * @return the aggregator of positions for this type, aggregations not supported on positions return 0
+     */
+    public static PositionAggregator of(AggrType type) {
+        switch (type) {
+            case AVG:
+                return AVG;
+            case MAX:
+                return MAX;
+            case MIN:
+                return MIN;
+            case SUM:
+                return SUM;
+            case STDDEV:
+                return STDDEV;
+            default:
+                return NONE;
+        }
+    }
+}
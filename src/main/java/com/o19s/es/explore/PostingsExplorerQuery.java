@@ -36,8 +36,6 @@ import org.apache.lucene.search.Explanation;
 import org.apache.lucene.search.DocIdSetIterator;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Objects;
 import java.util.Set;
 
@@ -92,7 +90,10 @@ public class PostingsExplorerQuery extends Query {
     enum Type implements CheckedFunction<TermsEnum, Scorer, IOException> {
         // Extract TF from the postings
         TF((terms) -> new TFScorer(terms.postings(null, PostingsEnum.FREQS))),
-        TP((terms) -> new TPScorer(terms.postings(null, PostingsEnum.POSITIONS)));
+        // Aggregate the positions, the aggregation is chosen once per query
+        TP_AVG((terms) -> new TPScorer(terms.postings(null, PostingsEnum.POSITIONS), PositionAggregator.AVG)),
+        TP_MAX((terms) -> new TPScorer(terms.postings(null, PostingsEnum.POSITIONS), PositionAggregator.MAX)),
+        TP_MIN((terms) -> new TPScorer(terms.postings(null, PostingsEnum.POSITIONS), PositionAggregator.MIN));
 
         private final CheckedFunction<TermsEnum, Scorer, IOException> func;
 
@@ -159,16 +160,11 @@ public class PostingsExplorerQuery extends Query {
 
     public abstract static class PostingsExplorerScorer extends Scorer {
         final PostingsEnum postingsEnum;
-        protected String typeConditional;
 
         PostingsExplorerScorer(PostingsEnum postingsEnum) {
             this.postingsEnum = postingsEnum;
         }
 
-        public void setType(String type) {
-            this.typeConditional = type;
-        }
-
         @Override
         public int docID() {
             return this.postingsEnum.docID();
@@ -202,41 +198,16 @@ public class PostingsExplorerQuery extends Query {
     }
 
     static class TPScorer extends PostingsExplorerScorer {
-        TPScorer(PostingsEnum postingsEnum) {
+        private final PositionAggregator aggregator;
+
+        TPScorer(PostingsEnum postingsEnum, PositionAggregator aggregator) {
             super(postingsEnum);
+            this.aggregator = aggregator;
         }
 
         @Override
         public float score() throws IOException {
-            if (this.postingsEnum.freq() <= 0) {
-                return 0.0f;
-            }
-
-            ArrayList<Float> positions = new ArrayList<Float>();
-            for (int i = 0; i < this.postingsEnum.freq(); i++) {
-                positions.add((float) this.postingsEnum.nextPosition() + 1);
-            }
-
-            float retval;
-            switch (this.typeConditional) {
-                case ("avg_raw_tp"):
-                    float sum = 0.0f;
-                    for (float position : positions) {
-                        sum += position;
-                    }
-                    retval = sum / positions.size();
-                    break;
-                case ("max_raw_tp"):
-                    retval = Collections.max(positions);
-                    break;
-                case ("min_raw_tp"):
-                    retval = Collections.min(positions);
-                    break;
-                default:
-                    retval = 0.0f;
-            }
-
-            return retval;
+            return aggregator.aggregate(this.postingsEnum);
         }
 
         /**
@@ -0,0 +1,403 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.o19s.es.explore;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.TermStates;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.ScorerSupplier;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.IOSupplier;
+import org.apache.lucene.util.PriorityQueue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Proximity statistics over the positions of all the terms of a query.
+ *
+ * Matches documents containing any of the terms, positions of the terms are merged with
+ * a priority queue so that the statistics are computed in a single pass over the positions
+ * of a document.
+ */
+public class PostingsProximityQuery extends Query {
+    private final Term[] terms;
+    private final Type type;
+
+    /**
+     * @param terms the terms, in query order
+     * @param type the statistic
+     */
+    PostingsProximityQuery(Term[] terms, Type type) {
+        this.terms = Objects.requireNonNull(terms);
+        this.type = Objects.requireNonNull(type);
+    }
+
+    enum Type {
+        // Size of the smallest window of positions containing all the terms, 0 if a term is missing
+        MIN_WINDOW("min_window_raw_tp"),
+        // Number of pairs of occurrences found in the same order as their terms in the query
+        ORDERED_PAIRS("ordered_pairs_raw_tp"),
+        // First position of any of the terms, starting at 1
+        FIRST_POSITION("first_raw_tp");
+
+        private final String statsType;
+
+        Type(String statsType) {
+            this.statsType = statsType;
+        }
+
+        /**
+         * @param statsType an explorer type
+         * @return the statistic, null if this type is not a proximity statistic
+         */
+        static Type fromStatsType(String statsType) {
+            for (Type type : values()) {
+                if (type.statsType.equals(statsType)) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    @Override
+    public String toString(String field) {
+        StringBuilder buffer = new StringBuilder("postings_proximity(");
+        buffer.append(type.statsType);
+        for (Term term : terms) {
+            buffer.append(", ");
+            if (!term.field().equals(field)) {
+                buffer.append(term.field());
+                buffer.append(":");
+            }
+            buffer.append(term.text());
+        }
+        buffer.append(")");
+        return buffer.toString();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return this.sameClassAs(obj)
+                && Arrays.equals(this.terms, ((PostingsProximityQuery) obj).terms)
+                && this.type.equals(((PostingsProximityQuery) obj).type);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(classHash(), Arrays.hashCode(this.terms), this.type);
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) throws IOException {
+        assert scoreMode.needsScores() : "Should not be used in filtering mode";
+        TermStates[] termStates = new TermStates[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            termStates[i] = TermStates.build(searcher, terms[i], scoreMode.needsScores());
+        }
+        return new PostingsProximityWeight(this, termStates);
+    }
+
+    @Override
+    public void visit(QueryVisitor visitor) {
+        List<Term> accepted = new ArrayList<>(terms.length);
+        for (Term term : terms) {
+            if (visitor.acceptField(term.field())) {
+                accepted.add(term);
+            }
+        }
+        if (!accepted.isEmpty()) {
+            visitor.consumeTerms(this, accepted.toArray(new Term[0]));
+        }
+    }
+
+    class PostingsProximityWeight extends Weight {
+        private final TermStates[] termStates;
+
+        PostingsProximityWeight(Query query, TermStates[] termStates) {
+            super(query);
+            this.termStates = termStates;
+        }
+
+        @Override
+        public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+            Scorer scorer = this.scorer(context);
+            if (scorer != null) {
+                int newDoc = scorer.iterator().advance(doc);
+                if (newDoc == doc) {
+                    return Explanation.match(scorer.score(), "Stat Score: " + type.statsType);
+                }
+            }
+            return Explanation.noMatch("no matching term");
+        }
+
+        @Override
+        public boolean isCacheable(LeafReaderContext ctx) {
+            return true;
+        }
+
+        @Override
+        public ScorerSupplier scorerSupplier(LeafReaderContext context) throws IOException {
+            // Lucene recommends for performance reasons to first get
+            // all IOSupplier instances so let's do it this way
+            List<IOSupplier<TermState>> suppliers = new ArrayList<>(terms.length);
+            for (TermStates states : termStates) {
+                assert states.wasBuiltFor(ReaderUtil.getTopLevelContext(context));
+                suppliers.add(states.get(context));
+            }
+            PostingsEnum[] postings = new PostingsEnum[terms.length];
+            boolean found = false;
+            for (int i = 0; i < terms.length; i++) {
+                TermState state = suppliers.get(i) != null ? suppliers.get(i).get() : null;
+                if (state == null) {
+                    continue;
+                }
+                TermsEnum termsEnum = context.reader().terms(terms[i].field()).iterator();
+                termsEnum.seekExact(terms[i].bytes(), state);
+                postings[i] = termsEnum.postings(null, PostingsEnum.POSITIONS);
+                found = true;
+            }
+            if (!found) {
+                return null;
+            }
+            return new Weight.DefaultScorerSupplier(new PostingsProximityScorer(postings, type));
+        }
+    }
+
+    /**
+     * Iterates over the documents containing any of the terms and merges their positions.
+     */
+    static class PostingsProximityScorer extends Scorer {
+        // postings of the terms in query order, null for terms missing in the segment
+        private final PostingsEnum[] postings;
+        private final Type type;
+        private final DocIdSetIterator iterator;
+
+        private final PriorityQueue<TermPositions> queue;
+        private final TermPositions[] positions;
+        // last position seen of every term, -1 if not seen yet
+        private final int[] lastPositions;
+        // number of occurrences seen of every term
+        private final int[] occurrences;
+        // positions can only be read once per doc, the score is kept for the last scored doc
+        private int scoredDoc = -1;
+        private float score;
+
+        PostingsProximityScorer(PostingsEnum[] postings, Type type) {
+            this.postings = postings;
+            this.type = type;
+            this.iterator = new DisjunctionIterator(postings);
+            this.queue = new PriorityQueue<TermPositions>(postings.length) {
+                @Override
+                protected boolean lessThan(TermPositions a, TermPositions b) {
+                    return a.position < b.position;
+                }
+            };
+            this.positions = new TermPositions[postings.length];
+            for (int i = 0; i < postings.length; i++) {
+                positions[i] = new TermPositions(i);
+            }
+            this.lastPositions = new int[postings.length];
+            this.occurrences = new int[postings.length];
+        }
+
+        @Override
+        public float score() throws IOException {
+            int doc = docID();
+            if (doc == scoredDoc) {
+                return score;
+            }
+            queue.clear();
+            for (int i = 0; i < postings.length; i++) {
+                lastPositions[i] = -1;
+                occurrences[i] = 0;
+                if (postings[i] != null && postings[i].docID() == doc && postings[i].freq() > 0) {
+                    positions[i].reset(postings[i]);
+                    queue.add(positions[i]);
+                }
+            }
+
+            int termsSeen = 0;
+            int firstPosition = -1;
+            int minWindow = Integer.MAX_VALUE;
+            long orderedPairs = 0;
+            while (queue.size() > 0) {
+                TermPositions top = queue.top();
+                int term = top.term;
+                int position = top.position;
+                if (firstPosition == -1) {
+                    firstPosition = position;
+                }
+
+                // every occurrence of a term placed before this one in the query forms an ordered pair
+                for (int i = 0; i < term; i++) {
+                    orderedPairs += occurrences[i];
+                }
+                occurrences[term]++;
+
+                if (lastPositions[term] == -1) {
+                    termsSeen++;
+                }
+                lastPositions[term] = position;
+                if (termsSeen == postings.length) {
+                    int start = position;
+                    for (int last : lastPositions) {
+                        start = Math.min(start, last);
+                    }
+                    minWindow = Math.min(minWindow, position - start + 1);
+                }
+
+                if (top.next()) {
+                    queue.updateTop();
+                } else {
+                    queue.pop();
+                }
+            }
+
+            switch (type) {
+                case MIN_WINDOW:
+                    score = minWindow == Integer.MAX_VALUE ? 0.0f : minWindow;
+                    break;
+                case ORDERED_PAIRS:
+                    score = orderedPairs;
+                    break;
+                case FIRST_POSITION:
+                    score = firstPosition == -1 ? 0.0f : firstPosition + 1;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown proximity type [" + type + "]");
+            }
+            scoredDoc = doc;
+            return score;
+        }
+
+        @Override
+        public int docID() {
+            return iterator.docID();
+        }
+
+        @Override
+        public DocIdSetIterator iterator() {
+            return iterator;
+        }
+
+        /**
+         * Return the maximum score that documents between the last {@code target}
+         * that this iterator was {@link #advanceShallow(int) shallow-advanced} to
+         * included and {@code upTo} included.
+         */
+        @Override
+        public float getMaxScore(int upTo) throws IOException {
+            return Float.POSITIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Cursor over the positions of a term in the current document.
+     */
+    private static class TermPositions {
+        private final int term;
+        private PostingsEnum postings;
+        private int remaining;
+        private int position;
+
+        TermPositions(int term) {
+            this.term = term;
+        }
+
+        void reset(PostingsEnum postings) throws IOException {
+            this.postings = postings;
+            this.remaining = postings.freq();
+            next();
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            position = postings.nextPosition();
+            return true;
+        }
+    }
+
+    /**
+     * Documents containing any of the postings, queries have few terms so the postings are scanned
+     * rather than kept in a heap.
+     */
+    private static class DisjunctionIterator extends DocIdSetIterator {
+        private final PostingsEnum[] postings;
+        private final long cost;
+        private int doc = -1;
+
+        DisjunctionIterator(PostingsEnum[] postings) {
+            this.postings = postings;
+            long cost = 0;
+            for (PostingsEnum postingsEnum : postings) {
+                if (postingsEnum != null) {
+                    cost += postingsEnum.cost();
+                }
+            }
+            this.cost = cost;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            return advance(doc + 1);
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            int min = NO_MORE_DOCS;
+            for (PostingsEnum postingsEnum : postings) {
+                if (postingsEnum == null) {
+                    continue;
+                }
+                int current = postingsEnum.docID();
+                if (current < target) {
+                    current = postingsEnum.advance(target);
+                }
+                min = Math.min(min, current);
+            }
+            return doc = min;
+        }
+
+        @Override
+        public long cost() {
+            return cost;
+        }
+    }
+}
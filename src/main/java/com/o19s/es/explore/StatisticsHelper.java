@@ -15,13 +15,30 @@
  */
 package com.o19s.es.explore;
 
+import org.apache.lucene.util.ArrayUtil;
+
 import java.util.ArrayList;
 
+/**
+ * Statistics over a stream of floats.
+ *
+ * Values are stored in a primitive buffer and the statistics are computed as they are
+ * added (Welford's algorithm for the variance). The helper can be {@link #reset()} to be
+ * reused without allocating.
+ */
 public class StatisticsHelper {
-    private final ArrayList<Float> data = new ArrayList<>(10);
+    private float[] data = new float[10];
+    private int size;
 
+    private float sum = 0.0f;
     private float min = Float.MAX_VALUE;
-    private float max = 0.0f;
+    private float max = -Float.MAX_VALUE;
+    private double mean = 0.0;
+    private double m2 = 0.0;
+
+    // boxed copy of the values, only built when requested by getData()
+    private ArrayList<Float> boxed;
+    private boolean boxedStale = true;
 
     public enum AggrType {
         AVG("avg"),
@@ -47,8 +64,11 @@ public class StatisticsHelper {
     }
 
     public void add(float val) {
-        data.add(val);
+        data = ArrayUtil.grow(data, size + 1);
+        data[size++] = val;
+        boxedStale = true;
 
+        sum += val;
         if(val < this.min) {
             this.min = val;
         }
@@ -56,58 +76,89 @@ public class StatisticsHelper {
         if(val > this.max) {
             this.max = val;
         }
+
+        double delta = val - mean;
+        mean += delta / size;
+        m2 += delta * (val - mean);
+    }
+
+    /**
+     * Remove all the values, keeping the buffer for reuse.
+     */
+    public void reset() {
+        size = 0;
+        sum = 0.0f;
+        min = Float.MAX_VALUE;
+        max = -Float.MAX_VALUE;
+        mean = 0.0;
+        m2 = 0.0;
+        boxedStale = true;
     }
 
+    /**
+     * @param index the position of the value, in insertion order
+     * @return the value
+     */
+    public float get(int index) {
+        assert index < size;
+        return data[index];
+    }
+
+    /**
+     * The values as a list, built lazily the first time it is requested after a change.
+     * The list is only valid until the next call to {@link #add(float)} or {@link #reset()},
+     * changes made to the list are not reflected in the statistics.
+     */
     public ArrayList<Float> getData() {
-        return data;
+        if (boxed == null) {
+            boxed = new ArrayList<>(size);
+        }
+        if (boxedStale) {
+            boxed.clear();
+            for (int i = 0; i < size; i++) {
+                boxed.add(data[i]);
+            }
+            boxedStale = false;
+        }
+        return boxed;
     }
 
     public int getSize(){
-        return data.size();
+        return size;
     }
 
     public float getMax() {
-        assert !data.isEmpty();
+        assert size > 0;
 
         return max;
     }
 
     public float getMin() {
-        assert !data.isEmpty();
+        assert size > 0;
 
         return min;
     }
 
     public float getMean() {
-        assert !data.isEmpty();
+        assert size > 0;
 
-        return getSum() / data.size();
+        return sum / size;
     }
 
     public float getSum() {
-        assert !data.isEmpty();
-
-        float sum = 0.0f;
-
-        for(float a : data) {
-            sum += a;
-        }
+        assert size > 0;
 
         return sum;
     }
 
     public float getVariance() {
-        assert !data.isEmpty();
+        assert size > 0;
 
-        float mean = getMean();
-        float temp = 0.0f;
-        for(float a : data)
-            temp += (a-mean)*(a-mean);
-        return temp/data.size();
+        return (float) (m2 / size);
     }
 
     public float getStdDev() {
-        assert !data.isEmpty();
+        assert size > 0;
 
         return (float) Math.sqrt(getVariance());
     }
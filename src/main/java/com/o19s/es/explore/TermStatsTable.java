@@ -0,0 +1,98 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.o19s.es.explore;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermStates;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Collection statistics of a set of terms, indexed by term ordinal.
+ *
+ * Built once per weight so that scoring a document only reads postings,
+ * terms that do not exist in the index have zero statistics.
+ */
+public final class TermStatsTable {
+    private static final ClassicSimilarity SIM = new ClassicSimilarity();
+
+    private final Term[] terms;
+    private final TermStates[] termStates;
+    private final float[] docFreq;
+    private final float[] idf;
+    private final float[] totalTermFreq;
+
+    private TermStatsTable(Term[] terms, TermStates[] termStates, float[] docFreq, float[] idf, float[] totalTermFreq) {
+        this.terms = terms;
+        this.termStates = termStates;
+        this.docFreq = docFreq;
+        this.idf = idf;
+        this.totalTermFreq = totalTermFreq;
+    }
+
+    /**
+     * @param searcher the searcher, its statistics support DFS_QUERY_THEN_FETCH
+     * @param terms the terms, ordinals follow the iteration order
+     * @return the statistics of the terms
+     */
+    public static TermStatsTable build(IndexSearcher searcher, Collection<Term> terms) throws IOException {
+        Term[] termArray = terms.toArray(new Term[0]);
+        TermStates[] termStates = new TermStates[termArray.length];
+        float[] docFreq = new float[termArray.length];
+        float[] idf = new float[termArray.length];
+        float[] totalTermFreq = new float[termArray.length];
+        for (int i = 0; i < termArray.length; i++) {
+            Term term = termArray[i];
+            termStates[i] = TermStates.build(searcher, term, true);
+            if (termStates[i].docFreq() > 0) {
+                TermStatistics stats = searcher.termStatistics(term, termStates[i].docFreq(), termStates[i].totalTermFreq());
+                docFreq[i] = stats.docFreq();
+                idf[i] = SIM.idf(stats.docFreq(), searcher.collectionStatistics(term.field()).docCount());
+                totalTermFreq[i] = stats.totalTermFreq();
+            }
+        }
+        return new TermStatsTable(termArray, termStates, docFreq, idf, totalTermFreq);
+    }
+
+    public int size() {
+        return terms.length;
+    }
+
+    public Term term(int ord) {
+        return terms[ord];
+    }
+
+    public TermStates termStates(int ord) {
+        return termStates[ord];
+    }
+
+    public float docFreq(int ord) {
+        return docFreq[ord];
+    }
+
+    public float idf(int ord) {
+        return idf[ord];
+    }
+
+    public float totalTermFreq(int ord) {
+        return totalTermFreq[ord];
+    }
+}
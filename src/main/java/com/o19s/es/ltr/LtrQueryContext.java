@@ -16,6 +16,7 @@
 
 package com.o19s.es.ltr;
 
+import com.o19s.es.ltr.feature.store.FeatureQueryCache;
 import org.elasticsearch.index.query.SearchExecutionContext;
 
 import java.util.Collections;
@@ -27,14 +28,20 @@ import java.util.Set;
 public class LtrQueryContext {
     private final SearchExecutionContext queryShardContext;
     private final Set<String> activeFeatures;
+    private final FeatureQueryCache queryCache;
 
     public LtrQueryContext(SearchExecutionContext context) {
         this(context, Collections.emptySet());
     }
 
     public LtrQueryContext(SearchExecutionContext context, Set<String> activeFeatures) {
+        this(context, activeFeatures, FeatureQueryCache.NO_CACHE);
+    }
+
+    public LtrQueryContext(SearchExecutionContext context, Set<String> activeFeatures, FeatureQueryCache queryCache) {
         this.queryShardContext = context;
         this.activeFeatures = activeFeatures;
+        this.queryCache = queryCache;
     }
 
     public SearchExecutionContext getSearchExecutionContext() {
@@ -45,6 +52,10 @@ public class LtrQueryContext {
         return activeFeatures == null || activeFeatures.isEmpty() || activeFeatures.contains(featureName);
     }
 
+    public FeatureQueryCache getQueryCache() {
+        return queryCache;
+    }
+
     public Set<String> getActiveFeatures() {
         return activeFeatures==null? Collections.emptySet(): Collections.unmodifiableSet(activeFeatures);
     }
@@ -22,6 +22,7 @@ import com.o19s.es.ltr.action.AddFeaturesToSetAction;
 import com.o19s.es.ltr.action.CachesStatsAction;
 import com.o19s.es.ltr.action.ClearCachesAction;
 import com.o19s.es.ltr.action.CreateModelFromSetAction;
+import com.o19s.es.ltr.action.ExtractFeaturesAction;
 import com.o19s.es.ltr.action.FeatureStoreAction;
 import com.o19s.es.ltr.action.LTRStatsAction;
 import com.o19s.es.ltr.action.ListStoresAction;
@@ -29,18 +30,26 @@ import com.o19s.es.ltr.action.TransportAddFeatureToSetAction;
 import com.o19s.es.ltr.action.TransportCacheStatsAction;
 import com.o19s.es.ltr.action.TransportClearCachesAction;
 import com.o19s.es.ltr.action.TransportCreateModelFromSetAction;
+import com.o19s.es.ltr.action.TransportExtractFeaturesAction;
 import com.o19s.es.ltr.action.TransportFeatureStoreAction;
 import com.o19s.es.ltr.action.TransportLTRStatsAction;
 import com.o19s.es.ltr.action.TransportListStoresAction;
+import com.o19s.es.ltr.action.TransportWarmupAction;
+import com.o19s.es.ltr.action.WarmupAction;
 import com.o19s.es.ltr.feature.store.StorableElement;
 import com.o19s.es.ltr.feature.store.StoredFeature;
 import com.o19s.es.ltr.feature.store.StoredFeatureSet;
 import com.o19s.es.ltr.feature.store.StoredLtrModel;
+import com.o19s.es.ltr.feature.store.index.CacheWarmer;
 import com.o19s.es.ltr.feature.store.index.CachedFeatureStore;
 import com.o19s.es.ltr.feature.store.index.Caches;
 import com.o19s.es.ltr.feature.store.index.IndexFeatureStore;
+import com.o19s.es.ltr.logging.FeatureLog;
 import com.o19s.es.ltr.logging.LoggingFetchSubPhase;
 import com.o19s.es.ltr.logging.LoggingSearchExtBuilder;
+import com.o19s.es.ltr.query.FeatureScoreCache;
+import com.o19s.es.ltr.query.FeatureScoreCacheListener;
+import com.o19s.es.ltr.query.FeatureScoreCaches;
 import com.o19s.es.ltr.query.LtrQueryBuilder;
 import com.o19s.es.ltr.query.StoredLtrQueryBuilder;
 import com.o19s.es.ltr.query.ValidatingLtrQueryBuilder;
@@ -50,13 +59,16 @@ import com.o19s.es.ltr.ranker.parser.XGBoostJsonParser;
 import com.o19s.es.ltr.ranker.parser.XGBoostRawJsonParser;
 import com.o19s.es.ltr.ranker.ranklib.RankLibScriptEngine;
 import com.o19s.es.ltr.ranker.ranklib.RanklibModelParser;
+import com.o19s.es.ltr.rescore.LtrRescorerBuilder;
 import com.o19s.es.ltr.rest.RestCreateModelFromSet;
+import com.o19s.es.ltr.rest.RestExtractFeatures;
 import com.o19s.es.ltr.rest.RestFeatureManager;
 import com.o19s.es.ltr.rest.RestSearchStoreElements;
 import com.o19s.es.ltr.rest.RestStoreManager;
 import com.o19s.es.ltr.rest.RestAddFeatureToSet;
 import com.o19s.es.ltr.rest.RestFeatureStoreCaches;
 import com.o19s.es.ltr.rest.RestLTRStats;
+import com.o19s.es.ltr.rest.RestWarmup;
 import com.o19s.es.ltr.stats.LTRStat;
 import com.o19s.es.ltr.stats.LTRStats;
 import com.o19s.es.ltr.stats.StatName;
@@ -79,6 +91,8 @@ import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.core.CheckedFunction;
 import org.elasticsearch.features.NodeFeature;
 import org.elasticsearch.xcontent.ParseField;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.io.stream.GenericNamedWriteable;
 import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
 import org.elasticsearch.common.io.stream.NamedWriteableRegistry.Entry;
 import org.elasticsearch.common.settings.ClusterSettings;
@@ -86,13 +100,18 @@ import org.elasticsearch.common.settings.IndexScopedSettings;
 import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.core.TimeValue;
 import org.elasticsearch.xcontent.NamedXContentRegistry;
 import org.elasticsearch.xcontent.XContentParser;
 import org.elasticsearch.index.Index;
+import org.elasticsearch.index.IndexModule;
 import org.elasticsearch.index.analysis.PreConfiguredTokenFilter;
 import org.elasticsearch.index.analysis.PreConfiguredTokenizer;
+import org.elasticsearch.indices.breaker.BreakerSettings;
 import org.elasticsearch.plugins.ActionPlugin;
 import org.elasticsearch.plugins.AnalysisPlugin;
+import org.elasticsearch.plugins.CircuitBreakerPlugin;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.plugins.ScriptPlugin;
 import org.elasticsearch.plugins.SearchPlugin;
@@ -101,6 +120,8 @@ import org.elasticsearch.rest.RestHandler;
 import org.elasticsearch.script.ScriptContext;
 import org.elasticsearch.script.ScriptEngine;
 import org.elasticsearch.search.fetch.FetchSubPhase;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.ScalingExecutorBuilder;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -118,7 +139,8 @@ import static java.util.Collections.singletonList;
 import static java.util.Collections.unmodifiableList;
 import static java.util.Collections.unmodifiableMap;
 
-public class LtrQueryParserPlugin extends Plugin implements SearchPlugin, ScriptPlugin, ActionPlugin, AnalysisPlugin {
+public class LtrQueryParserPlugin extends Plugin
+        implements SearchPlugin, ScriptPlugin, ActionPlugin, AnalysisPlugin, CircuitBreakerPlugin {
     private final LtrRankerParserFactory parserFactory;
     private final Caches caches;
 
@@ -149,6 +171,12 @@ public class LtrQueryParserPlugin extends Plugin implements SearchPlugin, Script
                         (ctx) -> ValidatingLtrQueryBuilder.fromXContent(ctx, parserFactory)));
     }
 
+    @Override
+    public List<RescorerSpec<?>> getRescorers() {
+        return singletonList(
+                new RescorerSpec<>(LtrRescorerBuilder.NAME, LtrRescorerBuilder::new, LtrRescorerBuilder::fromXContent));
+    }
+
     @Override
     public List<FetchSubPhase> getFetchSubPhases(FetchPhaseConstructionContext context) {
         return singletonList(new LoggingFetchSubPhase());
@@ -187,6 +215,8 @@ public class LtrQueryParserPlugin extends Plugin implements SearchPlugin, Script
         list.add(new RestCreateModelFromSet());
         list.add(new RestAddFeatureToSet());
         list.add(new RestLTRStats());
+        list.add(new RestExtractFeatures());
+        list.add(new RestWarmup());
         return unmodifiableList(list);
     }
 
@@ -199,7 +229,9 @@ public class LtrQueryParserPlugin extends Plugin implements SearchPlugin, Script
                 new ActionHandler<>(AddFeaturesToSetAction.INSTANCE, TransportAddFeatureToSetAction.class),
                 new ActionHandler<>(CreateModelFromSetAction.INSTANCE, TransportCreateModelFromSetAction.class),
                 new ActionHandler<>(ListStoresAction.INSTANCE, TransportListStoresAction.class),
-                new ActionHandler<>(LTRStatsAction.INSTANCE, TransportLTRStatsAction.class)));
+                new ActionHandler<>(LTRStatsAction.INSTANCE, TransportLTRStatsAction.class),
+                new ActionHandler<>(ExtractFeaturesAction.INSTANCE, TransportExtractFeaturesAction.class),
+                new ActionHandler<>(WarmupAction.INSTANCE, TransportWarmupAction.class)));
     }
 
     @Override
@@ -207,7 +239,8 @@ public class LtrQueryParserPlugin extends Plugin implements SearchPlugin, Script
         return unmodifiableList(asList(
                 new Entry(StorableElement.class, StoredFeature.TYPE, StoredFeature::new),
                 new Entry(StorableElement.class, StoredFeatureSet.TYPE, StoredFeatureSet::new),
-                new Entry(StorableElement.class, StoredLtrModel.TYPE, StoredLtrModel::new)
+                new Entry(StorableElement.class, StoredLtrModel.TYPE, StoredLtrModel::new),
+                new Entry(GenericNamedWriteable.class, FeatureLog.NAME, FeatureLog::new)
         ));
     }
 
@@ -232,13 +265,40 @@ public class LtrQueryParserPlugin extends Plugin implements SearchPlugin, Script
         ));
     }
 
+    @Override
+    public List<ExecutorBuilder<?>> getExecutorBuilders(Settings settings) {
+        // parsing and compiling models is CPU bound, keep it off the search and transport threads
+        int maxThreads = Math.max(1, EsExecutors.allocatedProcessors(settings) / 2);
+        return singletonList(new ScalingExecutorBuilder(IndexFeatureStore.LOADING_THREAD_POOL, 0, maxThreads,
+                TimeValue.timeValueMinutes(5), false));
+    }
+
     @Override
     public List<Setting<?>> getSettings() {
         return unmodifiableList(asList(
                 IndexFeatureStore.STORE_VERSION_PROP,
                 Caches.LTR_CACHE_MEM_SETTING,
                 Caches.LTR_CACHE_EXPIRE_AFTER_READ,
-                Caches.LTR_CACHE_EXPIRE_AFTER_WRITE));
+                Caches.LTR_CACHE_EXPIRE_AFTER_WRITE,
+                Caches.LTR_CACHE_REFRESH_AFTER_WRITE,
+                Caches.LTR_CACHE_MAX_OFF_HEAP,
+                CacheWarmer.LTR_CACHE_WARMUP_MODELS,
+                FeatureScoreCache.LTR_FEATURE_SCORE_CACHE_MAX_DOCS));
+    }
+
+    @Override
+    public void onIndexModule(IndexModule indexModule) {
+        indexModule.addSearchOperationListener(new FeatureScoreCacheListener(caches.featureScoreCaches()));
+    }
+
+    @Override
+    public BreakerSettings getCircuitBreaker(Settings settings) {
+        return FeatureScoreCaches.breakerSettings(settings);
+    }
+
+    @Override
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        caches.featureScoreCaches().setCircuitBreaker(circuitBreaker);
     }
 
     @Override
@@ -251,9 +311,14 @@ public class LtrQueryParserPlugin extends Plugin implements SearchPlugin, Script
             }
         });
 
+        CacheWarmer warmer = new CacheWarmer(services.environment().settings(), caches, parserFactory, services.client());
+        if (!warmer.configuredModels().isEmpty()) {
+            services.clusterService().addListener(warmer);
+        }
+
         Scripting.initScriptService(services.scriptService());
 
-        return asList(caches, parserFactory,
+        return asList(caches, parserFactory, warmer,
             getStats(services.client(), services.clusterService(), services.indexNameExpressionResolver()));
     }
 
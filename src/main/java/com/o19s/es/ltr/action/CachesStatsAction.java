@@ -37,6 +37,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class CachesStatsAction extends ActionType<CachesStatsNodesResponse> {
     public static final String NAME = "cluster:admin/ltr/caches/stats";
@@ -160,6 +161,7 @@ public class CachesStatsAction extends ActionType<CachesStatsNodesResponse> {
         private Stat features;
         private Stat featuresets;
         private Stat models;
+        private RefreshStat refresh;
 
         StatDetails() {
             empty();
@@ -170,6 +172,7 @@ public class CachesStatsAction extends ActionType<CachesStatsNodesResponse> {
             features = new Stat(stats.featureRam(), stats.featureCount());
             featuresets = new Stat(stats.featureSetRam(), stats.featureSetCount());
             models = new Stat(stats.modelRam(), stats.modelCount());
+            refresh = new RefreshStat(stats.refreshCount(), stats.refreshFailures(), stats.refreshTimeNanos());
         }
 
         StatDetails(StreamInput in) throws IOException {
@@ -181,6 +184,7 @@ public class CachesStatsAction extends ActionType<CachesStatsNodesResponse> {
             features = new Stat(in);
             featuresets = new Stat(in);
             models = new Stat(in);
+            refresh = new RefreshStat(in);
         }
 
         @Override
@@ -189,6 +193,7 @@ public class CachesStatsAction extends ActionType<CachesStatsNodesResponse> {
             features.writeTo(out);
             featuresets.writeTo(out);
             models.writeTo(out);
+            refresh.writeTo(out);
         }
 
         public void empty() {
@@ -196,6 +201,7 @@ public class CachesStatsAction extends ActionType<CachesStatsNodesResponse> {
             features = new Stat(0, 0);
             featuresets = new Stat(0, 0);
             models = new Stat(0, 0);
+            refresh = new RefreshStat(0, 0, 0);
         }
 
         public static StatDetails sum(StatDetails one, StatDetails two) {
@@ -215,6 +221,7 @@ public class CachesStatsAction extends ActionType<CachesStatsNodesResponse> {
             features.sum(other.features);
             featuresets.sum(other.featuresets);
             models.sum(other.models);
+            refresh.sum(other.refresh);
         }
 
         @Override
@@ -224,6 +231,7 @@ public class CachesStatsAction extends ActionType<CachesStatsNodesResponse> {
                     .field("features", features)
                     .field("featuresets", featuresets)
                     .field("models", models)
+                    .field("refresh", refresh)
                     .endObject();
         }
 
@@ -243,6 +251,10 @@ public class CachesStatsAction extends ActionType<CachesStatsNodesResponse> {
             return models;
         }
 
+        public RefreshStat getRefresh() {
+            return refresh;
+        }
+
         public static class Stat implements Writeable, ToXContent {
             private long ram;
             private int count;
@@ -284,6 +296,61 @@ public class CachesStatsAction extends ActionType<CachesStatsNodesResponse> {
                         .endObject();
             }
         }
+
+        /**
+         * Background rebuilds of the cached models, see {@link Caches#LTR_CACHE_REFRESH_AFTER_WRITE}
+         */
+        public static class RefreshStat implements Writeable, ToXContent {
+            private long count;
+            private long failures;
+            private long timeNanos;
+
+            public RefreshStat(StreamInput in) throws IOException {
+                count = in.readVLong();
+                failures = in.readVLong();
+                timeNanos = in.readVLong();
+            }
+
+            public RefreshStat(long count, long failures, long timeNanos) {
+                this.count = count;
+                this.failures = failures;
+                this.timeNanos = timeNanos;
+            }
+
+            public void sum(RefreshStat other) {
+                count += other.count;
+                failures += other.failures;
+                timeNanos += other.timeNanos;
+            }
+
+            public long getCount() {
+                return count;
+            }
+
+            public long getFailures() {
+                return failures;
+            }
+
+            public long getTimeNanos() {
+                return timeNanos;
+            }
+
+            @Override
+            public void writeTo(StreamOutput out) throws IOException {
+                out.writeVLong(count);
+                out.writeVLong(failures);
+                out.writeVLong(timeNanos);
+            }
+
+            @Override
+            public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+                return builder.startObject()
+                        .field("count", count)
+                        .field("failures", failures)
+                        .field("time_in_millis", TimeUnit.NANOSECONDS.toMillis(timeNanos))
+                        .endObject();
+            }
+        }
     }
 
     public static class CachesStatsActionBuilder extends
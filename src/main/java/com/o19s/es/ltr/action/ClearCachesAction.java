@@ -54,12 +54,13 @@ public class ClearCachesAction extends ActionType<ClearCachesNodesResponse> {
         private String store;
         private Operation operation;
         private String name;
-
+        private long seqNo = -1;
 
         public ClearCachesNodesRequest(StreamInput in) throws IOException {
             store = in.readString();
             operation = Operation.values()[in.readVInt()];
             name = in.readOptionalString();
+            seqNo = in.readZLong();
         }
 
         public ClearCachesNodesRequest() {
@@ -110,6 +111,7 @@ public class ClearCachesAction extends ActionType<ClearCachesNodesResponse> {
             out.writeString(store);
             out.writeVInt(operation.ordinal());
             out.writeOptionalString(name);
+            out.writeZLong(seqNo);
         }
 
         public enum Operation {
@@ -130,6 +132,21 @@ public class ClearCachesAction extends ActionType<ClearCachesNodesResponse> {
         public String getName() {
             return name;
         }
+
+        /**
+         * @return the sequence number of the store document change that made the cached element stale, -1 if unknown
+         */
+        public long getSeqNo() {
+            return seqNo;
+        }
+
+        /**
+         * Set the sequence number of the store document written or deleted, nodes that already
+         * cached the element from this change keep it.
+         */
+        public void setSeqNo(long seqNo) {
+            this.seqNo = seqNo;
+        }
     }
 
     public static class ClearCachesNodesResponse extends BaseNodesResponse<ClearCachesNodeResponse> {
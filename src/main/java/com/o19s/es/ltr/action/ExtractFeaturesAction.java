@@ -0,0 +1,343 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.action;
+
+import com.o19s.es.ltr.action.ExtractFeaturesAction.ExtractFeaturesResponse;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.ActionType;
+import org.elasticsearch.client.internal.ElasticsearchClient;
+import org.elasticsearch.common.collect.Iterators;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.xcontent.ChunkedToXContentHelper;
+import org.elasticsearch.common.xcontent.ChunkedToXContentObject;
+import org.elasticsearch.xcontent.ToXContent;
+import org.elasticsearch.xcontent.ToXContentObject;
+import org.elasticsearch.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+public class ExtractFeaturesAction extends ActionType<ExtractFeaturesResponse> {
+    public static final String NAME = "cluster:admin/ltr/featureset/extract";
+    public static final ExtractFeaturesAction INSTANCE = new ExtractFeaturesAction();
+
+    protected ExtractFeaturesAction() {
+        super(NAME);
+    }
+
+    public static class ExtractFeaturesRequestBuilder extends ActionRequestBuilder<ExtractFeaturesRequest, ExtractFeaturesResponse> {
+        public ExtractFeaturesRequestBuilder(ElasticsearchClient client) {
+            super(client, INSTANCE, new ExtractFeaturesRequest());
+        }
+
+        public ExtractFeaturesRequestBuilder featureSet(String store, String featureSet) {
+            request.store = store;
+            request.featureSet = featureSet;
+            return this;
+        }
+
+        public ExtractFeaturesRequestBuilder index(String index) {
+            request.index = index;
+            return this;
+        }
+
+        public ExtractFeaturesRequestBuilder addQuery(Map<String, Object> params, List<String> ids) {
+            request.queries.add(new QueryGroup(params, ids));
+            return this;
+        }
+    }
+
+    /**
+     * Extract the features of a feature set for groups of docs, the docs of a group are
+     * all scored with the same query params.
+     */
+    public static class ExtractFeaturesRequest extends ActionRequest {
+        private String store;
+        private String featureSet;
+        private String index;
+        private List<QueryGroup> queries = new ArrayList<>();
+
+        public ExtractFeaturesRequest() {
+        }
+
+        public ExtractFeaturesRequest(StreamInput in) throws IOException {
+            super(in);
+            store = in.readString();
+            featureSet = in.readString();
+            index = in.readString();
+            queries = in.readCollectionAsList(QueryGroup::new);
+        }
+
+        @Override
+        public ActionRequestValidationException validate() {
+            ActionRequestValidationException arve = null;
+            if (store == null) {
+                arve = addValidationError("store must be set", null);
+            }
+            if (featureSet == null) {
+                arve = addValidationError("featureSet must be set", arve);
+            }
+            if (index == null) {
+                arve = addValidationError("index must be set", arve);
+            }
+            if (queries.isEmpty()) {
+                arve = addValidationError("at least one query must be provided", arve);
+            }
+            for (int i = 0; i < queries.size(); i++) {
+                if (queries.get(i).ids.isEmpty()) {
+                    arve = addValidationError("query [" + i + "] must provide at least one doc id", arve);
+                }
+            }
+            return arve;
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeString(store);
+            out.writeString(featureSet);
+            out.writeString(index);
+            out.writeCollection(queries);
+        }
+
+        public String getStore() {
+            return store;
+        }
+
+        public void setStore(String store) {
+            this.store = store;
+        }
+
+        public String getFeatureSet() {
+            return featureSet;
+        }
+
+        public void setFeatureSet(String featureSet) {
+            this.featureSet = featureSet;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        public void setIndex(String index) {
+            this.index = index;
+        }
+
+        public List<QueryGroup> getQueries() {
+            return queries;
+        }
+
+        public void setQueries(List<QueryGroup> queries) {
+            this.queries = Objects.requireNonNull(queries);
+        }
+    }
+
+    /**
+     * The query params and the ids of the docs to extract the features from.
+     */
+    public static class QueryGroup implements Writeable {
+        private final Map<String, Object> params;
+        private final List<String> ids;
+
+        public QueryGroup(Map<String, Object> params, List<String> ids) {
+            this.params = params == null ? Collections.emptyMap() : params;
+            this.ids = Objects.requireNonNull(ids);
+        }
+
+        public QueryGroup(StreamInput in) throws IOException {
+            params = in.readGenericMap();
+            ids = in.readStringCollectionAsList();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeGenericMap(params);
+            out.writeStringCollection(ids);
+        }
+
+        public Map<String, Object> getParams() {
+            return params;
+        }
+
+        public List<String> getIds() {
+            return ids;
+        }
+    }
+
+    /**
+     * The feature names are rendered once and followed by one chunk per query group, the
+     * results of all the groups are held in memory until the response is sent:
+     * <pre>
+     * {
+     *     "features": ["feature1", "feature2"],
+     *     "queries": [
+     *         { "hits": [ { "_id": "doc1", "values": [ 1.2, null ] } ] },
+     *         { "error": "failure reason" }
+     *     ]
+     * }
+     * </pre>
+     * Features that did not match are rendered as null.
+     */
+    public static class ExtractFeaturesResponse extends ActionResponse implements ChunkedToXContentObject {
+        private final String[] features;
+        private final List<QueryResult> queries;
+
+        public ExtractFeaturesResponse(String[] features, List<QueryResult> queries) {
+            this.features = Objects.requireNonNull(features);
+            this.queries = Objects.requireNonNull(queries);
+        }
+
+        public ExtractFeaturesResponse(StreamInput in) throws IOException {
+            super(in);
+            features = in.readStringArray();
+            queries = in.readCollectionAsList(QueryResult::new);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeStringArray(features);
+            out.writeCollection(queries);
+        }
+
+        @Override
+        public Iterator<? extends ToXContent> toXContentChunked(ToXContent.Params params) {
+            return Iterators.concat(
+                    ChunkedToXContentHelper.startObject(),
+                    ChunkedToXContentHelper.chunk((b, p) -> b.array("features", features)),
+                    ChunkedToXContentHelper.startArray("queries"),
+                    queries.iterator(),
+                    ChunkedToXContentHelper.endArray(),
+                    ChunkedToXContentHelper.endObject());
+        }
+
+        public String[] getFeatures() {
+            return features;
+        }
+
+        public List<QueryResult> getQueries() {
+            return queries;
+        }
+    }
+
+    /**
+     * The features extracted for a query group, values are stored in a single array
+     * holding the values of the first hit followed by the values of the next hits.
+     */
+    public static class QueryResult implements Writeable, ToXContentObject {
+        private final List<String> ids;
+        private final float[] values;
+        private final String failure;
+
+        public QueryResult(List<String> ids, float[] values) {
+            this.ids = Objects.requireNonNull(ids);
+            this.values = Objects.requireNonNull(values);
+            this.failure = null;
+        }
+
+        public QueryResult(String failure) {
+            this.ids = Collections.emptyList();
+            this.values = new float[0];
+            this.failure = Objects.requireNonNull(failure);
+        }
+
+        public QueryResult(StreamInput in) throws IOException {
+            ids = in.readStringCollectionAsList();
+            values = in.readFloatArray();
+            failure = in.readOptionalString();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeStringCollection(ids);
+            out.writeFloatArray(values);
+            out.writeOptionalString(failure);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            if (failure != null) {
+                builder.field("error", failure);
+                return builder.endObject();
+            }
+            builder.startArray("hits");
+            int numFeatures = ids.isEmpty() ? 0 : values.length / ids.size();
+            for (int i = 0; i < ids.size(); i++) {
+                builder.startObject();
+                builder.field("_id", ids.get(i));
+                builder.startArray("values");
+                for (int j = i * numFeatures; j < (i + 1) * numFeatures; j++) {
+                    if (Float.isNaN(values[j])) {
+                        builder.nullValue();
+                    } else {
+                        builder.value(values[j]);
+                    }
+                }
+                builder.endArray();
+                builder.endObject();
+            }
+            builder.endArray();
+            return builder.endObject();
+        }
+
+        public List<String> getIds() {
+            return ids;
+        }
+
+        /**
+         * @param hit the position of the hit in {@link #getIds()}
+         * @param numFeatures the number of features of the feature set
+         * @return the feature values of the hit, NaN for the features that did not match
+         */
+        public float[] getValues(int hit, int numFeatures) {
+            return Arrays.copyOfRange(values, hit * numFeatures, (hit + 1) * numFeatures);
+        }
+
+        public String getFailure() {
+            return failure;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            QueryResult that = (QueryResult) o;
+            return ids.equals(that.ids) &&
+                    Arrays.equals(values, that.values) &&
+                    Objects.equals(failure, that.failure);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(ids, Arrays.hashCode(values), failure);
+        }
+    }
+}
@@ -76,13 +76,13 @@ public class TransportClearCachesAction extends TransportNodesAction<ClearCaches
             caches.evict(r.getStore());
             break;
         case ClearFeature:
-            caches.evictFeature(r.getStore(), r.getName());
+            caches.evictFeature(r.getStore(), r.getName(), r.getSeqNo());
             break;
         case ClearFeatureSet:
-            caches.evictFeatureSet(r.getStore(), r.getName());
+            caches.evictFeatureSet(r.getStore(), r.getName(), r.getSeqNo());
             break;
         case ClearModel:
-            caches.evictModel(r.getStore(), r.getName());
+            caches.evictModel(r.getStore(), r.getName(), r.getSeqNo());
             break;
         default:
             throw new RuntimeException("Unsupported operation [" + r.getOperation() + "]");
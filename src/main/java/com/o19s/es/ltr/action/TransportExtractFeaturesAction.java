@@ -0,0 +1,165 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.action;
+
+import com.o19s.es.ltr.action.ExtractFeaturesAction.ExtractFeaturesRequest;
+import com.o19s.es.ltr.action.ExtractFeaturesAction.ExtractFeaturesResponse;
+import com.o19s.es.ltr.action.ExtractFeaturesAction.QueryGroup;
+import com.o19s.es.ltr.action.ExtractFeaturesAction.QueryResult;
+import com.o19s.es.ltr.feature.store.index.CachedFeatureStore;
+import com.o19s.es.ltr.feature.store.index.Caches;
+import com.o19s.es.ltr.feature.store.index.IndexFeatureStore;
+import com.o19s.es.ltr.logging.FeatureLog;
+import com.o19s.es.ltr.logging.LoggingSearchExtBuilder;
+import com.o19s.es.ltr.query.StoredLtrQueryBuilder;
+import com.o19s.es.ltr.ranker.parser.LtrRankerParserFactory;
+import com.o19s.es.ltr.utils.FeatureStoreLoader;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.HandledTransportAction;
+import org.elasticsearch.client.internal.Client;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.injection.guice.Inject;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.transport.TransportService;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Collections.singletonList;
+import static org.elasticsearch.index.query.QueryBuilders.boolQuery;
+import static org.elasticsearch.index.query.QueryBuilders.idsQuery;
+
+/**
+ * Extract the features of a judgment list.
+ *
+ * Every query group is sent as a search of a single multi search request: the docs
+ * of the group are selected with an ids filter and the feature set query is logged
+ * with a compact log. Shards therefore build the feature queries and their weights
+ * once per group instead of once per doc.
+ *
+ * The response is only built once every search of the multi search completed, the
+ * results of all the groups are therefore held in memory: large judgment lists should
+ * be split across several requests.
+ */
+public class TransportExtractFeaturesAction extends HandledTransportAction<ExtractFeaturesRequest, ExtractFeaturesResponse> {
+    private static final String LOG_NAME = "_extract";
+    private static final String LOG_FIELD = "_ltrlog";
+
+    private final ClusterService clusterService;
+    private final Client client;
+    private final FeatureStoreLoader storeLoader;
+
+    @Inject
+    public TransportExtractFeaturesAction(TransportService transportService, ActionFilters actionFilters,
+                                          ClusterService clusterService, Client client,
+                                          Caches caches, LtrRankerParserFactory factory) {
+        super(ExtractFeaturesAction.NAME, transportService, actionFilters,
+            ExtractFeaturesRequest::new, EsExecutors.DIRECT_EXECUTOR_SERVICE);
+        this.clusterService = clusterService;
+        this.client = client;
+        this.storeLoader = (storeName, clientSupplier) ->
+            new CachedFeatureStore(new IndexFeatureStore(storeName, clientSupplier, factory), caches);
+    }
+
+    @Override
+    protected void doExecute(Task task, ExtractFeaturesRequest request, ActionListener<ExtractFeaturesResponse> listener) {
+        if (!clusterService.state().routingTable().hasIndex(request.getStore())) {
+            throw new IllegalArgumentException("Store [" + request.getStore() + "] does not exist, please create it first.");
+        }
+        MultiSearchRequest multiSearch = new MultiSearchRequest();
+        for (QueryGroup group : request.getQueries()) {
+            multiSearch.add(buildSearchRequest(request, group));
+        }
+        multiSearch.setParentTask(clusterService.localNode().getId(), task.getId());
+        client.multiSearch(multiSearch, listener.map(TransportExtractFeaturesAction::toResponse));
+    }
+
+    private SearchRequest buildSearchRequest(ExtractFeaturesRequest request, QueryGroup group) {
+        StoredLtrQueryBuilder features = new StoredLtrQueryBuilder(storeLoader)
+                .featureSetName(request.getFeatureSet())
+                .params(group.getParams());
+        if (!IndexFeatureStore.DEFAULT_STORE.equals(request.getStore())) {
+            features.storeName(IndexFeatureStore.storeName(request.getStore()));
+        }
+        features.queryName(LOG_NAME);
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(boolQuery()
+                        .filter(idsQuery().addIds(group.getIds().toArray(new String[0])))
+                        .should(features))
+                .size(group.getIds().size())
+                .fetchSource(false)
+                .trackTotalHits(false)
+                .ext(singletonList(new LoggingSearchExtBuilder().addQueryLogging(LOG_NAME, LOG_NAME, false, true)));
+        return new SearchRequest(request.getIndex()).source(source);
+    }
+
+    static ExtractFeaturesResponse toResponse(MultiSearchResponse responses) {
+        String[] features = null;
+        List<QueryResult> results = new ArrayList<>(responses.getResponses().length);
+        for (MultiSearchResponse.Item item : responses.getResponses()) {
+            if (item.isFailure()) {
+                results.add(new QueryResult(item.getFailureMessage()));
+                continue;
+            }
+            SearchHits hits = item.getResponse().getHits();
+            List<String> ids = new ArrayList<>(hits.getHits().length);
+            float[] values = null;
+            for (SearchHit hit : hits.getHits()) {
+                FeatureLog log = featureLog(hit);
+                if (features == null) {
+                    features = names(log);
+                }
+                if (values == null) {
+                    values = new float[hits.getHits().length * log.size()];
+                }
+                int offset = ids.size() * log.size();
+                for (int i = 0; i < log.size(); i++) {
+                    values[offset + i] = log.value(i);
+                }
+                ids.add(hit.getId());
+            }
+            results.add(new QueryResult(ids, values == null ? new float[0] : values));
+        }
+        return new ExtractFeaturesResponse(features == null ? new String[0] : features, results);
+    }
+
+    private static FeatureLog featureLog(SearchHit hit) {
+        DocumentField field = hit.field(LOG_FIELD);
+        if (field == null) {
+            throw new IllegalStateException("No features logged for doc [" + hit.getId() + "]");
+        }
+        Map<String, Object> logs = field.getValue();
+        return (FeatureLog) logs.get(LOG_NAME);
+    }
+
+    private static String[] names(FeatureLog log) {
+        String[] names = new String[log.size()];
+        Arrays.setAll(names, log::name);
+        return names;
+    }
+}
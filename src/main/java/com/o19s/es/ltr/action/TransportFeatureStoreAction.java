@@ -118,12 +118,14 @@ public class TransportFeatureStoreAction extends HandledTransportAction<FeatureS
 
     /**
      * Will throw an exception if it fails.
+     * Models are stored with their compiled form so that nodes do not parse their definition.
      */
     private void precheck(FeatureStoreRequest request) {
         if (request.getStorableElement() instanceof StoredLtrModel) {
             StoredLtrModel model = (StoredLtrModel) request.getStorableElement();
             try {
-                model.compile(factory);
+                // parses and compiles the model once
+                request.setStorableElement(model.withCompiledArtifact(factory));
             } catch (Exception e) {
                 throw new IllegalArgumentException("Error while parsing model [" + model.name() + "]" +
                         " with type [" + model.rankingModelType() + "]", e);
@@ -184,10 +186,14 @@ public class TransportFeatureStoreAction extends HandledTransportAction<FeatureS
                     (r) -> {
                         // Run and forget, log only if something bad happens
                         // but don't wait for the action to be done nor set the parent task.
-                        clearCachesNodesRequest.ifPresent((req) -> clearCachesAction.execute(task, req, wrap(
-                                (r2) -> {
-                                },
-                                (e) -> logger.error("Failed to clear cache", e))));
+                        clearCachesNodesRequest.ifPresent((req) -> {
+                            // nodes that already loaded the element from this change keep their entry
+                            req.setSeqNo(r.getSeqNo());
+                            clearCachesAction.execute(task, req, wrap(
+                                    (r2) -> {
+                                    },
+                                    (e) -> logger.error("Failed to clear cache", e)));
+                        });
                         listener.onResponse(new FeatureStoreResponse(r));
                     },
                     listener::onFailure));
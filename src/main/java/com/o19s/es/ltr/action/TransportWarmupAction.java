@@ -0,0 +1,116 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.action;
+
+import com.o19s.es.ltr.action.WarmupAction.WarmupNodeResponse;
+import com.o19s.es.ltr.action.WarmupAction.WarmupNodesRequest;
+import com.o19s.es.ltr.action.WarmupAction.WarmupNodesResponse;
+import com.o19s.es.ltr.feature.store.index.CacheWarmer;
+import com.o19s.es.ltr.feature.store.index.CacheWarmer.ModelRef;
+import com.o19s.es.ltr.feature.store.index.IndexFeatureStore;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.injection.guice.Inject;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportRequest;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class TransportWarmupAction extends TransportNodesAction<WarmupNodesRequest, WarmupNodesResponse,
+        TransportWarmupAction.WarmupNodeRequest, WarmupNodeResponse, Void> {
+    private final CacheWarmer warmer;
+
+    @Inject
+    public TransportWarmupAction(ThreadPool threadPool, ClusterService clusterService, TransportService transportService,
+                                 ActionFilters actionFilters, CacheWarmer warmer) {
+        super(WarmupAction.NAME, clusterService, transportService, actionFilters,
+                WarmupNodeRequest::new, threadPool.executor(ThreadPool.Names.MANAGEMENT));
+        this.warmer = warmer;
+    }
+
+    @Override
+    protected WarmupNodesResponse newResponse(WarmupNodesRequest request, List<WarmupNodeResponse> responses,
+                                              List<FailedNodeException> failures) {
+        return new WarmupNodesResponse(clusterService.getClusterName(), responses, failures);
+    }
+
+    @Override
+    protected WarmupNodeRequest newNodeRequest(WarmupNodesRequest request) {
+        return new WarmupNodeRequest(request);
+    }
+
+    @Override
+    protected WarmupNodeResponse newNodeResponse(StreamInput in, DiscoveryNode node) throws IOException {
+        return new WarmupNodeResponse(in);
+    }
+
+    @Override
+    protected WarmupNodeResponse nodeOperation(WarmupNodeRequest request, Task task) {
+        throw new UnsupportedOperationException("the models are loaded asynchronously");
+    }
+
+    @Override
+    protected void nodeOperationAsync(WarmupNodeRequest request, Task task, ActionListener<WarmupNodeResponse> listener) {
+        long start = System.nanoTime();
+        warmer.warmup(resolveModels(request.request), listener.map((results) ->
+                new WarmupNodeResponse(clusterService.localNode(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                        new ArrayList<>(results))));
+    }
+
+    private List<ModelRef> resolveModels(WarmupNodesRequest request) {
+        if (request.getModels().isEmpty()) {
+            return warmer.configuredModels().stream()
+                    .filter((m) -> request.getStore() == null || m.getStore().equals(request.getStore()))
+                    .collect(Collectors.toList());
+        }
+        String store = request.getStore() != null ? request.getStore() : IndexFeatureStore.DEFAULT_STORE;
+        return request.getModels().stream()
+                .map((name) -> new ModelRef(store, name))
+                .collect(Collectors.toList());
+    }
+
+    public static class WarmupNodeRequest extends TransportRequest {
+        private final WarmupNodesRequest request;
+
+        public WarmupNodeRequest(WarmupNodesRequest request) {
+            this.request = request;
+        }
+
+        WarmupNodeRequest(StreamInput in) throws IOException {
+            super(in);
+            request = new WarmupNodesRequest(in);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            request.writeToStream(out);
+        }
+    }
+}
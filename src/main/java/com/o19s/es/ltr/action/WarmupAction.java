@@ -0,0 +1,169 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.action;
+
+import com.o19s.es.ltr.action.WarmupAction.WarmupNodesResponse;
+import com.o19s.es.ltr.feature.store.index.CacheWarmer;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionType;
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+import org.elasticsearch.action.support.nodes.BaseNodesResponse;
+import org.elasticsearch.client.internal.ElasticsearchClient;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.xcontent.ToXContent;
+import org.elasticsearch.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Load and compile models in the caches of every node.
+ */
+public class WarmupAction extends ActionType<WarmupNodesResponse> {
+    public static final String NAME = "cluster:admin/ltr/caches/warmup";
+    public static final WarmupAction INSTANCE = new WarmupAction();
+
+    private WarmupAction() {
+        super(NAME);
+    }
+
+    public static class WarmupRequestBuilder extends ActionRequestBuilder<WarmupNodesRequest, WarmupNodesResponse> {
+        public WarmupRequestBuilder(ElasticsearchClient client) {
+            super(client, INSTANCE, new WarmupNodesRequest());
+        }
+
+        public WarmupRequestBuilder models(String store, List<String> models) {
+            request.setStore(store);
+            request.setModels(models);
+            return this;
+        }
+    }
+
+    public static class WarmupNodesRequest extends BaseNodesRequest {
+        private String store;
+        private List<String> models = Collections.emptyList();
+
+        public WarmupNodesRequest() {
+            super((String[]) null);
+        }
+
+        WarmupNodesRequest(StreamInput in) throws IOException {
+            super((String[]) null);
+            store = in.readOptionalString();
+            models = in.readStringCollectionAsList();
+        }
+
+        void writeToStream(StreamOutput out) throws IOException {
+            out.writeOptionalString(store);
+            out.writeStringCollection(models);
+        }
+
+        /**
+         * @return the store index name, or null for the default store or the stores of the node settings
+         */
+        public String getStore() {
+            return store;
+        }
+
+        public void setStore(String store) {
+            this.store = store;
+        }
+
+        /**
+         * @return the models to load, the ones listed in the node settings if empty
+         */
+        public List<String> getModels() {
+            return models;
+        }
+
+        public void setModels(List<String> models) {
+            this.models = models == null ? Collections.emptyList() : models;
+        }
+    }
+
+    public static class WarmupNodesResponse extends BaseNodesResponse<WarmupNodeResponse> implements ToXContent {
+        public WarmupNodesResponse(StreamInput in) throws IOException {
+            super(in);
+        }
+
+        public WarmupNodesResponse(ClusterName clusterName, List<WarmupNodeResponse> nodes, List<FailedNodeException> failures) {
+            super(clusterName, nodes, failures);
+        }
+
+        @Override
+        protected List<WarmupNodeResponse> readNodesFrom(StreamInput in) throws IOException {
+            return in.readCollectionAsList(WarmupNodeResponse::new);
+        }
+
+        @Override
+        protected void writeNodesTo(StreamOutput out, List<WarmupNodeResponse> nodes) throws IOException {
+            out.writeCollection(nodes);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject("nodes");
+            for (WarmupNodeResponse resp : getNodes()) {
+                builder.startObject(resp.getNode().getId());
+                builder.field("name", resp.getNode().getName());
+                builder.field("hostname", resp.getNode().getHostName());
+                builder.field("took_in_millis", resp.getTookInMillis());
+                builder.field("models", resp.getResults());
+                builder.endObject();
+            }
+            return builder.endObject();
+        }
+    }
+
+    public static class WarmupNodeResponse extends BaseNodeResponse {
+        private final long tookInMillis;
+        private final List<CacheWarmer.Result> results;
+
+        WarmupNodeResponse(DiscoveryNode node, long tookInMillis, List<CacheWarmer.Result> results) {
+            super(node);
+            this.tookInMillis = tookInMillis;
+            this.results = results;
+        }
+
+        WarmupNodeResponse(StreamInput in) throws IOException {
+            super(in);
+            tookInMillis = in.readVLong();
+            results = in.readCollectionAsList(CacheWarmer.Result::new);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeVLong(tookInMillis);
+            out.writeCollection(results);
+        }
+
+        public long getTookInMillis() {
+            return tookInMillis;
+        }
+
+        public List<CacheWarmer.Result> getResults() {
+            return results;
+        }
+    }
+}
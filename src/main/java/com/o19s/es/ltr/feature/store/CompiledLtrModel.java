@@ -19,13 +19,14 @@ package com.o19s.es.ltr.feature.store;
 import com.o19s.es.ltr.feature.FeatureSet;
 import com.o19s.es.ltr.feature.LtrModel;
 import com.o19s.es.ltr.ranker.LtrRanker;
+import com.o19s.es.ltr.ranker.OffHeapAccountable;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.RamUsageEstimator;
 
 import static org.apache.lucene.util.RamUsageEstimator.NUM_BYTES_ARRAY_HEADER;
 import static org.apache.lucene.util.RamUsageEstimator.NUM_BYTES_OBJECT_HEADER;
 
-public class CompiledLtrModel implements LtrModel, Accountable {
+public class CompiledLtrModel implements LtrModel, Accountable, OffHeapAccountable {
     private static final long BASE_RAM_USED = RamUsageEstimator.shallowSizeOfInstance(StoredLtrModel.class);
 
     private final String name;
@@ -72,4 +73,12 @@ public class CompiledLtrModel implements LtrModel, Accountable {
                 + (ranker instanceof Accountable ?
                 ((Accountable)ranker).ramBytesUsed() : set.size() * NUM_BYTES_OBJECT_HEADER);
     }
+
+    /**
+     * Return the memory used by the ranker outside of the heap, not part of {@link #ramBytesUsed()}.
+     */
+    @Override
+    public long offHeapBytesUsed() {
+        return OffHeapAccountable.offHeapBytesUsed(ranker);
+    }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store;
+
+import com.o19s.es.ltr.feature.FeatureSet;
+import com.o19s.es.ltr.ranker.LtrRanker;
+import com.o19s.es.ltr.ranker.dectree.FlatTreeEnsemble;
+import com.o19s.es.ltr.ranker.dectree.NaiveAdditiveDecisionTree;
+import com.o19s.es.ltr.ranker.normalizer.Normalizers;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.core.Nullable;
+
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * Binary form of the ranker parsed from a model definition.
+ *
+ * Parsing large tree models from their JSON definition takes seconds, the ranker is
+ * serialized once when the model is stored so that nodes can read it back without
+ * parsing the definition again. Only tree ensembles are supported, other models are
+ * cheap to parse.
+ *
+ * The artifact is made of a header (magic, format version, type), the ranker and a CRC32
+ * of everything before it.
+ */
+public final class CompiledModelArtifact {
+    private static final int MAGIC = 0x4c545241; // LTRA
+    private static final int VERSION = 1;
+    private static final byte TREE_ENSEMBLE = 0;
+
+    private CompiledModelArtifact() {}
+
+    /**
+     * @param ranker the ranker built by a model parser
+     * @return the artifact, null if this ranker cannot be serialized
+     */
+    @Nullable
+    public static byte[] write(LtrRanker ranker) throws IOException {
+        if (!(ranker instanceof NaiveAdditiveDecisionTree)) {
+            return null;
+        }
+        NaiveAdditiveDecisionTree tree = (NaiveAdditiveDecisionTree) ranker;
+        String normalizer = Normalizers.name(tree.normalizer());
+        if (normalizer == null) {
+            return null;
+        }
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            out.writeInt(MAGIC);
+            out.writeVInt(VERSION);
+            out.writeByte(TREE_ENSEMBLE);
+            out.writeVInt(tree.size());
+            out.writeString(normalizer);
+            tree.ensemble().writeTo(out);
+            CRC32 crc = new CRC32();
+            crc.update(BytesReference.toBytes(out.bytes()));
+            out.writeInt((int) crc.getValue());
+            return BytesReference.toBytes(out.bytes());
+        }
+    }
+
+    /**
+     * Read the ranker of a model.
+     *
+     * @param artifact the artifact built by {@link #write(LtrRanker)}
+     * @param set the feature set of the model
+     * @return the ranker, null if the artifact was written with another version of the format
+     * @throws IllegalArgumentException if the artifact is corrupted or does not match the feature set
+     */
+    @Nullable
+    public static LtrRanker read(byte[] artifact, FeatureSet set) throws IOException {
+        if (artifact.length < 2 * Integer.BYTES) {
+            throw new IllegalArgumentException("Compiled model is truncated");
+        }
+        int length = artifact.length - Integer.BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(artifact, 0, length);
+        try (StreamInput in = StreamInput.wrap(artifact, 0, length)) {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a compiled model");
+            }
+            try (StreamInput footer = StreamInput.wrap(artifact, length, Integer.BYTES)) {
+                if (footer.readInt() != (int) crc.getValue()) {
+                    throw new IllegalArgumentException("Checksum mismatch for compiled model");
+                }
+            }
+            if (in.readVInt() != VERSION || in.readByte() != TREE_ENSEMBLE) {
+                return null;
+            }
+            int modelSize = in.readVInt();
+            if (modelSize != set.size()) {
+                throw new IllegalArgumentException("Compiled model expects [" + modelSize + "] features but the feature set has ["
+                        + set.size() + "]");
+            }
+            String normalizer = in.readString();
+            FlatTreeEnsemble ensemble = FlatTreeEnsemble.readFrom(in);
+            for (int node = 0; node < ensemble.numNodes(); node++) {
+                if (ensemble.feature(node) >= modelSize) {
+                    throw new IllegalArgumentException("Unknown feature ordinal [" + ensemble.feature(node) + "]");
+                }
+            }
+            if (in.available() != 0) {
+                throw new IllegalArgumentException("Unexpected trailing bytes in compiled model");
+            }
+            return new NaiveAdditiveDecisionTree(ensemble, modelSize, Normalizers.get(normalizer));
+        }
+    }
+}
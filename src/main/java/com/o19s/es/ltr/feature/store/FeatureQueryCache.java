@@ -0,0 +1,46 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store;
+
+import com.o19s.es.ltr.feature.Feature;
+import org.elasticsearch.core.CheckedSupplier;
+import org.elasticsearch.index.query.QueryBuilder;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Cache of the query builders generated by the features, used to avoid
+ * rendering and parsing the same template again for repeated query params.
+ */
+@FunctionalInterface
+public interface FeatureQueryCache {
+    /**
+     * Does not cache anything.
+     */
+    FeatureQueryCache NO_CACHE = (feature, params, builder) -> builder.get();
+
+    /**
+     * @param feature the feature generating the query, must implement equals and hashCode
+     * @param params the query params, must not be modified once passed to the cache
+     * @param builder builds the query on cache miss
+     * @return the cached query builder, must not be modified
+     * @throws IOException if the query cannot be built
+     */
+    QueryBuilder load(Feature feature, Map<String, Object> params,
+                      CheckedSupplier<QueryBuilder, IOException> builder) throws IOException;
+}
@@ -18,6 +18,8 @@ package com.o19s.es.ltr.feature.store;
 
 import com.o19s.es.ltr.feature.Feature;
 import com.o19s.es.ltr.feature.FeatureSet;
+import com.o19s.es.ltr.query.FeatureScoreCaches;
+import org.elasticsearch.action.ActionListener;
 
 import java.io.IOException;
 
@@ -53,4 +55,41 @@ public interface FeatureStore {
      * @throws IOException if the model can not be loaded and compiled
      */
     CompiledLtrModel loadModel(String name) throws IOException;
+
+    /**
+     * Load a feature-set without blocking the calling thread.
+     * Stores that can only load synchronously complete the listener on the calling thread.
+     *
+     * @param name the feature-set name to load
+     * @param listener notified with the loaded feature-set
+     */
+    default void loadSet(String name, ActionListener<FeatureSet> listener) {
+        ActionListener.completeWith(listener, () -> loadSet(name));
+    }
+
+    /**
+     * Load and compile a model without blocking the calling thread.
+     * Stores that can only load synchronously complete the listener on the calling thread.
+     *
+     * @param name the model name to be compiled
+     * @param listener notified with the compiled model
+     */
+    default void loadModel(String name, ActionListener<CompiledLtrModel> listener) {
+        ActionListener.completeWith(listener, () -> loadModel(name));
+    }
+
+    /**
+     * @return the cache of the queries generated by the features of this store
+     */
+    default FeatureQueryCache queryCache() {
+        return FeatureQueryCache.NO_CACHE;
+    }
+
+    /**
+     * @return the feature score caches shared by the phases of a search, null if the
+     *         feature scores can only be cached for the lifetime of a query
+     */
+    default FeatureScoreCaches featureScoreCaches() {
+        return null;
+    }
 }
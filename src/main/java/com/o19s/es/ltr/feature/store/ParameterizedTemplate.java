@@ -0,0 +1,210 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store;
+
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.xcontent.json.JsonXContent;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Mustache query template parsed once into a tree of maps and lists.
+ *
+ * Only templates that are valid JSON documents whose mustache variables all
+ * appear in string values can be parsed this way, e.g.
+ * <code>{"match": {"title": "{{keywords}}"}}</code>. Binding the params then
+ * substitutes the variables in the tree instead of rendering the template to a
+ * string and parsing it again. Sections, partials, unescaped variables, dotted
+ * names and variables in field names or outside string values are not supported
+ * and must use the mustache template.
+ */
+final class ParameterizedTemplate {
+    // {{name}} or {{ name }}, anything else opening a tag is not supported
+    private static final Pattern VARIABLE = Pattern.compile("\\{\\{\\s*(\\w+)\\s*}}");
+    private static final String TAG_OPEN = "{{";
+
+    private final Map<String, Object> tree;
+
+    private ParameterizedTemplate(Map<String, Object> tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * @param template the mustache template
+     * @return the parsed template, or null if it is not supported
+     */
+    static ParameterizedTemplate compile(String template) {
+        Map<String, Object> source;
+        try {
+            source = XContentHelper.convertToMap(JsonXContent.jsonXContent, template, true);
+        } catch (RuntimeException e) {
+            // not a valid JSON document before rendering
+            return null;
+        }
+        int[] variables = new int[1];
+        Object tree = compileNode(source, variables);
+        // variables found after parsing must be the ones seen by mustache, not escaped sequences
+        if (tree == null || variables[0] != countVariables(template)) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> map = (Map<String, Object>) tree;
+        return new ParameterizedTemplate(map);
+    }
+
+    /**
+     * @param params the query params
+     * @return the template tree with the variables replaced by the params, or null
+     * if a variable refers to a missing param or to a param that is not a string,
+     * a number or a boolean
+     */
+    Map<String, Object> bind(Map<String, Object> params) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> bound = (Map<String, Object>) bindNode(tree, params);
+        return bound;
+    }
+
+    private static Object compileNode(Object node, int[] variables) {
+        if (node instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) node;
+            Map<String, Object> compiled = new LinkedHashMap<>(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                String key = (String) entry.getKey();
+                if (key.contains(TAG_OPEN)) {
+                    return null;
+                }
+                Object value = compileNode(entry.getValue(), variables);
+                if (value == null && entry.getValue() != null) {
+                    return null;
+                }
+                compiled.put(key, value);
+            }
+            return compiled;
+        } else if (node instanceof List) {
+            List<?> list = (List<?>) node;
+            List<Object> compiled = new ArrayList<>(list.size());
+            for (Object elt : list) {
+                Object value = compileNode(elt, variables);
+                if (value == null && elt != null) {
+                    return null;
+                }
+                compiled.add(value);
+            }
+            return compiled;
+        } else if (node instanceof String) {
+            return compileString((String) node, variables);
+        }
+        // numbers, booleans and nulls
+        return node;
+    }
+
+    private static Object compileString(String value, int[] variables) {
+        if (!value.contains(TAG_OPEN)) {
+            return value;
+        }
+        if (value.contains("{{{") || value.contains("}}}")) {
+            return null;
+        }
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        Matcher matcher = VARIABLE.matcher(value);
+        int start = 0;
+        while (matcher.find()) {
+            literals.add(value.substring(start, matcher.start()));
+            names.add(matcher.group(1));
+            start = matcher.end();
+        }
+        literals.add(value.substring(start));
+        for (String literal : literals) {
+            if (literal.contains(TAG_OPEN)) {
+                return null;
+            }
+        }
+        variables[0] += names.size();
+        return new Placeholder(literals.toArray(new String[0]), names.toArray(new String[0]));
+    }
+
+    private static int countVariables(String template) {
+        Matcher matcher = VARIABLE.matcher(template);
+        int count = 0;
+        while (matcher.find()) {
+            count++;
+        }
+        return count;
+    }
+
+    private static Object bindNode(Object node, Map<String, Object> params) {
+        if (node instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) node;
+            Map<String, Object> bound = new LinkedHashMap<>(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                Object value = bindNode(entry.getValue(), params);
+                if (value == null && entry.getValue() != null) {
+                    return null;
+                }
+                bound.put((String) entry.getKey(), value);
+            }
+            return bound;
+        } else if (node instanceof List) {
+            List<?> list = (List<?>) node;
+            List<Object> bound = new ArrayList<>(list.size());
+            for (Object elt : list) {
+                Object value = bindNode(elt, params);
+                if (value == null && elt != null) {
+                    return null;
+                }
+                bound.add(value);
+            }
+            return bound;
+        } else if (node instanceof Placeholder) {
+            return ((Placeholder) node).bind(params);
+        }
+        return node;
+    }
+
+    /**
+     * String value holding mustache variables: literals[0] + names[0] + literals[1] + ... + literals[n].
+     */
+    private static final class Placeholder {
+        private final String[] literals;
+        private final String[] names;
+
+        Placeholder(String[] literals, String[] names) {
+            assert literals.length == names.length + 1;
+            this.literals = literals;
+            this.names = names;
+        }
+
+        String bind(Map<String, Object> params) {
+            StringBuilder sb = new StringBuilder(literals[0]);
+            for (int i = 0; i < names.length; i++) {
+                Object value = params == null ? null : params.get(names[i]);
+                // mustache renders other objects with their own rules (lists, maps, functions)
+                if (!(value instanceof CharSequence || value instanceof Number || value instanceof Boolean)) {
+                    return null;
+                }
+                sb.append(value).append(literals[i + 1]);
+            }
+            return sb.toString();
+        }
+    }
+}
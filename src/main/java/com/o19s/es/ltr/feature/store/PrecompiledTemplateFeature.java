@@ -27,6 +27,9 @@ import org.apache.lucene.util.RamUsageEstimator;
 import org.elasticsearch.common.ParsingException;
 import org.elasticsearch.xcontent.XContentFactory;
 import org.elasticsearch.xcontent.XContentParser;
+import org.elasticsearch.xcontent.XContentParserConfiguration;
+import org.elasticsearch.xcontent.XContentType;
+import org.elasticsearch.xcontent.support.MapXContentParser;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryShardException;
 import org.elasticsearch.index.query.Rewriteable;
@@ -49,19 +52,24 @@ public class PrecompiledTemplateFeature implements Feature, Accountable {
     private final Mustache template;
     private final String templateString;
     private final Collection<String> queryParams;
+    // null if the template cannot be bound without rendering it
+    private final ParameterizedTemplate parameterized;
 
-    private PrecompiledTemplateFeature(String name, Mustache template, String templateString, Collection<String> queryParams) {
+    private PrecompiledTemplateFeature(String name, Mustache template, String templateString, Collection<String> queryParams,
+                                       ParameterizedTemplate parameterized) {
         this.name = name;
         this.template = template;
         this.queryParams = queryParams;
         this.templateString = templateString;
+        this.parameterized = parameterized;
     }
 
     public static PrecompiledTemplateFeature compile(StoredFeature feature) {
         assert MustacheUtils.TEMPLATE_LANGUAGE.equals(feature.templateLanguage());
         Mustache mustache = MustacheUtils.compile(feature.name(), feature.template());
         // TODO: figure out if we can inspect mustache to assert that feature.queryParams is valid
-        return new PrecompiledTemplateFeature(feature.name(), mustache, feature.template(), feature.queryParams());
+        return new PrecompiledTemplateFeature(feature.name(), mustache, feature.template(), feature.queryParams(),
+                ParameterizedTemplate.compile(feature.template()));
     }
 
     @Override
@@ -71,7 +79,7 @@ public class PrecompiledTemplateFeature implements Feature, Accountable {
                 queryParams.stream()
                         .mapToLong(x -> (Character.BYTES * x.length()) +
                                 NUM_BYTES_OBJECT_REF + NUM_BYTES_OBJECT_HEADER + NUM_BYTES_ARRAY_HEADER).sum() +
-                (((Character.BYTES * templateString.length()) + NUM_BYTES_ARRAY_HEADER) * 2);
+                (((Character.BYTES * templateString.length()) + NUM_BYTES_ARRAY_HEADER) * (parameterized != null ? 3 : 2));
     }
 
     @Override
@@ -89,11 +97,9 @@ public class PrecompiledTemplateFeature implements Feature, Accountable {
             throw new IllegalArgumentException("Missing required param(s): [" + names + "]");
         }
 
-        String query = MustacheUtils.execute(template, params);
         try {
-            XContentParser parser = XContentFactory.xContent(query)
-                    .createParser(context.getSearchExecutionContext().getParserConfig(), query);
-            QueryBuilder queryBuilder = parseTopLevelQuery(parser);
+            // the parsed builder is cached, it is rewritten for every shard as the rewrite depends on the index
+            QueryBuilder queryBuilder = context.getQueryCache().load(this, params, () -> parse(context, params));
             // XXX: QueryShardContext extends QueryRewriteContext (for now)
             return Rewriteable.rewrite(queryBuilder, context.getSearchExecutionContext()).toQuery(context.getSearchExecutionContext());
         } catch (IOException | ParsingException | IllegalArgumentException e) {
@@ -103,6 +109,23 @@ public class PrecompiledTemplateFeature implements Feature, Accountable {
         }
     }
 
+    private QueryBuilder parse(LtrQueryContext context, Map<String, Object> params) throws IOException {
+        XContentParserConfiguration config = context.getSearchExecutionContext().getParserConfig();
+        Map<String, Object> bound = parameterized != null ? parameterized.bind(params) : null;
+        XContentParser parser;
+        if (bound != null) {
+            parser = new MapXContentParser(config.registry(), config.deprecationHandler(), bound, XContentType.JSON);
+        } else {
+            String query = MustacheUtils.execute(template, params);
+            parser = XContentFactory.xContent(query).createParser(config, query);
+        }
+        return parseTopLevelQuery(parser);
+    }
+
+    boolean isParameterized() {
+        return parameterized != null;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
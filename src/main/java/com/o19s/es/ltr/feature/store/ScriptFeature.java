@@ -1,18 +1,20 @@
 package com.o19s.es.ltr.feature.store;
 
+import com.o19s.es.explore.TermStatsTable;
 import com.o19s.es.ltr.LtrQueryContext;
 import com.o19s.es.ltr.feature.Feature;
 import com.o19s.es.ltr.feature.FeatureSet;
+import com.o19s.es.ltr.query.FeatureVectorWeight;
 import com.o19s.es.ltr.query.LtrRewritableQuery;
 import com.o19s.es.ltr.query.LtrRewriteContext;
 import com.o19s.es.ltr.ranker.LogLtrRanker;
+import com.o19s.es.ltr.ranker.LtrRanker;
 import com.o19s.es.termstat.TermStatSupplier;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.index.TermStates;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.QueryVisitor;
@@ -33,6 +35,7 @@ import org.elasticsearch.xcontent.XContentType;
 import org.elasticsearch.index.mapper.MappedFieldType;
 import org.elasticsearch.script.ScoreScript;
 import org.elasticsearch.script.Script;
+import org.elasticsearch.search.lookup.SearchLookup;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -43,6 +46,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class ScriptFeature implements Feature {
@@ -128,10 +132,9 @@ public class ScriptFeature implements Feature {
             }
         }
 
-        FeatureSupplier supplier = new FeatureSupplier(featureSet);
         ExtraLoggingSupplier extraLoggingSupplier = new ExtraLoggingSupplier();
-        TermStatSupplier termstatSupplier = new TermStatSupplier();
         Map<String, Object> nparams = new HashMap<>();
+        boolean termStats = false;
 
         // Parse terms if set
         Set<Term> terms = new HashSet<>();
@@ -207,59 +210,93 @@ public class ScriptFeature implements Feature {
                 }
             }
 
-            nparams.put(TERM_STAT, termstatSupplier);
-            nparams.put(MATCH_COUNT, termstatSupplier.getMatchedTermCountSupplier());
+            // the term stats and the feature vector are added per leaf, see LtrScript#newLeafScoreFunction
+            termStats = true;
             nparams.put(UNIQUE_TERMS, terms.size());
         }
 
         nparams.putAll(baseScriptParams);
         nparams.putAll(queryTimeParams);
         nparams.putAll(extraQueryTimeParams);
-        nparams.put(FEATURE_VECTOR, supplier);
         nparams.put(EXTRA_LOGGING, extraLoggingSupplier);
         Script script = new Script(this.script.getType(), this.script.getLang(),
                 this.script.getIdOrCode(), this.script.getOptions(), nparams);
         ScoreScript.Factory factoryFactory = context.getSearchExecutionContext().compile(script, ScoreScript.CONTEXT);
-        ScoreScript.LeafFactory leafFactory = factoryFactory.newFactory(nparams,
-                context.getSearchExecutionContext().lookup());
-        ScriptScoreFunction function = new ScriptScoreFunction(script, leafFactory,
-                context.getSearchExecutionContext().lookup(),
+        return new LtrScript(script, factoryFactory, context.getSearchExecutionContext().lookup(),
                 context.getSearchExecutionContext().index().getName(),
-                context.getSearchExecutionContext().getShardId());
-        return new LtrScript(function, supplier, extraLoggingSupplier, termstatSupplier, terms);
+                context.getSearchExecutionContext().getShardId(),
+                featureSet, termStats, extraLoggingSupplier, terms);
     }
 
     static class LtrScript extends Query implements LtrRewritableQuery {
-        private final ScriptScoreFunction function;
-        private final FeatureSupplier supplier;
+        private final Script script;
+        private final ScoreScript.Factory factory;
+        private final SearchLookup lookup;
+        private final String indexName;
+        private final int shardId;
+        private final FeatureSet featureSet;
+        private final boolean termStats;
         private final ExtraLoggingSupplier extraLoggingSupplier;
-        private final TermStatSupplier termStatSupplier;
         private final Set<Term> terms;
 
-        LtrScript(ScriptScoreFunction function,
-                FeatureSupplier supplier,
+        LtrScript(Script script,
+                ScoreScript.Factory factory,
+                SearchLookup lookup,
+                String indexName,
+                int shardId,
+                FeatureSet featureSet,
+                boolean termStats,
                 ExtraLoggingSupplier extraLoggingSupplier,
-                TermStatSupplier termStatSupplier,
                 Set<Term> terms) {
-            this.function = function;
-            this.supplier = supplier;
+            this.script = script;
+            this.factory = factory;
+            this.lookup = lookup;
+            this.indexName = indexName;
+            this.shardId = shardId;
+            this.featureSet = featureSet;
+            this.termStats = termStats;
             this.extraLoggingSupplier = extraLoggingSupplier;
-            this.termStatSupplier = termStatSupplier;
             this.terms = terms;
         }
 
+        /**
+         * The feature vector and the term stats are bound to the script of a leaf so
+         * that leaves can be scored concurrently.
+         *
+         * @param context the leaf
+         * @param vectorSupplier supplies the vector of the ranker scorer of the leaf
+         * @param termStatSupplier the term stats of the leaf, bumped before every doc is scored
+         * @return the script of the leaf
+         */
+        LeafScoreFunction newLeafScoreFunction(LeafReaderContext context,
+                Supplier<LtrRanker.FeatureVector> vectorSupplier,
+                TermStatSupplier termStatSupplier) throws IOException {
+            Map<String, Object> params = new HashMap<>();
+            if (termStats) {
+                params.put(TERM_STAT, termStatSupplier);
+                params.put(MATCH_COUNT, termStatSupplier.getMatchedTermCountSupplier());
+            }
+            params.putAll(script.getParams());
+            FeatureSupplier supplier = new FeatureSupplier(featureSet);
+            supplier.set(vectorSupplier);
+            params.put(FEATURE_VECTOR, supplier);
+            ScoreScript.LeafFactory leafFactory = factory.newFactory(params, lookup);
+            ScriptScoreFunction function = new ScriptScoreFunction(script, leafFactory, lookup, indexName, shardId);
+            return function.getLeafScoreFunction(context);
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o)
                 return true;
             LtrScript ol = (LtrScript) o;
             return sameClassAs(o)
-                    && Objects.equals(function, ol.function);
+                    && Objects.equals(script, ol.script);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(classHash(), function);
+            return Objects.hash(classHash(), script);
         }
 
         @Override
@@ -272,13 +309,11 @@ public class ScriptFeature implements Feature {
             if (!scoreMode.needsScores()) {
                 return new MatchAllDocsQuery().createWeight(searcher, scoreMode, 1F);
             }
-            return new LtrScriptWeight(this, this.function, termStatSupplier, terms, searcher, scoreMode);
+            return new LtrScriptWeight(this, searcher, scoreMode);
         }
 
         @Override
         public Query ltrRewrite(LtrRewriteContext context) throws IOException {
-            supplier.set(context.getFeatureVectorSupplier());
-
             LogLtrRanker.LogConsumer consumer = context.getLogConsumer();
             if (consumer != null) {
                 extraLoggingSupplier.setSupplier(consumer::getExtraLoggingMap);
@@ -300,42 +335,33 @@ public class ScriptFeature implements Feature {
         }
     }
 
-    static class LtrScriptWeight extends Weight {
-        private final IndexSearcher searcher;
-        private final ScoreMode scoreMode;
-        private final ScriptScoreFunction function;
-        private final TermStatSupplier termStatSupplier;
-        private final Set<Term> terms;
-        private final HashMap<Term, TermStates> termContexts;
+    static class LtrScriptWeight extends Weight implements FeatureVectorWeight {
+        private final LtrScript script;
+        private final TermStatsTable table;
 
-        LtrScriptWeight(Query query, ScriptScoreFunction function,
-                TermStatSupplier termStatSupplier,
-                Set<Term> terms,
+        LtrScriptWeight(LtrScript script,
                 IndexSearcher searcher,
                 ScoreMode scoreMode) throws IOException {
-            super(query);
-            this.function = function;
-            this.termStatSupplier = termStatSupplier;
-            this.terms = terms;
-            this.searcher = searcher;
-            this.scoreMode = scoreMode;
-            this.termContexts = new HashMap<>();
-
-            if (scoreMode.needsScores()) {
-                for (Term t : terms) {
-                    TermStates ctx = TermStates.build(searcher, t, true);
-                    if (ctx != null && ctx.docFreq() > 0) {
-                        searcher.collectionStatistics(t.field());
-                        searcher.termStatistics(t, ctx.docFreq(), ctx.totalTermFreq());
-                    }
-                    termContexts.put(t, ctx);
-                }
-            }
+            super(script);
+            this.script = script;
+            // Collection statistics are computed once for all the segments
+            this.table = scoreMode.needsScores() && script.terms.size() > 0 ? TermStatsTable.build(searcher, script.terms) : null;
         }
 
         @Override
         public Explanation explain(LeafReaderContext context, int doc) throws IOException {
-            return function.getLeafScoreFunction(context).explainScore(doc, Explanation.noMatch("none"));
+            throw new IllegalStateException("Script features are only explained by their RankerQuery");
+        }
+
+        @Override
+        public Explanation explain(LeafReaderContext context, int doc, Supplier<LtrRanker.FeatureVector> vectorSupplier)
+                throws IOException {
+            TermStatSupplier termStatSupplier = new TermStatSupplier();
+            LeafScoreFunction leafScoreFunction = script.newLeafScoreFunction(context, vectorSupplier, termStatSupplier);
+            if (table != null) {
+                termStatSupplier.bump(new TermStatSupplier.LeafPostings(table, context), doc);
+            }
+            return leafScoreFunction.explainScore(doc, Explanation.noMatch("none"));
         }
 
         public void extractTerms(Set<Term> terms) {
@@ -349,9 +375,17 @@ public class ScriptFeature implements Feature {
 
         @Override
         public ScorerSupplier scorerSupplier(LeafReaderContext context) throws IOException {
-            LeafScoreFunction leafScoreFunction = function.getLeafScoreFunction(context);
+            throw new IllegalStateException("Script features are only scored by their RankerQuery");
+        }
+
+        @Override
+        public Scorer scorer(LeafReaderContext context, Supplier<LtrRanker.FeatureVector> vectorSupplier) throws IOException {
+            // the term stats are read by the script of this leaf only
+            TermStatSupplier termStatSupplier = new TermStatSupplier();
+            LeafScoreFunction leafScoreFunction = script.newLeafScoreFunction(context, vectorSupplier, termStatSupplier);
             DocIdSetIterator iterator = DocIdSetIterator.all(context.reader().maxDoc());
-            Scorer scorer = new Scorer() {
+            TermStatSupplier.LeafPostings postings = table != null ? new TermStatSupplier.LeafPostings(table, context) : null;
+            return new Scorer() {
                 @Override
                 public int docID() {
                     return iterator.docID();
@@ -360,8 +394,8 @@ public class ScriptFeature implements Feature {
                 @Override
                 public float score() throws IOException {
                     // Do the terms magic if the user asked for it
-                    if (terms.size() > 0) {
-                        termStatSupplier.bump(searcher, context, docID(), terms, scoreMode, termContexts);
+                    if (postings != null) {
+                        termStatSupplier.bump(postings, docID());
                     }
 
                     return (float) leafScoreFunction.score(iterator.docID(), 0F);
@@ -383,7 +417,6 @@ public class ScriptFeature implements Feature {
                     return Float.POSITIVE_INFINITY;
                 }
             };
-            return new Weight.DefaultScorerSupplier(scorer);
         }
     }
 }
@@ -18,16 +18,20 @@ package com.o19s.es.ltr.feature.store;
 
 import com.o19s.es.ltr.feature.FeatureSet;
 import com.o19s.es.ltr.ranker.LtrRanker;
+import com.o19s.es.ltr.ranker.dectree.TreeEvaluator;
 import com.o19s.es.ltr.ranker.normalizer.FeatureNormalizingRanker;
 import com.o19s.es.ltr.ranker.normalizer.Normalizer;
 import com.o19s.es.ltr.ranker.parser.LtrRankerParser;
 import com.o19s.es.ltr.ranker.parser.LtrRankerParserFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.elasticsearch.xcontent.ParseField;
 import org.elasticsearch.common.ParsingException;
 import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.core.Nullable;
 import org.elasticsearch.xcontent.ObjectParser;
 import org.elasticsearch.xcontent.XContentBuilder;
 import org.elasticsearch.xcontent.XContentParser;
@@ -41,11 +45,17 @@ import java.util.Objects;
 
 public class StoredLtrModel implements StorableElement {
     public static final String TYPE = "model";
+    private static final Logger LOGGER = LogManager.getLogger(StoredLtrModel.class);
 
     private static final ObjectParser<ParsingState, Void> PARSER;
     private static final ParseField NAME = new ParseField("name");
     private static final ParseField FEATURE_SET = new ParseField("feature_set");
     private static final ParseField MODEL = new ParseField("model");
+    private static final ParseField COMPILED = new ParseField("compiled");
+    /**
+     * Path of the compiled form in the source of the store documents, it is internal and not returned by the REST API.
+     */
+    public static final String COMPILED_SOURCE_PATH = TYPE + "." + COMPILED.getPreferredName();
 
     private final String name;
     private final StoredFeatureSet featureSet;
@@ -53,6 +63,8 @@ public class StoredLtrModel implements StorableElement {
     private final String rankingModel;
     private final boolean modelAsString;
     private final StoredFeatureNormalizers parsedFtrNorms;
+    private final String evaluator;
+    private final byte[] compiled;
 
     static {
         PARSER = new ObjectParser<>(TYPE, ParsingState::new);
@@ -62,21 +74,36 @@ public class StoredLtrModel implements StorableElement {
                 FEATURE_SET);
         PARSER.declareObject(ParsingState::setRankingModel, LtrModelDefinition.PARSER,
                 MODEL);
+        PARSER.declareField(ParsingState::setCompiled, (parser, ctx) -> parser.binaryValue(), COMPILED,
+                ObjectParser.ValueType.VALUE);
     }
 
     public StoredLtrModel(String name, StoredFeatureSet featureSet, LtrModelDefinition definition) {
         this(name, featureSet, definition.type, definition.definition, definition.modelAsString,
-                definition.featureNormalizers);
+                definition.featureNormalizers, definition.evaluator);
     }
 
     public StoredLtrModel(String name, StoredFeatureSet featureSet, String rankingModelType, String rankingModel,
             boolean modelAsString, StoredFeatureNormalizers featureNormalizerSet) {
+        this(name, featureSet, rankingModelType, rankingModel, modelAsString, featureNormalizerSet, null);
+    }
+
+    public StoredLtrModel(String name, StoredFeatureSet featureSet, String rankingModelType, String rankingModel,
+            boolean modelAsString, StoredFeatureNormalizers featureNormalizerSet, @Nullable String evaluator) {
+        this(name, featureSet, rankingModelType, rankingModel, modelAsString, featureNormalizerSet, evaluator, null);
+    }
+
+    private StoredLtrModel(String name, StoredFeatureSet featureSet, String rankingModelType, String rankingModel,
+            boolean modelAsString, StoredFeatureNormalizers featureNormalizerSet, @Nullable String evaluator,
+            @Nullable byte[] compiled) {
         this.name = Objects.requireNonNull(name);
         this.featureSet = Objects.requireNonNull(featureSet);
         this.rankingModelType = Objects.requireNonNull(rankingModelType);
         this.rankingModel = Objects.requireNonNull(rankingModel);
         this.modelAsString = modelAsString;
         this.parsedFtrNorms = featureNormalizerSet;
+        this.evaluator = evaluator;
+        this.compiled = compiled;
     }
 
     public StoredLtrModel(StreamInput input) throws IOException {
@@ -86,6 +113,8 @@ public class StoredLtrModel implements StorableElement {
         rankingModel = input.readString();
         modelAsString = input.readBoolean();
         this.parsedFtrNorms = new StoredFeatureNormalizers(input);
+        evaluator = input.readOptionalString();
+        compiled = input.readOptionalByteArray();
     }
 
     @Override
@@ -96,6 +125,8 @@ public class StoredLtrModel implements StorableElement {
         out.writeString(rankingModel);
         out.writeBoolean(modelAsString);
         parsedFtrNorms.writeTo(out);
+        out.writeOptionalString(evaluator);
+        out.writeOptionalByteArray(compiled);
     }
 
     public static StoredLtrModel parse(XContentParser parser) {
@@ -112,16 +143,27 @@ public class StoredLtrModel implements StorableElement {
             if (state.rankingModel == null) {
                 throw new ParsingException(parser.getTokenLocation(), "Field [model] is mandatory");
             }
-            return new StoredLtrModel(state.getName(), state.featureSet, state.rankingModel);
+            LtrModelDefinition definition = state.rankingModel;
+            return new StoredLtrModel(state.getName(), state.featureSet, definition.type, definition.definition,
+                    definition.modelAsString, definition.featureNormalizers, definition.evaluator, state.compiled);
         } catch (IllegalArgumentException iae) {
             throw new ParsingException(parser.getTokenLocation(), iae.getMessage(), iae);
         }
     }
 
     public CompiledLtrModel compile(LtrRankerParserFactory factory) throws IOException {
-        LtrRankerParser modelParser = factory.getParser(rankingModelType);
         FeatureSet optimized = featureSet.optimize();
-        LtrRanker ranker = modelParser.parse(optimized, rankingModel);
+        LtrRanker ranker = compiled != null ? readCompiled(optimized) : null;
+        if (ranker == null) {
+            ranker = factory.getParser(rankingModelType).parse(optimized, rankingModel);
+        }
+        return compile(optimized, ranker);
+    }
+
+    private CompiledLtrModel compile(FeatureSet optimized, LtrRanker ranker) {
+        if (evaluator != null) {
+            ranker = TreeEvaluator.fromName(evaluator).compile(ranker);
+        }
         Map<Integer, Normalizer> ordToNorms = parsedFtrNorms.compileOrdToNorms(optimized);
         if (ordToNorms.size() > 0) {
             ranker = new FeatureNormalizingRanker(ranker, ordToNorms);
@@ -129,6 +171,36 @@ public class StoredLtrModel implements StorableElement {
         return new CompiledLtrModel(name, optimized, ranker);
     }
 
+    private LtrRanker readCompiled(FeatureSet optimized) {
+        try {
+            return CompiledModelArtifact.read(compiled, optimized);
+        } catch (IOException | IllegalArgumentException e) {
+            // the definition is still there, the model is only slower to load
+            LOGGER.warn("Cannot read the compiled form of model [" + name + "], parsing its definition", e);
+            return null;
+        }
+    }
+
+    /**
+     * Parse the model definition and keep the binary form of the ranker so that
+     * the model can be loaded without parsing its definition again.
+     * The parsed ranker is compiled as well to validate the model.
+     *
+     * @param factory the factory of model parsers
+     * @return a copy of this model with its compiled form, or without if the ranker cannot be serialized
+     * @throws IllegalArgumentException if the model cannot be compiled
+     * @see CompiledModelArtifact
+     */
+    public StoredLtrModel withCompiledArtifact(LtrRankerParserFactory factory) throws IOException {
+        LtrRankerParser modelParser = factory.getParser(rankingModelType);
+        FeatureSet optimized = featureSet.optimize();
+        LtrRanker ranker = modelParser.parse(optimized, rankingModel);
+        byte[] artifact = CompiledModelArtifact.write(ranker);
+        compile(optimized, ranker);
+        return new StoredLtrModel(name, featureSet, rankingModelType, rankingModel, modelAsString, parsedFtrNorms,
+                evaluator, artifact);
+    }
+
     @Override
     public String name() {
         return name;
@@ -172,6 +244,22 @@ public class StoredLtrModel implements StorableElement {
         return this.parsedFtrNorms;
     }
 
+    /**
+     * @return the name of the {@link TreeEvaluator} used to evaluate the model, null for the default
+     */
+    @Nullable
+    public String evaluator() {
+        return evaluator;
+    }
+
+    /**
+     * @return the binary form of the ranker, null if the model must be loaded from its definition
+     */
+    @Nullable
+    public byte[] compiled() {
+        return compiled;
+    }
+
     @Override
     public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
         builder.startObject();
@@ -192,11 +280,20 @@ public class StoredLtrModel implements StorableElement {
         }
         builder.field(LtrModelDefinition.FEATURE_NORMALIZERS.getPreferredName());
         this.parsedFtrNorms.toXContent(builder, params);
+        if (evaluator != null) {
+            builder.field(LtrModelDefinition.EVALUATOR.getPreferredName(), evaluator);
+        }
         builder.endObject();
+        if (compiled != null) {
+            builder.field(COMPILED.getPreferredName(), compiled);
+        }
         builder.endObject();
         return builder;
     }
 
+    /**
+     * The compiled form is derived from the definition and not compared.
+     */
     @Override
     public boolean equals(Object o) {
         if (this == o)
@@ -214,6 +311,8 @@ public class StoredLtrModel implements StorableElement {
             return false;
         if (!parsedFtrNorms.equals(that.parsedFtrNorms))
             return false;
+        if (!Objects.equals(evaluator, that.evaluator))
+            return false;
         return rankingModel.equals(that.rankingModel);
     }
 
@@ -224,12 +323,14 @@ public class StoredLtrModel implements StorableElement {
         result = 31 * result + rankingModelType.hashCode();
         result = 31 * result + rankingModel.hashCode();
         result = 31 * result + parsedFtrNorms.hashCode();
+        result = 31 * result + Objects.hashCode(evaluator);
         return result;
     }
 
     private static class ParsingState extends StorableElementParserState {
         StoredFeatureSet featureSet;
         LtrModelDefinition rankingModel;
+        byte[] compiled;
 
         void setFeatureSet(StoredFeatureSet featureSet) {
             this.featureSet = featureSet;
@@ -238,6 +339,10 @@ public class StoredLtrModel implements StorableElement {
         void setRankingModel(LtrModelDefinition rankingModel) {
             this.rankingModel = rankingModel;
         }
+
+        void setCompiled(byte[] compiled) {
+            this.compiled = compiled;
+        }
     }
 
     public static class LtrModelDefinition implements Writeable {
@@ -245,12 +350,14 @@ public class StoredLtrModel implements StorableElement {
         private String definition;
         private StoredFeatureNormalizers featureNormalizers;
         private boolean modelAsString;
+        private String evaluator;
 
         public static final ObjectParser<LtrModelDefinition, Void> PARSER;
 
         private static final ParseField MODEL_TYPE = new ParseField("type");
         private static final ParseField MODEL_DEFINITION = new ParseField("definition");
         private static final ParseField FEATURE_NORMALIZERS = new ParseField("feature_normalizers");
+        private static final ParseField EVALUATOR = new ParseField("evaluator");
 
         static {
             PARSER = new ObjectParser<>("model", LtrModelDefinition::new);
@@ -263,6 +370,7 @@ public class StoredLtrModel implements StorableElement {
             PARSER.declareNamedObjects(LtrModelDefinition::setNamedFeatureNormalizers,
                     StoredFeatureNormalizers.PARSER,
                     FEATURE_NORMALIZERS);
+            PARSER.declareString(LtrModelDefinition::setEvaluator, EVALUATOR);
         }
 
         private LtrModelDefinition() {
@@ -281,6 +389,7 @@ public class StoredLtrModel implements StorableElement {
             definition = in.readString();
             modelAsString = in.readBoolean();
             this.featureNormalizers = new StoredFeatureNormalizers(in);
+            evaluator = in.readOptionalString();
         }
 
         @Override
@@ -289,6 +398,7 @@ public class StoredLtrModel implements StorableElement {
             out.writeString(definition);
             out.writeBoolean(modelAsString);
             this.featureNormalizers.writeTo(out);
+            out.writeOptionalString(evaluator);
         }
 
         private void setType(String type) {
@@ -307,6 +417,22 @@ public class StoredLtrModel implements StorableElement {
             return definition;
         }
 
+        /**
+         * Select the {@link TreeEvaluator} used to evaluate a tree model
+         *
+         * @param evaluator the evaluator name
+         */
+        public void setEvaluator(String evaluator) {
+            // fail early on unknown names
+            TreeEvaluator.fromName(evaluator);
+            this.evaluator = evaluator;
+        }
+
+        @Nullable
+        public String getEvaluator() {
+            return evaluator;
+        }
+
         public boolean isModelAsString() {
             return modelAsString;
         }
@@ -0,0 +1,265 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store.index;
+
+import com.o19s.es.ltr.feature.store.FeatureStore;
+import com.o19s.es.ltr.ranker.parser.LtrRankerParserFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.GroupedActionListener;
+import org.elasticsearch.client.internal.Client;
+import org.elasticsearch.cluster.ClusterChangedEvent;
+import org.elasticsearch.cluster.ClusterStateListener;
+import org.elasticsearch.cluster.routing.IndexRoutingTable;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.xcontent.ToXContentObject;
+import org.elasticsearch.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Load and compile models in the node caches before they are used by the queries.
+ *
+ * The models listed in {@link #LTR_CACHE_WARMUP_MODELS} are loaded once the primaries
+ * of their store index are active, without blocking the cluster state updates.
+ */
+public class CacheWarmer implements ClusterStateListener {
+    private static final Logger LOGGER = LogManager.getLogger(CacheWarmer.class);
+
+    /**
+     * Models to load when the node starts, as <code>model</code> for the default store
+     * or <code>store/model</code>.
+     */
+    public static final Setting<List<String>> LTR_CACHE_WARMUP_MODELS = Setting.stringListSetting("ltr.caches.warmup.models",
+            Setting.Property.NodeScope);
+
+    private final Caches caches;
+    private final LtrRankerParserFactory parserFactory;
+    private final Client client;
+    private final List<ModelRef> configuredModels;
+    // store indices whose models have not been loaded yet since the node started
+    private final Set<String> pendingStores = ConcurrentHashMap.newKeySet();
+
+    public CacheWarmer(Settings settings, Caches caches, LtrRankerParserFactory parserFactory, Client client) {
+        this.caches = Objects.requireNonNull(caches);
+        this.parserFactory = Objects.requireNonNull(parserFactory);
+        this.client = Objects.requireNonNull(client);
+        this.configuredModels = LTR_CACHE_WARMUP_MODELS.get(settings).stream()
+                .map(ModelRef::parse)
+                .collect(Collectors.toList());
+        configuredModels.forEach((m) -> pendingStores.add(m.getStore()));
+    }
+
+    /**
+     * @return the models listed in the node settings
+     */
+    public List<ModelRef> configuredModels() {
+        return configuredModels;
+    }
+
+    @Override
+    public void clusterChanged(ClusterChangedEvent event) {
+        if (pendingStores.isEmpty() || !event.state().nodes().getLocalNode().canContainData()) {
+            return;
+        }
+        for (String store : pendingStores) {
+            IndexRoutingTable routing = event.state().routingTable().index(store);
+            if (routing == null || !routing.allPrimaryShardsActive() || !pendingStores.remove(store)) {
+                continue;
+            }
+            List<ModelRef> models = configuredModels.stream()
+                    .filter((m) -> m.getStore().equals(store))
+                    .collect(Collectors.toList());
+            // cluster state listeners must not block, start from the loading pool
+            client.threadPool().executor(IndexFeatureStore.LOADING_THREAD_POOL).execute(() ->
+                    warmup(models, ActionListener.wrap(this::logResults,
+                            (e) -> LOGGER.warn("Failed to warm up the models of [" + store + "]", e))));
+        }
+    }
+
+    private void logResults(Collection<Result> results) {
+        for (Result result : results) {
+            if (result.getError() != null) {
+                LOGGER.warn("Failed to warm up model [{}] of [{}]: {}", result.getModel().getName(),
+                        result.getModel().getStore(), result.getError());
+            } else {
+                LOGGER.info("Warmed up model [{}] of [{}] in [{}ms] using [{}] bytes", result.getModel().getName(),
+                        result.getModel().getStore(), TimeUnit.NANOSECONDS.toMillis(result.getTookNanos()), result.getRam());
+            }
+        }
+    }
+
+    /**
+     * Load the models in parallel, the listener receives one result per model, failures included.
+     */
+    public void warmup(List<ModelRef> models, ActionListener<Collection<Result>> listener) {
+        if (models.isEmpty()) {
+            listener.onResponse(Collections.emptyList());
+            return;
+        }
+        GroupedActionListener<Result> group = new GroupedActionListener<>(models.size(), listener);
+        for (ModelRef model : models) {
+            long start = System.nanoTime();
+            FeatureStore store = new CachedFeatureStore(new IndexFeatureStore(model.getStore(), () -> client, parserFactory), caches);
+            store.loadModel(model.getName(), ActionListener.wrap(
+                    (m) -> group.onResponse(new Result(model, System.nanoTime() - start, m.ramBytesUsed(), null)),
+                    (e) -> group.onResponse(new Result(model, System.nanoTime() - start, 0,
+                            ExceptionsHelper.unwrapCause(e).getMessage()))));
+        }
+    }
+
+    /**
+     * Model to warm up
+     */
+    public static class ModelRef implements Writeable {
+        private final String store;
+        private final String name;
+
+        /**
+         * @param store the store index name
+         * @param name the model name
+         */
+        public ModelRef(String store, String name) {
+            this.store = Objects.requireNonNull(store);
+            this.name = Objects.requireNonNull(name);
+        }
+
+        public ModelRef(StreamInput in) throws IOException {
+            store = in.readString();
+            name = in.readString();
+        }
+
+        /**
+         * @param ref <code>model</code> for the default store or <code>store/model</code>
+         */
+        public static ModelRef parse(String ref) {
+            int sep = ref.indexOf('/');
+            if (sep < 0) {
+                return new ModelRef(IndexFeatureStore.DEFAULT_STORE, ref);
+            }
+            return new ModelRef(IndexFeatureStore.indexName(ref.substring(0, sep)), ref.substring(sep + 1));
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeString(store);
+            out.writeString(name);
+        }
+
+        public String getStore() {
+            return store;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            ModelRef modelRef = (ModelRef) o;
+
+            if (!store.equals(modelRef.store)) return false;
+            return name.equals(modelRef.name);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = store.hashCode();
+            result = 31 * result + name.hashCode();
+            return result;
+        }
+    }
+
+    /**
+     * Time and memory spent loading a model, or the reason it could not be loaded
+     */
+    public static class Result implements Writeable, ToXContentObject {
+        private final ModelRef model;
+        private final long tookNanos;
+        private final long ram;
+        private final String error;
+
+        public Result(ModelRef model, long tookNanos, long ram, String error) {
+            this.model = Objects.requireNonNull(model);
+            this.tookNanos = tookNanos;
+            this.ram = ram;
+            this.error = error;
+        }
+
+        public Result(StreamInput in) throws IOException {
+            model = new ModelRef(in);
+            tookNanos = in.readVLong();
+            ram = in.readVLong();
+            error = in.readOptionalString();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            model.writeTo(out);
+            out.writeVLong(tookNanos);
+            out.writeVLong(ram);
+            out.writeOptionalString(error);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject()
+                    .field("store", IndexFeatureStore.storeName(model.getStore()))
+                    .field("name", model.getName())
+                    .field("took_in_millis", TimeUnit.NANOSECONDS.toMillis(tookNanos));
+            if (error != null) {
+                builder.field("error", error);
+            } else {
+                builder.field("ram", ram);
+            }
+            return builder.endObject();
+        }
+
+        public ModelRef getModel() {
+            return model;
+        }
+
+        public long getTookNanos() {
+            return tookNanos;
+        }
+
+        public long getRam() {
+            return ram;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+}
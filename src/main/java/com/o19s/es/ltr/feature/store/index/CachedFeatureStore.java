@@ -19,7 +19,10 @@ package com.o19s.es.ltr.feature.store.index;
 import com.o19s.es.ltr.feature.Feature;
 import com.o19s.es.ltr.feature.FeatureSet;
 import com.o19s.es.ltr.feature.store.CompiledLtrModel;
+import com.o19s.es.ltr.feature.store.FeatureQueryCache;
 import com.o19s.es.ltr.feature.store.FeatureStore;
+import com.o19s.es.ltr.query.FeatureScoreCaches;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.common.cache.Cache;
 
 import java.io.IOException;
@@ -53,7 +56,33 @@ public class CachedFeatureStore implements FeatureStore {
 
     @Override
     public CompiledLtrModel loadModel(String id) throws IOException {
-        return caches.loadModel(key(id), inner::loadModel);
+        CompiledLtrModel model = caches.loadModel(key(id), inner::loadModel);
+        caches.refreshModelIfStale(key(id), model, inner::loadModel);
+        return model;
+    }
+
+    @Override
+    public void loadSet(String id, ActionListener<FeatureSet> listener) {
+        caches.loadFeatureSet(key(id), inner::loadSet, listener);
+    }
+
+    @Override
+    public void loadModel(String id, ActionListener<CompiledLtrModel> listener) {
+        caches.loadModel(key(id), inner::loadModel, listener.map((model) -> {
+            caches.refreshModelIfStale(key(id), model, inner::loadModel);
+            return model;
+        }));
+    }
+
+    @Override
+    public FeatureQueryCache queryCache() {
+        return (feature, params, builder) ->
+                caches.loadFeatureQuery(new Caches.QueryCacheKey(inner.getStoreName(), feature, params), builder);
+    }
+
+    @Override
+    public FeatureScoreCaches featureScoreCaches() {
+        return caches.featureScoreCaches();
     }
 
     Feature getCachedFeature(String id) {
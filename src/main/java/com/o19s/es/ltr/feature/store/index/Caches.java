@@ -19,24 +19,34 @@ package com.o19s.es.ltr.feature.store.index;
 import com.o19s.es.ltr.feature.Feature;
 import com.o19s.es.ltr.feature.FeatureSet;
 import com.o19s.es.ltr.feature.store.CompiledLtrModel;
+import com.o19s.es.ltr.query.FeatureScoreCaches;
+import com.o19s.es.ltr.ranker.OffHeapAccountable;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.SubscribableListener;
 import org.elasticsearch.core.CheckedFunction;
+import org.elasticsearch.core.CheckedSupplier;
 import org.elasticsearch.common.cache.Cache;
 import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.RemovalNotification;
 import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.monitor.jvm.JvmInfo;
 
 import java.io.IOException;
-import java.util.Iterator;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
@@ -54,10 +64,19 @@ public class Caches {
             TimeValue.timeValueHours(1),
             TimeValue.timeValueNanos(0),
             Setting.Property.NodeScope);
+    public static final Setting<TimeValue> LTR_CACHE_REFRESH_AFTER_WRITE = Setting.timeSetting("ltr.caches.refresh_after_write",
+            TimeValue.timeValueNanos(0),
+            TimeValue.timeValueNanos(0),
+            Setting.Property.NodeScope);
+    public static final Setting<ByteSizeValue> LTR_CACHE_MAX_OFF_HEAP = Setting.memorySizeSetting("ltr.caches.max_off_heap",
+            "10%",
+            Setting.Property.NodeScope);
 
     private final Cache<CacheKey, Feature> featureCache;
     private final Cache<CacheKey, FeatureSet> featureSetCache;
     private final Cache<CacheKey, CompiledLtrModel> modelCache;
+    private final Cache<CacheKey, QueryBuilder> featureQueryCache;
+    private final FeatureScoreCaches featureScoreCaches = new FeatureScoreCaches();
 
     static {
         LTR_CACHE_MEM_SETTING = Setting.memorySizeSetting("ltr.caches.max_mem",
@@ -66,22 +85,63 @@ public class Caches {
                 Setting.Property.NodeScope);
     }
     private final Map<String, PerStoreStats> perStoreStats = new ConcurrentHashMap<>();
+    // loads in flight, shared by all the callers waiting for the same element
+    private final KeyIndex featureIndex = new KeyIndex();
+    private final KeyIndex featureSetIndex = new KeyIndex();
+    private final KeyIndex modelIndex = new KeyIndex();
+    private final KeyIndex featureQueryIndex = new KeyIndex();
+    private final Map<CacheKey, SubscribableListener<FeatureSet>> pendingFeatureSets = new ConcurrentHashMap<>();
+    private final Map<CacheKey, SubscribableListener<CompiledLtrModel>> pendingModels = new ConcurrentHashMap<>();
+    // time at which the cached models were compiled, only tracked when refresh ahead is enabled
+    private final Map<CacheKey, Long> modelWriteTimes = new ConcurrentHashMap<>();
+    // memory held outside of the heap by the cached models, not part of the cache weight but bound by maxOffHeap
+    private final AtomicLong modelOffHeapBytes = new AtomicLong();
     private final long maxWeight;
+    private final long maxOffHeap;
+    private final long refreshAfterWriteNanos;
 
     public Caches(TimeValue expAfterWrite, TimeValue expAfterAccess, ByteSizeValue maxWeight) {
+        this(expAfterWrite, expAfterAccess, TimeValue.timeValueNanos(0), maxWeight);
+    }
+
+    public Caches(TimeValue expAfterWrite, TimeValue expAfterAccess, TimeValue refreshAfterWrite, ByteSizeValue maxWeight) {
+        this(expAfterWrite, expAfterAccess, refreshAfterWrite, maxWeight, LTR_CACHE_MAX_OFF_HEAP.get(Settings.EMPTY));
+    }
+
+    public Caches(TimeValue expAfterWrite, TimeValue expAfterAccess, TimeValue refreshAfterWrite, ByteSizeValue maxWeight,
+                  ByteSizeValue maxOffHeap) {
         this.featureCache = configCache(CacheBuilder.<CacheKey, Feature>builder(), expAfterWrite, expAfterAccess, maxWeight)
                 .weigher(Caches::weigther)
-                .removalListener((l) -> this.onRemove(l.getKey(), l.getValue()))
+                .removalListener((l) -> {
+                    featureIndex.onRemove(l);
+                    this.onRemove(l.getKey(), l.getValue());
+                })
                 .build();
         this.featureSetCache = configCache(CacheBuilder.<CacheKey, FeatureSet>builder(), expAfterWrite, expAfterAccess, maxWeight)
                 .weigher(Caches::weigther)
-                .removalListener((l) -> this.onRemove(l.getKey(), l.getValue()))
+                .removalListener((l) -> {
+                    featureSetIndex.onRemove(l);
+                    this.onRemove(l.getKey(), l.getValue());
+                })
                 .build();
         this.modelCache = configCache(CacheBuilder.<CacheKey, CompiledLtrModel>builder(), expAfterWrite, expAfterAccess, maxWeight)
                 .weigher((s, w) -> w.ramBytesUsed())
-                .removalListener((l) -> this.onRemove(l.getKey(), l.getValue()))
+                .removalListener((l) -> {
+                    if (l.getRemovalReason() != RemovalNotification.RemovalReason.REPLACED) {
+                        modelWriteTimes.remove(l.getKey());
+                    }
+                    modelIndex.onRemove(l);
+                    this.onRemove(l.getKey(), l.getValue());
+                })
+                .build();
+        // query builders are not accounted in the per store stats
+        this.featureQueryCache = configCache(CacheBuilder.<CacheKey, QueryBuilder>builder(), expAfterWrite, expAfterAccess, maxWeight)
+                .weigher((k, q) -> ((QueryCacheKey) k).ramBytesUsed())
+                .removalListener(featureQueryIndex::onRemove)
                 .build();
         this.maxWeight = maxWeight.getBytes();
+        this.maxOffHeap = maxOffHeap.getBytes();
+        this.refreshAfterWriteNanos = refreshAfterWrite.nanos();
     }
 
     public static long weigther(CacheKey key, Object data) {
@@ -106,14 +166,21 @@ public class Caches {
     public Caches(Settings settings) {
         this(LTR_CACHE_EXPIRE_AFTER_WRITE.get(settings),
                 LTR_CACHE_EXPIRE_AFTER_READ.get(settings),
-                LTR_CACHE_MEM_SETTING.get(settings));
+                LTR_CACHE_REFRESH_AFTER_WRITE.get(settings),
+                LTR_CACHE_MEM_SETTING.get(settings),
+                LTR_CACHE_MAX_OFF_HEAP.get(settings));
     }
 
     private void onAdd(CacheKey k, Object acc) {
+        if (refreshAfterWriteNanos > 0 && acc instanceof CompiledLtrModel) {
+            modelWriteTimes.put(k, System.nanoTime());
+        }
+        modelOffHeapBytes.addAndGet(OffHeapAccountable.offHeapBytesUsed(acc));
         perStoreStats.compute(k.getStoreName(), (k2, v) -> v != null ? v.add(acc) : new PerStoreStats(acc));
     }
 
     private void onRemove(CacheKey k, Object acc) {
+        modelOffHeapBytes.addAndGet(-OffHeapAccountable.offHeapBytesUsed(acc));
         perStoreStats.compute(k.getStoreName(), (k2, v) -> {
             assert v != null;
             // return null should remove the entry
@@ -122,56 +189,235 @@ public class Caches {
     }
 
     Feature loadFeature(CacheKey key, CheckedFunction<String, Feature, IOException> loader) throws IOException {
-        return cacheLoad(key, featureCache, loader);
+        return cacheLoad(key, featureCache, featureIndex, loader);
     }
 
     FeatureSet loadFeatureSet(CacheKey key, CheckedFunction<String, FeatureSet, IOException> loader) throws IOException {
-        return cacheLoad(key, featureSetCache, loader);
+        return cacheLoad(key, featureSetCache, featureSetIndex, loader);
     }
 
     CompiledLtrModel loadModel(CacheKey key, CheckedFunction<String, CompiledLtrModel, IOException> loader) throws IOException {
-        return cacheLoad(key, modelCache, loader);
+        return cacheLoad(key, modelCache, modelIndex, loader);
+    }
+
+    /**
+     * Load a feature set without blocking, concurrent loads of the same key share a single fetch.
+     */
+    void loadFeatureSet(CacheKey key, BiConsumer<String, ActionListener<FeatureSet>> loader, ActionListener<FeatureSet> listener) {
+        cacheLoadAsync(key, featureSetCache, featureSetIndex, pendingFeatureSets, loader, listener);
+    }
+
+    /**
+     * Load a model without blocking, concurrent loads of the same key share a single fetch and compilation.
+     */
+    void loadModel(CacheKey key, BiConsumer<String, ActionListener<CompiledLtrModel>> loader,
+                   ActionListener<CompiledLtrModel> listener) {
+        cacheLoadAsync(key, modelCache, modelIndex, pendingModels, loader, listener);
+    }
+
+    /**
+     * Rebuild a cached model in the background once it is older than the refresh interval.
+     * The current model is served until the new one is compiled, only one refresh per key runs at a time.
+     * Failures are retried after another refresh interval.
+     *
+     * @param key the model key
+     * @param current the model returned to the caller
+     * @param loader loads and compiles the model without blocking
+     */
+    void refreshModelIfStale(CacheKey key, CompiledLtrModel current,
+                             BiConsumer<String, ActionListener<CompiledLtrModel>> loader) {
+        if (refreshAfterWriteNanos <= 0) {
+            return;
+        }
+        Long writtenAt = modelWriteTimes.get(key);
+        if (writtenAt == null || System.nanoTime() - writtenAt < refreshAfterWriteNanos) {
+            return;
+        }
+        SubscribableListener<CompiledLtrModel> refresh = new SubscribableListener<>();
+        if (pendingModels.putIfAbsent(key, refresh) != null) {
+            return;
+        }
+        long start = System.nanoTime();
+        long version = modelIndex.invalidatedVersion(key);
+        try {
+            loader.accept(key.getId(), ActionListener.wrap((model) -> {
+                try {
+                    CompiledLtrModel cached = modelCache.get(key);
+                    // do not resurrect a model invalidated or reloaded while refreshing
+                    if (cached == current && modelIndex.invalidatedVersion(key) == version) {
+                        // account the new model first so that the store stats survive the replacement
+                        modelIndex.onAdd(key, version);
+                        onAdd(key, model);
+                        modelCache.put(key, model);
+                        admitOffHeap(modelCache, key, model);
+                    }
+                } finally {
+                    pendingModels.remove(key, refresh);
+                }
+                getPerStoreStats(key.getStoreName()).onRefresh(System.nanoTime() - start, true);
+                refresh.onResponse(model);
+            }, (e) -> onRefreshFailure(key, writtenAt, start, refresh, e)));
+        } catch (RuntimeException e) {
+            onRefreshFailure(key, writtenAt, start, refresh, e);
+        }
+    }
+
+    private void onRefreshFailure(CacheKey key, long writtenAt, long start,
+                                  SubscribableListener<CompiledLtrModel> refresh, Exception e) {
+        // wait for another interval before retrying
+        modelWriteTimes.replace(key, writtenAt, System.nanoTime());
+        pendingModels.remove(key, refresh);
+        getPerStoreStats(key.getStoreName()).onRefresh(System.nanoTime() - start, false);
+        refresh.onFailure(e);
+    }
+
+    /**
+     * Load the query builder generated by a feature for the given params.
+     */
+    QueryBuilder loadFeatureQuery(QueryCacheKey key, CheckedSupplier<QueryBuilder, IOException> builder) throws IOException {
+        try {
+            return featureQueryCache.computeIfAbsent(key, (k) -> {
+                QueryBuilder query = builder.get();
+                featureQueryIndex.onAdd(k, -1);
+                return query;
+            });
+        } catch (ExecutionException e) {
+            // rethrow as is so that callers can attach the feature name to parsing errors
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getMessage(), e.getCause());
+        }
     }
 
-    private <E> E cacheLoad(CacheKey key, Cache<CacheKey, E> cache,
+    private <E> E cacheLoad(CacheKey key, Cache<CacheKey, E> cache, KeyIndex index,
                                                 CheckedFunction<String, E, IOException> loader) throws IOException {
+        long version = index.invalidatedVersion(key);
+        AtomicBoolean added = new AtomicBoolean();
+        E loaded;
         try {
-            return cache.computeIfAbsent(key, (k) -> {
+            loaded = cache.computeIfAbsent(key, (k) -> {
                 E elt = loader.apply(k.getId());
                 if (elt != null) {
+                    index.onAdd(k, version);
                     onAdd(k, elt);
+                    added.set(true);
                 }
                 return elt;
             });
         } catch (ExecutionException e) {
             throw new IOException(e.getMessage(), e.getCause());
         }
+        if (loaded != null && index.invalidatedVersion(key) != version) {
+            // updated while loading, the element may have been read before the update
+            cache.invalidate(key, loaded);
+        } else if (loaded != null && added.get()) {
+            admitOffHeap(cache, key, loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * Elements holding memory outside of the heap are not bound by the cache weight, an element
+     * just added is removed again when the cached elements exceed {@link #LTR_CACHE_MAX_OFF_HEAP}.
+     * The caller still uses it, its memory is released once it is no longer referenced.
+     */
+    private <E> void admitOffHeap(Cache<CacheKey, E> cache, CacheKey key, E elt) {
+        if (OffHeapAccountable.offHeapBytesUsed(elt) > 0 && modelOffHeapBytes.get() > maxOffHeap) {
+            cache.invalidate(key, elt);
+        }
+    }
+
+    private <E> void cacheLoadAsync(CacheKey key, Cache<CacheKey, E> cache, KeyIndex index,
+                                    Map<CacheKey, SubscribableListener<E>> pending,
+                                    BiConsumer<String, ActionListener<E>> loader, ActionListener<E> listener) {
+        E cached = cache.get(key);
+        if (cached != null) {
+            listener.onResponse(cached);
+            return;
+        }
+        SubscribableListener<E> load = new SubscribableListener<>();
+        SubscribableListener<E> inFlight = pending.putIfAbsent(key, load);
+        if (inFlight != null) {
+            inFlight.addListener(listener);
+            return;
+        }
+        load.addListener(listener);
+        long version = index.invalidatedVersion(key);
+        try {
+            loader.accept(key.getId(), ActionListener.wrap((elt) -> {
+                E loaded = elt;
+                try {
+                    // a synchronous load may have won the race, keep its value
+                    // do not cache an element updated while it was fetched
+                    if (index.invalidatedVersion(key) == version) {
+                        loaded = cacheLoad(key, cache, index, (id) -> elt);
+                    }
+                } finally {
+                    pending.remove(key, load);
+                }
+                load.onResponse(loaded);
+            }, (e) -> {
+                pending.remove(key, load);
+                load.onFailure(e);
+            }));
+        } catch (RuntimeException e) {
+            pending.remove(key, load);
+            load.onFailure(e);
+        }
     }
 
     public void evict(String index) {
-        evict(index, featureCache);
-        evict(index, featureSetCache);
-        evict(index, modelCache);
+        evict(index, featureCache, featureIndex);
+        evict(index, featureSetCache, featureSetIndex);
+        evict(index, modelCache, modelIndex);
+        evict(index, featureQueryCache, featureQueryIndex);
     }
 
     public void evictFeature(String index, String name) {
-        featureCache.invalidate(new CacheKey(index, name));
+        evictFeature(index, name, -1);
+    }
+
+    /**
+     * @param seqNo the sequence number of the store document change that made the cached feature stale, -1 if unknown
+     */
+    public void evictFeature(String index, String name, long seqNo) {
+        evict(new CacheKey(index, name), seqNo, featureCache, featureIndex);
     }
 
     public void evictFeatureSet(String index, String name) {
-        featureSetCache.invalidate(new CacheKey(index, name));
+        evictFeatureSet(index, name, -1);
+    }
+
+    /**
+     * @param seqNo the sequence number of the store document change that made the cached feature set stale, -1 if unknown
+     */
+    public void evictFeatureSet(String index, String name, long seqNo) {
+        evict(new CacheKey(index, name), seqNo, featureSetCache, featureSetIndex);
     }
 
     public void evictModel(String index, String name) {
-        modelCache.invalidate(new CacheKey(index, name));
+        evictModel(index, name, -1);
     }
 
-    private void evict(String index, Cache<CacheKey, ?> cache) {
-        Iterator<CacheKey> ite = cache.keys().iterator();
-        while(ite.hasNext()) {
-            if(ite.next().storeName.equals(index)) {
-                ite.remove();
-            }
+    /**
+     * @param seqNo the sequence number of the store document change that made the cached model stale, -1 if unknown
+     */
+    public void evictModel(String index, String name, long seqNo) {
+        evict(new CacheKey(index, name), seqNo, modelCache, modelIndex);
+    }
+
+    private void evict(CacheKey key, long seqNo, Cache<CacheKey, ?> cache, KeyIndex index) {
+        if (index.invalidate(key, seqNo)) {
+            cache.invalidate(key);
+        }
+    }
+
+    private void evict(String index, Cache<CacheKey, ?> cache, KeyIndex keyIndex) {
+        for (CacheKey key : keyIndex.evictStore(index)) {
+            cache.invalidate(key);
         }
     }
 
@@ -187,6 +433,14 @@ public class Caches {
         return modelCache;
     }
 
+    public Cache<CacheKey, QueryBuilder> featureQueryCache() {
+        return featureQueryCache;
+    }
+
+    public FeatureScoreCaches featureScoreCaches() {
+        return featureScoreCaches;
+    }
+
     public Set<String> getCachedStoreNames() {
         return perStoreStats.keySet();
     }
@@ -207,6 +461,78 @@ public class Caches {
         return maxWeight;
     }
 
+    public long getMaxOffHeap() {
+        return maxOffHeap;
+    }
+
+    /**
+     * @return the memory held outside of the heap by the cached models, it is not bound by {@link #getMaxWeight()}
+     *         but by {@link #getMaxOffHeap()}
+     */
+    public long modelOffHeapBytes() {
+        return modelOffHeapBytes.get();
+    }
+
+    public TimeValue getRefreshAfterWrite() {
+        return TimeValue.timeValueNanos(refreshAfterWriteNanos);
+    }
+
+    /**
+     * Keys cached for each store, so that a store is evicted without scanning the whole cache,
+     * and versions of the store documents they were loaded from.
+     *
+     * Versions are the sequence numbers of the changes made to the store documents, they only grow
+     * since a store is a single shard index. The version of an entry is the highest sequence number
+     * invalidated for its key when the load started, the entry reflects at least this change of the
+     * document. An invalidation that is not newer has already been seen by the entry and does not evict it.
+     */
+    private static class KeyIndex {
+        private final Map<String, StoreKeys> stores = new ConcurrentHashMap<>();
+
+        long invalidatedVersion(CacheKey key) {
+            StoreKeys keys = stores.get(key.getStoreName());
+            return keys == null ? -1 : keys.invalidated.getOrDefault(key, -1L);
+        }
+
+        void onAdd(CacheKey key, long version) {
+            stores.computeIfAbsent(key.getStoreName(), (k) -> new StoreKeys()).cached.put(key, version);
+        }
+
+        void onRemove(RemovalNotification<CacheKey, ?> notification) {
+            if (notification.getRemovalReason() == RemovalNotification.RemovalReason.REPLACED) {
+                return;
+            }
+            StoreKeys keys = stores.get(notification.getKey().getStoreName());
+            if (keys != null) {
+                keys.cached.remove(notification.getKey());
+            }
+        }
+
+        /**
+         * @return true if the cached entry predates the given version and must be evicted
+         */
+        boolean invalidate(CacheKey key, long version) {
+            if (version < 0) {
+                return true;
+            }
+            StoreKeys keys = stores.computeIfAbsent(key.getStoreName(), (k) -> new StoreKeys());
+            keys.invalidated.merge(key, version, Math::max);
+            Long cachedVersion = keys.cached.get(key);
+            return cachedVersion == null || cachedVersion < version;
+        }
+
+        Collection<CacheKey> evictStore(String store) {
+            // sequence numbers restart when a store is deleted and created again
+            StoreKeys keys = stores.remove(store);
+            return keys == null ? Collections.emptyList() : keys.cached.keySet();
+        }
+
+        private static class StoreKeys {
+            private final Map<CacheKey, Long> cached = new ConcurrentHashMap<>();
+            private final Map<CacheKey, Long> invalidated = new ConcurrentHashMap<>();
+        }
+    }
+
     public static class CacheKey {
         private final String storeName;
         private final String id;
@@ -243,6 +569,45 @@ public class Caches {
         }
     }
 
+    /**
+     * Key of the query generated by a feature for a set of params.
+     */
+    public static class QueryCacheKey extends CacheKey implements Accountable {
+        private static final long BASE_RAM_USED = RamUsageEstimator.shallowSizeOfInstance(QueryCacheKey.class);
+        // query builders do not report their size, this is a rough estimate of a small bool or match query
+        private static final long QUERY_RAM_ESTIMATE = 1024;
+
+        private final Feature feature;
+        private final Map<String, Object> params;
+
+        public QueryCacheKey(String storeName, Feature feature, Map<String, Object> params) {
+            super(storeName, feature.name());
+            this.feature = feature;
+            this.params = params == null ? Collections.emptyMap() : params;
+        }
+
+        @Override
+        public long ramBytesUsed() {
+            // the feature is shared with the feature caches
+            return BASE_RAM_USED + RamUsageEstimator.sizeOfMap(params) + QUERY_RAM_ESTIMATE;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!super.equals(o)) return false;
+            QueryCacheKey that = (QueryCacheKey) o;
+            return feature.equals(that.feature) && params.equals(that.params);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = super.hashCode();
+            result = 31 * result + feature.hashCode();
+            result = 31 * result + params.hashCode();
+            return result;
+        }
+    }
+
     public static class PerStoreStats {
         public static final PerStoreStats EMPTY = new PerStoreStats();
         private final AtomicLong ramAll = new AtomicLong();
@@ -254,6 +619,9 @@ public class Caches {
         private final AtomicInteger featureSetCount = new AtomicInteger();
         private final AtomicLong modelRam = new AtomicLong();
         private final AtomicInteger modelCount = new AtomicInteger();
+        private final AtomicLong refreshCount = new AtomicLong();
+        private final AtomicLong refreshFailures = new AtomicLong();
+        private final AtomicLong refreshTimeNanos = new AtomicLong();
 
         PerStoreStats() {}
 
@@ -267,6 +635,18 @@ public class Caches {
             return this;
         }
 
+        private void onRefresh(long tookNanos, boolean success) {
+            if (this == EMPTY) {
+                // the store has been evicted while refreshing
+                return;
+            }
+            refreshCount.incrementAndGet();
+            refreshTimeNanos.addAndGet(tookNanos);
+            if (!success) {
+                refreshFailures.incrementAndGet();
+            }
+        }
+
         private long remove(Object elt) {
             return update(false, elt);
         }
@@ -334,5 +714,17 @@ public class Caches {
         public int modelCount() {
             return modelCount.get();
         }
+
+        public long refreshCount() {
+            return refreshCount.get();
+        }
+
+        public long refreshFailures() {
+            return refreshFailures.get();
+        }
+
+        public long refreshTimeNanos() {
+            return refreshTimeNanos.get();
+        }
     }
 }
@@ -28,6 +28,8 @@ import com.o19s.es.ltr.ranker.parser.LtrRankerParserFactory;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.message.ParameterizedMessage;
 import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRunnable;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.client.internal.Client;
@@ -64,6 +66,10 @@ public class IndexFeatureStore implements FeatureStore {
             VERSION, -1, Integer.MAX_VALUE, Setting.Property.IndexScope);
     public static final String DEFAULT_STORE = ".ltrstore";
     public static final String STORE_PREFIX = DEFAULT_STORE + "_";
+    /**
+     * Thread pool used to parse and compile the elements loaded asynchronously
+     */
+    public static final String LOADING_THREAD_POOL = "ltr_store_loading";
     private static final String MAPPING_FILE = "fstore-index-mapping.json";
     private static final String ANALYSIS_FILE = "fstore-index-analysis.json";
 
@@ -123,6 +129,16 @@ public class IndexFeatureStore implements FeatureStore {
         return featureSet.optimize();
     }
 
+    @Override
+    public void loadSet(String name, ActionListener<FeatureSet> listener) {
+        getAndParse(name, StoredFeatureSet.class, StoredFeatureSet.TYPE, listener.delegateFailureAndWrap((l, featureSet) -> {
+            if (featureSet == null) {
+                throw new IllegalArgumentException("Unknown featureset [" + name + "]");
+            }
+            l.onResponse(featureSet.optimize());
+        }));
+    }
+
     /**
      * Construct the elasticsearch index name based on a store name
      *
@@ -178,6 +194,16 @@ public class IndexFeatureStore implements FeatureStore {
         return model.compile(parserFactory);
     }
 
+    @Override
+    public void loadModel(String name, ActionListener<CompiledLtrModel> listener) {
+        getAndParse(name, StoredLtrModel.class, StoredLtrModel.TYPE, listener.delegateFailureAndWrap((l, model) -> {
+            if (model == null) {
+                throw new IllegalArgumentException("Unknown model [" + name + "]");
+            }
+            l.onResponse(model.compile(parserFactory));
+        }));
+    }
+
     public <E extends StorableElement> E getAndParse(String name, Class<E> eltClass, String type) throws IOException {
         GetResponse response = internalGet(generateId(type, name)).get();
         if (response.isExists()) {
@@ -187,6 +213,17 @@ public class IndexFeatureStore implements FeatureStore {
         }
     }
 
+    /**
+     * Fetch and parse an element without blocking the calling thread, the listener is
+     * notified on the {@link #LOADING_THREAD_POOL} so that it can compile the element.
+     */
+    public <E extends StorableElement> void getAndParse(String name, Class<E> eltClass, String type, ActionListener<E> listener) {
+        Client client = clientSupplier.get();
+        client.prepareGet(index, generateId(type, name)).execute(listener.delegateFailureAndWrap((l, response) ->
+                client.threadPool().executor(LOADING_THREAD_POOL).execute(ActionRunnable.supply(l, () ->
+                        response.isExists() ? parse(eltClass, type, response.getSourceAsBytesRef()) : null))));
+    }
+
     public GetResponse getFeature(String name) {
         return internalGet(generateId(StoredFeature.TYPE, name)).get();
     }
@@ -0,0 +1,264 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.logging;
+
+import org.elasticsearch.TransportVersion;
+import org.elasticsearch.TransportVersions;
+import org.elasticsearch.common.io.stream.GenericNamedWriteable;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.xcontent.ToXContent;
+import org.elasticsearch.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Compact log of the feature values of a hit.
+ *
+ * The feature names are shared by all the hits logged with the same logger and
+ * the values are stored in a float array, NaN for the features that did not
+ * match. On the wire every log carries its names, they are interned when read
+ * so that the logs of a search response share them. With the {@link Format#JSON}
+ * format the log is rendered like the default log:
+ * <pre>
+ * [
+ *      {
+ *          "name": "featureName",
+ *          "value": 1.33
+ *      },
+ *      {
+ *          "name": "otherFeatureName",
+ *      }
+ * ]
+ * </pre>
+ * With the {@link Format#BINARY} format the names are not repeated and the
+ * values are packed in a single binary value:
+ * <pre>
+ * {
+ *      "feature_set": "my_set",
+ *      "values": "AACAPwAAwH8="
+ * }
+ * </pre>
+ * The values are the little-endian IEEE 754 floats of all the features in the
+ * order of the feature set, NaN for the features that did not match. Binary
+ * values are encoded in base64 in JSON responses and written as raw bytes in
+ * CBOR and SMILE responses.
+ */
+public class FeatureLog implements GenericNamedWriteable, ToXContent {
+    public static final String NAME = "ltr_feature_log";
+    private static final String EXTRA_LOGGING_NAME = "extra_logging";
+
+    private final String featureSet;
+    private final String[] names;
+    private final Format format;
+    private final float[] values;
+    private Map<String, Object> extraLogging;
+
+    /**
+     * @param featureSet the name of the feature set
+     * @param names the feature names, not copied
+     * @param format how the log is rendered
+     * @param defaultValue the value of the features not logged, NaN to omit them
+     */
+    FeatureLog(String featureSet, String[] names, Format format, float defaultValue) {
+        this.featureSet = featureSet;
+        this.names = Objects.requireNonNull(names);
+        this.format = Objects.requireNonNull(format);
+        this.values = new float[names.length];
+        Arrays.fill(values, defaultValue);
+    }
+
+    public FeatureLog(StreamInput in) throws IOException {
+        featureSet = in.readOptionalString();
+        names = in.readStringArray();
+        for (int i = 0; i < names.length; i++) {
+            names[i] = names[i].intern();
+        }
+        format = in.readEnum(Format.class);
+        values = in.readFloatArray();
+        extraLogging = in.readBoolean() ? in.readGenericMap() : null;
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeOptionalString(featureSet);
+        out.writeStringArray(names);
+        out.writeEnum(format);
+        out.writeFloatArray(values);
+        out.writeBoolean(extraLogging != null);
+        if (extraLogging != null) {
+            out.writeGenericMap(extraLogging);
+        }
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+
+    @Override
+    public TransportVersion getMinimalSupportedVersion() {
+        return TransportVersions.V_7_0_0;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        if (format == Format.BINARY) {
+            builder.startObject();
+            builder.field("feature_set", featureSet);
+            builder.field("values", packValues());
+            if (extraLogging != null) {
+                builder.field(EXTRA_LOGGING_NAME, extraLogging);
+            }
+            return builder.endObject();
+        }
+        builder.startArray();
+        for (int i = 0; i < names.length; i++) {
+            builder.startObject();
+            builder.field("name", names[i]);
+            if (!Float.isNaN(values[i])) {
+                builder.field("value", values[i]);
+            }
+            builder.endObject();
+        }
+        if (extraLogging != null) {
+            builder.startObject();
+            builder.field("name", EXTRA_LOGGING_NAME);
+            builder.field("value", extraLogging);
+            builder.endObject();
+        }
+        return builder.endArray();
+    }
+
+    private byte[] packValues() {
+        byte[] bytes = new byte[values.length * Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().put(values);
+        return bytes;
+    }
+
+    /**
+     * @return the name of the feature set
+     */
+    public String featureSet() {
+        return featureSet;
+    }
+
+    /**
+     * @return how the log is rendered
+     */
+    public Format format() {
+        return format;
+    }
+
+    /**
+     * @return the number of features
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @param ordinal the feature ordinal
+     * @return the feature name
+     */
+    public String name(int ordinal) {
+        return names[ordinal];
+    }
+
+    /**
+     * @param ordinal the feature ordinal
+     * @return the logged value, NaN if the feature was not logged
+     */
+    public float value(int ordinal) {
+        return values[ordinal];
+    }
+
+    void setValue(int ordinal, float value) {
+        values[ordinal] = value;
+    }
+
+    /**
+     * @return the additional logging information, null if none was logged
+     */
+    public Map<String, Object> getExtraLogging() {
+        return extraLogging;
+    }
+
+    /**
+     * The Map is created on first access.
+     */
+    Map<String, Object> getOrCreateExtraLogging() {
+        if (extraLogging == null) {
+            extraLogging = new HashMap<>();
+        }
+        return extraLogging;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FeatureLog that = (FeatureLog) o;
+        return Objects.equals(featureSet, that.featureSet) &&
+                Arrays.equals(names, that.names) &&
+                format == that.format &&
+                Arrays.equals(values, that.values) &&
+                Objects.equals(extraLogging, that.extraLogging);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(featureSet, Arrays.hashCode(names), format, Arrays.hashCode(values), extraLogging);
+    }
+
+    /**
+     * Output formats of the feature logs.
+     */
+    public enum Format {
+        /**
+         * A list of objects holding the name and the value of every feature.
+         */
+        JSON,
+        /**
+         * The values of all the features packed in a single binary value.
+         */
+        BINARY;
+
+        public String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        public static Format fromName(String name) {
+            for (Format format : values()) {
+                if (format.getName().equals(name)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unknown log format [" + name + "], expected one of " + Arrays.stream(values())
+                    .map(Format::getName)
+                    .collect(Collectors.joining(", ", "[", "]")));
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package com.o19s.es.ltr.logging;
 
 import com.o19s.es.ltr.feature.FeatureSet;
+import com.o19s.es.ltr.feature.store.ScriptFeature;
 import com.o19s.es.ltr.query.RankerQuery;
 import com.o19s.es.ltr.ranker.LogLtrRanker;
 import com.o19s.es.ltr.utils.Suppliers;
@@ -58,26 +59,26 @@ public class LoggingFetchSubPhase implements FetchSubPhase {
         // NOTE: we do not support logging on nested hits but sadly at this point we cannot know
         // if we are going to run on top level hits or nested hits.
         // Delegate creation of the loggers until we know the hits checking for SearchHit#getNestedIdentity
-        CheckedSupplier<Tuple<Weight, List<HitLogConsumer>>, IOException> weigthtAndLogSpecsSupplier = () -> {
-            List<HitLogConsumer> loggers = new ArrayList<>();
+        CheckedSupplier<List<Tuple<RankerQuery, HitLogConsumer>>, IOException> loggersSupplier = () -> {
+            List<Tuple<RankerQuery, HitLogConsumer>> loggers = new ArrayList<>();
             Map<String, Query> namedQueries = context.parsedQuery().namedFilters();
+            ext.logSpecsStream().filter((l) -> l.getNamedQuery() != null).forEach((l) -> loggers.add(extractQuery(l, namedQueries)));
+            ext.logSpecsStream().filter((l) -> l.getRescoreIndex() != null).forEach((l) ->
+                    loggers.add(extractRescore(l, context.rescore())));
+            return loggers;
+        };
+        CheckedSupplier<List<Tuple<RankerQuery, HitLogConsumer>>, IOException> memoizedLoggers =
+                Suppliers.memoizeCheckedSupplier(loggersSupplier);
+        // Only needed when the feature scores were not cached by the query phase
+        CheckedSupplier<Weight, IOException> weightSupplier = () -> {
             BooleanQuery.Builder builder = new BooleanQuery.Builder();
-            ext.logSpecsStream().filter((l) -> l.getNamedQuery() != null).forEach((l) -> {
-                Tuple<RankerQuery, HitLogConsumer> query = extractQuery(l, namedQueries);
-                builder.add(new BooleanClause(query.v1(), BooleanClause.Occur.MUST));
-                loggers.add(query.v2());
-            });
-            ext.logSpecsStream().filter((l) -> l.getRescoreIndex() != null).forEach((l) -> {
-                Tuple<RankerQuery, HitLogConsumer> query = extractRescore(l, context.rescore());
-                builder.add(new BooleanClause(query.v1(), BooleanClause.Occur.MUST));
-                loggers.add(query.v2());
-            });
-            Weight w = context.searcher().rewrite(builder.build()).createWeight(context.searcher(), ScoreMode.COMPLETE, 1.0F);
-            return new Tuple<>(w, loggers);
+            for (Tuple<RankerQuery, HitLogConsumer> logger : memoizedLoggers.get()) {
+                builder.add(new BooleanClause(logger.v1(), BooleanClause.Occur.MUST));
+            }
+            return context.searcher().rewrite(builder.build()).createWeight(context.searcher(), ScoreMode.COMPLETE, 1.0F);
         };
 
-
-        return new LoggingFetchSubPhaseProcessor(Suppliers.memoizeCheckedSupplier(weigthtAndLogSpecsSupplier));
+        return new LoggingFetchSubPhaseProcessor(memoizedLoggers, Suppliers.memoizeCheckedSupplier(weightSupplier));
     }
 
     private Tuple<RankerQuery, HitLogConsumer> extractQuery(LoggingSearchExtBuilder.LogSpec
@@ -124,17 +125,36 @@ public class LoggingFetchSubPhase implements FetchSubPhase {
     }
 
     private Tuple<RankerQuery, HitLogConsumer> toLogger(LoggingSearchExtBuilder.LogSpec logSpec, RankerQuery query) {
-        HitLogConsumer consumer = new HitLogConsumer(logSpec.getLoggerName(), query.featureSet(), logSpec.isMissingAsZero());
-        query = query.toLoggerQuery(consumer);
+        HitLogConsumer consumer = new HitLogConsumer(logSpec.getLoggerName(), query.featureSet(), logSpec.isMissingAsZero(),
+                logSpec.isCompact(), logSpec.getFormat());
+        // script features add their extra logging only when they run
+        query = query.toLoggerQuery(consumer, !hasScriptFeature(query.featureSet()));
         return new Tuple<>(query, consumer);
     }
+
+    private static boolean hasScriptFeature(FeatureSet set) {
+        for (int i = 0; i < set.size(); i++) {
+            if (set.feature(i) instanceof ScriptFeature) {
+                return true;
+            }
+        }
+        return false;
+    }
     static class LoggingFetchSubPhaseProcessor implements FetchSubPhaseProcessor {
-        private final CheckedSupplier<Tuple<Weight, List<HitLogConsumer>>, IOException> loggersSupplier;
+        private final CheckedSupplier<List<Tuple<RankerQuery, HitLogConsumer>>, IOException> loggersSupplier;
+        private final CheckedSupplier<Weight, IOException> weightSupplier;
         private Scorer scorer;
         private LeafReaderContext currentContext;
 
-        LoggingFetchSubPhaseProcessor(CheckedSupplier<Tuple<Weight, List<HitLogConsumer>>, IOException> loggersSupplier) {
+        /**
+         * @param loggersSupplier the logger queries, built with {@link RankerQuery#toLoggerQuery(LogLtrRanker.LogConsumer)},
+         *                        and their consumers
+         * @param weightSupplier the weight of the conjunction of the logger queries
+         */
+        LoggingFetchSubPhaseProcessor(CheckedSupplier<List<Tuple<RankerQuery, HitLogConsumer>>, IOException> loggersSupplier,
+                                      CheckedSupplier<Weight, IOException> weightSupplier) {
             this.loggersSupplier = loggersSupplier;
+            this.weightSupplier = weightSupplier;
         }
 
 
@@ -150,18 +170,39 @@ public class LoggingFetchSubPhase implements FetchSubPhase {
                 // we do not support logging nested docs
                 return;
             }
-            Tuple<Weight, List<HitLogConsumer>> weightAndLoggers = loggersSupplier.get();
+            List<Tuple<RankerQuery, HitLogConsumer>> loggers = loggersSupplier.get();
+            if (logCachedFeatures(loggers, currentContext.docBase + hitContext.docId(), hitContext.hit())) {
+                return;
+            }
             if (scorer == null) {
-                scorer = weightAndLoggers.v1().scorer(currentContext);
+                scorer = weightSupplier.get().scorer(currentContext);
             }
-            List<HitLogConsumer> loggers = weightAndLoggers.v2();
             if (scorer != null && scorer.iterator().advance(hitContext.docId()) == hitContext.docId()) {
-                loggers.forEach((l) -> l.nextDoc(hitContext.hit()));
+                loggers.forEach((l) -> l.v2().nextDoc(hitContext.hit()));
                 // Scoring will trigger log collection
                 scorer.score();
             }
         }
 
+        /**
+         * Log the feature scores cached when the queries were run during the query phase.
+         *
+         * @return false if the scores of one of the queries are not cached, nothing is logged then
+         */
+        private static boolean logCachedFeatures(List<Tuple<RankerQuery, HitLogConsumer>> loggers, int doc, SearchHit hit) {
+            for (Tuple<RankerQuery, HitLogConsumer> logger : loggers) {
+                if (!logger.v1().hasCachedFeatures(doc)) {
+                    return false;
+                }
+            }
+            for (Tuple<RankerQuery, HitLogConsumer> logger : loggers) {
+                logger.v2().nextDoc(hit);
+                boolean cached = logger.v1().logCachedFeatures(doc);
+                assert cached;
+            }
+            return true;
+        }
+
         @Override
         public StoredFieldsSpec storedFieldsSpec() {
           return StoredFieldsSpec.NO_REQUIREMENTS;
@@ -174,6 +215,9 @@ public class LoggingFetchSubPhase implements FetchSubPhase {
         private final String name;
         private final FeatureSet set;
         private final boolean missingAsZero;
+        // feature names shared by the compact logs, null if the default log is used
+        private final String[] featureNames;
+        private final FeatureLog.Format format;
 
         // [
         //      {
@@ -185,14 +229,32 @@ public class LoggingFetchSubPhase implements FetchSubPhase {
         //      }
         // ]
         private List<Map<String, Object>> currentLog;
+        private FeatureLog currentCompactLog;
         private SearchHit currentHit;
         private Map<String, Object> extraLogging;
 
 
         HitLogConsumer(String name, FeatureSet set, boolean missingAsZero) {
+            this(name, set, missingAsZero, false, FeatureLog.Format.JSON);
+        }
+
+        /**
+         * @param compact log the hits with a {@link FeatureLog} instead of a map per feature
+         * @param format the format of the compact logs
+         */
+        HitLogConsumer(String name, FeatureSet set, boolean missingAsZero, boolean compact, FeatureLog.Format format) {
             this.name = name;
             this.set = set;
             this.missingAsZero = missingAsZero;
+            this.format = format;
+            if (compact) {
+                featureNames = new String[set.size()];
+                for (int i = 0; i < set.size(); i++) {
+                    featureNames[i] = set.feature(i).name();
+                }
+            } else {
+                featureNames = null;
+            }
         }
 
         private void rebuild() {
@@ -214,8 +276,12 @@ public class LoggingFetchSubPhase implements FetchSubPhase {
 
         @Override
         public void accept(int featureOrdinal, float score) {
-            assert currentLog != null;
             assert currentHit != null;
+            if (currentCompactLog != null) {
+                currentCompactLog.setValue(featureOrdinal, score);
+                return;
+            }
+            assert currentLog != null;
             currentLog.get(featureOrdinal).put("value", score);
         }
 
@@ -226,6 +292,9 @@ public class LoggingFetchSubPhase implements FetchSubPhase {
          */
         @Override
         public Map<String, Object> getExtraLoggingMap() {
+            if (currentCompactLog != null) {
+                return currentCompactLog.getOrCreateExtraLogging();
+            }
             if (extraLogging == null) {
                 extraLogging = new HashMap<>();
                 Map<String, Object> logEntry = new HashMap<>();
@@ -242,14 +311,19 @@ public class LoggingFetchSubPhase implements FetchSubPhase {
                 logs = newLogField();
                 hit.setDocumentField(FIELD_NAME, logs);
             }
-            Map<String, List<Map<String, Object>>> entries = logs.getValue();
-            rebuild();
+            Map<String, Object> entries = logs.getValue();
             currentHit = hit;
-            entries.put(name, currentLog);
+            if (featureNames != null) {
+                currentCompactLog = new FeatureLog(set.name(), featureNames, format, missingAsZero ? 0F : Float.NaN);
+                entries.put(name, currentCompactLog);
+            } else {
+                rebuild();
+                entries.put(name, currentLog);
+            }
         }
 
         DocumentField newLogField() {
-            List<Object> logList = Collections.singletonList(new HashMap<String, List<Map<String, Object>>>());
+            List<Object> logList = Collections.singletonList(new HashMap<String, Object>());
             return new DocumentField(FIELD_NAME, logList);
         }
     }
@@ -91,12 +91,40 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
     }
 
     public LoggingSearchExtBuilder addQueryLogging(String name, String namedQuery, boolean missingAsZero) {
-        addLogSpec(new LogSpec(name, Objects.requireNonNull(namedQuery), missingAsZero));
+        return addQueryLogging(name, namedQuery, missingAsZero, false);
+    }
+
+    public LoggingSearchExtBuilder addQueryLogging(String name, String namedQuery, boolean missingAsZero, boolean compact) {
+        addLogSpec(new LogSpec(name, Objects.requireNonNull(namedQuery), missingAsZero, compact));
         return this;
     }
 
     public LoggingSearchExtBuilder addRescoreLogging(String name, int rescoreIndex, boolean missingAsZero) {
-        addLogSpec(new LogSpec(name, rescoreIndex, missingAsZero));
+        return addRescoreLogging(name, rescoreIndex, missingAsZero, false);
+    }
+
+    public LoggingSearchExtBuilder addRescoreLogging(String name, int rescoreIndex, boolean missingAsZero, boolean compact) {
+        addLogSpec(new LogSpec(name, rescoreIndex, missingAsZero, compact));
+        return this;
+    }
+
+    /**
+     * Log the features of a query with the binary format.
+     */
+    public LoggingSearchExtBuilder addBinaryQueryLogging(String name, String namedQuery, boolean missingAsZero) {
+        LogSpec spec = new LogSpec(name, Objects.requireNonNull(namedQuery), missingAsZero, false);
+        spec.setFormat(FeatureLog.Format.BINARY);
+        addLogSpec(spec);
+        return this;
+    }
+
+    /**
+     * Log the features of a rescore query with the binary format.
+     */
+    public LoggingSearchExtBuilder addBinaryRescoreLogging(String name, int rescoreIndex, boolean missingAsZero) {
+        LogSpec spec = new LogSpec(name, rescoreIndex, missingAsZero, false);
+        spec.setFormat(FeatureLog.Format.BINARY);
+        addLogSpec(spec);
         return this;
     }
 
@@ -129,6 +157,8 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
         private static final ParseField NAMED_QUERY = new ParseField("named_query");
         private static final ParseField RESCORE_INDEX = new ParseField("rescore_index");
         private static final ParseField MISSING_AS_ZERO = new ParseField("missing_as_zero");
+        private static final ParseField COMPACT = new ParseField("compact");
+        private static final ParseField FORMAT = new ParseField("format");
 
         private static final ObjectParser<LogSpec, Void> PARSER;
 
@@ -138,24 +168,30 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
             PARSER.declareString(LogSpec::setNamedQuery, NAMED_QUERY);
             PARSER.declareInt(LogSpec::setRescoreIndex, RESCORE_INDEX);
             PARSER.declareBoolean(LogSpec::setMissingAsZero, MISSING_AS_ZERO);
+            PARSER.declareBoolean(LogSpec::setCompact, COMPACT);
+            PARSER.declareString((s, f) -> s.setFormat(FeatureLog.Format.fromName(f)), FORMAT);
         }
         private String loggerName;
         private String namedQuery;
         private Integer rescoreIndex;
         private boolean missingAsZero;
+        private boolean compact;
+        private FeatureLog.Format format = FeatureLog.Format.JSON;
 
         private LogSpec() {}
 
-        LogSpec(@Nullable String loggerName, String namedQuery, boolean missingAsZero) {
+        LogSpec(@Nullable String loggerName, String namedQuery, boolean missingAsZero, boolean compact) {
             this.loggerName = loggerName;
             this.namedQuery = Objects.requireNonNull(namedQuery);
             this.missingAsZero = missingAsZero;
+            this.compact = compact;
         }
 
-        LogSpec(@Nullable String loggerName, int rescoreIndex, boolean missingAsZero) {
+        LogSpec(@Nullable String loggerName, int rescoreIndex, boolean missingAsZero, boolean compact) {
             this.loggerName = loggerName;
             this.rescoreIndex = rescoreIndex;
             this.missingAsZero = missingAsZero;
+            this.compact = compact;
         }
 
         private LogSpec(StreamInput input) throws IOException {
@@ -163,6 +199,8 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
             namedQuery = input.readOptionalString();
             rescoreIndex = input.readOptionalVInt();
             missingAsZero = input.readBoolean();
+            compact = input.readBoolean();
+            format = input.readEnum(FeatureLog.Format.class);
         }
 
         @Override
@@ -171,6 +209,8 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
             out.writeOptionalString(namedQuery);
             out.writeOptionalVInt(rescoreIndex);
             out.writeBoolean(missingAsZero);
+            out.writeBoolean(compact);
+            out.writeEnum(format);
         }
 
         private static LogSpec parse(XContentParser parser, Void context) throws IOException {
@@ -203,6 +243,12 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
             if (missingAsZero) {
                 builder.field(MISSING_AS_ZERO.getPreferredName(), missingAsZero);
             }
+            if (compact) {
+                builder.field(COMPACT.getPreferredName(), compact);
+            }
+            if (format != FeatureLog.Format.JSON) {
+                builder.field(FORMAT.getPreferredName(), format.getName());
+            }
             return builder.endObject();
         }
 
@@ -214,6 +260,8 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
             LogSpec logSpec = (LogSpec) o;
 
             if (missingAsZero != logSpec.missingAsZero) return false;
+            if (compact != logSpec.compact) return false;
+            if (format != logSpec.format) return false;
             if (loggerName != null ? !loggerName.equals(logSpec.loggerName) : logSpec.loggerName != null) return false;
             if (namedQuery != null ? !namedQuery.equals(logSpec.namedQuery) : logSpec.namedQuery != null) return false;
             return rescoreIndex != null ? rescoreIndex.equals(logSpec.rescoreIndex) : logSpec.rescoreIndex == null;
@@ -225,6 +273,8 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
             result = 31 * result + (namedQuery != null ? namedQuery.hashCode() : 0);
             result = 31 * result + (rescoreIndex != null ? rescoreIndex.hashCode() : 0);
             result = 31 * result + (missingAsZero ? 1 : 0);
+            result = 31 * result + (compact ? 1 : 0);
+            result = 31 * result + format.hashCode();
             return result;
         }
 
@@ -262,5 +312,24 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
         private void setMissingAsZero(boolean missingAsZero) {
             this.missingAsZero = missingAsZero;
         }
+
+        /**
+         * @return true if the hits are logged with a {@link FeatureLog}, always the case with the binary format
+         */
+        public boolean isCompact() {
+            return compact || format != FeatureLog.Format.JSON;
+        }
+
+        public FeatureLog.Format getFormat() {
+            return format;
+        }
+
+        private void setFormat(FeatureLog.Format format) {
+            this.format = format;
+        }
+
+        private void setCompact(boolean compact) {
+            this.compact = compact;
+        }
     }
 }
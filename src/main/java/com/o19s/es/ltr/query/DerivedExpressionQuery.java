@@ -69,7 +69,7 @@ public class DerivedExpressionQuery extends Query implements LtrRewritableQuery
 
     @Override
     public Query ltrRewrite(LtrRewriteContext context) {
-        return new FVDerivedExpressionQuery(this, context.getFeatureVectorSupplier());
+        return new FVDerivedExpressionQuery(this);
     }
 
     @Override
@@ -84,11 +84,9 @@ public class DerivedExpressionQuery extends Query implements LtrRewritableQuery
 
     static final class FVDerivedExpressionQuery extends Query {
         private final DerivedExpressionQuery query;
-        private final Supplier<LtrRanker.FeatureVector> fvSupplier;
 
-        FVDerivedExpressionQuery(DerivedExpressionQuery query, Supplier<LtrRanker.FeatureVector> fvSupplier) {
+        FVDerivedExpressionQuery(DerivedExpressionQuery query) {
             this.query = query;
-            this.fvSupplier = fvSupplier;
         }
 
         @Override
@@ -123,8 +121,7 @@ public class DerivedExpressionQuery extends Query implements LtrRewritableQuery
             // Should not be called as it is likely an indication that it'll be cached but
             // should not...
             return sameClassAs(obj) &&
-                    Objects.equals(this.query, ((FVDerivedExpressionQuery) obj).query) &&
-                    Objects.equals(this.fvSupplier, ((FVDerivedExpressionQuery) obj).fvSupplier);
+                    Objects.equals(this.query, ((FVDerivedExpressionQuery) obj).query);
         }
 
         @Override
@@ -132,7 +129,7 @@ public class DerivedExpressionQuery extends Query implements LtrRewritableQuery
             assert false;
             // Should not be called as it is likely an indication that it'll be cached but
             // should not...
-            return Objects.hash(classHash(), query, fvSupplier);
+            return Objects.hash(classHash(), query);
         }
 
         @Override
@@ -141,10 +138,9 @@ public class DerivedExpressionQuery extends Query implements LtrRewritableQuery
         }
     }
 
-    static class FVWeight extends Weight {
+    static class FVWeight extends Weight implements FeatureVectorWeight {
         private final FeatureSet features;
         private final DoubleValuesScript expression;
-        private final Supplier<LtrRanker.FeatureVector> vectorSupplier;
         private final Map<String, Double> queryParamValues;
 
         FVWeight(FVDerivedExpressionQuery query) {
@@ -152,7 +148,6 @@ public class DerivedExpressionQuery extends Query implements LtrRewritableQuery
             features = query.query.features;
             expression = query.query.expression;
             queryParamValues = query.query.queryParamValues;
-            vectorSupplier = query.fvSupplier;
         }
 
         public void extractTerms(Set<Term> terms) {
@@ -161,6 +156,12 @@ public class DerivedExpressionQuery extends Query implements LtrRewritableQuery
 
         @Override
         public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+            throw new IllegalStateException("Derived expressions are only explained by their RankerQuery");
+        }
+
+        @Override
+        public Explanation explain(LeafReaderContext context, int doc, Supplier<LtrRanker.FeatureVector> vectorSupplier)
+                throws IOException {
             DoubleValuesSource src = expression.getDoubleValuesSource((name) -> {
                 return new FVDoubleValuesSource(vectorSupplier, features.featureOrdinal(name));
             });
@@ -177,6 +178,11 @@ public class DerivedExpressionQuery extends Query implements LtrRewritableQuery
 
         @Override
         public ScorerSupplier scorerSupplier(LeafReaderContext context) throws IOException {
+            throw new IllegalStateException("Derived expressions are only scored by their RankerQuery");
+        }
+
+        @Override
+        public Scorer scorer(LeafReaderContext context, Supplier<LtrRanker.FeatureVector> vectorSupplier) throws IOException {
             DocIdSetIterator iterator = DocIdSetIterator.all(context.reader().maxDoc());
             DoubleValuesSource src = expression.getDoubleValuesSource((name) -> {
                 Double queryParamValue = queryParamValues.get(name);
@@ -187,7 +193,7 @@ public class DerivedExpressionQuery extends Query implements LtrRewritableQuery
             });
             DoubleValues values = src.getValues(context, null);
 
-            return new Weight.DefaultScorerSupplier(new DValScorer(iterator, values));
+            return new DValScorer(iterator, values);
         }
     }
 
@@ -0,0 +1,199 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.query;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.elasticsearch.common.settings.Setting;
+
+import java.util.Arrays;
+
+/**
+ * Feature scores of the docs scored by a {@link RankerQuery}, used to reuse
+ * the scores computed during the rescore phase when logging features.
+ *
+ * Doc ids are mapped to an offset in a single float slab holding the scores
+ * of all the cached docs. Once {@code maxDocs} docs are cached new docs are
+ * no longer added. Instances are shared by the leaves of the shard and may
+ * be accessed concurrently.
+ *
+ * The query and fetch phases of a search parse the request separately, caches
+ * obtained from {@link FeatureScoreCaches} outlive the query so that the fetch
+ * phase of the same search finds the scores computed by its query phase. Their
+ * growth is charged to the node and they no longer return scores once dropped.
+ */
+public final class FeatureScoreCache {
+    public static final Setting<Integer> LTR_FEATURE_SCORE_CACHE_MAX_DOCS = Setting.intSetting(
+            "ltr.feature_score_cache.max_docs", 10000, 0, Setting.Property.NodeScope);
+
+    private static final int EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 64;
+    // the docs and offsets tables of an empty cache
+    static final long INITIAL_BYTES = 2L * INITIAL_CAPACITY * Integer.BYTES;
+
+    private final int numFeatures;
+    private final int maxDocs;
+    // null if this cache is private to a query
+    private final FeatureScoreCaches owner;
+    // open addressing table, slot -> doc id and slot -> offset of its scores in the slab
+    private int[] docs;
+    private int[] offsets;
+    private float[] slab;
+    private int size;
+    // set once the node refused to charge the growth of this cache
+    private boolean full;
+    // set once the node dropped this cache, its memory is no longer charged
+    private volatile boolean dropped;
+
+    /**
+     * @param numFeatures the number of features per doc
+     * @param maxDocs the maximum number of docs to cache
+     */
+    public FeatureScoreCache(int numFeatures, int maxDocs) {
+        this(numFeatures, maxDocs, null);
+    }
+
+    FeatureScoreCache(int numFeatures, int maxDocs, FeatureScoreCaches owner) {
+        this.numFeatures = numFeatures;
+        this.maxDocs = maxDocs;
+        this.owner = owner;
+        docs = new int[INITIAL_CAPACITY];
+        Arrays.fill(docs, EMPTY);
+        offsets = new int[INITIAL_CAPACITY];
+        slab = new float[0];
+    }
+
+    /**
+     * @param doc the shard level doc id
+     * @return true if the scores of this doc are cached
+     */
+    public synchronized boolean contains(int doc) {
+        return !dropped && docs[slot(doc)] == doc;
+    }
+
+    /**
+     * Load the cached scores of a doc.
+     *
+     * @param doc the shard level doc id
+     * @param scores receives the feature scores, NaN for the features that did not match
+     * @return true if the doc was cached, false if scores was left untouched
+     */
+    public synchronized boolean get(int doc, float[] scores) {
+        assert scores.length >= numFeatures;
+        int slot = slot(doc);
+        if (dropped || docs[slot] != doc) {
+            if (owner != null) {
+                owner.onMiss();
+            }
+            return false;
+        }
+        if (owner != null) {
+            owner.onHit();
+        }
+        System.arraycopy(slab, offsets[slot], scores, 0, numFeatures);
+        return true;
+    }
+
+    /**
+     * Cache the scores of a doc, this is a no-op if the doc is already
+     * cached, if the cache is full or if the node refuses its growth.
+     *
+     * @param doc the shard level doc id
+     * @param scores the feature scores, NaN for the features that did not match
+     */
+    public synchronized void put(int doc, float[] scores) {
+        assert doc >= 0;
+        assert scores.length >= numFeatures;
+        if (size >= maxDocs || full || dropped) {
+            return;
+        }
+        int slot = slot(doc);
+        if (docs[slot] == doc) {
+            return;
+        }
+        int offset = size * numFeatures;
+        if (offset + numFeatures > slab.length) {
+            int length = ArrayUtil.oversize(offset + numFeatures, Float.BYTES);
+            if (!reserve((long) (length - slab.length) * Float.BYTES)) {
+                return;
+            }
+            slab = ArrayUtil.growExact(slab, length);
+        }
+        // keep the table at most half full
+        if ((size + 1) * 2 > docs.length) {
+            // doubles the docs and offsets tables
+            if (!reserve((long) docs.length * 2 * Integer.BYTES)) {
+                return;
+            }
+            rehash();
+            slot = slot(doc);
+        }
+        System.arraycopy(scores, 0, slab, offset, numFeatures);
+        docs[slot] = doc;
+        offsets[slot] = offset;
+        size++;
+    }
+
+    /**
+     * @return the number of cached docs
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    int numFeatures() {
+        return numFeatures;
+    }
+
+    void drop() {
+        dropped = true;
+    }
+
+    private boolean reserve(long bytes) {
+        if (owner != null && !owner.reserve(this, bytes)) {
+            full = true;
+        }
+        return !full;
+    }
+
+    /**
+     * @return the slot holding doc or the empty slot where it should be inserted
+     */
+    private int slot(int doc) {
+        int mask = docs.length - 1;
+        int hash = doc * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (docs[slot] != EMPTY && docs[slot] != doc) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        int[] oldDocs = docs;
+        int[] oldOffsets = offsets;
+        docs = new int[oldDocs.length * 2];
+        Arrays.fill(docs, EMPTY);
+        offsets = new int[docs.length];
+        for (int i = 0; i < oldDocs.length; i++) {
+            if (oldDocs[i] != EMPTY) {
+                int slot = slot(oldDocs[i]);
+                docs[slot] = oldDocs[i];
+                offsets[slot] = oldOffsets[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.query;
+
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.Query;
+import org.elasticsearch.index.shard.SearchOperationListener;
+import org.elasticsearch.search.internal.ReaderContext;
+import org.elasticsearch.search.internal.SearchContext;
+import org.elasticsearch.search.rescore.QueryRescorer;
+import org.elasticsearch.search.rescore.RescoreContext;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands the feature score caches of the query phase to the fetch phase of the same search.
+ *
+ * The fetch phase parses the request again, the caches of the named and rescore [sltr] queries
+ * of the query phase are kept in the reader context of the search and replace the caches of
+ * the matching queries of the fetch phase. They are released with the reader context, or by
+ * the next query phase of a scroll.
+ */
+public final class FeatureScoreCacheListener implements SearchOperationListener {
+    private static final String CONTEXT_KEY = "ltr_feature_score_caches";
+
+    private final FeatureScoreCaches caches;
+
+    public FeatureScoreCacheListener(FeatureScoreCaches caches) {
+        this.caches = caches;
+    }
+
+    @Override
+    public void onQueryPhase(SearchContext context, long tookInNanos) {
+        Map<String, FeatureScoreCache> queryCaches = new HashMap<>();
+        cachedQueries(context).forEach((key, query) -> queryCaches.put(key, query.featureScoreCache()));
+        ReaderContext readerContext = context.readerContext();
+        Map<String, FeatureScoreCache> previous = readerContext.getFromContext(CONTEXT_KEY);
+        readerContext.putInContext(CONTEXT_KEY, queryCaches);
+        if (previous != null) {
+            release(previous, queryCaches);
+        }
+    }
+
+    @Override
+    public void onFailedQueryPhase(SearchContext context) {
+        cachedQueries(context).values().forEach((query) -> caches.release(query.featureScoreCache()));
+    }
+
+    @Override
+    public void onPreFetchPhase(SearchContext context) {
+        Map<String, FeatureScoreCache> queryCaches = context.readerContext().getFromContext(CONTEXT_KEY);
+        if (queryCaches == null) {
+            return;
+        }
+        cachedQueries(context).forEach((key, query) -> {
+            FeatureScoreCache cache = queryCaches.get(key);
+            FeatureScoreCache own = query.featureScoreCache();
+            if (cache != null && cache != own && cache.numFeatures() == query.featureSet().size()) {
+                caches.release(own);
+                query.useFeatureScoreCache(cache);
+            }
+        });
+    }
+
+    @Override
+    public void onFetchPhase(SearchContext context, long tookInNanos) {
+        releaseFetchCaches(context);
+    }
+
+    @Override
+    public void onFailedFetchPhase(SearchContext context) {
+        releaseFetchCaches(context);
+    }
+
+    @Override
+    public void onFreeReaderContext(ReaderContext readerContext) {
+        Map<String, FeatureScoreCache> queryCaches = readerContext.getFromContext(CONTEXT_KEY);
+        if (queryCaches != null) {
+            release(queryCaches, Map.of());
+        }
+    }
+
+    /**
+     * Release the caches of the fetch phase that were not handed over by the query phase.
+     */
+    private void releaseFetchCaches(SearchContext context) {
+        Map<String, FeatureScoreCache> queryCaches = context.readerContext().getFromContext(CONTEXT_KEY);
+        Map<String, FeatureScoreCache> kept = queryCaches == null ? Map.of() : queryCaches;
+        cachedQueries(context).values().forEach((query) -> {
+            if (!kept.containsValue(query.featureScoreCache())) {
+                caches.release(query.featureScoreCache());
+            }
+        });
+    }
+
+    private void release(Map<String, FeatureScoreCache> released, Map<String, FeatureScoreCache> kept) {
+        for (FeatureScoreCache cache : released.values()) {
+            if (!kept.containsValue(cache)) {
+                caches.release(cache);
+            }
+        }
+    }
+
+    /**
+     * The [sltr] queries whose feature scores are cached and that the fetch phase can log,
+     * keyed by their name or rescore index.
+     */
+    private static Map<String, RankerQuery> cachedQueries(SearchContext context) {
+        Map<String, RankerQuery> queries = new HashMap<>();
+        if (context.parsedQuery() != null) {
+            context.parsedQuery().namedFilters().forEach((name, query) -> addCachedQuery(queries, "query:" + name, query));
+        }
+        List<RescoreContext> rescore = context.rescore();
+        for (int i = 0; i < rescore.size(); i++) {
+            if (rescore.get(i) instanceof QueryRescorer.QueryRescoreContext) {
+                QueryRescorer.QueryRescoreContext qrescore = (QueryRescorer.QueryRescoreContext) rescore.get(i);
+                addCachedQuery(queries, "rescore:" + i, qrescore.parsedQuery().query());
+            }
+        }
+        return queries;
+    }
+
+    private static void addCachedQuery(Map<String, RankerQuery> queries, String key, Query query) {
+        if (query instanceof BoostQuery) {
+            query = ((BoostQuery) query).getQuery();
+        }
+        if (query instanceof RankerQuery && ((RankerQuery) query).featureScoreCache() != null) {
+            queries.put(key, (RankerQuery) query);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.query;
+
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.breaker.NoopCircuitBreaker;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.indices.breaker.BreakerSettings;
+import org.elasticsearch.monitor.jvm.JvmInfo;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * Accounts the memory of the feature score caches of a node.
+ *
+ * Every cache belongs to a single search, it is handed from the query phase to the fetch
+ * phase by {@link FeatureScoreCacheListener} and released with the reader context of the
+ * search.
+ *
+ * The bytes of the caches are charged to the {@link #BREAKER_NAME} circuit breaker, the least
+ * recently used caches are dropped to stay within its limit and a cache stops growing if the
+ * breaker trips. Caches that were never released, such as the caches of queries parsed outside
+ * of a search, are dropped once they did not grow for a minute.
+ */
+public final class FeatureScoreCaches {
+    public static final String BREAKER_NAME = "ltr_feature_score_cache";
+    // the fetch phase normally follows the query phase within milliseconds, this only bounds leaks
+    private static final long EXPIRE_AFTER_ACCESS_NANOS = TimeValue.timeValueMinutes(1).nanos();
+
+    private final LongSupplier nanoTime;
+    private final CounterMetric hits = new CounterMetric();
+    private final CounterMetric misses = new CounterMetric();
+    private final CounterMetric evictions = new CounterMetric();
+    // access ordered, the eldest entry is the least recently used
+    private final LinkedHashMap<FeatureScoreCache, Entry> entries = new LinkedHashMap<>(16, 0.75F, true);
+    private volatile CircuitBreaker breaker = new NoopCircuitBreaker(BREAKER_NAME);
+    private long bytesUsed;
+
+    public FeatureScoreCaches() {
+        this(System::nanoTime);
+    }
+
+    FeatureScoreCaches(LongSupplier nanoTime) {
+        this.nanoTime = Objects.requireNonNull(nanoTime);
+    }
+
+    /**
+     * @param settings the node settings
+     * @return the settings of the breaker, limited to 1% of the heap unless
+     *         {@code breaker.ltr_feature_score_cache.limit} is set
+     */
+    public static BreakerSettings breakerSettings(Settings settings) {
+        long limit = JvmInfo.jvmInfo().getMem().getHeapMax().getBytes() / 100;
+        return BreakerSettings.updateFromSettings(new BreakerSettings(BREAKER_NAME, limit, 1.0D,
+                CircuitBreaker.Type.MEMORY, CircuitBreaker.Durability.TRANSIENT), settings);
+    }
+
+    public void setCircuitBreaker(CircuitBreaker breaker) {
+        this.breaker = Objects.requireNonNull(breaker);
+    }
+
+    /**
+     * @param numFeatures the number of features per doc
+     * @param maxDocs the maximum number of docs to cache
+     * @return a new cache accounted by this node, to {@link #release(FeatureScoreCache)} once the search is done
+     */
+    public synchronized FeatureScoreCache newCache(int numFeatures, int maxDocs) {
+        long now = nanoTime.getAsLong();
+        expire(now);
+        FeatureScoreCache cache = new FeatureScoreCache(numFeatures, maxDocs, this);
+        Entry entry = new Entry(cache);
+        entry.bytes = FeatureScoreCache.INITIAL_BYTES;
+        entry.lastAccess = now;
+        bytesUsed += entry.bytes;
+        breaker.addWithoutBreaking(entry.bytes);
+        entries.put(cache, entry);
+        return cache;
+    }
+
+    /**
+     * Drop a cache and release its memory, this is a no-op if it was already dropped.
+     *
+     * @param cache a cache created by this node
+     */
+    public synchronized void release(FeatureScoreCache cache) {
+        Entry entry = entries.remove(cache);
+        if (entry != null) {
+            release(entry);
+        }
+    }
+
+    /**
+     * Charge the growth of a cache, the least recently used caches are
+     * dropped if the breaker limit would be exceeded.
+     *
+     * @return false if the cache was dropped or if the bytes could not be charged
+     */
+    synchronized boolean reserve(FeatureScoreCache cache, long bytes) {
+        Entry entry = entries.get(cache);
+        if (entry == null) {
+            return false;
+        }
+        entry.lastAccess = nanoTime.getAsLong();
+        long limit = breaker.getLimit();
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (limit >= 0 && bytesUsed + bytes > limit && eldest.hasNext()) {
+            Entry victim = eldest.next();
+            if (victim != entry) {
+                eldest.remove();
+                release(victim);
+                evictions.inc();
+            }
+        }
+        try {
+            breaker.addEstimateBytesAndMaybeBreak(bytes, "ltr feature scores");
+        } catch (CircuitBreakingException e) {
+            return false;
+        }
+        entry.bytes += bytes;
+        bytesUsed += bytes;
+        return true;
+    }
+
+    void onHit() {
+        hits.inc();
+    }
+
+    void onMiss() {
+        misses.inc();
+    }
+
+    /**
+     * @return the number of lookups that found the doc
+     */
+    public long hitCount() {
+        return hits.count();
+    }
+
+    /**
+     * @return the number of lookups that did not find the doc
+     */
+    public long missCount() {
+        return misses.count();
+    }
+
+    /**
+     * @return the number of caches dropped to stay within the breaker limit
+     */
+    public long evictionCount() {
+        return evictions.count();
+    }
+
+    /**
+     * @return the number of caches
+     */
+    public synchronized int count() {
+        return entries.size();
+    }
+
+    /**
+     * @return the bytes charged to the breaker
+     */
+    public synchronized long bytesUsed() {
+        return bytesUsed;
+    }
+
+    private void expire(long now) {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (eldest.hasNext()) {
+            Entry entry = eldest.next();
+            if (now - entry.lastAccess < EXPIRE_AFTER_ACCESS_NANOS) {
+                break;
+            }
+            eldest.remove();
+            release(entry);
+        }
+    }
+
+    private void release(Entry entry) {
+        entry.cache.drop();
+        bytesUsed -= entry.bytes;
+        breaker.addWithoutBreaking(-entry.bytes);
+    }
+
+    private static class Entry {
+        private final FeatureScoreCache cache;
+        private long bytes;
+        private long lastAccess;
+
+        Entry(FeatureScoreCache cache) {
+            this.cache = cache;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.query;
+
+import com.o19s.es.ltr.ranker.LtrRanker;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.Scorer;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * Weight of a feature computed from the scores of the other features.
+ *
+ * The {@link RankerQuery} scorer of a leaf gives its own feature vector to the scorers
+ * it creates, leaves searched concurrently never see each other's vectors.
+ */
+public interface FeatureVectorWeight {
+    /**
+     * @param context the leaf
+     * @param vectorSupplier supplies the vector of the ranker scorer of this leaf
+     * @return the scorer of the feature, null if no document can match
+     */
+    Scorer scorer(LeafReaderContext context, Supplier<LtrRanker.FeatureVector> vectorSupplier) throws IOException;
+
+    /**
+     * @param context the leaf
+     * @param doc the doc to explain, relative to the leaf
+     * @param vectorSupplier supplies the vector being explained
+     * @return the explanation of the feature score
+     */
+    Explanation explain(LeafReaderContext context, int doc, Supplier<LtrRanker.FeatureVector> vectorSupplier) throws IOException;
+}
@@ -6,7 +6,7 @@ import java.io.IOException;
 
 public interface LtrRewritableQuery {
     /**
-     * Rewrite the query so that it holds the vectorSupplier and provide extra logging support
+     * Rewrite the query so that its weight reads the feature vector of the ranker and provide extra logging support
      *
      * @param context the {@link LtrRewriteContext} to rewrite the current query
      * @return the rewritten query
@@ -3,22 +3,17 @@ package com.o19s.es.ltr.query;
 import com.o19s.es.ltr.ranker.LogLtrRanker;
 import com.o19s.es.ltr.ranker.LtrRanker;
 
-import java.util.function.Supplier;
-
 /**
- * Contains context needed to rewrite queries to holds the vectorSupplier and provide extra logging support
+ * Contains context needed to rewrite queries and provide extra logging support
+ *
+ * The feature vector is not part of the context, it is given per leaf to the
+ * weights implementing {@link FeatureVectorWeight}.
  */
 public class LtrRewriteContext {
-    private final Supplier<LtrRanker.FeatureVector> vectorSupplier;
     private final LtrRanker ranker;
 
-    public LtrRewriteContext(LtrRanker ranker, Supplier<LtrRanker.FeatureVector> vectorSupplier) {
+    public LtrRewriteContext(LtrRanker ranker) {
         this.ranker = ranker;
-        this.vectorSupplier = vectorSupplier;
-    }
-
-    public Supplier<LtrRanker.FeatureVector> getFeatureVectorSupplier() {
-        return vectorSupplier;
     }
 
     /**
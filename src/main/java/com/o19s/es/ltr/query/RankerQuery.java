@@ -21,10 +21,10 @@ import com.o19s.es.ltr.feature.Feature;
 import com.o19s.es.ltr.feature.FeatureSet;
 import com.o19s.es.ltr.feature.LtrModel;
 import com.o19s.es.ltr.feature.PrebuiltLtrModel;
+import com.o19s.es.ltr.ranker.FeatureMatrix;
 import com.o19s.es.ltr.ranker.LogLtrRanker;
 import com.o19s.es.ltr.ranker.LtrRanker;
 import com.o19s.es.ltr.ranker.NullRanker;
-import com.o19s.es.ltr.utils.Suppliers;
 import com.o19s.es.ltr.utils.Suppliers.MutableSupplier;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
@@ -42,11 +42,13 @@ import org.apache.lucene.search.ConstantScoreScorer;
 import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.DisiPriorityQueue;
 import org.apache.lucene.search.DisiWrapper;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.SearchExecutionContext;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -64,10 +66,11 @@ public class RankerQuery extends Query {
     private final List<Query> queries;
     private final FeatureSet features;
     private final LtrRanker ranker;
-    private final Map<Integer, float[]> featureScoreCache;
+    // replaced by the scores of the query phase before the fetch phase runs, see FeatureScoreCacheListener
+    private volatile FeatureScoreCache featureScoreCache;
 
     private RankerQuery(List<Query> queries, FeatureSet features, LtrRanker ranker,
-            Map<Integer, float[]> featureScoreCache) {
+            FeatureScoreCache featureScoreCache) {
         this.queries = Objects.requireNonNull(queries);
         this.features = Objects.requireNonNull(features);
         this.ranker = Objects.requireNonNull(ranker);
@@ -84,7 +87,7 @@ public class RankerQuery extends Query {
      */
     public static RankerQuery build(PrebuiltLtrModel model) {
         return build(model.ranker(), model.featureSet(),
-                new LtrQueryContext(null, Collections.emptySet()), Collections.emptyMap(), false);
+                new LtrQueryContext(null, Collections.emptySet()), Collections.emptyMap(), null);
     }
 
     /**
@@ -93,20 +96,39 @@ public class RankerQuery extends Query {
      * @param model   The model
      * @param context the context used to parse features into lucene queries
      * @param params  the query params
+     * @param featureScoreCacheFlag true to cache the feature scores for the lifetime of the query
      * @return the lucene query
      */
     public static RankerQuery build(LtrModel model, LtrQueryContext context, Map<String, Object> params,
             Boolean featureScoreCacheFlag) {
-        return build(model.ranker(), model.featureSet(), context, params, featureScoreCacheFlag);
+        FeatureScoreCache featureScoreCache = null;
+        if (featureScoreCacheFlag != null && featureScoreCacheFlag) {
+            SearchExecutionContext searchContext = context != null ? context.getSearchExecutionContext() : null;
+            Settings settings = searchContext != null ? searchContext.getIndexSettings().getNodeSettings() : Settings.EMPTY;
+            int maxDocs = FeatureScoreCache.LTR_FEATURE_SCORE_CACHE_MAX_DOCS.get(settings);
+            featureScoreCache = new FeatureScoreCache(model.featureSet().size(), maxDocs);
+        }
+        return build(model, context, params, featureScoreCache);
+    }
+
+    /**
+     * Build a RankerQuery whose feature scores are kept in a cache, such as a cache
+     * shared with the other phases of the search obtained from {@link FeatureScoreCaches}.
+     *
+     * @param model   The model
+     * @param context the context used to parse features into lucene queries
+     * @param params  the query params
+     * @param featureScoreCache the cache of the feature scores, null to disable caching
+     * @return the lucene query
+     */
+    public static RankerQuery build(LtrModel model, LtrQueryContext context, Map<String, Object> params,
+            FeatureScoreCache featureScoreCache) {
+        return build(model.ranker(), model.featureSet(), context, params, featureScoreCache);
     }
 
     private static RankerQuery build(LtrRanker ranker, FeatureSet features,
-            LtrQueryContext context, Map<String, Object> params, Boolean featureScoreCacheFlag) {
+            LtrQueryContext context, Map<String, Object> params, FeatureScoreCache featureScoreCache) {
         List<Query> queries = features.toQueries(context, params);
-        Map<Integer, float[]> featureScoreCache = null;
-        if (null != featureScoreCacheFlag && featureScoreCacheFlag) {
-            featureScoreCache = new HashMap<>();
-        }
         return new RankerQuery(queries, features, ranker, featureScoreCache);
     }
 
@@ -118,8 +140,67 @@ public class RankerQuery extends Query {
     }
 
     public RankerQuery toLoggerQuery(LogLtrRanker.LogConsumer consumer) {
+        return toLoggerQuery(consumer, true);
+    }
+
+    /**
+     * @param consumer the consumer of the logged features
+     * @param useFeatureScoreCache false to always run the feature queries when logging, ignoring the cached scores
+     * @return a query logging the features instead of scoring them
+     */
+    public RankerQuery toLoggerQuery(LogLtrRanker.LogConsumer consumer, boolean useFeatureScoreCache) {
         NullRanker newRanker = new NullRanker(features.size());
-        return new RankerQuery(queries, features, new LogLtrRanker(newRanker, consumer), featureScoreCache);
+        return new RankerQuery(queries, features, new LogLtrRanker(newRanker, consumer),
+                useFeatureScoreCache ? featureScoreCache : null);
+    }
+
+    /**
+     * @return the cache of the feature scores, null if caching is disabled
+     */
+    FeatureScoreCache featureScoreCache() {
+        return featureScoreCache;
+    }
+
+    /**
+     * Reuse the scores cached by an equal query of the same search,
+     * must be called before the weight of this query is created.
+     */
+    void useFeatureScoreCache(FeatureScoreCache featureScoreCache) {
+        assert this.featureScoreCache != null : "caching is disabled";
+        this.featureScoreCache = featureScoreCache;
+    }
+
+    /**
+     * @param doc the shard level doc id
+     * @return true if the feature scores of this doc were cached by a previous execution of this query
+     */
+    public boolean hasCachedFeatures(int doc) {
+        return featureScoreCache != null && featureScoreCache.contains(doc);
+    }
+
+    /**
+     * Pass the cached feature scores of a doc to the ranker of this query,
+     * used to log the features without running the feature queries again.
+     * Only the features that matched are set on the feature vector.
+     *
+     * @param doc the shard level doc id
+     * @return false if the doc is not cached, the ranker is not called then
+     */
+    public boolean logCachedFeatures(int doc) {
+        if (featureScoreCache == null) {
+            return false;
+        }
+        float[] scores = new float[features.size()];
+        if (!featureScoreCache.get(doc, scores)) {
+            return false;
+        }
+        LtrRanker.FeatureVector vector = ranker.newFeatureVector(null);
+        for (int ordinal = 0; ordinal < scores.length; ordinal++) {
+            if (!Float.isNaN(scores[ordinal])) {
+                vector.setFeatureScore(ordinal, scores[ordinal]);
+            }
+        }
+        return true;
     }
 
     @Override
@@ -202,29 +283,30 @@ public class RankerQuery extends Query {
         }
 
         List<Weight> weights = new ArrayList<>(queries.size());
-        // XXX: this is not thread safe and may run into extremely weird issues
-        // if the searcher uses the parallel collector
-        // Hopefully elastic never runs
-        MutableSupplier<LtrRanker.FeatureVector> vectorSupplier = new Suppliers.MutableSupplier<>();
-        FVLtrRankerWrapper ltrRankerWrapper = new FVLtrRankerWrapper(ranker, vectorSupplier);
-        LtrRewriteContext context = new LtrRewriteContext(ranker, vectorSupplier);
+        LtrRewriteContext context = new LtrRewriteContext(ranker);
         for (Query q : queries) {
             if (q instanceof LtrRewritableQuery) {
                 q = ((LtrRewritableQuery) q).ltrRewrite(context);
+                // Not wrapped by the searcher so that the scorers of each leaf can be
+                // given the feature vector of the ranker scorer, see FeatureVectorWeight
+                weights.add(q.createWeight(searcher, ScoreMode.COMPLETE, boost));
+            } else {
+                weights.add(searcher.createWeight(q, ScoreMode.COMPLETE, boost));
             }
-            weights.add(searcher.createWeight(q, ScoreMode.COMPLETE, boost));
         }
-        return new RankerWeight(this, weights, ltrRankerWrapper, features, featureScoreCache);
+        // Feature scores are computed under the boost of the enclosing queries, only unboosted
+        // scores are cached so that they match the scores logged at boost 1 by the fetch phase
+        return new RankerWeight(this, weights, ranker, features, boost == 1F ? featureScoreCache : null);
     }
 
     public static class RankerWeight extends Weight {
         private final List<Weight> weights;
-        private final FVLtrRankerWrapper ranker;
+        private final LtrRanker ranker;
         private final FeatureSet features;
-        private final Map<Integer, float[]> featureScoreCache;
+        private final FeatureScoreCache featureScoreCache;
 
-        RankerWeight(RankerQuery query, List<Weight> weights, FVLtrRankerWrapper ranker, FeatureSet features,
-                Map<Integer, float[]> featureScoreCache) {
+        RankerWeight(RankerQuery query, List<Weight> weights, LtrRanker ranker, FeatureSet features,
+                FeatureScoreCache featureScoreCache) {
             super(query);
             assert weights instanceof RandomAccess;
             this.weights = weights;
@@ -254,7 +336,11 @@ public class RankerQuery extends Query {
             for (Weight weight : weights) {
                 ordinal++;
                 final Explanation explain;
-                explain = weight.explain(context, doc);
+                if (weight instanceof FeatureVectorWeight) {
+                    explain = ((FeatureVectorWeight) weight).explain(context, doc, () -> d);
+                } else {
+                    explain = weight.explain(context, doc);
+                }
                 String featureString = "Feature " + Integer.toString(ordinal);
                 if (features.feature(ordinal).name() != null) {
                     featureString += "(" + features.feature(ordinal).name() + ")";
@@ -277,20 +363,26 @@ public class RankerQuery extends Query {
              * NOTE: Switch to ChildScorer and {@link #getChildren()} if it appears
              * to be useful for logging
              */
-            private final List<Scorer> scorers;
+            private final DisiPriorityQueue subScorers;
             private final DisjunctionDISI iterator;
-            private final FVLtrRankerWrapper ranker;
+            private final LtrRanker ranker;
+            // publishes fv to the feature scorers of this leaf
+            private final MutableSupplier<LtrRanker.FeatureVector> vectorSupplier;
             private LtrRanker.FeatureVector fv;
             private final int docBase;
-            private final Map<Integer, float[]> featureScoreCache;
+            private final FeatureScoreCache featureScoreCache;
+            // scratch buffer exchanging scores with the cache
+            private final float[] cachedScores;
 
-            RankerScorer(List<Scorer> scorers, DisjunctionDISI iterator, FVLtrRankerWrapper ranker,
-                    int docBase, Map<Integer, float[]> featureScoreCache) {
-                this.scorers = scorers;
+            RankerScorer(DisiPriorityQueue subScorers, int numFeatures, DisjunctionDISI iterator, LtrRanker ranker,
+                    MutableSupplier<LtrRanker.FeatureVector> vectorSupplier, int docBase, FeatureScoreCache featureScoreCache) {
+                this.subScorers = subScorers;
                 this.iterator = iterator;
                 this.ranker = ranker;
+                this.vectorSupplier = vectorSupplier;
                 this.docBase = docBase;
                 this.featureScoreCache = featureScoreCache;
+                this.cachedScores = featureScoreCache != null ? new float[numFeatures] : null;
             }
 
             @Override
@@ -300,47 +392,68 @@ public class RankerQuery extends Query {
 
             @Override
             public float score() throws IOException {
-                fv = ranker.newFeatureVector(fv);
+                return ranker.score(collectFeatures(null, -1));
+            }
+
+            /**
+             * Load the feature scores of the current doc in a new feature vector.
+             *
+             * @param matrix if not null the scores are also copied to this matrix
+             * @param row the matrix row of the current doc
+             * @return the feature vector
+             */
+            LtrRanker.FeatureVector collectFeatures(FeatureMatrix matrix, int row) throws IOException {
+                LtrRanker.FeatureVector vector = ranker.newFeatureVector(fv);
+                if (vector != fv) {
+                    fv = vector;
+                    vectorSupplier.set(vector);
+                }
                 if (featureScoreCache == null) { // Cache disabled
-                    int ordinal = -1;
-                    // a DisiPriorityQueue could help to avoid
-                    // looping on all scorers
-                    for (Scorer scorer : scorers) {
-                        ordinal++;
-                        // FIXME: Probably inefficient, again we loop over all scorers..
-                        if (scorer.docID() == docID()) {
-                            // XXX: bold assumption that all models are dense
-                            // do we need a some indirection to infer the featureId?
-                            fv.setFeatureScore(ordinal, scorer.score());
-                        }
+                    for (DisiWrapper w = matchingScorers(); w != null; w = w.next) {
+                        setFeatureScore(matrix, row, ((FeatureDisiWrapper) w).ordinal, w.scorer.score());
                     }
                 } else {
                     int perShardDocId = docBase + docID();
-                    if (featureScoreCache.containsKey(perShardDocId)) { // Cache hit
-                        float[] featureScores = featureScoreCache.get(perShardDocId);
-                        int ordinal = -1;
-                        for (float score : featureScores) {
-                            ordinal++;
-                            if (!Float.isNaN(score)) {
-                                fv.setFeatureScore(ordinal, score);
+                    if (featureScoreCache.get(perShardDocId, cachedScores)) { // Cache hit
+                        for (int ordinal = 0; ordinal < cachedScores.length; ordinal++) {
+                            if (!Float.isNaN(cachedScores[ordinal])) {
+                                setFeatureScore(matrix, row, ordinal, cachedScores[ordinal]);
                             }
                         }
                     } else { // Cache miss
-                        int ordinal = -1;
-                        float[] featureScores = new float[scorers.size()];
-                        for (Scorer scorer : scorers) {
-                            ordinal++;
-                            float score = Float.NaN;
-                            if (scorer.docID() == docID()) {
-                                score = scorer.score();
-                                fv.setFeatureScore(ordinal, score);
-                            }
-                            featureScores[ordinal] = score;
+                        Arrays.fill(cachedScores, Float.NaN);
+                        for (DisiWrapper w = matchingScorers(); w != null; w = w.next) {
+                            int ordinal = ((FeatureDisiWrapper) w).ordinal;
+                            float score = w.scorer.score();
+                            setFeatureScore(matrix, row, ordinal, score);
+                            cachedScores[ordinal] = score;
                         }
-                        featureScoreCache.put(perShardDocId, featureScores);
+                        featureScoreCache.put(perShardDocId, cachedScores);
                     }
                 }
-                return ranker.score(fv);
+                return fv;
+            }
+
+            /**
+             * Only the sub scorers positioned on the current doc are visited so that
+             * the cost is proportional to the number of matching features rather
+             * than to the size of the feature set.
+             *
+             * @return the linked list of the sub scorers matching the current doc, null if none
+             */
+            private DisiWrapper matchingScorers() {
+                DisiWrapper top = subScorers.top();
+                if (top == null || top.doc != docID()) {
+                    return null;
+                }
+                return subScorers.topList();
+            }
+
+            private void setFeatureScore(FeatureMatrix matrix, int row, int ordinal, float score) {
+                fv.setFeatureScore(ordinal, score);
+                if (matrix != null) {
+                    matrix.setFeatureScore(row, ordinal, score);
+                }
             }
 
             // @Override
@@ -364,24 +477,83 @@ public class RankerQuery extends Query {
             }
         }
 
+        /**
+         * @param numRows the number of documents
+         * @return a matrix large enough to hold the features of numRows documents
+         */
+        public FeatureMatrix newFeatureMatrix(int numRows) {
+            return new FeatureMatrix(numRows, features.size());
+        }
+
+        /**
+         * Collect the feature scores of a batch of documents of the same segment,
+         * the scores of docs[i] are stored in the row i of the matrix.
+         *
+         * @param context the segment
+         * @param docs the top level doc ids, sorted in increasing order
+         * @param from the position of the first doc of the segment in docs
+         * @param to the position after the last doc of the segment in docs
+         * @param matrix the matrix receiving the feature scores
+         */
+        public void collectFeatures(LeafReaderContext context, int[] docs, int from, int to, FeatureMatrix matrix)
+                throws IOException {
+            RankerScorer scorer = (RankerScorer) scorerSupplier(context).get(Long.MAX_VALUE);
+            DocIdSetIterator iterator = scorer.iterator();
+            for (int i = from; i < to; i++) {
+                int doc = docs[i] - context.docBase;
+                assert doc >= 0 && doc < context.reader().maxDoc();
+                if (iterator.docID() < doc) {
+                    iterator.advance(doc);
+                }
+                assert iterator.docID() == doc;
+                scorer.collectFeatures(matrix, i);
+            }
+        }
+
+        /**
+         * Score a batch of documents whose features were loaded with
+         * {@link #collectFeatures(LeafReaderContext, int[], int, int, FeatureMatrix)}.
+         *
+         * @param matrix the feature scores
+         * @param out receives the score of every row of the matrix
+         */
+        public void score(FeatureMatrix matrix, float[] out) {
+            ranker.score(matrix, out);
+        }
+
         @Override
         public ScorerSupplier scorerSupplier(LeafReaderContext context) throws IOException {
-            List<Scorer> scorers = new ArrayList<>(weights.size());
             DisiPriorityQueue disiPriorityQueue = new DisiPriorityQueue(weights.size());
-            for (Weight weight : weights) {
-                Scorer scorer = weight.scorer(context);
+            // the vector of the scorer of this leaf, shared with the features reading it
+            MutableSupplier<LtrRanker.FeatureVector> vectorSupplier = new MutableSupplier<>();
+            for (int ordinal = 0; ordinal < weights.size(); ordinal++) {
+                Weight weight = weights.get(ordinal);
+                Scorer scorer = weight instanceof FeatureVectorWeight
+                        ? ((FeatureVectorWeight) weight).scorer(context, vectorSupplier)
+                        : weight.scorer(context);
                 if (scorer == null) {
                     scorer = new NoopScorer(DocIdSetIterator.empty());
                 }
-                scorers.add(scorer);
-                disiPriorityQueue.add(new DisiWrapper(scorer, false));
+                disiPriorityQueue.add(new FeatureDisiWrapper(scorer, ordinal));
             }
 
             DisjunctionDISI rankerIterator = new DisjunctionDISI(
                     DocIdSetIterator.all(context.reader().maxDoc()), disiPriorityQueue, context.docBase,
                     featureScoreCache);
-            return new Weight.DefaultScorerSupplier(
-                    new RankerScorer(scorers, rankerIterator, ranker, context.docBase, featureScoreCache));
+            return new Weight.DefaultScorerSupplier(new RankerScorer(disiPriorityQueue, weights.size(), rankerIterator,
+                    ranker, vectorSupplier, context.docBase, featureScoreCache));
+        }
+    }
+
+    /**
+     * Sub scorer of the feature at ordinal.
+     */
+    static class FeatureDisiWrapper extends DisiWrapper {
+        final int ordinal;
+
+        FeatureDisiWrapper(Scorer scorer, int ordinal) {
+            super(scorer, false);
+            this.ordinal = ordinal;
         }
     }
 
@@ -395,10 +567,10 @@ public class RankerQuery extends Query {
         private final DocIdSetIterator main;
         private final DisiPriorityQueue subIteratorsPriorityQueue;
         private final int docBase;
-        private final Map<Integer, float[]> featureScoreCache;
+        private final FeatureScoreCache featureScoreCache;
 
         DisjunctionDISI(DocIdSetIterator main, DisiPriorityQueue subIteratorsPriorityQueue, int docBase,
-                Map<Integer, float[]> featureScoreCache) {
+                FeatureScoreCache featureScoreCache) {
             this.main = main;
             this.subIteratorsPriorityQueue = subIteratorsPriorityQueue;
             this.docBase = docBase;
@@ -420,7 +592,7 @@ public class RankerQuery extends Query {
         @Override
         public int advance(int target) throws IOException {
             int docId = main.advance(target);
-            if (featureScoreCache != null && featureScoreCache.containsKey(docBase + target)) {
+            if (featureScoreCache != null && featureScoreCache.contains(docBase + target)) {
                 return docId; // Cache hit. No need to advance sub iterators
             }
             advanceSubIterators(docId);
@@ -444,49 +616,6 @@ public class RankerQuery extends Query {
         }
     }
 
-    static class FVLtrRankerWrapper implements LtrRanker {
-        private final LtrRanker wrapped;
-        private final MutableSupplier<FeatureVector> vectorSupplier;
-
-        FVLtrRankerWrapper(LtrRanker wrapped, MutableSupplier<FeatureVector> vectorSupplier) {
-            this.wrapped = Objects.requireNonNull(wrapped);
-            this.vectorSupplier = Objects.requireNonNull(vectorSupplier);
-        }
-
-        @Override
-        public String name() {
-            return wrapped.name();
-        }
-
-        @Override
-        public FeatureVector newFeatureVector(FeatureVector reuse) {
-            FeatureVector fv = wrapped.newFeatureVector(reuse);
-            vectorSupplier.set(fv);
-            return fv;
-        }
-
-        @Override
-        public float score(FeatureVector point) {
-            return wrapped.score(point);
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o)
-                return true;
-            if (o == null || getClass() != o.getClass())
-                return false;
-            FVLtrRankerWrapper that = (FVLtrRankerWrapper) o;
-            return Objects.equals(wrapped, that.wrapped) &&
-                    Objects.equals(vectorSupplier, that.vectorSupplier);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(wrapped, vectorSupplier);
-        }
-    }
-
     @Override
     public void visit(QueryVisitor visitor) {
         QueryVisitor v = visitor.getSubVisitor(BooleanClause.Occur.SHOULD, this);
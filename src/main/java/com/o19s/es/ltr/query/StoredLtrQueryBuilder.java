@@ -34,6 +34,8 @@ import org.elasticsearch.xcontent.ObjectParser;
 import org.elasticsearch.xcontent.XContentBuilder;
 import org.elasticsearch.xcontent.XContentParser;
 import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryRewriteContext;
 import org.elasticsearch.index.query.SearchExecutionContext;
 
 import java.io.IOException;
@@ -79,6 +81,10 @@ public class StoredLtrQueryBuilder extends AbstractQueryBuilder<StoredLtrQueryBu
     private String storeName;
     private Map<String, Object> params;
     private List<String> activeFeatures;
+    /**
+     * Set once the model or feature set has been loaded in the node caches during the rewrite, not serialized.
+     */
+    private transient boolean preloaded;
 
     public StoredLtrQueryBuilder(FeatureStoreLoader storeLoader) {
         this.storeLoader = storeLoader;
@@ -159,16 +165,47 @@ public class StoredLtrQueryBuilder extends AbstractQueryBuilder<StoredLtrQueryBu
         }
     }
 
+    /**
+     * On the data node, fetch and compile the model (or feature set) asynchronously so that
+     * {@link #doToQuery(SearchExecutionContext)} finds it in the caches instead of blocking a search thread.
+     */
+    @Override
+    protected QueryBuilder doRewrite(QueryRewriteContext ctx) throws IOException {
+        if (preloaded || ctx.convertToDataRewriteContext() == null) {
+            return super.doRewrite(ctx);
+        }
+        StoredLtrQueryBuilder rewritten = new StoredLtrQueryBuilder(storeLoader);
+        rewritten.modelName = modelName;
+        rewritten.featureScoreCacheFlag = featureScoreCacheFlag;
+        rewritten.featureSetName = featureSetName;
+        rewritten.storeName = storeName;
+        rewritten.params = params;
+        rewritten.activeFeatures = activeFeatures;
+        rewritten.preloaded = true;
+        ctx.registerAsyncAction((client, listener) -> {
+            FeatureStore store = storeLoader.load(storeIndexName(), () -> client);
+            if (modelName != null) {
+                store.loadModel(modelName, listener.map((m) -> null));
+            } else {
+                store.loadSet(featureSetName, listener.map((s) -> null));
+            }
+        });
+        return rewritten;
+    }
+
+    private String storeIndexName() {
+        return storeName != null ? IndexFeatureStore.indexName(storeName) : IndexFeatureStore.DEFAULT_STORE;
+    }
+
     @Override
     protected RankerQuery doToQuery(SearchExecutionContext context) throws IOException {
-        String indexName = storeName != null ? IndexFeatureStore.indexName(storeName) : IndexFeatureStore.DEFAULT_STORE;
-        FeatureStore store = storeLoader.load(indexName, context::getClient);
+        FeatureStore store = storeLoader.load(storeIndexName(), context::getClient);
         LtrQueryContext ltrQueryContext = new LtrQueryContext(context,
-                activeFeatures == null ? Collections.emptySet() : new HashSet<>(activeFeatures));
+                activeFeatures == null ? Collections.emptySet() : new HashSet<>(activeFeatures), store.queryCache());
         if (modelName != null) {
             CompiledLtrModel model = store.loadModel(modelName);
             validateActiveFeatures(model.featureSet(), ltrQueryContext);
-            return RankerQuery.build(model, ltrQueryContext, params, featureScoreCacheFlag);
+            return RankerQuery.build(model, ltrQueryContext, params, featureScoreCache(context, store, model.featureSet()));
         } else {
             assert featureSetName != null;
             FeatureSet set = store.loadSet(featureSetName);
@@ -177,8 +214,27 @@ public class StoredLtrQueryBuilder extends AbstractQueryBuilder<StoredLtrQueryBu
             LinearRanker ranker = new LinearRanker(weights);
             CompiledLtrModel model = new CompiledLtrModel("linear", set, ranker);
             validateActiveFeatures(model.featureSet(), ltrQueryContext);
-            return RankerQuery.build(model, ltrQueryContext, params, featureScoreCacheFlag);
+            return RankerQuery.build(model, ltrQueryContext, params, featureScoreCache(context, store, model.featureSet()));
+        }
+    }
+
+    /**
+     * The fetch phase builds its own query, the cache of the query phase is handed over
+     * to it by {@link FeatureScoreCacheListener} so that logging reuses the scores computed
+     * by the query and rescore phases of the same search.
+     *
+     * @return the cache of the feature scores, null if caching is disabled
+     */
+    private FeatureScoreCache featureScoreCache(SearchExecutionContext context, FeatureStore store, FeatureSet set) {
+        if (featureScoreCacheFlag == null || !featureScoreCacheFlag) {
+            return null;
+        }
+        int maxDocs = FeatureScoreCache.LTR_FEATURE_SCORE_CACHE_MAX_DOCS.get(context.getIndexSettings().getNodeSettings());
+        FeatureScoreCaches caches = store.featureScoreCaches();
+        if (caches == null) {
+            return new FeatureScoreCache(set.size(), maxDocs);
         }
+        return caches.newCache(set.size(), maxDocs);
     }
 
     @Override
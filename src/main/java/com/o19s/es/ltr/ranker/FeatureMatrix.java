@@ -0,0 +1,65 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.ranker;
+
+import java.util.Arrays;
+
+/**
+ * Feature scores of a batch of documents, one row per document.
+ * Scores are stored row-major in a single array, features that
+ * did not match are set to NaN and must be replaced by the
+ * ranker default score.
+ */
+public class FeatureMatrix {
+    public final float[] scores;
+    private final int numRows;
+    private final int numFeatures;
+
+    public FeatureMatrix(int numRows, int numFeatures) {
+        this.numRows = numRows;
+        this.numFeatures = numFeatures;
+        scores = new float[Math.multiplyExact(numRows, numFeatures)];
+        Arrays.fill(scores, Float.NaN);
+    }
+
+    public int numRows() {
+        return numRows;
+    }
+
+    public int numFeatures() {
+        return numFeatures;
+    }
+
+    /**
+     * @param row the document row
+     * @return the position of the first feature of the row in {@link #scores}
+     */
+    public int offset(int row) {
+        return row * numFeatures;
+    }
+
+    public void setFeatureScore(int row, int featureId, float score) {
+        scores[offset(row) + featureId] = score;
+    }
+
+    /**
+     * @return the feature score, NaN if the feature did not match
+     */
+    public float getFeatureScore(int row, int featureId) {
+        return scores[offset(row) + featureId];
+    }
+}
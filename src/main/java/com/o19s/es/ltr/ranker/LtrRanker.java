@@ -53,6 +53,29 @@ public interface LtrRanker {
      */
     float score(FeatureVector point);
 
+    /**
+     * Score a batch of documents.
+     * The default implementation scores every row with a single reused {@link FeatureVector},
+     * rankers able to evaluate several documents at once should override it.
+     *
+     * @param matrix the feature scores, NaN for the features that did not match
+     * @param out receives the score of every row of the matrix
+     */
+    default void score(FeatureMatrix matrix, float[] out) {
+        assert out.length >= matrix.numRows();
+        FeatureVector vector = null;
+        for (int row = 0; row < matrix.numRows(); row++) {
+            vector = newFeatureVector(vector);
+            for (int feature = 0; feature < matrix.numFeatures(); feature++) {
+                float score = matrix.getFeatureScore(row, feature);
+                if (!Float.isNaN(score)) {
+                    vector.setFeatureScore(feature, score);
+                }
+            }
+            out[row] = score(vector);
+        }
+    }
+
     /**
      * A FeatureVector used to store individual feature scores
      */
@@ -0,0 +1,36 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.ranker;
+
+/**
+ * Objects holding memory outside of the java heap.
+ * This memory is not part of {@link org.apache.lucene.util.Accountable#ramBytesUsed()}.
+ */
+public interface OffHeapAccountable {
+    /**
+     * Return the memory allocated outside of the heap in bytes. Negative values are illegal.
+     */
+    long offHeapBytesUsed();
+
+    /**
+     * @param o any object
+     * @return the off-heap memory used by o, 0 if it does not implement {@link OffHeapAccountable}
+     */
+    static long offHeapBytesUsed(Object o) {
+        return o instanceof OffHeapAccountable ? ((OffHeapAccountable) o).offHeapBytesUsed() : 0;
+    }
+}
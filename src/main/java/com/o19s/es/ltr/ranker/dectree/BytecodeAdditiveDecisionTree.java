@@ -0,0 +1,285 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.ranker.dectree;
+
+import com.o19s.es.ltr.ranker.LtrRanker;
+import com.o19s.es.ltr.ranker.SparseFeatureVector;
+import com.o19s.es.ltr.ranker.SparseLtrRanker;
+import com.o19s.es.ltr.ranker.normalizer.Normalizer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Additive decision tree compiled to bytecode.
+ *
+ * Every tree is generated as a static method of nested {@code if} branches returning
+ * the output of the leaf reached, the JIT can then inline the thresholds and predict
+ * the branches instead of walking the arrays of the {@link FlatTreeEnsemble}.
+ *
+ * The generated classes are defined as hidden classes so that they are unloaded with the
+ * model once evicted from the model cache. The constant pool of a class is limited to 65535
+ * entries, trees are split across several classes of at most {@link #MAX_NODES_PER_CLASS}
+ * nodes and {@link #MAX_TREES_PER_CLASS} trees, every class adding its trees to the sum of
+ * the previous one. Ensembles with trees of more than {@link #MAX_SPLITS_PER_TREE} splits are
+ * not compiled: methods over 8000 bytes of bytecode are never JIT compiled by HotSpot.
+ */
+public class BytecodeAdditiveDecisionTree extends SparseLtrRanker implements Accountable {
+    private static final Logger LOG = LogManager.getLogger(BytecodeAdditiveDecisionTree.class);
+    public static final int MAX_SPLITS_PER_TREE = 256;
+    public static final int MAX_NODES_PER_CLASS = 20000;
+    public static final int MAX_TREES_PER_CLASS = 5000;
+    // number of tree calls per generated method
+    private static final int TREES_PER_METHOD = 500;
+    private static final long BASE_RAM_USED = RamUsageEstimator.shallowSizeOfInstance(BytecodeAdditiveDecisionTree.class);
+
+    private static final String CLASS_NAME = Type.getInternalName(BytecodeAdditiveDecisionTree.class) + "$Generated";
+    private static final String TREE_DESC = Type.getMethodDescriptor(Type.FLOAT_TYPE, Type.getType(float[].class));
+    private static final String CHUNK_DESC = Type.getMethodDescriptor(Type.FLOAT_TYPE, Type.getType(float[].class),
+            Type.FLOAT_TYPE);
+
+    private final TreeFunction[] functions;
+    private final int classSize;
+    private final int modelSize;
+    private final Normalizer normalizer;
+
+    private BytecodeAdditiveDecisionTree(TreeFunction[] functions, int classSize, int modelSize, Normalizer normalizer) {
+        this.functions = functions;
+        this.classSize = classSize;
+        this.modelSize = modelSize;
+        this.normalizer = Objects.requireNonNull(normalizer);
+    }
+
+    /**
+     * Compile the given tree model.
+     *
+     * @param tree the parsed tree model
+     * @return the compiled ranker, or the given tree if it is too large to be compiled
+     */
+    public static LtrRanker compile(NaiveAdditiveDecisionTree tree) {
+        FlatTreeEnsemble ensemble = tree.ensemble();
+        int largestTree = largestTree(ensemble);
+        if (largestTree > MAX_SPLITS_PER_TREE) {
+            LOG.warn("Tree ensemble of [{}] trees has a tree of [{}] splits, only trees up to [{}] splits can be "
+                    + "compiled to bytecode, evaluating it like the naive evaluator", ensemble.numTrees(), largestTree,
+                    MAX_SPLITS_PER_TREE);
+            return tree;
+        }
+        List<TreeFunction> functions = new ArrayList<>();
+        int classSize = 0;
+        int from = 0;
+        while (from < ensemble.numTrees()) {
+            int to = from;
+            while (to < ensemble.numTrees() && to - from < MAX_TREES_PER_CLASS
+                    && treeEnd(ensemble, to) - ensemble.root(from) <= MAX_NODES_PER_CLASS) {
+                to++;
+            }
+            byte[] bytes = generate(ensemble, from, to);
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+                functions.add((TreeFunction) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke());
+            } catch (Throwable t) {
+                throw new IllegalStateException("Cannot load the class generated for model [" + tree.name() + "]", t);
+            }
+            classSize += bytes.length;
+            from = to;
+        }
+        return new BytecodeAdditiveDecisionTree(functions.toArray(new TreeFunction[0]), classSize, tree.size(), tree.normalizer());
+    }
+
+    /**
+     * @return the number of splits of the largest tree
+     */
+    private static int largestTree(FlatTreeEnsemble ensemble) {
+        int largest = 0;
+        for (int tree = 0; tree < ensemble.numTrees(); tree++) {
+            // a tree with n leaves has n - 1 splits
+            largest = Math.max(largest, (treeEnd(ensemble, tree) - ensemble.root(tree) - 1) / 2);
+        }
+        return largest;
+    }
+
+    private static int treeEnd(FlatTreeEnsemble ensemble, int tree) {
+        return tree + 1 < ensemble.numTrees() ? ensemble.root(tree + 1) : ensemble.numNodes();
+    }
+
+    /**
+     * Generate the class adding the trees [from, to) to the sum.
+     */
+    private static byte[] generate(FlatTreeEnsemble ensemble, int from, int to) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V11, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, CLASS_NAME, null,
+                Type.getInternalName(Object.class), new String[]{Type.getInternalName(TreeFunction.class)});
+
+        MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, Type.getInternalName(Object.class), "<init>", "()V", false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        // float eval(float[] scores, float sum): sum = chunk0(scores, sum); sum = chunk1(scores, sum); ...
+        MethodVisitor eval = cw.visitMethod(Opcodes.ACC_PUBLIC, "eval", CHUNK_DESC, null, null);
+        eval.visitCode();
+        for (int chunk = 0; from + chunk * TREES_PER_METHOD < to; chunk++) {
+            eval.visitVarInsn(Opcodes.ALOAD, 1);
+            eval.visitVarInsn(Opcodes.FLOAD, 2);
+            eval.visitMethodInsn(Opcodes.INVOKESTATIC, CLASS_NAME, "chunk" + chunk, CHUNK_DESC, false);
+            eval.visitVarInsn(Opcodes.FSTORE, 2);
+            generateChunk(cw, ensemble, chunk, from + chunk * TREES_PER_METHOD, Math.min(to, from + (chunk + 1) * TREES_PER_METHOD));
+        }
+        eval.visitVarInsn(Opcodes.FLOAD, 2);
+        eval.visitInsn(Opcodes.FRETURN);
+        eval.visitMaxs(0, 0);
+        eval.visitEnd();
+
+        for (int tree = from; tree < to; tree++) {
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, "tree" + tree, TREE_DESC, null, null);
+            mv.visitCode();
+            generateNode(mv, ensemble, ensemble.root(tree));
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * static float chunkN(float[] scores, float sum): sum += weight_i * tree_i(scores) for every tree in [from, to),
+     * trees are summed in the same order and with the same float operations as {@link FlatTreeEnsemble#eval(float[])}.
+     */
+    private static void generateChunk(ClassWriter cw, FlatTreeEnsemble ensemble, int chunk, int from, int to) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, "chunk" + chunk, CHUNK_DESC, null, null);
+        mv.visitCode();
+        for (int tree = from; tree < to; tree++) {
+            mv.visitVarInsn(Opcodes.FLOAD, 1);
+            mv.visitLdcInsn(ensemble.weight(tree));
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, CLASS_NAME, "tree" + tree, TREE_DESC, false);
+            mv.visitInsn(Opcodes.FMUL);
+            mv.visitInsn(Opcodes.FADD);
+            mv.visitVarInsn(Opcodes.FSTORE, 1);
+        }
+        mv.visitVarInsn(Opcodes.FLOAD, 1);
+        mv.visitInsn(Opcodes.FRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    /**
+     * Leaves return their output, splits load the feature score in the local variable 1 and branch:
+     * NaN goes to the missing child, otherwise left if threshold &gt; score.
+     */
+    private static void generateNode(MethodVisitor mv, FlatTreeEnsemble ensemble, int node) {
+        if (ensemble.isLeaf(node)) {
+            mv.visitLdcInsn(ensemble.output(node));
+            mv.visitInsn(Opcodes.FRETURN);
+            return;
+        }
+        Label left = new Label();
+        Label right = new Label();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        pushInt(mv, ensemble.feature(node));
+        mv.visitInsn(Opcodes.FALOAD);
+        mv.visitVarInsn(Opcodes.FSTORE, 1);
+        // score != score is only true for NaN
+        mv.visitVarInsn(Opcodes.FLOAD, 1);
+        mv.visitVarInsn(Opcodes.FLOAD, 1);
+        mv.visitInsn(Opcodes.FCMPL);
+        mv.visitJumpInsn(Opcodes.IFNE, ensemble.missingGoesLeft(node) ? left : right);
+        mv.visitLdcInsn(ensemble.threshold(node));
+        mv.visitVarInsn(Opcodes.FLOAD, 1);
+        mv.visitInsn(Opcodes.FCMPL);
+        mv.visitJumpInsn(Opcodes.IFLE, right);
+        mv.visitLabel(left);
+        generateNode(mv, ensemble, ensemble.leftChild(node));
+        mv.visitLabel(right);
+        generateNode(mv, ensemble, ensemble.rightChild(node));
+    }
+
+    private static void pushInt(MethodVisitor mv, int value) {
+        if (value <= 5) {
+            mv.visitInsn(Opcodes.ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.BIPUSH, value);
+        } else if (value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+
+    @Override
+    public String name() {
+        return "compiled_additive_decision_tree";
+    }
+
+    @Override
+    protected float score(SparseFeatureVector vector) {
+        float sum = 0F;
+        for (TreeFunction function : functions) {
+            sum = function.eval(vector.scores, sum);
+        }
+        return normalizer.normalize(sum);
+    }
+
+    /**
+     * @return the number of classes generated
+     */
+    int numClasses() {
+        return functions.length;
+    }
+
+    @Override
+    protected int size() {
+        return modelSize;
+    }
+
+    /**
+     * Return the memory usage of this object in bytes. Negative values are illegal.
+     * The generated classes are approximated by the size of their bytecode.
+     */
+    @Override
+    public long ramBytesUsed() {
+        return BASE_RAM_USED + RamUsageEstimator.shallowSizeOf(functions) + classSize;
+    }
+
+    /**
+     * Implemented by the generated classes.
+     */
+    interface TreeFunction {
+        /**
+         * @param scores the feature scores, NaN for missing values
+         * @param sum the raw score of the trees of the previous classes
+         * @return the raw (non normalized) score including the trees of this class
+         */
+        float eval(float[] scores, float sum);
+    }
+}
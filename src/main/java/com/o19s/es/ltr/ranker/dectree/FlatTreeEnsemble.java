@@ -0,0 +1,401 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.ranker.dectree;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Additive tree ensemble packed into parallel primitive arrays.
+ *
+ * Nodes of all the trees are stored in pre-order, one tree after the other, so that
+ * the left child of a split is always the node following it. For every node we store:
+ * <ul>
+ *     <li>the feature ordinal it splits on ({@link #LEAF} for leaves)</li>
+ *     <li>the split threshold, or the output for leaves</li>
+ *     <li>the position of the right child (unused for leaves)</li>
+ *     <li>a bit telling if missing (NaN) feature values go to the left child</li>
+ * </ul>
+ * Evaluating a tree only touches a few contiguous arrays instead of chasing
+ * references between node objects.
+ */
+public final class FlatTreeEnsemble implements Accountable {
+    public static final int LEAF = -1;
+    /**
+     * Number of documents evaluated together by {@link #eval(float[], int, int, float[])},
+     * small enough for their feature scores to stay in the CPU cache while iterating over the trees.
+     */
+    static final int BATCH_ROWS = 64;
+    private static final long BASE_RAM_USED = RamUsageEstimator.shallowSizeOfInstance(FlatTreeEnsemble.class);
+
+    private final int[] roots;
+    private final float[] weights;
+    private final int[] features;
+    private final float[] values;
+    private final int[] rightChildren;
+    private final FixedBitSet missingLeft;
+
+    private FlatTreeEnsemble(int[] roots, float[] weights, int[] features, float[] values, int[] rightChildren,
+                             FixedBitSet missingLeft) {
+        this.roots = roots;
+        this.weights = weights;
+        this.features = features;
+        this.values = values;
+        this.rightChildren = rightChildren;
+        this.missingLeft = missingLeft;
+    }
+
+    /**
+     * Flatten a set of trees built with {@link NaiveAdditiveDecisionTree.Node}s.
+     *
+     * @param trees the root nodes
+     * @param weights the respective tree weights
+     * @return the flattened ensemble
+     */
+    public static FlatTreeEnsemble build(NaiveAdditiveDecisionTree.Node[] trees, float[] weights) {
+        assert trees.length == weights.length;
+        Builder builder = new Builder();
+        for (int i = 0; i < trees.length; i++) {
+            builder.newTree(weights[i]);
+            append(builder, trees[i]);
+        }
+        return builder.build();
+    }
+
+    private static void append(Builder builder, NaiveAdditiveDecisionTree.Node node) {
+        if (node.isLeaf()) {
+            assert node instanceof NaiveAdditiveDecisionTree.Leaf;
+            builder.leaf(((NaiveAdditiveDecisionTree.Leaf) node).getOutput());
+        } else {
+            assert node instanceof NaiveAdditiveDecisionTree.Split;
+            NaiveAdditiveDecisionTree.Split split = (NaiveAdditiveDecisionTree.Split) node;
+            int id = builder.split(split.getFeature(), split.getThreshold(),
+                    split.getMissingNodeId() == split.getLeftNodeId());
+            append(builder, split.getLeft());
+            builder.startRight(id);
+            append(builder, split.getRight());
+        }
+    }
+
+    /**
+     * Read the arrays written by {@link #writeTo(StreamOutput)}.
+     *
+     * @param in the input
+     * @return the ensemble
+     * @throws IllegalArgumentException if the arrays do not describe valid trees
+     */
+    public static FlatTreeEnsemble readFrom(StreamInput in) throws IOException {
+        int[] roots = in.readIntArray();
+        float[] weights = in.readFloatArray();
+        int[] features = in.readIntArray();
+        float[] values = in.readFloatArray();
+        int[] rightChildren = in.readIntArray();
+        FixedBitSet missingLeft = new FixedBitSet(in.readLongArray(), Math.max(1, features.length));
+        if (roots.length != weights.length || values.length != features.length || rightChildren.length != features.length) {
+            throw new IllegalArgumentException("Inconsistent number of trees or nodes");
+        }
+        for (int root : roots) {
+            if (root < 0 || root >= features.length) {
+                throw new IllegalArgumentException("Invalid root [" + root + "]");
+            }
+        }
+        for (int i = 0; i < features.length; i++) {
+            // children come after their parent, walking down a tree always ends on a leaf
+            if (features[i] != LEAF && (features[i] < 0 || rightChildren[i] <= i + 1 || rightChildren[i] >= features.length)) {
+                throw new IllegalArgumentException("Invalid split [" + i + "]");
+            }
+        }
+        return new FlatTreeEnsemble(roots, weights, features, values, rightChildren, missingLeft);
+    }
+
+    /**
+     * Write the arrays of the ensemble, read back with {@link #readFrom(StreamInput)}.
+     *
+     * @param out the output
+     */
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeIntArray(roots);
+        out.writeFloatArray(weights);
+        out.writeIntArray(features);
+        out.writeFloatArray(values);
+        out.writeIntArray(rightChildren);
+        out.writeLongArray(missingLeft.getBits());
+    }
+
+    /**
+     * Sum of the weighted outputs of all the trees.
+     *
+     * @param scores the feature scores, NaN for missing values
+     * @return the raw (non normalized) score
+     */
+    public float eval(float[] scores) {
+        float sum = 0;
+        for (int i = 0; i < roots.length; i++) {
+            sum += weights[i] * values[exitLeaf(roots[i], scores)];
+        }
+        return sum;
+    }
+
+    /**
+     * Score a batch of documents tree by tree: every tree is evaluated on a block
+     * of documents before moving to the next one so that the nodes of the tree stay hot.
+     * The trees are summed in the same order as {@link #eval(float[])}.
+     *
+     * @param matrix the feature scores of the documents, row-major, NaN for missing values
+     * @param numFeatures the number of features per row
+     * @param numRows the number of documents
+     * @param out receives the raw (non normalized) score of every document
+     */
+    public void eval(float[] matrix, int numFeatures, int numRows, float[] out) {
+        Arrays.fill(out, 0, numRows, 0F);
+        for (int start = 0; start < numRows; start += BATCH_ROWS) {
+            int end = Math.min(numRows, start + BATCH_ROWS);
+            for (int i = 0; i < roots.length; i++) {
+                int root = roots[i];
+                float weight = weights[i];
+                for (int row = start; row < end; row++) {
+                    out[row] += weight * values[exitLeaf(root, matrix, row * numFeatures)];
+                }
+            }
+        }
+    }
+
+    /**
+     * Walk down a single tree.
+     *
+     * @param node the node to start from
+     * @param scores the feature scores
+     * @return the position of the leaf reached
+     */
+    int exitLeaf(int node, float[] scores) {
+        return exitLeaf(node, scores, 0);
+    }
+
+    private int exitLeaf(int node, float[] scores, int offset) {
+        int feature;
+        while ((feature = features[node]) != LEAF) {
+            float score = scores[offset + feature];
+            boolean left = Float.isNaN(score) ? missingLeft.get(node) : values[node] > score;
+            node = left ? node + 1 : rightChildren[node];
+        }
+        return node;
+    }
+
+    /**
+     * @return the number of trees
+     */
+    public int numTrees() {
+        return roots.length;
+    }
+
+    /**
+     * @return the total number of nodes (splits and leaves)
+     */
+    public int numNodes() {
+        return features.length;
+    }
+
+    /**
+     * @param tree the tree index
+     * @return the position of the root node of the tree
+     */
+    public int root(int tree) {
+        return roots[tree];
+    }
+
+    /**
+     * @param tree the tree index
+     * @return the weight of the tree
+     */
+    public float weight(int tree) {
+        return weights[tree];
+    }
+
+    /**
+     * @param node the node position
+     * @return true if the node is a leaf
+     */
+    public boolean isLeaf(int node) {
+        return features[node] == LEAF;
+    }
+
+    /**
+     * @param node the node position
+     * @return the feature ordinal of the split, {@link #LEAF} for leaves
+     */
+    public int feature(int node) {
+        return features[node];
+    }
+
+    /**
+     * @param node the split position
+     * @return the split threshold
+     */
+    public float threshold(int node) {
+        assert !isLeaf(node);
+        return values[node];
+    }
+
+    /**
+     * @param node the leaf position
+     * @return the leaf output
+     */
+    public float output(int node) {
+        assert isLeaf(node);
+        return values[node];
+    }
+
+    /**
+     * @param node the split position
+     * @return the position of the left child
+     */
+    public int leftChild(int node) {
+        assert !isLeaf(node);
+        return node + 1;
+    }
+
+    /**
+     * @param node the split position
+     * @return the position of the right child
+     */
+    public int rightChild(int node) {
+        assert !isLeaf(node);
+        return rightChildren[node];
+    }
+
+    /**
+     * @param node the split position
+     * @return true if missing values go to the left child
+     */
+    public boolean missingGoesLeft(int node) {
+        assert !isLeaf(node);
+        return missingLeft.get(node);
+    }
+
+    /**
+     * Return the memory usage of this object in bytes. Negative values are illegal.
+     */
+    @Override
+    public long ramBytesUsed() {
+        return BASE_RAM_USED + RamUsageEstimator.sizeOf(roots) + RamUsageEstimator.sizeOf(weights)
+                + RamUsageEstimator.sizeOf(features) + RamUsageEstimator.sizeOf(values)
+                + RamUsageEstimator.sizeOf(rightChildren) + missingLeft.ramBytesUsed();
+    }
+
+    /**
+     * Builds a {@link FlatTreeEnsemble} by appending nodes in pre-order:
+     * a split must be followed by its left subtree, then {@link #startRight(int)}
+     * must be called before appending its right subtree.
+     */
+    public static class Builder {
+        private int[] roots = new int[8];
+        private float[] weights = new float[8];
+        private int numTrees;
+        private int[] features = new int[64];
+        private float[] values = new float[64];
+        private int[] rightChildren = new int[64];
+        private FixedBitSet missingLeft = new FixedBitSet(64);
+        private int numNodes;
+
+        /**
+         * Start a new tree, the next node appended is its root.
+         *
+         * @param weight the tree weight
+         */
+        public void newTree(float weight) {
+            roots = ArrayUtil.grow(roots, numTrees + 1);
+            weights = ArrayUtil.grow(weights, numTrees + 1);
+            roots[numTrees] = numNodes;
+            weights[numTrees] = weight;
+            numTrees++;
+        }
+
+        /**
+         * Append a split node, the next node appended is its left child.
+         *
+         * @param feature the feature ordinal
+         * @param threshold values strictly lower than the threshold go left
+         * @param missingGoesLeft true if missing values go left
+         * @return the position of the split
+         */
+        public int split(int feature, float threshold, boolean missingGoesLeft) {
+            if (feature < 0) {
+                throw new IllegalArgumentException("Invalid feature ordinal [" + feature + "]");
+            }
+            return add(feature, threshold, missingGoesLeft);
+        }
+
+        /**
+         * Mark the next node appended as the right child of the given split.
+         *
+         * @param split the position of the split returned by {@link #split(int, float, boolean)}
+         */
+        public void startRight(int split) {
+            assert features[split] != LEAF;
+            rightChildren[split] = numNodes;
+        }
+
+        /**
+         * Append a leaf.
+         *
+         * @param output the leaf output
+         * @return the position of the leaf
+         */
+        public int leaf(float output) {
+            return add(LEAF, output, false);
+        }
+
+        private int add(int feature, float value, boolean missingGoesLeft) {
+            if (numTrees == 0) {
+                throw new IllegalStateException("newTree must be called before adding nodes");
+            }
+            features = ArrayUtil.grow(features, numNodes + 1);
+            values = ArrayUtil.grow(values, numNodes + 1);
+            rightChildren = ArrayUtil.grow(rightChildren, numNodes + 1);
+            missingLeft = FixedBitSet.ensureCapacity(missingLeft, numNodes + 1);
+            features[numNodes] = feature;
+            values[numNodes] = value;
+            rightChildren[numNodes] = LEAF;
+            if (missingGoesLeft) {
+                missingLeft.set(numNodes);
+            }
+            return numNodes++;
+        }
+
+        public FlatTreeEnsemble build() {
+            FixedBitSet bits = new FixedBitSet(Math.max(1, numNodes));
+            for (int i = 0; i < numNodes; i++) {
+                if (missingLeft.get(i)) {
+                    bits.set(i);
+                }
+                if (features[i] != LEAF && rightChildren[i] == LEAF) {
+                    throw new IllegalStateException("Split [" + i + "] has no right child");
+                }
+            }
+            return new FlatTreeEnsemble(Arrays.copyOf(roots, numTrees), Arrays.copyOf(weights, numTrees),
+                    Arrays.copyOf(features, numNodes), Arrays.copyOf(values, numNodes),
+                    Arrays.copyOf(rightChildren, numNodes), bits);
+        }
+    }
+}
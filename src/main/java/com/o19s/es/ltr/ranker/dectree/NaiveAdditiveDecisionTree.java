@@ -16,6 +16,7 @@
 
 package com.o19s.es.ltr.ranker.dectree;
 
+import com.o19s.es.ltr.ranker.FeatureMatrix;
 import com.o19s.es.ltr.ranker.SparseFeatureVector;
 import com.o19s.es.ltr.ranker.SparseLtrRanker;
 import com.o19s.es.ltr.ranker.normalizer.Normalizer;
@@ -25,21 +26,20 @@ import org.apache.lucene.util.RamUsageEstimator;
 import java.util.Objects;
 
 /**
- * Naive implementation of additive decision tree.
- * May be slow when the number of trees and tree complexity if high comparatively to the number of features.
+ * Additive decision tree ranker.
+ * Trees are evaluated from a {@link FlatTreeEnsemble}, the {@link Node} classes
+ * are only used to describe trees before they are flattened.
  */
 public class NaiveAdditiveDecisionTree extends SparseLtrRanker implements Accountable {
-    private static final long BASE_RAM_USED = RamUsageEstimator.shallowSizeOfInstance(Split.class);
+    private static final long BASE_RAM_USED = RamUsageEstimator.shallowSizeOfInstance(NaiveAdditiveDecisionTree.class);
 
-    private final Node[] trees;
-    private final float[] weights;
+    private final FlatTreeEnsemble ensemble;
     private final int modelSize;
     private final Normalizer normalizer;
 
     /**
-     * TODO: Constructor for these classes are strict and not really
-     * designed for a fluent building process. We might consider
-     * changing this according to model parsers we implement.
+     * Build the ranker from a set of trees, the trees are flattened
+     * and not referenced after construction.
      *
      * @param trees an array of trees
      * @param weights the respective weights
@@ -47,11 +47,18 @@ public class NaiveAdditiveDecisionTree extends SparseLtrRanker implements Accoun
      * @param normalizer class to perform any normalization on model score
      */
     public NaiveAdditiveDecisionTree(Node[] trees, float[] weights, int modelSize, Normalizer normalizer) {
-        assert trees.length == weights.length;
-        this.trees = trees;
-        this.weights = weights;
+        this(FlatTreeEnsemble.build(trees, weights), modelSize, normalizer);
+    }
+
+    /**
+     * @param ensemble the flattened trees
+     * @param modelSize the modelSize in number of feature used
+     * @param normalizer class to perform any normalization on model score
+     */
+    public NaiveAdditiveDecisionTree(FlatTreeEnsemble ensemble, int modelSize, Normalizer normalizer) {
+        this.ensemble = Objects.requireNonNull(ensemble);
         this.modelSize = modelSize;
-        this.normalizer = normalizer;
+        this.normalizer = Objects.requireNonNull(normalizer);
     }
 
     @Override
@@ -61,26 +68,46 @@ public class NaiveAdditiveDecisionTree extends SparseLtrRanker implements Accoun
 
     @Override
     protected float score(SparseFeatureVector vector) {
-        float sum = 0;
-        float[] scores = vector.scores;
-        for (int i = 0; i < trees.length; i++) {
-            sum += weights[i]*trees[i].eval(scores);
+        return normalizer.normalize(ensemble.eval(vector.scores));
+    }
+
+    @Override
+    public void score(FeatureMatrix matrix, float[] out) {
+        assert matrix.numFeatures() == modelSize;
+        ensemble.eval(matrix.scores, matrix.numFeatures(), matrix.numRows(), out);
+        for (int row = 0; row < matrix.numRows(); row++) {
+            out[row] = normalizer.normalize(out[row]);
         }
-        return normalizer.normalize(sum);
     }
 
+    /**
+     * @return the number of features used by the model
+     */
     @Override
-    protected int size() {
+    public int size() {
         return modelSize;
     }
 
+    /**
+     * @return the flattened trees evaluated by this ranker
+     */
+    public FlatTreeEnsemble ensemble() {
+        return ensemble;
+    }
+
+    /**
+     * @return the normalizer applied to the sum of the tree outputs
+     */
+    public Normalizer normalizer() {
+        return normalizer;
+    }
+
     /**
      * Return the memory usage of this object in bytes. Negative values are illegal.
      */
     @Override
     public long ramBytesUsed() {
-        return BASE_RAM_USED + RamUsageEstimator.sizeOf(weights)
-                + RamUsageEstimator.sizeOf(trees);
+        return BASE_RAM_USED + ensemble.ramBytesUsed();
     }
 
     public interface Node extends Accountable {
@@ -178,6 +205,10 @@ public class NaiveAdditiveDecisionTree extends SparseLtrRanker implements Accoun
             this.output = output;
         }
 
+        public float getOutput() {
+            return this.output;
+        }
+
         @Override
         public boolean isLeaf() {
             return true;
@@ -0,0 +1,162 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.ranker.dectree;
+
+import com.o19s.es.ltr.ranker.FeatureMatrix;
+import com.o19s.es.ltr.ranker.OffHeapAccountable;
+import com.o19s.es.ltr.ranker.SparseFeatureVector;
+import com.o19s.es.ltr.ranker.SparseLtrRanker;
+import com.o19s.es.ltr.ranker.normalizer.Normalizer;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Evaluates the trees like {@link NaiveAdditiveDecisionTree} with the nodes stored
+ * in a direct buffer, outside of the java heap.
+ *
+ * Large ensembles are then not bound by the heap, only the roots and weights of the
+ * trees are kept on the heap. Every node uses {@link #NODE_BYTES} bytes:
+ * <ul>
+ *     <li>the feature ordinal it splits on ({@link FlatTreeEnsemble#LEAF} for leaves)</li>
+ *     <li>the split threshold, or the output for leaves</li>
+ *     <li>the position of the right child, negated if missing values go to the left child (0 for leaves)</li>
+ * </ul>
+ * The buffer is released by the garbage collector once the ranker is no longer referenced.
+ */
+public class OffHeapAdditiveDecisionTree extends SparseLtrRanker implements Accountable, OffHeapAccountable {
+    private static final long BASE_RAM_USED = RamUsageEstimator.shallowSizeOfInstance(OffHeapAdditiveDecisionTree.class)
+            + RamUsageEstimator.shallowSizeOfInstance(ByteBuffer.allocateDirect(0).getClass());
+    static final int NODE_BYTES = 3 * Integer.BYTES;
+    private static final int THRESHOLD_OFFSET = Integer.BYTES;
+    private static final int RIGHT_OFFSET = 2 * Integer.BYTES;
+
+    private final int[] roots;
+    private final float[] weights;
+    private final ByteBuffer nodes;
+    private final int modelSize;
+    private final Normalizer normalizer;
+
+    /**
+     * Copy the nodes of the tree ensemble in a new direct buffer.
+     *
+     * @param tree the tree ensemble
+     * @throws IllegalArgumentException if the nodes do not fit in a single buffer
+     */
+    public OffHeapAdditiveDecisionTree(NaiveAdditiveDecisionTree tree) {
+        FlatTreeEnsemble ensemble = tree.ensemble();
+        if (ensemble.numNodes() > Integer.MAX_VALUE / NODE_BYTES) {
+            throw new IllegalArgumentException("Cannot store [" + ensemble.numNodes() + "] nodes off-heap, at most ["
+                    + Integer.MAX_VALUE / NODE_BYTES + "] nodes are supported");
+        }
+        roots = new int[ensemble.numTrees()];
+        weights = new float[ensemble.numTrees()];
+        for (int i = 0; i < ensemble.numTrees(); i++) {
+            roots[i] = ensemble.root(i);
+            weights[i] = ensemble.weight(i);
+        }
+        nodes = ByteBuffer.allocateDirect(ensemble.numNodes() * NODE_BYTES).order(ByteOrder.nativeOrder());
+        for (int node = 0; node < ensemble.numNodes(); node++) {
+            int offset = node * NODE_BYTES;
+            nodes.putInt(offset, ensemble.feature(node));
+            if (ensemble.isLeaf(node)) {
+                nodes.putFloat(offset + THRESHOLD_OFFSET, ensemble.output(node));
+                nodes.putInt(offset + RIGHT_OFFSET, 0);
+            } else {
+                // the right child always follows its parent, its position is never 0
+                int right = ensemble.rightChild(node);
+                nodes.putFloat(offset + THRESHOLD_OFFSET, ensemble.threshold(node));
+                nodes.putInt(offset + RIGHT_OFFSET, ensemble.missingGoesLeft(node) ? -right : right);
+            }
+        }
+        modelSize = tree.size();
+        normalizer = tree.normalizer();
+    }
+
+    @Override
+    public String name() {
+        return "off_heap_additive_decision_tree";
+    }
+
+    @Override
+    protected float score(SparseFeatureVector vector) {
+        float sum = 0;
+        for (int i = 0; i < roots.length; i++) {
+            sum += weights[i] * output(exitLeaf(roots[i], vector.scores, 0));
+        }
+        return normalizer.normalize(sum);
+    }
+
+    @Override
+    public void score(FeatureMatrix matrix, float[] out) {
+        assert matrix.numFeatures() == modelSize;
+        int numFeatures = matrix.numFeatures();
+        int numRows = matrix.numRows();
+        Arrays.fill(out, 0, numRows, 0F);
+        // same blocking and summation order as FlatTreeEnsemble
+        for (int start = 0; start < numRows; start += FlatTreeEnsemble.BATCH_ROWS) {
+            int end = Math.min(numRows, start + FlatTreeEnsemble.BATCH_ROWS);
+            for (int i = 0; i < roots.length; i++) {
+                int root = roots[i];
+                float weight = weights[i];
+                for (int row = start; row < end; row++) {
+                    out[row] += weight * output(exitLeaf(root, matrix.scores, row * numFeatures));
+                }
+            }
+        }
+        for (int row = 0; row < numRows; row++) {
+            out[row] = normalizer.normalize(out[row]);
+        }
+    }
+
+    private int exitLeaf(int node, float[] scores, int offset) {
+        int feature;
+        while ((feature = nodes.getInt(node * NODE_BYTES)) != FlatTreeEnsemble.LEAF) {
+            float score = scores[offset + feature];
+            int right = nodes.getInt(node * NODE_BYTES + RIGHT_OFFSET);
+            boolean left = Float.isNaN(score) ? right < 0 : nodes.getFloat(node * NODE_BYTES + THRESHOLD_OFFSET) > score;
+            node = left ? node + 1 : Math.abs(right);
+        }
+        return node;
+    }
+
+    private float output(int leaf) {
+        return nodes.getFloat(leaf * NODE_BYTES + THRESHOLD_OFFSET);
+    }
+
+    @Override
+    protected int size() {
+        return modelSize;
+    }
+
+    /**
+     * Return the memory usage of this object in bytes. Negative values are illegal.
+     * The nodes stored off-heap are not included, see {@link #offHeapBytesUsed()}.
+     */
+    @Override
+    public long ramBytesUsed() {
+        return BASE_RAM_USED + RamUsageEstimator.sizeOf(roots) + RamUsageEstimator.sizeOf(weights);
+    }
+
+    @Override
+    public long offHeapBytesUsed() {
+        return nodes.capacity();
+    }
+}
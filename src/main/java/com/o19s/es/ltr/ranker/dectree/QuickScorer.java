@@ -0,0 +1,249 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.ranker.dectree;
+
+import com.o19s.es.ltr.ranker.SparseFeatureVector;
+import com.o19s.es.ltr.ranker.SparseLtrRanker;
+import com.o19s.es.ltr.ranker.normalizer.Normalizer;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.InPlaceMergeSorter;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Additive decision tree evaluated with the QuickScorer algorithm
+ * (Lucchese et al., "QuickScorer: a Fast Algorithm to Rank Documents with Additive Ensembles of Regression Trees").
+ *
+ * Instead of walking every tree from its root, all the split thresholds are grouped by feature
+ * and sorted. For every feature we scan the thresholds lower or equal to the feature value, these
+ * splits send the document to their right child so the leaves of their left subtree are removed
+ * from the candidate leaves of their tree with a bitmask AND. The exit leaf of a tree is then
+ * the leftmost leaf still set in its bitvector.
+ *
+ * Leaves are tracked with a single long per tree so trees must not have more than 64 leaves.
+ */
+public class QuickScorer extends SparseLtrRanker implements Accountable {
+    public static final int MAX_LEAVES = Long.SIZE;
+    private static final long BASE_RAM_USED = RamUsageEstimator.shallowSizeOfInstance(QuickScorer.class);
+
+    private final int modelSize;
+    private final Normalizer normalizer;
+    private final float[] weights;
+    // position of the first leaf of each tree in leafValues
+    private final int[] leafOffsets;
+    private final float[] leafValues;
+
+    // splits grouped by feature: [featureOffsets[f], featureOffsets[f+1]) sorted by threshold
+    private final int[] featureOffsets;
+    private final float[] thresholds;
+    private final int[] thresholdTrees;
+    private final long[] thresholdMasks;
+
+    // splits grouped by feature that send missing values to the right child
+    private final int[] missingOffsets;
+    private final int[] missingTrees;
+    private final long[] missingMasks;
+
+    public QuickScorer(NaiveAdditiveDecisionTree tree) {
+        this(tree.ensemble(), tree.size(), tree.normalizer());
+    }
+
+    public QuickScorer(FlatTreeEnsemble ensemble, int modelSize, Normalizer normalizer) {
+        this.modelSize = modelSize;
+        this.normalizer = Objects.requireNonNull(normalizer);
+        int numTrees = ensemble.numTrees();
+        weights = new float[numTrees];
+        leafOffsets = new int[numTrees];
+
+        int numLeaves = 0;
+        int[] splitsPerFeature = new int[modelSize];
+        int[] missingRightPerFeature = new int[modelSize];
+        for (int tree = 0; tree < numTrees; tree++) {
+            // nodes of a tree are contiguous
+            int end = tree + 1 < numTrees ? ensemble.root(tree + 1) : ensemble.numNodes();
+            int treeLeaves = 0;
+            for (int node = ensemble.root(tree); node < end; node++) {
+                if (ensemble.isLeaf(node)) {
+                    treeLeaves++;
+                } else {
+                    splitsPerFeature[ensemble.feature(node)]++;
+                    if (!ensemble.missingGoesLeft(node)) {
+                        missingRightPerFeature[ensemble.feature(node)]++;
+                    }
+                }
+            }
+            if (treeLeaves > MAX_LEAVES) {
+                throw new IllegalArgumentException("Tree [" + tree + "] has [" + treeLeaves + "] leaves but QuickScorer "
+                        + "supports at most [" + MAX_LEAVES + "] leaves per tree");
+            }
+            numLeaves += treeLeaves;
+        }
+        leafValues = new float[numLeaves];
+        featureOffsets = offsets(splitsPerFeature);
+        missingOffsets = offsets(missingRightPerFeature);
+        thresholds = new float[featureOffsets[modelSize]];
+        thresholdTrees = new int[featureOffsets[modelSize]];
+        thresholdMasks = new long[featureOffsets[modelSize]];
+        missingTrees = new int[missingOffsets[modelSize]];
+        missingMasks = new long[missingOffsets[modelSize]];
+
+        int[] splitCursors = Arrays.copyOf(featureOffsets, modelSize);
+        int[] missingCursors = Arrays.copyOf(missingOffsets, modelSize);
+        int leafCursor = 0;
+        for (int tree = 0; tree < numTrees; tree++) {
+            weights[tree] = ensemble.weight(tree);
+            leafOffsets[tree] = leafCursor;
+            leafCursor += addTree(ensemble, tree, ensemble.root(tree), 0, splitCursors, missingCursors, leafCursor);
+        }
+        assert leafCursor == numLeaves;
+        for (int f = 0; f < modelSize; f++) {
+            sortByThreshold(featureOffsets[f], featureOffsets[f + 1]);
+        }
+    }
+
+    private static int[] offsets(int[] counts) {
+        int[] offsets = new int[counts.length + 1];
+        for (int i = 0; i < counts.length; i++) {
+            offsets[i + 1] = offsets[i] + counts[i];
+        }
+        return offsets;
+    }
+
+    /**
+     * Register the splits and leaves of the subtree rooted at node.
+     *
+     * @return the number of leaves of the subtree
+     */
+    private int addTree(FlatTreeEnsemble ensemble, int tree, int node, int firstLeaf, int[] splitCursors, int[] missingCursors,
+                        int leafOffset) {
+        if (ensemble.isLeaf(node)) {
+            leafValues[leafOffset + firstLeaf] = ensemble.output(node);
+            return 1;
+        }
+        int leftLeaves = addTree(ensemble, tree, ensemble.leftChild(node), firstLeaf, splitCursors, missingCursors, leafOffset);
+        int rightLeaves = addTree(ensemble, tree, ensemble.rightChild(node), firstLeaf + leftLeaves, splitCursors, missingCursors,
+                leafOffset);
+        // clear the leaves of the left subtree, the right subtree has at least one leaf so leftLeaves < 64
+        long mask = ~(((1L << leftLeaves) - 1) << firstLeaf);
+        int feature = ensemble.feature(node);
+        int pos = splitCursors[feature]++;
+        thresholds[pos] = ensemble.threshold(node);
+        thresholdTrees[pos] = tree;
+        thresholdMasks[pos] = mask;
+        if (!ensemble.missingGoesLeft(node)) {
+            pos = missingCursors[feature]++;
+            missingTrees[pos] = tree;
+            missingMasks[pos] = mask;
+        }
+        return leftLeaves + rightLeaves;
+    }
+
+    private void sortByThreshold(int from, int to) {
+        new InPlaceMergeSorter() {
+            @Override
+            protected int compare(int i, int j) {
+                return Float.compare(thresholds[i], thresholds[j]);
+            }
+
+            @Override
+            protected void swap(int i, int j) {
+                float threshold = thresholds[i];
+                thresholds[i] = thresholds[j];
+                thresholds[j] = threshold;
+                int tree = thresholdTrees[i];
+                thresholdTrees[i] = thresholdTrees[j];
+                thresholdTrees[j] = tree;
+                long mask = thresholdMasks[i];
+                thresholdMasks[i] = thresholdMasks[j];
+                thresholdMasks[j] = mask;
+            }
+        }.sort(from, to);
+    }
+
+    @Override
+    public String name() {
+        return "quickscorer";
+    }
+
+    @Override
+    public QuickScorerFeatureVector newFeatureVector(FeatureVector reuse) {
+        if (reuse != null) {
+            assert reuse instanceof QuickScorerFeatureVector;
+            QuickScorerFeatureVector vector = (QuickScorerFeatureVector) reuse;
+            vector.reset();
+            return vector;
+        }
+        return new QuickScorerFeatureVector(modelSize, weights.length);
+    }
+
+    @Override
+    protected float score(SparseFeatureVector vector) {
+        assert vector instanceof QuickScorerFeatureVector;
+        float[] scores = vector.scores;
+        long[] leaves = ((QuickScorerFeatureVector) vector).leaves;
+        Arrays.fill(leaves, -1L);
+        for (int f = 0; f < modelSize; f++) {
+            float score = scores[f];
+            if (Float.isNaN(score)) {
+                for (int i = missingOffsets[f]; i < missingOffsets[f + 1]; i++) {
+                    leaves[missingTrees[i]] &= missingMasks[i];
+                }
+            } else {
+                int end = featureOffsets[f + 1];
+                for (int i = featureOffsets[f]; i < end && thresholds[i] <= score; i++) {
+                    leaves[thresholdTrees[i]] &= thresholdMasks[i];
+                }
+            }
+        }
+        float sum = 0;
+        for (int tree = 0; tree < leaves.length; tree++) {
+            sum += weights[tree] * leafValues[leafOffsets[tree] + Long.numberOfTrailingZeros(leaves[tree])];
+        }
+        return normalizer.normalize(sum);
+    }
+
+    @Override
+    protected int size() {
+        return modelSize;
+    }
+
+    /**
+     * Return the memory usage of this object in bytes. Negative values are illegal.
+     */
+    @Override
+    public long ramBytesUsed() {
+        return BASE_RAM_USED + RamUsageEstimator.sizeOf(weights) + RamUsageEstimator.sizeOf(leafOffsets)
+                + RamUsageEstimator.sizeOf(leafValues) + RamUsageEstimator.sizeOf(featureOffsets)
+                + RamUsageEstimator.sizeOf(thresholds) + RamUsageEstimator.sizeOf(thresholdTrees)
+                + RamUsageEstimator.sizeOf(thresholdMasks) + RamUsageEstimator.sizeOf(missingOffsets)
+                + RamUsageEstimator.sizeOf(missingTrees) + RamUsageEstimator.sizeOf(missingMasks);
+    }
+
+    /**
+     * Sparse feature vector holding the per-tree leaf bitvectors used while scoring.
+     */
+    public static class QuickScorerFeatureVector extends SparseFeatureVector {
+        private final long[] leaves;
+
+        QuickScorerFeatureVector(int size, int numTrees) {
+            super(size);
+            leaves = new long[numTrees];
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.ranker.dectree;
+
+import com.o19s.es.ltr.ranker.LtrRanker;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Strategies available to evaluate a parsed tree ensemble, selected per model.
+ */
+public enum TreeEvaluator {
+    /**
+     * Walk every tree of the {@link FlatTreeEnsemble}.
+     */
+    NAIVE {
+        @Override
+        LtrRanker compile(NaiveAdditiveDecisionTree tree) {
+            return tree;
+        }
+    },
+    /**
+     * Evaluate with {@link QuickScorer}, trees must have at most 64 leaves.
+     */
+    QUICKSCORER {
+        @Override
+        LtrRanker compile(NaiveAdditiveDecisionTree tree) {
+            return new QuickScorer(tree);
+        }
+    },
+    /**
+     * Compile the trees to bytecode with {@link BytecodeAdditiveDecisionTree},
+     * models too large to be compiled are evaluated like {@link #NAIVE}.
+     */
+    BYTECODE {
+        @Override
+        LtrRanker compile(NaiveAdditiveDecisionTree tree) {
+            return BytecodeAdditiveDecisionTree.compile(tree);
+        }
+    },
+    /**
+     * Walk the trees like {@link #NAIVE} with the nodes stored outside of the heap
+     * by {@link OffHeapAdditiveDecisionTree}.
+     */
+    OFF_HEAP {
+        @Override
+        LtrRanker compile(NaiveAdditiveDecisionTree tree) {
+            return new OffHeapAdditiveDecisionTree(tree);
+        }
+    };
+
+    abstract LtrRanker compile(NaiveAdditiveDecisionTree tree);
+
+    /**
+     * Build the ranker evaluating the given tree model with this strategy.
+     *
+     * @param ranker the ranker built by the model parser
+     * @return the ranker to use
+     * @throws IllegalArgumentException if the ranker is not a tree ensemble
+     */
+    public LtrRanker compile(LtrRanker ranker) {
+        if (!(ranker instanceof NaiveAdditiveDecisionTree)) {
+            throw new IllegalArgumentException("Evaluator [" + getName() + "] only supports tree models but got ["
+                    + ranker.name() + "]");
+        }
+        return compile((NaiveAdditiveDecisionTree) ranker);
+    }
+
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    public static TreeEvaluator fromName(String name) {
+        for (TreeEvaluator evaluator : values()) {
+            if (evaluator.getName().equals(name)) {
+                return evaluator;
+            }
+        }
+        throw new IllegalArgumentException("Unknown evaluator [" + name + "], expected one of " + Arrays.stream(values())
+                .map(TreeEvaluator::getName)
+                .collect(Collectors.joining(", ", "[", "]")));
+    }
+}
@@ -18,8 +18,10 @@ package com.o19s.es.ltr.ranker.linear;
 
 import com.o19s.es.ltr.ranker.DenseFeatureVector;
 import com.o19s.es.ltr.ranker.DenseLtrRanker;
+import com.o19s.es.ltr.ranker.FeatureMatrix;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.VectorUtil;
 
 import java.util.Arrays;
 import java.util.Objects;
@@ -42,12 +44,34 @@ public class LinearRanker extends DenseLtrRanker implements Accountable {
 
     @Override
     protected float score(DenseFeatureVector point) {
-        float[] scores = point.scores;
-        float score = 0;
-        for (int i = 0; i < weights.length; i++) {
-            score += weights[i]*scores[i];
+        return dotProduct(weights, point.scores);
+    }
+
+    @Override
+    public void score(FeatureMatrix matrix, float[] out) {
+        assert matrix.numFeatures() == weights.length;
+        float[] scores = matrix.scores;
+        float[] row = new float[weights.length];
+        for (int r = 0; r < matrix.numRows(); r++) {
+            int offset = matrix.offset(r);
+            for (int i = 0; i < weights.length; i++) {
+                float value = scores[offset + i];
+                // missing features use the dense default score
+                row[i] = Float.isNaN(value) ? 0F : value;
+            }
+            out[r] = dotProduct(weights, row);
         }
-        return score;
+    }
+
+    /**
+     * Single docs and batches are scored by {@link VectorUtil#dotProduct(float[], float[])}, Lucene
+     * computes it with the JDK Vector API when its vectorization provider is enabled and with an
+     * unrolled scalar loop otherwise. Both sum the products in a different order than a plain loop,
+     * scores may differ from it by float rounding: at most n ulps of the sum of the absolute products
+     * for n features.
+     */
+    static float dotProduct(float[] weights, float[] scores) {
+        return VectorUtil.dotProduct(weights, scores);
     }
 
     @Override
@@ -1,13 +1,15 @@
 package com.o19s.es.ltr.ranker.normalizer;
 
+import com.o19s.es.ltr.ranker.FeatureMatrix;
 import com.o19s.es.ltr.ranker.LtrRanker;
+import com.o19s.es.ltr.ranker.OffHeapAccountable;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.RamUsageEstimator;
 
 import java.util.Map;
 import java.util.Objects;
 
-public class FeatureNormalizingRanker implements LtrRanker, Accountable {
+public class FeatureNormalizingRanker implements LtrRanker, Accountable, OffHeapAccountable {
 
     private final LtrRanker wrapped;
     private final Map<Integer, Normalizer> ftrNorms;
@@ -48,6 +50,24 @@ public class FeatureNormalizingRanker implements LtrRanker, Accountable {
         return wrapped.score(point);
     }
 
+    @Override
+    public void score(FeatureMatrix matrix, float[] out) {
+        // features that did not match are normalized from the default score, like in score(FeatureVector)
+        float defaultScore = wrapped.newFeatureVector(null).getDefaultScore();
+        for (Map.Entry<Integer, Normalizer> ordToNorm: this.ftrNorms.entrySet()) {
+            int ord = ordToNorm.getKey();
+            Normalizer normalizer = ordToNorm.getValue();
+            for (int row = 0; row < matrix.numRows(); row++) {
+                float origFtrScore = matrix.getFeatureScore(row, ord);
+                if (Float.isNaN(origFtrScore)) {
+                    origFtrScore = defaultScore;
+                }
+                matrix.setFeatureScore(row, ord, normalizer.normalize(origFtrScore));
+            }
+        }
+        wrapped.score(matrix, out);
+    }
+
     @Override
     public boolean equals(Object other) {
         if (other == null) return false;
@@ -81,4 +101,9 @@ public class FeatureNormalizingRanker implements LtrRanker, Accountable {
             return BASE_RAM_USED + ftrNormSize;
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public long offHeapBytesUsed() {
+        return OffHeapAccountable.offHeapBytesUsed(wrapped);
+    }
+}
@@ -27,6 +27,19 @@ public class Normalizers {
         return NORMALIZERS.containsKey(name);
     }
 
+    /**
+     * @param normalizer a normalizer
+     * @return the name it is registered with, null if it is not returned by {@link #get(String)}
+     */
+    public static String name(Normalizer normalizer) {
+        for (Map.Entry<String, Normalizer> entry : NORMALIZERS.entrySet()) {
+            if (entry.getValue() == normalizer) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
     static class NoopNormalizer implements Normalizer {
         @Override
         public float normalize(float val) {
@@ -17,8 +17,8 @@
 package com.o19s.es.ltr.ranker.parser;
 
 import com.o19s.es.ltr.feature.FeatureSet;
+import com.o19s.es.ltr.ranker.dectree.FlatTreeEnsemble;
 import com.o19s.es.ltr.ranker.dectree.NaiveAdditiveDecisionTree;
-import com.o19s.es.ltr.ranker.dectree.NaiveAdditiveDecisionTree.Node;
 import com.o19s.es.ltr.ranker.normalizer.Normalizer;
 import com.o19s.es.ltr.ranker.normalizer.Normalizers;
 import org.elasticsearch.xcontent.ParseField;
@@ -31,9 +31,7 @@ import org.elasticsearch.xcontent.json.JsonXContent;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.ListIterator;
 
 /**
  * Parse XGBoost models generated by mjolnir (https://github.com/wikimedia/search-MjoLniR)
@@ -52,11 +50,7 @@ public class XGBoostJsonParser implements LtrRankerParser {
             throw new IllegalArgumentException("Cannot parse model", e);
         }
 
-        Node[] trees = modelDefinition.getTrees(set);
-        float[] weights = new float[trees.length];
-        // Tree weights are already encoded in outputs
-        Arrays.fill(weights, 1F);
-        return new NaiveAdditiveDecisionTree(trees, weights, set.size(), modelDefinition.normalizer);
+        return new NaiveAdditiveDecisionTree(modelDefinition.getTrees(set), set.size(), modelDefinition.normalizer);
     }
 
     private static class XGBoostDefinition {
@@ -137,13 +131,14 @@ public class XGBoostJsonParser implements LtrRankerParser {
             this.splitParserStates = splitParserStates;
         }
 
-        Node[] getTrees(FeatureSet set) {
-            Node[] trees = new Node[splitParserStates.size()];
-            ListIterator<SplitParserState> it = splitParserStates.listIterator();
-            while(it.hasNext()) {
-                trees[it.nextIndex()] = it.next().toNode(set);
+        FlatTreeEnsemble getTrees(FeatureSet set) {
+            FlatTreeEnsemble.Builder builder = new FlatTreeEnsemble.Builder();
+            for (SplitParserState tree : splitParserStates) {
+                // Tree weights are already encoded in outputs
+                builder.newTree(1F);
+                tree.appendTo(builder, set);
             }
-            return trees;
+            return builder.build();
         }
     }
 
@@ -246,12 +241,14 @@ public class XGBoostJsonParser implements LtrRankerParser {
         }
 
 
-        Node toNode(FeatureSet set) {
+        void appendTo(FlatTreeEnsemble.Builder builder, FeatureSet set) {
             if (isSplit()) {
-                return new NaiveAdditiveDecisionTree.Split(children.get(0).toNode(set), children.get(1).toNode(set),
-                        set.featureOrdinal(split), threshold, leftNodeId, missingNodeId);
+                int node = builder.split(set.featureOrdinal(split), threshold, leftNodeId.equals(missingNodeId));
+                children.get(0).appendTo(builder, set);
+                builder.startRight(node);
+                children.get(1).appendTo(builder, set);
             } else {
-                return new NaiveAdditiveDecisionTree.Leaf(leaf);
+                builder.leaf(leaf);
             }
         }
     }
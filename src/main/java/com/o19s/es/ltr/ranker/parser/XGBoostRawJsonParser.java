@@ -1,6 +1,7 @@
 package com.o19s.es.ltr.ranker.parser;
 
 import com.o19s.es.ltr.feature.FeatureSet;
+import com.o19s.es.ltr.ranker.dectree.FlatTreeEnsemble;
 import com.o19s.es.ltr.ranker.dectree.NaiveAdditiveDecisionTree;
 import com.o19s.es.ltr.ranker.normalizer.Normalizer;
 import com.o19s.es.ltr.ranker.normalizer.Normalizers;
@@ -13,12 +14,8 @@ import org.elasticsearch.xcontent.XContentParseException;
 import org.elasticsearch.xcontent.json.JsonXContent;
 
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.Map;
 import java.util.Optional;
 
 public class XGBoostRawJsonParser implements LtrRankerParser {
@@ -36,45 +33,25 @@ public class XGBoostRawJsonParser implements LtrRankerParser {
             throw new IllegalArgumentException("Cannot parse model", e);
         }
 
-        NaiveAdditiveDecisionTree.Node[] trees = modelDefinition.getLearner().getTrees(set);
+        List<XGBoostTree> trees = modelDefinition.getLearner().getTrees(set);
         List<String> modelFeatures = modelDefinition.learner.featureNames;
 
         // remap features according to the order in the feature set
-        Map<Integer, Integer> modelFeaturesReordering = new HashMap<>();
+        int[] modelFeaturesReordering = new int[modelFeatures.size()];
         for (int i = 0; i < modelFeatures.size(); i++) {
-            modelFeaturesReordering.put(i, set.featureOrdinal(modelFeatures.get(i)));
+            modelFeaturesReordering[i] = set.featureOrdinal(modelFeatures.get(i));
         }
 
-        // Reorder features in each tree
-        NaiveAdditiveDecisionTree.Node[] adjustedTrees = new NaiveAdditiveDecisionTree.Node[trees.length];
-        for (int i = 0; i < trees.length; i++) {
-            adjustedTrees[i] = reorderTreeFeatures(trees[i], modelFeaturesReordering);
+        FlatTreeEnsemble.Builder builder = new FlatTreeEnsemble.Builder();
+        for (XGBoostTree tree : trees) {
+            builder.newTree(1F);
+            tree.appendTo(builder, 0, modelFeaturesReordering);
         }
-
-        float[] weights = new float[trees.length];
-        Arrays.fill(weights, 1F);
         return new NaiveAdditiveDecisionTree(
-                adjustedTrees, weights, set.size(), modelDefinition.getLearner().getObjective().getNormalizer()
+                builder.build(), set.size(), modelDefinition.getLearner().getObjective().getNormalizer()
         );
     }
 
-    private NaiveAdditiveDecisionTree.Node reorderTreeFeatures(NaiveAdditiveDecisionTree.Node node,
-                                                               Map<Integer, Integer> modelFeaturesReordering) {
-        if (node instanceof NaiveAdditiveDecisionTree.Split splitNode) {
-            return new NaiveAdditiveDecisionTree.Split(
-                    reorderTreeFeatures(splitNode.getLeft(), modelFeaturesReordering),
-                    reorderTreeFeatures(splitNode.getRight(), modelFeaturesReordering),
-                    modelFeaturesReordering.get(splitNode.getFeature()),
-                    splitNode.getThreshold(),
-                    splitNode.getLeftNodeId(),
-                    splitNode.getMissingNodeId()
-            );
-        }
-
-        // if the node is Leaf we don't do anything
-        return node;
-    }
-
     private static class XGBoostDefinition {
         private static final ObjectParser<XGBoostRawJsonParser.XGBoostDefinition, FeatureSet> PARSER;
 
@@ -193,7 +170,7 @@ public class XGBoostRawJsonParser implements LtrRankerParser {
         XGBoostLearner() {
         }
 
-        NaiveAdditiveDecisionTree.Node[] getTrees(FeatureSet set) {
+        List<XGBoostTree> getTrees(FeatureSet set) {
             return this.getGradientBooster().getModel().getTrees();
         }
 
@@ -245,7 +222,7 @@ public class XGBoostRawJsonParser implements LtrRankerParser {
     }
 
     static class XGBoostModel {
-        private NaiveAdditiveDecisionTree.Node[] trees;
+        private List<XGBoostTree> trees;
         private List<Integer> treeInfo;
 
         private static final ObjectParser<XGBoostRawJsonParser.XGBoostModel, FeatureSet> PARSER;
@@ -279,16 +256,11 @@ public class XGBoostRawJsonParser implements LtrRankerParser {
         XGBoostModel() {
         }
 
-        public NaiveAdditiveDecisionTree.Node[] getTrees() {
+        public List<XGBoostTree> getTrees() {
             return trees;
         }
 
-        public void setTrees(List<XGBoostTree> parsedTrees) {
-            NaiveAdditiveDecisionTree.Node[] trees = new NaiveAdditiveDecisionTree.Node[parsedTrees.size()];
-            ListIterator<XGBoostRawJsonParser.XGBoostTree> it = parsedTrees.listIterator();
-            while (it.hasNext()) {
-                trees[it.nextIndex()] = it.next().getRootNode();
-            }
+        public void setTrees(List<XGBoostTree> trees) {
             this.trees = trees;
         }
     }
@@ -337,8 +309,6 @@ public class XGBoostRawJsonParser implements LtrRankerParser {
         private List<Integer> splitTypes;
         private List<Float> baseWeights;
 
-        private NaiveAdditiveDecisionTree.Node rootNode;
-
         private static final ObjectParser<XGBoostRawJsonParser.XGBoostTree, FeatureSet> PARSER;
 
         static {
@@ -356,7 +326,7 @@ public class XGBoostRawJsonParser implements LtrRankerParser {
 
         public static XGBoostRawJsonParser.XGBoostTree parse(XContentParser parser, FeatureSet set) throws IOException {
             XGBoostRawJsonParser.XGBoostTree tree = PARSER.apply(parser, set);
-            tree.rootNode = tree.asLibTree(0);
+            tree.validate(0);
             return tree;
         }
 
@@ -428,27 +398,31 @@ public class XGBoostRawJsonParser implements LtrRankerParser {
             return leftChildren.get(nodeId) != -1 && rightChildren.get(nodeId) != -1;
         }
 
-        private NaiveAdditiveDecisionTree.Node asLibTree(Integer nodeId) {
+        private void validate(int nodeId) {
             if (nodeId >= leftChildren.size()) {
                 throw new IllegalArgumentException("Child node reference ID [" + nodeId + "] is invalid");
             }
             if (nodeId >= rightChildren.size()) {
                 throw new IllegalArgumentException("Child node reference ID [" + nodeId + "] is invalid");
             }
+            if (isSplit(nodeId)) {
+                validate(leftChildren.get(nodeId));
+                validate(rightChildren.get(nodeId));
+            }
+        }
 
+        void appendTo(FlatTreeEnsemble.Builder builder, int nodeId, int[] featureOrdinals) {
             if (isSplit(nodeId)) {
-                Integer missingNodeId =
-                    defaultLeft.get(nodeId) == 1 ? leftChildren.get(nodeId) : rightChildren.get(nodeId);
-                return new NaiveAdditiveDecisionTree.Split(
-                    asLibTree(leftChildren.get(nodeId)),
-                    asLibTree(rightChildren.get(nodeId)),
-                    splitIndices.get(nodeId),
+                int split = builder.split(
+                    featureOrdinals[splitIndices.get(nodeId)],
                     splitConditions.get(nodeId),
-                    leftChildren.get(nodeId),
-                    missingNodeId
+                    defaultLeft.get(nodeId) == 1
                 );
+                appendTo(builder, leftChildren.get(nodeId), featureOrdinals);
+                builder.startRight(split);
+                appendTo(builder, rightChildren.get(nodeId), featureOrdinals);
             } else {
-                return new NaiveAdditiveDecisionTree.Leaf(baseWeights.get(nodeId));
+                builder.leaf(baseWeights.get(nodeId));
             }
         }
 
@@ -459,9 +433,5 @@ public class XGBoostRawJsonParser implements LtrRankerParser {
         public void setBaseWeights(List<Float> baseWeights) {
             this.baseWeights = baseWeights;
         }
-
-        public NaiveAdditiveDecisionTree.Node getRootNode() {
-            return rootNode;
-        }
     }
 }
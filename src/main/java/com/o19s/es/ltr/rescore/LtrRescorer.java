@@ -0,0 +1,133 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.rescore;
+
+import com.o19s.es.ltr.query.RankerQuery;
+import com.o19s.es.ltr.ranker.FeatureMatrix;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.Weight;
+import org.elasticsearch.search.rescore.QueryRescorer;
+import org.elasticsearch.search.rescore.RescoreContext;
+import org.elasticsearch.search.rescore.Rescorer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rescorer scoring the whole rescore window at once.
+ * The feature scores of all the documents of the window are collected
+ * first and the model is then run on the resulting {@link FeatureMatrix}
+ * so that rankers can evaluate several documents at a time.
+ *
+ * Scores are combined like the query rescorer does, the query must be a
+ * ltr query, other queries are delegated to {@link QueryRescorer}.
+ */
+public final class LtrRescorer implements Rescorer {
+    public static final Rescorer INSTANCE = new LtrRescorer();
+
+    private static final Comparator<ScoreDoc> SCORE_DOC_COMPARATOR = (o1, o2) -> {
+        int cmp = Float.compare(o2.score, o1.score);
+        return cmp == 0 ? Integer.compare(o1.doc, o2.doc) : cmp;
+    };
+
+    private LtrRescorer() {}
+
+    @Override
+    public TopDocs rescore(TopDocs topDocs, IndexSearcher searcher, RescoreContext rescoreContext) throws IOException {
+        if (topDocs == null || topDocs.scoreDocs.length == 0) {
+            return topDocs;
+        }
+        LtrRescoreContext context = (LtrRescoreContext) rescoreContext;
+        Weight weight = searcher.createWeight(searcher.rewrite(context.parsedQuery().query()), ScoreMode.COMPLETE, 1F);
+        if (!(weight instanceof RankerQuery.RankerWeight)) {
+            return QueryRescorer.INSTANCE.rescore(topDocs, searcher, rescoreContext);
+        }
+        RankerQuery.RankerWeight rankerWeight = (RankerQuery.RankerWeight) weight;
+
+        ScoreDoc[] window = Arrays.copyOf(topDocs.scoreDocs, Math.min(context.getWindowSize(), topDocs.scoreDocs.length));
+        Arrays.sort(window, Comparator.comparingInt(d -> d.doc));
+        int[] docs = new int[window.length];
+        Set<Integer> rescoredDocs = new HashSet<>();
+        for (int i = 0; i < window.length; i++) {
+            docs[i] = window[i].doc;
+            rescoredDocs.add(window[i].doc);
+        }
+        context.setRescoredDocs(rescoredDocs);
+
+        FeatureMatrix matrix = rankerWeight.newFeatureMatrix(docs.length);
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        int from = 0;
+        while (from < docs.length) {
+            context.checkCancellation();
+            LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docs[from], leaves));
+            int end = leaf.docBase + leaf.reader().maxDoc();
+            int to = from + 1;
+            while (to < docs.length && docs[to] < end) {
+                to++;
+            }
+            rankerWeight.collectFeatures(leaf, docs, from, to, matrix);
+            from = to;
+        }
+        float[] scores = new float[docs.length];
+        rankerWeight.score(matrix, scores);
+
+        for (int i = 0; i < window.length; i++) {
+            // the ltr query matches all the docs
+            window[i].score = context.scoreMode().combine(window[i].score * context.queryWeight(),
+                    scores[i] * context.rescoreQueryWeight());
+        }
+        // hits beyond the window are treated as docs that did not match the rescore query
+        ScoreDoc[] hits = topDocs.scoreDocs;
+        for (int i = window.length; i < hits.length; i++) {
+            hits[i].score *= context.queryWeight();
+        }
+        Arrays.sort(hits, SCORE_DOC_COMPARATOR);
+        return new TopDocs(topDocs.totalHits, hits);
+    }
+
+    @Override
+    public Explanation explain(int topLevelDocId, IndexSearcher searcher, RescoreContext rescoreContext,
+                               Explanation sourceExplanation) throws IOException {
+        // scores are the same as the query rescorer
+        return QueryRescorer.INSTANCE.explain(topLevelDocId, searcher, rescoreContext, sourceExplanation);
+    }
+
+    /**
+     * Rescore context of the {@link LtrRescorer}, settings and query
+     * are the ones of the query rescorer.
+     */
+    public static class LtrRescoreContext extends QueryRescorer.QueryRescoreContext {
+        public LtrRescoreContext(int windowSize) {
+            super(windowSize);
+        }
+
+        @Override
+        public Rescorer rescorer() {
+            return INSTANCE;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.rescore;
+
+import org.elasticsearch.TransportVersion;
+import org.elasticsearch.TransportVersions;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryRewriteContext;
+import org.elasticsearch.index.query.SearchExecutionContext;
+import org.elasticsearch.search.rescore.QueryRescoreMode;
+import org.elasticsearch.search.rescore.RescorerBuilder;
+import org.elasticsearch.xcontent.ObjectParser;
+import org.elasticsearch.xcontent.ParseField;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentParser;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * ltr rescorer, accepts the same options as the query rescorer but scores
+ * the whole window at once with {@link LtrRescorer}.
+ */
+public class LtrRescorerBuilder extends RescorerBuilder<LtrRescorerBuilder> {
+    public static final String NAME = "ltr";
+    public static final ParseField RESCORE_QUERY = new ParseField("rescore_query");
+    public static final ParseField QUERY_WEIGHT = new ParseField("query_weight");
+    public static final ParseField RESCORE_QUERY_WEIGHT = new ParseField("rescore_query_weight");
+    public static final ParseField SCORE_MODE = new ParseField("score_mode");
+    private static final ObjectParser<LtrRescorerBuilder, Void> PARSER;
+
+    static {
+        PARSER = new ObjectParser<>(NAME, LtrRescorerBuilder::new);
+        PARSER.declareObject(LtrRescorerBuilder::rescoreQuery, (p, c) -> AbstractQueryBuilder.parseTopLevelQuery(p), RESCORE_QUERY);
+        PARSER.declareFloat(LtrRescorerBuilder::queryWeight, QUERY_WEIGHT);
+        PARSER.declareFloat(LtrRescorerBuilder::rescoreQueryWeight, RESCORE_QUERY_WEIGHT);
+        PARSER.declareString((b, mode) -> b.scoreMode(QueryRescoreMode.fromString(mode)), SCORE_MODE);
+    }
+
+    private QueryBuilder rescoreQuery;
+    private float queryWeight = 1F;
+    private float rescoreQueryWeight = 1F;
+    private QueryRescoreMode scoreMode = QueryRescoreMode.Total;
+
+    public LtrRescorerBuilder() {
+    }
+
+    public LtrRescorerBuilder(StreamInput input) throws IOException {
+        super(input);
+        rescoreQuery = input.readNamedWriteable(QueryBuilder.class);
+        queryWeight = input.readFloat();
+        rescoreQueryWeight = input.readFloat();
+        scoreMode = QueryRescoreMode.readFromStream(input);
+    }
+
+    public static LtrRescorerBuilder fromXContent(XContentParser parser) throws IOException {
+        final LtrRescorerBuilder builder;
+        try {
+            builder = PARSER.parse(parser, null);
+        } catch (IllegalArgumentException iae) {
+            throw new ParsingException(parser.getTokenLocation(), iae.getMessage(), iae);
+        }
+        if (builder.rescoreQuery == null) {
+            throw new ParsingException(parser.getTokenLocation(), "Field [" + RESCORE_QUERY + "] is mandatory.");
+        }
+        return builder;
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeNamedWriteable(rescoreQuery);
+        out.writeFloat(queryWeight);
+        out.writeFloat(rescoreQueryWeight);
+        scoreMode.writeTo(out);
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(NAME);
+        builder.field(RESCORE_QUERY.getPreferredName(), rescoreQuery);
+        builder.field(QUERY_WEIGHT.getPreferredName(), queryWeight);
+        builder.field(RESCORE_QUERY_WEIGHT.getPreferredName(), rescoreQueryWeight);
+        builder.field(SCORE_MODE.getPreferredName(), scoreMode.toString());
+        builder.endObject();
+    }
+
+    @Override
+    protected LtrRescorer.LtrRescoreContext innerBuildContext(int windowSize, SearchExecutionContext context) throws IOException {
+        LtrRescorer.LtrRescoreContext rescoreContext = new LtrRescorer.LtrRescoreContext(windowSize);
+        rescoreContext.setQuery(context.toQuery(rescoreQuery));
+        rescoreContext.setQueryWeight(queryWeight);
+        rescoreContext.setRescoreQueryWeight(rescoreQueryWeight);
+        rescoreContext.setScoreMode(scoreMode);
+        return rescoreContext;
+    }
+
+    @Override
+    public LtrRescorerBuilder rewrite(QueryRewriteContext ctx) throws IOException {
+        QueryBuilder rewritten = rescoreQuery.rewrite(ctx);
+        if (rewritten == rescoreQuery) {
+            return this;
+        }
+        LtrRescorerBuilder builder = new LtrRescorerBuilder()
+                .rescoreQuery(rewritten)
+                .queryWeight(queryWeight)
+                .rescoreQueryWeight(rescoreQueryWeight)
+                .scoreMode(scoreMode);
+        if (windowSize != null) {
+            builder.windowSize(windowSize);
+        }
+        return builder;
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+
+    @Override
+    public TransportVersion getMinimalSupportedVersion() {
+        return TransportVersions.V_7_0_0;
+    }
+
+    public QueryBuilder rescoreQuery() {
+        return rescoreQuery;
+    }
+
+    public LtrRescorerBuilder rescoreQuery(QueryBuilder rescoreQuery) {
+        this.rescoreQuery = Objects.requireNonNull(rescoreQuery);
+        return this;
+    }
+
+    public float queryWeight() {
+        return queryWeight;
+    }
+
+    public LtrRescorerBuilder queryWeight(float queryWeight) {
+        this.queryWeight = queryWeight;
+        return this;
+    }
+
+    public float rescoreQueryWeight() {
+        return rescoreQueryWeight;
+    }
+
+    public LtrRescorerBuilder rescoreQueryWeight(float rescoreQueryWeight) {
+        this.rescoreQueryWeight = rescoreQueryWeight;
+        return this;
+    }
+
+    public QueryRescoreMode scoreMode() {
+        return scoreMode;
+    }
+
+    public LtrRescorerBuilder scoreMode(QueryRescoreMode scoreMode) {
+        this.scoreMode = Objects.requireNonNull(scoreMode);
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) {
+            return false;
+        }
+        LtrRescorerBuilder that = (LtrRescorerBuilder) o;
+        return Float.compare(queryWeight, that.queryWeight) == 0
+                && Float.compare(rescoreQueryWeight, that.rescoreQueryWeight) == 0
+                && Objects.equals(rescoreQuery, that.rescoreQuery)
+                && scoreMode == that.scoreMode;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), rescoreQuery, queryWeight, rescoreQueryWeight, scoreMode);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.rest;
+
+import com.o19s.es.ltr.action.ExtractFeaturesAction.ExtractFeaturesRequestBuilder;
+import org.elasticsearch.client.internal.node.NodeClient;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestChunkedToXContentListener;
+import org.elasticsearch.xcontent.ObjectParser;
+import org.elasticsearch.xcontent.ParseField;
+import org.elasticsearch.xcontent.XContentParser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Extract the features of a feature set for a judgment list:
+ * <pre>
+ * POST /_ltr/_featureset/{name}/_extract
+ * {
+ *     "index": "my_index",
+ *     "queries": [
+ *         { "params": { "keywords": "rambo" }, "ids": [ "7555", "1370" ] }
+ *     ]
+ * }
+ * </pre>
+ */
+public class RestExtractFeatures extends FeatureStoreBaseRestHandler {
+
+    @Override
+    public String getName() {
+        return "Extract the features of a judgment list";
+    }
+
+    @Override
+    public List<Route> routes() {
+        return unmodifiableList(asList(
+                new Route(RestRequest.Method.POST, "/_ltr/{store}/_featureset/{name}/_extract"),
+                new Route(RestRequest.Method.POST, "/_ltr/_featureset/{name}/_extract")));
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+        if (!request.hasContentOrSourceParam()) {
+            throw new IllegalArgumentException("Missing content or source param.");
+        }
+        ParserState state = new ParserState();
+        request.withContentOrSourceParamParserOrNull((p) -> ParserState.parse(p, state));
+        ExtractFeaturesRequestBuilder builder = new ExtractFeaturesRequestBuilder(client)
+                .featureSet(indexName(request), request.param("name"))
+                .index(state.index);
+        for (ParserState.Query query : state.queries) {
+            builder.addQuery(query.params, query.ids);
+        }
+        return (channel) -> builder.execute(new RestChunkedToXContentListener<>(channel));
+    }
+
+    private static class ParserState {
+        private static final ObjectParser<ParserState, Void> PARSER = new ObjectParser<>("extract_features", ParserState::new);
+
+        static {
+            PARSER.declareString(ParserState::setIndex, new ParseField("index"));
+            PARSER.declareObjectArray(ParserState::setQueries, Query.QUERY_PARSER::apply, new ParseField("queries"));
+        }
+
+        private String index;
+        private List<Query> queries = new ArrayList<>();
+
+        public void setIndex(String index) {
+            this.index = index;
+        }
+
+        public void setQueries(List<Query> queries) {
+            this.queries = queries;
+        }
+
+        public static void parse(XContentParser parser, ParserState value) throws IOException {
+            PARSER.parse(parser, value, null);
+            if (value.index == null) {
+                throw new ParsingException(parser.getTokenLocation(), "Missing required value [index]");
+            }
+        }
+
+        private static class Query {
+            private static final ObjectParser<Query, Void> QUERY_PARSER = new ObjectParser<>("query", Query::new);
+            static {
+                QUERY_PARSER.declareObject(Query::setParams, (p, c) -> p.map(), new ParseField("params"));
+                QUERY_PARSER.declareStringArray(Query::setIds, new ParseField("ids"));
+            }
+
+            Map<String, Object> params;
+            List<String> ids = new ArrayList<>();
+
+            public void setParams(Map<String, Object> params) {
+                this.params = params;
+            }
+
+            public void setIds(List<String> ids) {
+                this.ids = ids;
+            }
+        }
+    }
+}
@@ -91,6 +91,7 @@ public class RestFeatureManager extends FeatureStoreBaseRestHandler {
                                         clearCache.clearModel(indexName, name);
                                         break;
                                 }
+                                clearCache.setSeqNo(deleteResponse.getSeqNo());
                                 client.execute(ClearCachesAction.INSTANCE, clearCache, ActionListener.wrap(
                                         (r) -> restR.onResponse(deleteResponse),
                                         // Is it good to fail the whole request if cache invalidation failed?
@@ -109,6 +110,7 @@ public class RestFeatureManager extends FeatureStoreBaseRestHandler {
         String id = generateId(type, name);
         return (channel) -> client.prepareGet(indexName, id)
                 .setRouting(routing)
+                .setFetchSource(null, StoredLtrModel.COMPILED_SOURCE_PATH)
                 .execute(new RestToXContentListener<GetResponse>(channel, r -> r.isExists() ? OK : NOT_FOUND));
     }
 
@@ -1,5 +1,6 @@
 package com.o19s.es.ltr.rest;
 
+import com.o19s.es.ltr.feature.store.StoredLtrModel;
 import org.elasticsearch.client.internal.node.NodeClient;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.rest.RestRequest;
@@ -51,6 +52,7 @@ public class RestSearchStoreElements extends FeatureStoreBaseRestHandler {
                 .setQuery(qb)
                 .setSize(size)
                 .setFrom(from)
+                .setFetchSource(null, StoredLtrModel.COMPILED_SOURCE_PATH)
                 .execute(new RestRefCountedChunkedToXContentListener<>(channel));
     }
 
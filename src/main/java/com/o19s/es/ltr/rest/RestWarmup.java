@@ -0,0 +1,77 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.rest;
+
+import com.o19s.es.ltr.action.WarmupAction.WarmupRequestBuilder;
+import org.elasticsearch.client.internal.node.NodeClient;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestActions.NodesResponseRestListener;
+import org.elasticsearch.xcontent.ObjectParser;
+import org.elasticsearch.xcontent.ParseField;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Load and compile models in the caches of every node.
+ *
+ * Models listed in the node settings (ltr.caches.warmup.models):
+ * POST /_ltr/_warmup
+ *
+ * Models of a store:
+ * POST /_ltr/{store}/_warmup
+ * {
+ *     "models": [ "my_model" ]
+ * }
+ */
+public class RestWarmup extends FeatureStoreBaseRestHandler {
+    private static final ObjectParser<List<String>, Void> PARSER = new ObjectParser<>("warmup");
+
+    static {
+        PARSER.declareStringArray(List::addAll, new ParseField("models"));
+    }
+
+    @Override
+    public String getName() {
+        return "Load models in the caches of every node";
+    }
+
+    @Override
+    public List<Route> routes() {
+        return unmodifiableList(asList(
+                new Route(RestRequest.Method.POST, "/_ltr/_warmup"),
+                new Route(RestRequest.Method.POST, "/_ltr/{store}/_warmup")));
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+        List<String> models = new ArrayList<>();
+        request.withContentOrSourceParamParserOrNull((p) -> {
+            if (p != null) {
+                PARSER.parse(p, models, null);
+            }
+        });
+        // without store nor models the nodes warm up the models of their settings
+        String store = request.hasParam("store") || !models.isEmpty() ? indexName(request) : null;
+        WarmupRequestBuilder builder = new WarmupRequestBuilder(client).models(store, models);
+        return (channel) -> builder.execute(new NodesResponseRestListener<>(channel));
+    }
+}
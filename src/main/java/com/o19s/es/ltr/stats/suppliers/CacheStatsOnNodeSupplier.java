@@ -1,6 +1,7 @@
 package com.o19s.es.ltr.stats.suppliers;
 
 import com.o19s.es.ltr.feature.store.index.Caches;
+import com.o19s.es.ltr.query.FeatureScoreCaches;
 import org.elasticsearch.common.cache.Cache;
 
 import java.util.Collections;
@@ -18,12 +19,15 @@ public class CacheStatsOnNodeSupplier implements Supplier<Map<String, Map<String
         CACHE_FEATURE("feature"),
         CACHE_FEATURE_SET("featureset"),
         CACHE_MODEL("model"),
+        CACHE_FEATURE_SCORE("feature_score"),
+        CACHE_FEATURE_QUERY("feature_query"),
 
         CACHE_HIT_COUNT("hit_count"),
         CACHE_MISS_COUNT("miss_count"),
         CACHE_EVICTION_COUNT("eviction_count"),
         CACHE_ENTRY_COUNT("entry_count"),
-        CACHE_MEMORY_USAGE_IN_BYTES("memory_usage_in_bytes");
+        CACHE_MEMORY_USAGE_IN_BYTES("memory_usage_in_bytes"),
+        CACHE_OFF_HEAP_MEMORY_USAGE_IN_BYTES("off_heap_memory_usage_in_bytes");
 
         private final String name;
 
@@ -45,7 +49,9 @@ public class CacheStatsOnNodeSupplier implements Supplier<Map<String, Map<String
         Map<String, Map<String, Object>> values = new HashMap<>();
         values.put(Stat.CACHE_FEATURE.getName(), getCacheStats(caches.featureCache()));
         values.put(Stat.CACHE_FEATURE_SET.getName(), getCacheStats(caches.featureSetCache()));
-        values.put(Stat.CACHE_MODEL.getName(), getCacheStats(caches.modelCache()));
+        values.put(Stat.CACHE_MODEL.getName(), getModelCacheStats());
+        values.put(Stat.CACHE_FEATURE_SCORE.getName(), getFeatureScoreCacheStats());
+        values.put(Stat.CACHE_FEATURE_QUERY.getName(), getCacheStats(caches.featureQueryCache()));
         return Collections.unmodifiableMap(values);
     }
 
@@ -58,4 +64,29 @@ public class CacheStatsOnNodeSupplier implements Supplier<Map<String, Map<String
         stat.put(Stat.CACHE_MEMORY_USAGE_IN_BYTES.getName(), cache.weight());
         return Collections.unmodifiableMap(stat);
     }
+
+    /**
+     * The memory usage of the models only counts the heap, the nodes of trees
+     * stored off-heap are reported separately.
+     */
+    private Map<String, Object> getModelCacheStats() {
+        Map<String, Object> stat = new HashMap<>(getCacheStats(caches.modelCache()));
+        stat.put(Stat.CACHE_OFF_HEAP_MEMORY_USAGE_IN_BYTES.getName(), caches.modelOffHeapBytes());
+        return Collections.unmodifiableMap(stat);
+    }
+
+    /**
+     * Only the feature score caches shared by the phases of a search are counted,
+     * an entry holds the scores of a query on a shard.
+     */
+    private Map<String, Object> getFeatureScoreCacheStats() {
+        FeatureScoreCaches featureScoreCaches = caches.featureScoreCaches();
+        Map<String, Object> stat = new HashMap<>();
+        stat.put(Stat.CACHE_HIT_COUNT.getName(), featureScoreCaches.hitCount());
+        stat.put(Stat.CACHE_MISS_COUNT.getName(), featureScoreCaches.missCount());
+        stat.put(Stat.CACHE_EVICTION_COUNT.getName(), featureScoreCaches.evictionCount());
+        stat.put(Stat.CACHE_ENTRY_COUNT.getName(), featureScoreCaches.count());
+        stat.put(Stat.CACHE_MEMORY_USAGE_IN_BYTES.getName(), featureScoreCaches.bytesUsed());
+        return Collections.unmodifiableMap(stat);
+    }
 }
@@ -2,9 +2,9 @@ package com.o19s.es.termstat;
 
 import com.o19s.es.explore.StatisticsHelper;
 import com.o19s.es.explore.StatisticsHelper.AggrType;
+import com.o19s.es.explore.TermStatsTable;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.index.TermStates;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.QueryVisitor;
@@ -17,8 +17,6 @@ import org.apache.lucene.search.ScorerSupplier;
 import org.elasticsearch.script.DoubleValuesScript;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
@@ -91,7 +89,7 @@ public class TermStatQuery extends Query {
         private final AggrType aggr;
         private final AggrType posAggr;
         private final Set<Term> terms;
-        private final Map<Term, TermStates> termContexts;
+        private final TermStatsTable table;
 
         TermStatWeight(IndexSearcher searcher,
                 TermStatQuery tsq,
@@ -106,21 +104,10 @@ public class TermStatQuery extends Query {
             this.scoreMode = scoreMode;
             this.aggr = aggr;
             this.posAggr = posAggr;
-            this.termContexts = new HashMap<>();
 
-            // This is needed for proper DFS_QUERY_THEN_FETCH support
-            if (scoreMode.needsScores()) {
-                for (Term t : terms) {
-                    TermStates ctx = TermStates.build(searcher, t, true);
-
-                    if (ctx != null && ctx.docFreq() > 0) {
-                        searcher.collectionStatistics(t.field());
-                        searcher.termStatistics(t, ctx.docFreq(), ctx.totalTermFreq());
-                    }
-
-                    termContexts.put(t, ctx);
-                }
-            }
+            // Collection statistics are computed once for all the segments,
+            // this is needed for proper DFS_QUERY_THEN_FETCH support
+            this.table = TermStatsTable.build(searcher, terms);
         }
 
         public void extractTerms(Set<Term> terms) {
@@ -146,7 +133,7 @@ public class TermStatQuery extends Query {
         @Override
         public ScorerSupplier scorerSupplier(LeafReaderContext context) throws IOException {
             return new Weight.DefaultScorerSupplier(
-                    new TermStatScorer(searcher, context, expression, terms, scoreMode, aggr, posAggr, termContexts));
+                    new TermStatScorer(context, expression, terms, aggr, posAggr, table));
         }
     }
 
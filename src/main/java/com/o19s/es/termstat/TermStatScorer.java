@@ -2,22 +2,18 @@ package com.o19s.es.termstat;
 
 import com.o19s.es.explore.StatisticsHelper;
 import com.o19s.es.explore.StatisticsHelper.AggrType;
+import com.o19s.es.explore.TermStatsTable;
 import org.apache.lucene.expressions.Bindings;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
-
-import org.apache.lucene.index.TermStates;
 import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.DoubleValues;
 import org.apache.lucene.search.DoubleValuesSource;
-import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.ScoreMode;
 import org.apache.lucene.search.Scorer;
 import org.elasticsearch.script.DoubleValuesScript;
 
 import java.io.IOException;
 import java.util.HashMap;
-import java.util.Map;
 import java.util.Set;
 
 public class TermStatScorer extends Scorer {
@@ -28,28 +24,27 @@ public class TermStatScorer extends Scorer {
     private AggrType posAggr;
 
     private final LeafReaderContext context;
-    private final IndexSearcher searcher;
     private final Set<Term> terms;
-    private final ScoreMode scoreMode;
-    private final Map<Term, TermStates> termContexts;
+    // postings of the terms, advanced along with the iterator
+    private final TermStatSupplier.LeafPostings postings;
+    // reused for every document of the segment
+    private final TermStatSupplier tsq = new TermStatSupplier();
+    private final StatisticsHelper computed = new StatisticsHelper();
 
     public TermStatScorer(
-            IndexSearcher searcher,
             LeafReaderContext context,
             DoubleValuesScript compiledExpression,
             Set<Term> terms,
-            ScoreMode scoreMode,
             AggrType aggr,
             AggrType posAggr,
-            Map<Term, TermStates> termContexts) {
+            TermStatsTable table) throws IOException {
         this.context = context;
         this.compiledExpression = compiledExpression;
-        this.searcher = searcher;
         this.terms = terms;
-        this.scoreMode = scoreMode;
         this.aggr = aggr;
         this.posAggr = posAggr;
-        this.termContexts = termContexts;
+        this.postings = new TermStatSupplier.LeafPostings(table, context);
+        this.tsq.setPosAggr(posAggr);
 
         this.iter = DocIdSetIterator.all(context.reader().maxDoc());
     }
@@ -66,14 +61,11 @@ public class TermStatScorer extends Scorer {
 
     @Override
     public float score() throws IOException {
-        TermStatSupplier tsq = new TermStatSupplier();
-
         // Refresh the term stats
-        tsq.setPosAggr(posAggr);
-        tsq.bump(searcher, context, docID(), terms, scoreMode, termContexts);
+        tsq.bump(postings, docID());
 
         // Prepare computed statistics
-        StatisticsHelper computed = new StatisticsHelper();
+        computed.reset();
         HashMap<String, Float> termStatDict = new HashMap<>();
         Bindings bindings = new Bindings() {
             @Override
@@ -89,11 +81,11 @@ public class TermStatScorer extends Scorer {
 
         for (int i = 0; i < tsq.size(); i++) {
             // Update the term stat dictionary for the current term
-            termStatDict.put("df", tsq.get("df").get(i));
-            termStatDict.put("idf", tsq.get("idf").get(i));
-            termStatDict.put("tf", tsq.get("tf").get(i));
-            termStatDict.put("tp", tsq.get("tp").get(i));
-            termStatDict.put("ttf", tsq.get("ttf").get(i));
+            termStatDict.put("df", tsq.get("df", i));
+            termStatDict.put("idf", tsq.get("idf", i));
+            termStatDict.put("tf", tsq.get("tf", i));
+            termStatDict.put("tp", tsq.get("tp", i));
+            termStatDict.put("ttf", tsq.get("ttf", i));
             termStatDict.put("matches", (float) tsq.getMatchedTermCount());
             termStatDict.put("unique", (float) terms.size());
 
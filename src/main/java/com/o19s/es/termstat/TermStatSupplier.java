@@ -1,7 +1,9 @@
 package com.o19s.es.termstat;
 
 import com.o19s.es.explore.StatisticsHelper;
+import com.o19s.es.explore.PositionAggregator;
 import com.o19s.es.explore.StatisticsHelper.AggrType;
+import com.o19s.es.explore.TermStatsTable;
 import com.o19s.es.ltr.utils.Suppliers;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.PostingsEnum;
@@ -11,29 +13,21 @@ import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.index.TermState;
 import org.apache.lucene.index.TermStates;
 import org.apache.lucene.search.DocIdSetIterator;
-import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.ScoreMode;
-import org.apache.lucene.search.TermStatistics;
-import org.apache.lucene.search.similarities.ClassicSimilarity;
 import org.apache.lucene.util.IOSupplier;
-import org.elasticsearch.core.Tuple;
 
 import java.io.IOException;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 public class TermStatSupplier extends AbstractMap<String, ArrayList<Float>> {
     private final List<String> ACCEPTED_KEYS = Arrays.asList(new String[] { "df", "idf", "tf", "ttf", "tp" });
-    private AggrType posAggrType = AggrType.AVG;
+    private PositionAggregator posAggr = PositionAggregator.AVG;
 
-    private final ClassicSimilarity sim;
     private final StatisticsHelper df_stats, idf_stats, tf_stats, ttf_stats, tp_stats;
     private final Suppliers.MutableSupplier<Integer> matchedCountSupplier;
 
@@ -41,7 +35,6 @@ public class TermStatSupplier extends AbstractMap<String, ArrayList<Float>> {
 
     public TermStatSupplier() {
         this.matchedCountSupplier = new Suppliers.MutableSupplier<>();
-        this.sim = new ClassicSimilarity();
         this.df_stats = new StatisticsHelper();
         this.idf_stats = new StatisticsHelper();
         this.tf_stats = new StatisticsHelper();
@@ -49,78 +42,50 @@ public class TermStatSupplier extends AbstractMap<String, ArrayList<Float>> {
         this.tp_stats = new StatisticsHelper();
     }
 
-    public void bump(IndexSearcher searcher, LeafReaderContext context,
-            int docID, Set<Term> terms,
-            ScoreMode scoreMode, Map<Term, TermStates> termContexts) throws IOException {
-        df_stats.getData().clear();
-        idf_stats.getData().clear();
-        tf_stats.getData().clear();
-        ttf_stats.getData().clear();
-        tp_stats.getData().clear();
+    /**
+     * Load the stats of the terms for a document, documents of a leaf must be bumped in increasing order
+     * to be efficient.
+     *
+     * @param leaf the postings of the terms in the leaf of the document
+     * @param docID the document
+     */
+    public void bump(LeafPostings leaf, int docID) throws IOException {
+        df_stats.reset();
+        idf_stats.reset();
+        tf_stats.reset();
+        ttf_stats.reset();
+        tp_stats.reset();
         matchedTermCount = 0;
 
-        PostingsEnum postingsEnum = null;
-        Set<Tuple<Term, IOSupplier<TermState>>> stateSuppliers = new HashSet<Tuple<Term, IOSupplier<TermState>>>();
-        // Lucene recommends for performance reasons to first get
-        // all IOSupplier instances so let's do it this way
-        for (Term term : terms) {
-            if (docID == DocIdSetIterator.NO_MORE_DOCS) {
-                break;
-            }
-
-            TermStates termStates = termContexts.get(term);
-
-            assert termStates != null && termStates
-                    .wasBuiltFor(ReaderUtil.getTopLevelContext(context));
-
-            IOSupplier<TermState> stateSupplier = termStates.get(context);
-
-            if (stateSupplier != null) {
-                stateSuppliers.add(new Tuple<Term, IOSupplier<TermState>>(term, stateSupplier));
-            }
-        }
-        for (Tuple<Term, IOSupplier<TermState>> stateSupplier : stateSuppliers) {
-            TermState state = stateSupplier.v2().get();
-            Term term = stateSupplier.v1();
-            TermStates termStates = termContexts.get(term);
-
-            if (state == null || termStates.docFreq() == 0) {
-                insertZeroes(); // Zero out stats for terms we don't know about in the index
-                continue;
-            }
-
-            TermStatistics indexStats = searcher.termStatistics(term, termStates.docFreq(), termStates.totalTermFreq());
-
-            // Collection Statistics
-            df_stats.add(indexStats.docFreq());
-            idf_stats.add(sim.idf(indexStats.docFreq(), searcher.collectionStatistics(term.field()).docCount()));
-            ttf_stats.add(indexStats.totalTermFreq());
+        if (docID != DocIdSetIterator.NO_MORE_DOCS) {
+            TermStatsTable table = leaf.table;
+            // terms unknown in the leaf have no stats
+            for (int i = 0; i < leaf.terms.length; i++) {
+                int term = leaf.terms[i];
+                if (table.docFreq(term) == 0) {
+                    insertZeroes(); // Zero out stats for terms we don't know about in the index
+                    continue;
+                }
 
-            // Doc specifics
-            TermsEnum termsEnum = context.reader().terms(term.field()).iterator();
-            termsEnum.seekExact(term.bytes(), state);
-            postingsEnum = termsEnum.postings(postingsEnum, PostingsEnum.ALL);
+                // Collection Statistics
+                df_stats.add(table.docFreq(term));
+                idf_stats.add(table.idf(term));
+                ttf_stats.add(table.totalTermFreq(term));
 
-            // Verify document is in postings
-            if (postingsEnum.advance(docID) == docID) {
-                matchedTermCount++;
+                // Doc specifics
+                PostingsEnum postingsEnum = leaf.advance(i, docID);
+                if (postingsEnum != null) {
+                    matchedTermCount++;
 
-                tf_stats.add(postingsEnum.freq());
+                    tf_stats.add(postingsEnum.freq());
 
-                if (postingsEnum.freq() > 0) {
-                    StatisticsHelper positions = new StatisticsHelper();
-                    for (int i = 0; i < postingsEnum.freq(); i++) {
-                        positions.add((float) postingsEnum.nextPosition() + 1);
-                    }
                     // TODO: Can we return an array of arrays for the ScriptFeature injection usage?
-                    tp_stats.add(positions.getAggr(posAggrType));
+                    tp_stats.add(posAggr.aggregate(postingsEnum));
+                    // If document isn't in postings default to 0 for tf/tp
                 } else {
+                    tf_stats.add(0.0f);
                     tp_stats.add(0.0f);
                 }
-                // If document isn't in postings default to 0 for tf/tp
-            } else {
-                tf_stats.add(0.0f);
-                tp_stats.add(0.0f);
             }
         }
 
@@ -152,23 +117,36 @@ public class TermStatSupplier extends AbstractMap<String, ArrayList<Float>> {
      */
     @Override
     public ArrayList<Float> get(Object statType) {
-        String key = (String) statType;
+        return stats((String) statType).getData();
+    }
 
+    /**
+     * Read a stat without boxing the values of the other terms.
+     *
+     * @param statType Stat type to retrieve from the supplier
+     * @param term the position of the term
+     * @return the stat of the term
+     */
+    public float get(String statType, int term) {
+        return stats(statType).get(term);
+    }
+
+    private StatisticsHelper stats(String key) {
         switch (key) {
             case "df":
-                return df_stats.getData();
+                return df_stats;
 
             case "idf":
-                return idf_stats.getData();
+                return idf_stats;
 
             case "tf":
-                return tf_stats.getData();
+                return tf_stats;
 
             case "ttf":
-                return ttf_stats.getData();
+                return ttf_stats;
 
             case "tp":
-                return tp_stats.getData();
+                return tp_stats;
 
             default:
                 throw new IllegalArgumentException("Unsupported key requested: " + key);
@@ -202,13 +180,13 @@ public class TermStatSupplier extends AbstractMap<String, ArrayList<Float>> {
                             case 0:
                                 return new SimpleImmutableEntry<>("df", df_stats.getData());
                             case 1:
-                                return new SimpleImmutableEntry<>("idf", df_stats.getData());
+                                return new SimpleImmutableEntry<>("idf", idf_stats.getData());
                             case 2:
-                                return new SimpleImmutableEntry<>("tf", df_stats.getData());
+                                return new SimpleImmutableEntry<>("tf", tf_stats.getData());
                             case 3:
-                                return new SimpleImmutableEntry<>("ttf", df_stats.getData());
+                                return new SimpleImmutableEntry<>("ttf", ttf_stats.getData());
                             case 4:
-                                return new SimpleImmutableEntry<>("tp", df_stats.getData());
+                                return new SimpleImmutableEntry<>("tp", tp_stats.getData());
 
                             default:
                                 return null;
@@ -220,7 +198,7 @@ public class TermStatSupplier extends AbstractMap<String, ArrayList<Float>> {
             @Override
             public int size() {
                 // All stats objects will be the same size
-                return idf_stats.getData().size();
+                return idf_stats.getSize();
             }
         };
     }
@@ -234,7 +212,7 @@ public class TermStatSupplier extends AbstractMap<String, ArrayList<Float>> {
     }
 
     public void setPosAggr(AggrType type) {
-        this.posAggrType = type;
+        this.posAggr = PositionAggregator.of(type);
     }
 
     private void insertZeroes() {
@@ -244,4 +222,78 @@ public class TermStatSupplier extends AbstractMap<String, ArrayList<Float>> {
         ttf_stats.add(0.0f);
         tp_stats.add(0.0f);
     }
+
+    /**
+     * Postings of the terms in a leaf, opened once and advanced as documents are bumped.
+     */
+    public static class LeafPostings {
+        private final TermStatsTable table;
+        private final LeafReaderContext context;
+        // ordinals of the terms found in the leaf
+        private final int[] terms;
+        private final TermState[] states;
+        private final PostingsEnum[] postings;
+        // last document whose positions were read, positions can only be read once per document
+        private final int[] positionsRead;
+
+        /**
+         * @param table the statistics of the terms
+         * @param context a leaf of the index
+         */
+        public LeafPostings(TermStatsTable table, LeafReaderContext context) throws IOException {
+            this.table = table;
+            this.context = context;
+            // Lucene recommends for performance reasons to first get
+            // all IOSupplier instances so let's do it this way
+            List<IOSupplier<TermState>> suppliers = new ArrayList<>(table.size());
+            for (int i = 0; i < table.size(); i++) {
+                TermStates termStates = table.termStates(i);
+                assert termStates.wasBuiltFor(ReaderUtil.getTopLevelContext(context));
+                suppliers.add(termStates.get(context));
+            }
+            int[] found = new int[table.size()];
+            TermState[] foundStates = new TermState[table.size()];
+            int numFound = 0;
+            for (int i = 0; i < suppliers.size(); i++) {
+                if (suppliers.get(i) != null) {
+                    found[numFound] = i;
+                    foundStates[numFound] = suppliers.get(i).get();
+                    numFound++;
+                }
+            }
+            this.terms = Arrays.copyOf(found, numFound);
+            this.states = Arrays.copyOf(foundStates, numFound);
+            this.postings = new PostingsEnum[numFound];
+            this.positionsRead = new int[numFound];
+            Arrays.fill(positionsRead, -1);
+        }
+
+        /**
+         * @param i the position of the term in the leaf
+         * @param docID the target document
+         * @return the postings positioned on the document, null if the term does not occur in the document
+         */
+        private PostingsEnum advance(int i, int docID) throws IOException {
+            PostingsEnum postingsEnum = postings[i];
+            if (postingsEnum == null || postingsEnum.docID() > docID || positionsRead[i] == docID) {
+                // first use, or the document was already read, postings only go forward
+                postingsEnum = postings[i] = open(i, postingsEnum);
+            }
+            if (postingsEnum.docID() < docID) {
+                postingsEnum.advance(docID);
+            }
+            if (postingsEnum.docID() != docID) {
+                return null;
+            }
+            positionsRead[i] = docID;
+            return postingsEnum;
+        }
+
+        private PostingsEnum open(int i, PostingsEnum reuse) throws IOException {
+            Term term = table.term(terms[i]);
+            TermsEnum termsEnum = context.reader().terms(term.field()).iterator();
+            termsEnum.seekExact(term.bytes(), states[i]);
+            return termsEnum.postings(reuse, PostingsEnum.ALL);
+        }
+    }
 }
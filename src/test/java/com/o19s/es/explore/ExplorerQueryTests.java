@@ -22,14 +22,20 @@ import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.Explanation;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.Weight;
 import org.apache.lucene.store.ByteBuffersDirectory;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.tests.util.LuceneTestCase;
@@ -320,4 +326,101 @@ public class ExplorerQueryTests extends LuceneTestCase {
 
         assertThat(docs.scoreDocs[0].score, equalTo(0.0f));
     }
+
+    public void testMinWindow() throws Exception {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.add(new TermQuery(new Term("text", "dance")), BooleanClause.Occur.SHOULD);
+        builder.add(new TermQuery(new Term("text", "monkeys")), BooleanClause.Occur.SHOULD);
+        builder.add(new TermQuery(new Term("text", "stop")), BooleanClause.Occur.SHOULD);
+
+        ExplorerQuery eq = new ExplorerQuery(builder.build(), "min_window_raw_tp");
+
+        // dance at 1 and 9, monkeys at 3, stop at 7
+        TopDocs docs = searcher.search(eq, 4);
+        assertThat(docs.scoreDocs.length, equalTo(1));
+        Explanation explanation = searcher.explain(eq, docs.scoreDocs[0].doc);
+        assertThat(explanation.toString().trim(), equalTo("7.0 = Stat Score: min_window_raw_tp"));
+    }
+
+    public void testMinWindowWithMissingTerm() throws Exception {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.add(new TermQuery(new Term("text", "brown")), BooleanClause.Occur.SHOULD);
+        builder.add(new TermQuery(new Term("text", "cow")), BooleanClause.Occur.SHOULD);
+
+        ExplorerQuery eq = new ExplorerQuery(builder.build(), "min_window_raw_tp");
+
+        // documents with any of the terms match, the window is 0 unless all the terms are present
+        TopDocs docs = searcher.search(eq, 4);
+        assertThat(docs.scoreDocs.length, equalTo(3));
+        assertThat(docs.scoreDocs[0].score, equalTo(2.0f));
+        assertThat(docs.scoreDocs[1].score, equalTo(2.0f));
+        assertThat(docs.scoreDocs[2].score, equalTo(0.0f));
+    }
+
+    public void testOrderedPairs() throws Exception {
+        TermQuery dance = new TermQuery(new Term("text", "dance"));
+        TermQuery monkeys = new TermQuery(new Term("text", "monkeys"));
+        TermQuery stop = new TermQuery(new Term("text", "stop"));
+
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.add(dance, BooleanClause.Occur.SHOULD);
+        builder.add(monkeys, BooleanClause.Occur.SHOULD);
+        builder.add(stop, BooleanClause.Occur.SHOULD);
+        ExplorerQuery eq = new ExplorerQuery(builder.build(), "ordered_pairs_raw_tp");
+
+        // dance(1) < monkeys(3), dance(1) < stop(7), monkeys(3) < stop(7)
+        TopDocs docs = searcher.search(eq, 4);
+        assertThat(docs.scoreDocs[0].score, equalTo(3.0f));
+
+        builder = new BooleanQuery.Builder();
+        builder.add(stop, BooleanClause.Occur.SHOULD);
+        builder.add(monkeys, BooleanClause.Occur.SHOULD);
+        builder.add(dance, BooleanClause.Occur.SHOULD);
+        eq = new ExplorerQuery(builder.build(), "ordered_pairs_raw_tp");
+
+        // stop(7) < dance(9), monkeys(3) < dance(9)
+        docs = searcher.search(eq, 4);
+        assertThat(docs.scoreDocs[0].score, equalTo(2.0f));
+    }
+
+    public void testFirstPosition() throws Exception {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.add(new TermQuery(new Term("text", "cow")), BooleanClause.Occur.SHOULD);
+        builder.add(new TermQuery(new Term("text", "brown")), BooleanClause.Occur.SHOULD);
+        ExplorerQuery eq = new ExplorerQuery(builder.build(), "first_raw_tp");
+        ExplorerQuery minQuery = new ExplorerQuery(builder.build(), "min_raw_tp");
+
+        // brown at 3 in "how now brown cow", at 1 in "brown is the color of cows" and "brown cow"
+        TopDocs docs = searcher.search(eq, 4);
+        assertThat(docs.scoreDocs.length, equalTo(3));
+        assertThat(docs.scoreDocs[0].score, equalTo(3.0f));
+        assertThat(docs.scoreDocs[1].score, equalTo(1.0f));
+        assertThat(docs.scoreDocs[2].score, equalTo(1.0f));
+        for (ScoreDoc scoreDoc : docs.scoreDocs) {
+            assertThat(searcher.explain(minQuery, scoreDoc.doc).getValue().floatValue(), equalTo(scoreDoc.score));
+        }
+    }
+
+    public void testProximityScoredTwice() throws Exception {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.add(new TermQuery(new Term("text", "dance")), BooleanClause.Occur.SHOULD);
+        builder.add(new TermQuery(new Term("text", "monkeys")), BooleanClause.Occur.SHOULD);
+        builder.add(new TermQuery(new Term("text", "stop")), BooleanClause.Occur.SHOULD);
+        for (String type : new String[] { "min_window_raw_tp", "ordered_pairs_raw_tp", "first_raw_tp" }) {
+            Weight weight = searcher.createWeight(searcher.rewrite(new ExplorerQuery(builder.build(), type)), ScoreMode.COMPLETE, 1F);
+            for (LeafReaderContext context : reader.leaves()) {
+                Scorer scorer = weight.scorer(context);
+                if (scorer == null) {
+                    continue;
+                }
+                while (scorer.iterator().nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                    // positions are only read the first time
+                    float score = scorer.score();
+                    assertThat(type, scorer.score(), equalTo(score));
+                    assertThat(type, score, equalTo(searcher.explain(new ExplorerQuery(builder.build(), type),
+                            context.docBase + scorer.docID()).getValue().floatValue()));
+                }
+            }
+        }
+    }
 }
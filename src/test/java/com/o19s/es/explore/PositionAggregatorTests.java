@@ -0,0 +1,74 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.o19s.es.explore;
+
+import com.o19s.es.explore.StatisticsHelper.AggrType;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.lucene.Lucene;
+
+public class PositionAggregatorTests extends LuceneTestCase {
+    public void testAggregateLikeStatisticsHelper() throws Exception {
+        try (Directory dir = new ByteBuffersDirectory()) {
+            try (IndexWriter indexWriter = new IndexWriter(dir, new IndexWriterConfig(Lucene.STANDARD_ANALYZER))) {
+                int numDocs = atLeast(20);
+                for (int i = 0; i < numDocs; i++) {
+                    StringBuilder text = new StringBuilder();
+                    int length = random().nextInt(30) + 1;
+                    for (int j = 0; j < length; j++) {
+                        text.append(random().nextBoolean() ? "foo " : "bar ");
+                    }
+                    Document doc = new Document();
+                    doc.add(newTextField("text", text.toString(), Field.Store.NO));
+                    indexWriter.addDocument(doc);
+                }
+            }
+            try (IndexReader reader = DirectoryReader.open(dir)) {
+                StatisticsHelper positions = new StatisticsHelper();
+                for (AggrType type : AggrType.values()) {
+                    PositionAggregator aggregator = PositionAggregator.of(type);
+                    for (LeafReaderContext context : reader.leaves()) {
+                        TermsEnum termsEnum = context.reader().terms("text").iterator();
+                        assertTrue(termsEnum.seekExact(new BytesRef("foo")));
+                        // read positions twice, once to aggregate them, once to compare with the helper
+                        PostingsEnum postings = termsEnum.postings(null, PostingsEnum.POSITIONS);
+                        PostingsEnum expectedPostings = termsEnum.postings(null, PostingsEnum.POSITIONS);
+                        while (postings.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                            assertEquals(postings.docID(), expectedPostings.advance(postings.docID()));
+                            positions.reset();
+                            for (int i = 0; i < expectedPostings.freq(); i++) {
+                                positions.add((float) expectedPostings.nextPosition() + 1);
+                            }
+                            assertEquals(type.toString(), positions.getAggr(type), aggregator.aggregate(postings), 0F);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -17,6 +17,8 @@ package com.o19s.es.explore;
 
 import org.apache.lucene.tests.util.LuceneTestCase;
 
+import java.util.Arrays;
+
 public class StatisticsHelperTests extends LuceneTestCase {
     private final float[] dataset = new float[] {
       0.0f, -5.0f, 10.0f, 5.0f
@@ -47,4 +49,61 @@ public class StatisticsHelperTests extends LuceneTestCase {
         assertEquals(0.0f, stats.getStdDev(), 0.0f);
         assertEquals(0.0f, stats.getVariance(), 0.0f);
     }
+
+    public void testReset() throws Exception {
+        StatisticsHelper stats = new StatisticsHelper();
+        for (int i = 0; i < 50; i++) {
+            stats.add(random().nextFloat() * 100);
+        }
+        stats.reset();
+        assertEquals(0, stats.getSize());
+        assertTrue(stats.getData().isEmpty());
+
+        for(float f : dataset) {
+            stats.add(f);
+        }
+        assertEquals(10.0f, stats.getMax(), 0.0f);
+        assertEquals(-5.0f, stats.getMin(), 0.0f);
+        assertEquals(2.5f, stats.getMean(), 0.0f);
+        assertEquals(31.25f, stats.getVariance(), 0.009f);
+    }
+
+    public void testNegativeValues() throws Exception {
+        StatisticsHelper stats = new StatisticsHelper();
+        stats.add(-3.0f);
+        stats.add(-1.0f);
+        assertEquals(-1.0f, stats.getMax(), 0.0f);
+        assertEquals(-3.0f, stats.getMin(), 0.0f);
+    }
+
+    public void testLikeTwoPass() throws Exception {
+        StatisticsHelper stats = new StatisticsHelper();
+        int size = random().nextInt(100) + 1;
+        double sum = 0;
+        float[] values = new float[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = random().nextFloat() * 1000 - 500;
+            stats.add(values[i]);
+            sum += values[i];
+        }
+        double mean = sum / size;
+        double variance = 0;
+        for (float v : values) {
+            variance += (v - mean) * (v - mean);
+        }
+        variance /= size;
+        assertEquals(mean, stats.getMean(), 0.01f);
+        assertEquals(variance, stats.getVariance(), variance * 1e-4);
+    }
+
+    public void testGetData() throws Exception {
+        StatisticsHelper stats = new StatisticsHelper();
+        for(float f : dataset) {
+            stats.add(f);
+        }
+        assertEquals(Arrays.asList(0.0f, -5.0f, 10.0f, 5.0f), stats.getData());
+        assertEquals(-5.0f, stats.get(1), 0.0f);
+        stats.add(1.0f);
+        assertEquals(Arrays.asList(0.0f, -5.0f, 10.0f, 5.0f, 1.0f), stats.getData());
+    }
 }
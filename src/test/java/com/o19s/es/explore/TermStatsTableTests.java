@@ -0,0 +1,155 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.o19s.es.explore;
+
+import com.o19s.es.explore.StatisticsHelper.AggrType;
+import com.o19s.es.ltr.utils.Scripting;
+import com.o19s.es.termstat.TermStatQuery;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.elasticsearch.common.lucene.Lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+public class TermStatsTableTests extends LuceneTestCase {
+    public void testStats() throws Exception {
+        try (Directory dir = new ByteBuffersDirectory()) {
+            try (IndexWriter indexWriter = new IndexWriter(dir, new IndexWriterConfig(Lucene.STANDARD_ANALYZER))) {
+                for (String text : new String[] { "brown cow", "brown brown fox", "cow" }) {
+                    Document doc = new Document();
+                    doc.add(newTextField("text", text, Field.Store.NO));
+                    indexWriter.addDocument(doc);
+                }
+            }
+            try (IndexReader reader = DirectoryReader.open(dir)) {
+                IndexSearcher searcher = new IndexSearcher(reader);
+                TermStatsTable table = TermStatsTable.build(searcher, Arrays.asList(new Term("text", "brown"),
+                        new Term("text", "horse")));
+                assertEquals(2, table.size());
+                assertEquals(new Term("text", "brown"), table.term(0));
+                assertEquals(2F, table.docFreq(0), 0F);
+                assertEquals(3F, table.totalTermFreq(0), 0F);
+                assertEquals(new ClassicSimilarity().idf(2, 3), table.idf(0), 0F);
+
+                // unknown terms have no statistics
+                assertEquals(new Term("text", "horse"), table.term(1));
+                assertEquals(0F, table.docFreq(1), 0F);
+                assertEquals(0F, table.idf(1), 0F);
+                assertEquals(0F, table.totalTermFreq(1), 0F);
+            }
+        }
+    }
+
+    public void testTermStatQueryScoresLikePerDocStats() throws Exception {
+        List<String> vocabulary = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            vocabulary.add("term" + i);
+        }
+        try (Directory dir = new ByteBuffersDirectory()) {
+            try (IndexWriter indexWriter = new IndexWriter(dir, new IndexWriterConfig(Lucene.STANDARD_ANALYZER))) {
+                int numDocs = atLeast(100);
+                for (int i = 0; i < numDocs; i++) {
+                    StringBuilder text = new StringBuilder();
+                    int length = random().nextInt(50);
+                    for (int j = 0; j < length; j++) {
+                        text.append(vocabulary.get(random().nextInt(vocabulary.size()))).append(' ');
+                    }
+                    Document doc = new Document();
+                    doc.add(newTextField("text", text.toString(), Field.Store.NO));
+                    indexWriter.addDocument(doc);
+                    if (random().nextInt(30) == 0) {
+                        // several segments
+                        indexWriter.flush();
+                    }
+                }
+            }
+            try (IndexReader reader = DirectoryReader.open(dir)) {
+                IndexSearcher searcher = new IndexSearcher(reader);
+                Set<Term> terms = new LinkedHashSet<>();
+                terms.add(new Term("text", "unknown"));
+                while (terms.size() < 20) {
+                    terms.add(new Term("text", vocabulary.get(random().nextInt(vocabulary.size()))));
+                }
+                TermStatQuery query = new TermStatQuery(Scripting.compile("tf * idf + tp"), AggrType.AVG, AggrType.AVG, terms);
+                ScoreDoc[] scoreDocs = searcher.search(query, reader.maxDoc()).scoreDocs;
+                assertEquals(reader.maxDoc(), scoreDocs.length);
+                float[] expected = expectedScores(searcher, terms);
+                for (ScoreDoc scoreDoc : scoreDocs) {
+                    assertEquals("Score of doc [" + scoreDoc.doc + "]", expected[scoreDoc.doc], scoreDoc.score,
+                            1E-5F * Math.max(1F, Math.abs(expected[scoreDoc.doc])));
+                }
+            }
+        }
+    }
+
+    /**
+     * Average of tf * idf + tp over the terms found in the segment of every doc, the statistics of
+     * the terms are looked up for every doc.
+     */
+    private static float[] expectedScores(IndexSearcher searcher, Set<Term> terms) throws IOException {
+        ClassicSimilarity sim = new ClassicSimilarity();
+        IndexReader reader = searcher.getIndexReader();
+        float[] scores = new float[reader.maxDoc()];
+        StatisticsHelper values = new StatisticsHelper();
+        for (LeafReaderContext context : reader.leaves()) {
+            for (int doc = 0; doc < context.reader().maxDoc(); doc++) {
+                values.reset();
+                for (Term term : terms) {
+                    Terms fieldTerms = context.reader().terms(term.field());
+                    TermsEnum termsEnum = fieldTerms != null ? fieldTerms.iterator() : null;
+                    if (termsEnum == null || !termsEnum.seekExact(term.bytes())) {
+                        continue;
+                    }
+                    float idf = sim.idf(reader.docFreq(term), reader.getDocCount(term.field()));
+                    float tf = 0F;
+                    float tp = 0F;
+                    PostingsEnum postings = termsEnum.postings(null, PostingsEnum.POSITIONS);
+                    if (postings.advance(doc) == doc) {
+                        tf = postings.freq();
+                        float sum = 0F;
+                        for (int i = 0; i < postings.freq(); i++) {
+                            sum += (float) postings.nextPosition() + 1;
+                        }
+                        tp = sum / postings.freq();
+                    }
+                    values.add((float) ((double) tf * idf + tp));
+                }
+                scores[context.docBase + doc] = values.getSize() == 0 ? 0F : values.getAggr(AggrType.AVG);
+            }
+        }
+        return scores;
+    }
+}
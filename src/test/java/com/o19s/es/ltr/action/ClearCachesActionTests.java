@@ -0,0 +1,44 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.action;
+
+import com.o19s.es.ltr.action.ClearCachesAction.ClearCachesNodesRequest;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+
+public class ClearCachesActionTests extends ESTestCase {
+    public void testSerialization() throws IOException {
+        ClearCachesNodesRequest request = new ClearCachesNodesRequest();
+        request.clearModel("store", "my_model");
+        request.setSeqNo(42);
+
+        ClearCachesNodesRequest copy;
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            request.writeToStream(out);
+            try (StreamInput in = out.bytes().streamInput()) {
+                copy = new ClearCachesNodesRequest(in);
+            }
+        }
+        assertEquals("store", copy.getStore());
+        assertEquals(ClearCachesNodesRequest.Operation.ClearModel, copy.getOperation());
+        assertEquals("my_model", copy.getName());
+        assertEquals(42, copy.getSeqNo());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.action;
+
+import com.o19s.es.ltr.action.ExtractFeaturesAction.ExtractFeaturesRequest;
+import com.o19s.es.ltr.action.ExtractFeaturesAction.ExtractFeaturesResponse;
+import com.o19s.es.ltr.action.ExtractFeaturesAction.QueryGroup;
+import com.o19s.es.ltr.action.ExtractFeaturesAction.QueryResult;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.xcontent.ChunkedToXContentObject;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+
+public class ExtractFeaturesActionTests extends ESTestCase {
+    public void testValidate() {
+        ExtractFeaturesRequest request = new ExtractFeaturesRequest();
+        ActionRequestValidationException e = request.validate();
+        assertNotNull(e);
+        assertEquals(asList("store must be set", "featureSet must be set", "index must be set",
+                "at least one query must be provided"), e.validationErrors());
+
+        request.setStore(".ltrstore");
+        request.setFeatureSet("my_set");
+        request.setIndex("my_index");
+        request.setQueries(asList(
+                new QueryGroup(Collections.singletonMap("query_string", "rambo"), asList("1", "2")),
+                new QueryGroup(null, Collections.emptyList())));
+        e = request.validate();
+        assertNotNull(e);
+        assertEquals(Collections.singletonList("query [1] must provide at least one doc id"), e.validationErrors());
+
+        request.setQueries(request.getQueries().subList(0, 1));
+        assertNull(request.validate());
+    }
+
+    public void testRequestSerialization() throws IOException {
+        ExtractFeaturesRequest request = new ExtractFeaturesRequest();
+        request.setStore(".ltrstore");
+        request.setFeatureSet("my_set");
+        request.setIndex("my_index");
+        List<QueryGroup> groups = new ArrayList<>();
+        int nGroups = randomIntBetween(1, 5);
+        for (int i = 0; i < nGroups; i++) {
+            groups.add(new QueryGroup(Collections.singletonMap("query_string", randomAlphaOfLength(5)),
+                    randomList(1, 10, () -> randomAlphaOfLength(4))));
+        }
+        request.setQueries(groups);
+
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            request.writeTo(out);
+            try (StreamInput in = out.bytes().streamInput()) {
+                ExtractFeaturesRequest copy = new ExtractFeaturesRequest(in);
+                assertEquals(request.getStore(), copy.getStore());
+                assertEquals(request.getFeatureSet(), copy.getFeatureSet());
+                assertEquals(request.getIndex(), copy.getIndex());
+                assertEquals(nGroups, copy.getQueries().size());
+                for (int i = 0; i < nGroups; i++) {
+                    assertEquals(groups.get(i).getParams(), copy.getQueries().get(i).getParams());
+                    assertEquals(groups.get(i).getIds(), copy.getQueries().get(i).getIds());
+                }
+            }
+        }
+    }
+
+    public void testResponseSerialization() throws IOException {
+        ExtractFeaturesResponse response = buildTestResponse();
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            response.writeTo(out);
+            try (StreamInput in = out.bytes().streamInput()) {
+                ExtractFeaturesResponse copy = new ExtractFeaturesResponse(in);
+                assertArrayEquals(response.getFeatures(), copy.getFeatures());
+                assertEquals(response.getQueries(), copy.getQueries());
+            }
+        }
+    }
+
+    public void testToXContent() {
+        ExtractFeaturesResponse response = buildTestResponse();
+        assertEquals("{\"features\":[\"feature1\",\"feature2\"]," +
+                "\"queries\":[" +
+                "{\"hits\":[{\"_id\":\"1\",\"values\":[1.5,null]},{\"_id\":\"2\",\"values\":[0.0,2.0]}]}," +
+                "{\"error\":\"index not found\"}]}",
+                Strings.toString(ChunkedToXContentObject.wrapAsToXContentObject(response)));
+    }
+
+    public void testGetValues() {
+        QueryResult result = buildTestResponse().getQueries().get(0);
+        assertArrayEquals(new float[] { 0F, 2F }, result.getValues(1, 2), 0F);
+    }
+
+    private ExtractFeaturesResponse buildTestResponse() {
+        return new ExtractFeaturesResponse(new String[] { "feature1", "feature2" }, asList(
+                new QueryResult(asList("1", "2"), new float[] { 1.5F, Float.NaN, 0F, 2F }),
+                new QueryResult("index not found")));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store;
+
+import com.o19s.es.ltr.LtrTestUtils;
+import com.o19s.es.ltr.ranker.FeatureMatrix;
+import com.o19s.es.ltr.ranker.LtrRanker;
+import com.o19s.es.ltr.ranker.dectree.NaiveAdditiveDecisionTree;
+import com.o19s.es.ltr.ranker.linear.LinearRanker;
+import com.o19s.es.ltr.ranker.normalizer.Normalizers;
+import org.apache.lucene.tests.util.LuceneTestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.apache.lucene.tests.util.TestUtil.nextInt;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
+
+public class CompiledModelArtifactTests extends LuceneTestCase {
+    public void testScoresLikeParsedRanker() throws IOException {
+        StoredFeatureSet set = featureSet(nextInt(random(), 1, 20));
+        NaiveAdditiveDecisionTree tree = randomTrees(set.size(), nextInt(random(), 1, 100));
+        byte[] artifact = CompiledModelArtifact.write(tree);
+        assertNotNull(artifact);
+        LtrRanker read = CompiledModelArtifact.read(artifact, set);
+        assertThat(read, instanceOf(NaiveAdditiveDecisionTree.class));
+        assertSame(tree.normalizer(), ((NaiveAdditiveDecisionTree) read).normalizer());
+
+        FeatureMatrix matrix = new FeatureMatrix(nextInt(random(), 1, 100), set.size());
+        for (int i = 0; i < matrix.scores.length; i++) {
+            matrix.scores[i] = random().nextInt(10) == 0 ? Float.NaN : random().nextFloat();
+        }
+        float[] expected = new float[matrix.numRows()];
+        float[] actual = new float[matrix.numRows()];
+        tree.score(matrix, expected);
+        read.score(matrix, actual);
+        assertArrayEquals(expected, actual, 0F);
+    }
+
+    public void testCorruption() throws IOException {
+        StoredFeatureSet set = featureSet(5);
+        byte[] artifact = CompiledModelArtifact.write(randomTrees(set.size(), 10));
+        assertNotNull(artifact);
+        byte[] corrupted = artifact.clone();
+        int pos = nextInt(random(), Integer.BYTES, corrupted.length - 1);
+        corrupted[pos] = (byte) (corrupted[pos] ^ (1 << random().nextInt(8)));
+        assertThat(expectThrows(IllegalArgumentException.class, () -> CompiledModelArtifact.read(corrupted, set)).getMessage(),
+                containsString("Checksum mismatch"));
+        expectThrows(IllegalArgumentException.class, () -> CompiledModelArtifact.read(Arrays.copyOf(artifact, 6), set));
+        expectThrows(IllegalArgumentException.class, () -> CompiledModelArtifact.read(new byte[artifact.length], set));
+    }
+
+    public void testFeatureSetMismatch() throws IOException {
+        byte[] artifact = CompiledModelArtifact.write(randomTrees(5, 10));
+        assertNotNull(artifact);
+        assertThat(expectThrows(IllegalArgumentException.class, () -> CompiledModelArtifact.read(artifact, featureSet(4)))
+                .getMessage(), containsString("expects [5] features"));
+    }
+
+    public void testUnsupportedRanker() throws IOException {
+        assertNull(CompiledModelArtifact.write(new LinearRanker(new float[] { 1F, 2F })));
+    }
+
+    static StoredFeatureSet featureSet(int size) throws IOException {
+        List<StoredFeature> features = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            features.add(LtrTestUtils.randomFeature("feature" + i));
+        }
+        return new StoredFeatureSet("set", features);
+    }
+
+    static NaiveAdditiveDecisionTree randomTrees(int numFeatures, int numTrees) {
+        NaiveAdditiveDecisionTree.Node[] trees = new NaiveAdditiveDecisionTree.Node[numTrees];
+        float[] weights = new float[numTrees];
+        for (int i = 0; i < numTrees; i++) {
+            trees[i] = randomNode(numFeatures, nextInt(random(), 0, 6));
+            weights[i] = random().nextFloat();
+        }
+        return new NaiveAdditiveDecisionTree(trees, weights, numFeatures,
+                Normalizers.get(random().nextBoolean() ? Normalizers.NOOP_NORMALIZER_NAME : Normalizers.SIGMOID_NORMALIZER_NAME));
+    }
+
+    private static NaiveAdditiveDecisionTree.Node randomNode(int numFeatures, int depth) {
+        if (depth == 0) {
+            return new NaiveAdditiveDecisionTree.Leaf(random().nextFloat() - 0.5F);
+        }
+        return new NaiveAdditiveDecisionTree.Split(randomNode(numFeatures, depth - 1), randomNode(numFeatures, depth - 1),
+                random().nextInt(numFeatures), random().nextFloat(), 1, random().nextBoolean() ? 1 : 2);
+    }
+}
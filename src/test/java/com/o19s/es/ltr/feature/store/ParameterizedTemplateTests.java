@@ -0,0 +1,74 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store;
+
+import com.o19s.es.template.mustache.MustacheUtils;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.test.ESTestCase;
+import org.elasticsearch.xcontent.json.JsonXContent;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ParameterizedTemplateTests extends ESTestCase {
+    public void testBindLikeMustache() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("keywords", randomFrom("rambo", "first \"blood\"", "back\\slash", "unicode é"));
+        params.put("boost", randomFrom(1.5F, 2, "3.0"));
+        params.put("flag", randomBoolean());
+        assertBindsLikeMustache("{\"match\":{\"title\":\"{{keywords}}\"}}", params);
+        assertBindsLikeMustache("{\"match\":{\"title\":{\"query\":\"{{ keywords }}\",\"boost\":\"{{boost}}\"}}}", params);
+        assertBindsLikeMustache("{\"bool\":{\"should\":[" +
+                "{\"match\":{\"title\":\"prefix {{keywords}} and {{keywords}} suffix\"}}," +
+                "{\"term\":{\"flag\":\"{{flag}}\"}}," +
+                "{\"match_all\":{\"boost\":2}}]," +
+                "\"minimum_should_match\":null}}", params);
+        assertBindsLikeMustache("{\"match_all\":{}}", params);
+    }
+
+    public void testUnsupportedTemplates() {
+        // not valid JSON before rendering
+        assertNull(ParameterizedTemplate.compile("{\"match_all\":{\"boost\":{{boost}}}}"));
+        // variable in a field name
+        assertNull(ParameterizedTemplate.compile("{\"match\":{\"{{field}}\":\"{{keywords}}\"}}"));
+        // sections, unescaped variables and dotted names
+        assertNull(ParameterizedTemplate.compile("{\"terms\":{\"title\":\"{{#toJson}}keywords{{/toJson}}\"}}"));
+        assertNull(ParameterizedTemplate.compile("{\"match\":{\"title\":\"{{{keywords}}}\"}}"));
+        assertNull(ParameterizedTemplate.compile("{\"match\":{\"title\":\"{{&keywords}}\"}}"));
+        assertNull(ParameterizedTemplate.compile("{\"match\":{\"title\":\"{{query.keywords}}\"}}"));
+        // escaped braces are not variables for mustache
+        assertNull(ParameterizedTemplate.compile("{\"match\":{\"title\":\"\\u007b\\u007bkeywords}}\"}}"));
+    }
+
+    public void testUnsupportedParams() {
+        ParameterizedTemplate template = ParameterizedTemplate.compile("{\"match\":{\"title\":\"{{keywords}}\"}}");
+        assertNotNull(template);
+        assertNull(template.bind(Collections.emptyMap()));
+        assertNull(template.bind(null));
+        assertNull(template.bind(Collections.singletonMap("keywords", Arrays.asList("rambo", "rocky"))));
+        assertNull(template.bind(Collections.singletonMap("keywords", Collections.singletonMap("title", "rambo"))));
+    }
+
+    private static void assertBindsLikeMustache(String template, Map<String, Object> params) {
+        ParameterizedTemplate parameterized = ParameterizedTemplate.compile(template);
+        assertNotNull(template, parameterized);
+        String rendered = MustacheUtils.execute(MustacheUtils.compile("test", template), params);
+        assertEquals(XContentHelper.convertToMap(JsonXContent.jsonXContent, rendered, true), parameterized.bind(params));
+    }
+}
@@ -229,6 +229,7 @@ public class StoredFeatureParserTests extends LuceneTestCase {
                 "\"}";
         StoredFeature feature = parse(featureString);
         assertThat(feature.optimize(), instanceOf(PrecompiledTemplateFeature.class));
+        assertTrue(((PrecompiledTemplateFeature) feature.optimize()).isParameterized());
     }
 
     public void testDontOptimizeOnThirdPartyTemplateEngine() throws IOException {
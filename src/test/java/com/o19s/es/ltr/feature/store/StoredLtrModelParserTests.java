@@ -17,6 +17,7 @@
 package com.o19s.es.ltr.feature.store;
 
 import com.o19s.es.ltr.ranker.LtrRanker;
+import com.o19s.es.ltr.ranker.dectree.NaiveAdditiveDecisionTree;
 import com.o19s.es.ltr.ranker.linear.LinearRanker;
 import com.o19s.es.ltr.ranker.normalizer.FeatureNormalizingRanker;
 import com.o19s.es.ltr.ranker.normalizer.MinMaxFeatureNormalizer;
@@ -40,6 +41,7 @@ import org.junit.Ignore;
 
 import java.io.IOException;
 import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.elasticsearch.xcontent.XContentParserConfiguration.EMPTY;
 import static org.elasticsearch.xcontent.json.JsonXContent.jsonXContent;
@@ -309,6 +311,103 @@ public class StoredLtrModelParserTests extends LuceneTestCase {
 
     }
 
+    public void testEvaluatorSerialization() throws IOException {
+        String modelJson = "{\n" +
+                " \"name\":\"my_model\",\n" +
+                " \"feature_set\":" + getSimpleFeatureSet() +
+                "," +
+                " \"model\": {\n" +
+                "   \"type\": \"model/dummy\",\n" +
+                "   \"definition\": \"completely ignored\",\n" +
+                "   \"evaluator\": \"quickscorer\"\n" +
+                " }" +
+                "}";
+
+        StoredLtrModel model = parse(modelJson);
+        assertEquals("quickscorer", model.evaluator());
+
+        BytesStreamOutput out = new BytesStreamOutput();
+        model.writeTo(out);
+        out.close();
+        BytesRef ref = out.bytes().toBytesRef();
+        StoredLtrModel modelUnserialized = new StoredLtrModel(ByteBufferStreamInput.wrap(ref.bytes, ref.offset, ref.length));
+        assertEquals(model, modelUnserialized);
+        assertEquals("quickscorer", modelUnserialized.evaluator());
+
+        XContentBuilder builder = XContentFactory.contentBuilder(XContentType.JSON);
+        StoredLtrModel modelReparsed = parse(Strings.toString(model.toXContent(builder, ToXContent.EMPTY_PARAMS)));
+        assertEquals(model, modelReparsed);
+
+        // the dummy ranker is linear
+        assertThat(expectThrows(IllegalArgumentException.class, () -> model.compile(factory)).getMessage(),
+                containsString("only supports tree models"));
+    }
+
+    public void testCompiledArtifact() throws IOException {
+        AtomicInteger parsed = new AtomicInteger();
+        NaiveAdditiveDecisionTree tree = CompiledModelArtifactTests.randomTrees(2, 10);
+        LtrRankerParserFactory treeFactory = new LtrRankerParserFactory.Builder()
+                .register("model/dummy", () -> (set, model) -> ranker)
+                .register("model/dummy_tree", () -> (set, model) -> {
+                    parsed.incrementAndGet();
+                    return tree;
+                })
+                .build();
+        String modelJson = "{\n" +
+                " \"name\":\"my_model\",\n" +
+                " \"feature_set\":" + getSimpleFeatureSet() +
+                "," +
+                " \"model\": {\n" +
+                "   \"type\": \"model/dummy_tree\",\n" +
+                "   \"definition\": \"completely ignored\"\n" +
+                " }" +
+                "}";
+        StoredLtrModel model = parse(modelJson).withCompiledArtifact(treeFactory);
+        assertEquals(1, parsed.get());
+        assertNotNull(model.compiled());
+
+        XContentBuilder builder = XContentFactory.contentBuilder(XContentType.JSON);
+        StoredLtrModel modelReparsed = parse(Strings.toString(model.toXContent(builder, ToXContent.EMPTY_PARAMS)));
+        assertArrayEquals(model.compiled(), modelReparsed.compiled());
+        BytesStreamOutput out = new BytesStreamOutput();
+        model.writeTo(out);
+        out.close();
+        BytesRef ref = out.bytes().toBytesRef();
+        StoredLtrModel modelUnserialized = new StoredLtrModel(ByteBufferStreamInput.wrap(ref.bytes, ref.offset, ref.length));
+        assertArrayEquals(model.compiled(), modelUnserialized.compiled());
+
+        // loaded without parsing the definition
+        LtrRanker compiled = modelReparsed.compile(treeFactory).ranker();
+        assertEquals(1, parsed.get());
+        assertNotSame(tree, compiled);
+        assertEquals(tree.ensemble().numNodes(), ((NaiveAdditiveDecisionTree) compiled).ensemble().numNodes());
+
+        // a corrupted artifact falls back to the definition
+        byte[] corrupted = model.compiled().clone();
+        corrupted[corrupted.length - 1] ^= 1;
+        String corruptedJson = modelJson.substring(0, modelJson.length() - 1) + ", \"compiled\": \""
+                + Base64.getEncoder().encodeToString(corrupted) + "\"}";
+        assertSame(tree, parse(corruptedJson).compile(treeFactory).ranker());
+        assertEquals(2, parsed.get());
+
+        // only tree models have an artifact
+        assertNull(parse(getTestModel()).withCompiledArtifact(treeFactory).compiled());
+    }
+
+    public void testParseFailureOnUnknownEvaluator() throws IOException {
+        String modelString = "{\n" +
+                " \"name\":\"my_model\",\n" +
+                " \"feature_set\":" + getSimpleFeatureSet() +
+                "," +
+                " \"model\": {\n" +
+                "   \"type\": \"model/dummy\",\n" +
+                "   \"definition\": \"completely ignored\",\n" +
+                "   \"evaluator\": \"bogus\"\n" +
+                " }" +
+                "}";
+        expectThrows(ParsingException.class, () -> parse(modelString));
+    }
+
     @Ignore("this is failing, probably because newer version of Elasticsearch don't support this protocol version anymore")
     public void testSerializationUpgradeBinaryStream() throws IOException {
         // Below is base64 encoded a model with no feature norm data
@@ -0,0 +1,59 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store.index;
+
+import com.o19s.es.ltr.feature.store.index.CacheWarmer.ModelRef;
+import com.o19s.es.ltr.feature.store.index.CacheWarmer.Result;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+public class CacheWarmerTests extends ESTestCase {
+    public void testParseModelRef() {
+        assertEquals(new ModelRef(IndexFeatureStore.DEFAULT_STORE, "my_model"), ModelRef.parse("my_model"));
+        assertEquals(new ModelRef(IndexFeatureStore.indexName("mystore"), "my_model"), ModelRef.parse("mystore/my_model"));
+        assertEquals(new ModelRef(IndexFeatureStore.indexName("mystore"), "my/model"), ModelRef.parse("mystore/my/model"));
+        expectThrows(IllegalArgumentException.class, () -> ModelRef.parse("/my_model"));
+    }
+
+    public void testResultSerialization() throws IOException {
+        Result result = new Result(new ModelRef(IndexFeatureStore.indexName("mystore"), "my_model"),
+                randomNonNegativeLong(), randomNonNegativeLong(), randomBoolean() ? null : randomAlphaOfLength(10));
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            result.writeTo(out);
+            try (StreamInput in = out.bytes().streamInput()) {
+                Result copy = new Result(in);
+                assertEquals(result.getModel(), copy.getModel());
+                assertEquals(result.getTookNanos(), copy.getTookNanos());
+                assertEquals(result.getRam(), copy.getRam());
+                assertEquals(result.getError(), copy.getError());
+            }
+        }
+    }
+
+    public void testResultToXContent() {
+        ModelRef model = new ModelRef(IndexFeatureStore.DEFAULT_STORE, "my_model");
+        assertEquals("{\"store\":\"_default_\",\"name\":\"my_model\",\"took_in_millis\":12,\"ram\":2048}",
+                Strings.toString(new Result(model, TimeUnit.MILLISECONDS.toNanos(12), 2048, null)));
+        assertEquals("{\"store\":\"_default_\",\"name\":\"my_model\",\"took_in_millis\":3,\"error\":\"Unknown model [my_model]\"}",
+                Strings.toString(new Result(model, TimeUnit.MILLISECONDS.toNanos(3), 0, "Unknown model [my_model]")));
+    }
+}
@@ -18,16 +18,28 @@ package com.o19s.es.ltr.feature.store.index;
 
 import com.o19s.es.ltr.LtrTestUtils;
 import com.o19s.es.ltr.feature.store.CompiledLtrModel;
+import com.o19s.es.ltr.feature.Feature;
+import com.o19s.es.ltr.feature.FeatureSet;
+import com.o19s.es.ltr.feature.store.FeatureQueryCache;
+import com.o19s.es.ltr.feature.store.FeatureStore;
 import com.o19s.es.ltr.feature.store.MemStore;
 import com.o19s.es.ltr.feature.store.StoredFeature;
 import com.o19s.es.ltr.feature.store.StoredFeatureSet;
 import org.apache.lucene.tests.util.LuceneTestCase;
 import org.apache.lucene.tests.util.TestUtil;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.PlainActionFuture;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.CoreMatchers.instanceOf;
 
@@ -92,6 +104,170 @@ public class CachedFeatureStoreTests extends LuceneTestCase {
                 instanceOf(IllegalArgumentException.class));
     }
 
+    public void testCachedFeatureQuery() throws IOException {
+        StoredFeature feat = LtrTestUtils.randomFeature();
+        CachedFeatureStore store = new CachedFeatureStore(memStore, caches);
+        FeatureQueryCache queryCache = store.queryCache();
+        AtomicInteger built = new AtomicInteger();
+        QueryBuilder query = queryCache.load(feat, Collections.singletonMap("query_string", "rambo"), () -> {
+            built.incrementAndGet();
+            return QueryBuilders.termQuery("field", "rambo");
+        });
+        assertSame(query, queryCache.load(feat, Collections.singletonMap("query_string", "rambo"), () -> {
+            throw new AssertionError("query should be cached");
+        }));
+        queryCache.load(feat, Collections.singletonMap("query_string", "rocky"), () -> {
+            built.incrementAndGet();
+            return QueryBuilders.termQuery("field", "rocky");
+        });
+        assertEquals(2, built.get());
+        assertEquals(2, caches.featureQueryCache().count());
+        assertEquals(1, caches.featureQueryCache().stats().getHits());
+        assertEquals(2, caches.featureQueryCache().stats().getMisses());
+        assertTrue(caches.featureQueryCache().weight() > 0);
+        // queries are not accounted in the per store stats
+        assertEquals(0, caches.getPerStoreStats(memStore.getStoreName()).totalCount());
+
+        IllegalArgumentException e = expectThrows(IllegalArgumentException.class,
+                () -> queryCache.load(feat, Collections.emptyMap(), () -> {
+                    throw new IllegalArgumentException("Missing required param(s): [query_string]");
+                }));
+        assertEquals("Missing required param(s): [query_string]", e.getMessage());
+
+        caches.evict(memStore.getStoreName());
+        assertEquals(0, caches.featureQueryCache().count());
+    }
+
+    public void testAsyncModelLoadIsShared() throws Exception {
+        CompiledLtrModel model = LtrTestUtils.buildRandomModel();
+        List<ActionListener<CompiledLtrModel>> fetches = new ArrayList<>();
+        CachedFeatureStore store = new CachedFeatureStore(new AsyncStore(fetches), caches);
+
+        PlainActionFuture<CompiledLtrModel> first = new PlainActionFuture<>();
+        PlainActionFuture<CompiledLtrModel> second = new PlainActionFuture<>();
+        store.loadModel(model.name(), first);
+        store.loadModel(model.name(), second);
+        assertEquals(1, fetches.size());
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+
+        fetches.get(0).onResponse(model);
+        assertSame(model, first.get());
+        assertSame(model, second.get());
+        assertSame(model, store.getCachedModel(model.name()));
+        assertEquals(1, caches.getPerStoreStats(memStore.getStoreName()).modelCount());
+
+        // served from the cache without fetching it again
+        PlainActionFuture<CompiledLtrModel> third = new PlainActionFuture<>();
+        store.loadModel(model.name(), third);
+        assertSame(model, third.get());
+        assertEquals(1, fetches.size());
+    }
+
+    public void testAsyncModelLoadFailure() {
+        List<ActionListener<CompiledLtrModel>> fetches = new ArrayList<>();
+        CachedFeatureStore store = new CachedFeatureStore(new AsyncStore(fetches), caches);
+
+        PlainActionFuture<CompiledLtrModel> failed = new PlainActionFuture<>();
+        store.loadModel("unk", failed);
+        fetches.get(0).onFailure(new IllegalArgumentException("Unknown model [unk]"));
+        assertThat(expectThrows(Exception.class, failed::get).getCause(), instanceOf(IllegalArgumentException.class));
+        assertNull(store.getCachedModel("unk"));
+
+        // failures are not cached, the next load fetches the model again
+        store.loadModel("unk", new PlainActionFuture<>());
+        assertEquals(2, fetches.size());
+    }
+
+    public void testRefreshAhead() throws Exception {
+        Caches caches = new Caches(TimeValue.timeValueHours(1), TimeValue.timeValueHours(1),
+                TimeValue.timeValueMillis(1), ByteSizeValue.ofBytes(1000000));
+        CompiledLtrModel model = LtrTestUtils.buildRandomModel();
+        List<ActionListener<CompiledLtrModel>> fetches = new ArrayList<>();
+        CachedFeatureStore store = new CachedFeatureStore(new AsyncStore(fetches), caches);
+        store.loadModel(model.name(), new PlainActionFuture<>());
+        fetches.get(0).onResponse(model);
+        Thread.sleep(10);
+
+        // the stale model is served while it is rebuilt, once
+        PlainActionFuture<CompiledLtrModel> stale = new PlainActionFuture<>();
+        store.loadModel(model.name(), stale);
+        assertSame(model, stale.get());
+        store.loadModel(model.name(), new PlainActionFuture<>());
+        assertEquals(2, fetches.size());
+        assertSame(model, store.getCachedModel(model.name()));
+
+        CompiledLtrModel refreshed = new CompiledLtrModel(model.name(), model.featureSet(), model.ranker());
+        fetches.get(1).onResponse(refreshed);
+        assertSame(refreshed, store.getCachedModel(model.name()));
+        Caches.PerStoreStats stats = caches.getPerStoreStats(memStore.getStoreName());
+        assertEquals(1, stats.modelCount());
+        assertEquals(refreshed.ramBytesUsed(), stats.modelRam());
+        assertEquals(1, stats.refreshCount());
+        assertEquals(0, stats.refreshFailures());
+
+        // failures keep the current model
+        Thread.sleep(10);
+        store.loadModel(model.name(), new PlainActionFuture<>());
+        assertEquals(3, fetches.size());
+        fetches.get(2).onFailure(new IllegalArgumentException("Unknown model [" + model.name() + "]"));
+        assertSame(refreshed, store.getCachedModel(model.name()));
+        assertEquals(2, stats.refreshCount());
+        assertEquals(1, stats.refreshFailures());
+    }
+
+    public void testNoRefreshByDefault() throws Exception {
+        CompiledLtrModel model = LtrTestUtils.buildRandomModel();
+        List<ActionListener<CompiledLtrModel>> fetches = new ArrayList<>();
+        CachedFeatureStore store = new CachedFeatureStore(new AsyncStore(fetches), caches);
+        store.loadModel(model.name(), new PlainActionFuture<>());
+        fetches.get(0).onResponse(model);
+        Thread.sleep(10);
+        store.loadModel(model.name(), new PlainActionFuture<>());
+        assertEquals(1, fetches.size());
+        assertEquals(0, caches.getPerStoreStats(memStore.getStoreName()).refreshCount());
+    }
+
+    public void testVersionedEviction() throws IOException {
+        StoredFeatureSet set = LtrTestUtils.randomFeatureSet();
+        memStore.add(set);
+        CachedFeatureStore store = new CachedFeatureStore(memStore, caches);
+        store.loadSet(set.name());
+        caches.evictFeatureSet(memStore.getStoreName(), set.name(), 5);
+        assertNull(store.getCachedFeatureSet(set.name()));
+
+        // loaded after the change 5, only newer changes evict it
+        store.loadSet(set.name());
+        caches.evictFeatureSet(memStore.getStoreName(), set.name(), 5);
+        caches.evictFeatureSet(memStore.getStoreName(), set.name(), 4);
+        assertNotNull(store.getCachedFeatureSet(set.name()));
+        caches.evictFeatureSet(memStore.getStoreName(), set.name(), 6);
+        assertNull(store.getCachedFeatureSet(set.name()));
+
+        // unknown changes always evict
+        store.loadSet(set.name());
+        caches.evictFeatureSet(memStore.getStoreName(), set.name());
+        assertNull(store.getCachedFeatureSet(set.name()));
+        assertEquals(0, caches.getPerStoreStats(memStore.getStoreName()).totalCount());
+    }
+
+    public void testModelUpdatedWhileLoading() throws Exception {
+        CompiledLtrModel model = LtrTestUtils.buildRandomModel();
+        List<ActionListener<CompiledLtrModel>> fetches = new ArrayList<>();
+        CachedFeatureStore store = new CachedFeatureStore(new AsyncStore(fetches), caches);
+        PlainActionFuture<CompiledLtrModel> future = new PlainActionFuture<>();
+        store.loadModel(model.name(), future);
+        caches.evictModel(memStore.getStoreName(), model.name(), 3);
+        fetches.get(0).onResponse(model);
+        // the model may predate the change, it is returned but not cached
+        assertSame(model, future.get());
+        assertNull(store.getCachedModel(model.name()));
+
+        store.loadModel(model.name(), new PlainActionFuture<>());
+        fetches.get(1).onResponse(model);
+        assertSame(model, store.getCachedModel(model.name()));
+    }
+
     public void testWontBlowUp() throws IOException {
         Caches caches = new Caches(TimeValue.timeValueHours(1), TimeValue.timeValueHours(1),
                 ByteSizeValue.ofBytes(100000));
@@ -99,16 +275,19 @@ public class CachedFeatureStoreTests extends LuceneTestCase {
         long curWeight = store.modelWeight();
         long maxWeight = caches.getMaxWeight();
         long maxIter = 1000;
+        // random models are smaller than the cache, fill it until one of them does not fit
         while (true) {
             CompiledLtrModel model = LtrTestUtils.buildRandomModel();
             memStore.add(model);
+            store.loadModel(model.name());
+            memStore.clear();
             if (curWeight + model.ramBytesUsed() > maxWeight) {
-                store.loadModel(model.name());
                 assertTrue(store.modelWeight() < maxWeight);
+                assertSame(model, store.getCachedModel(model.name()));
                 break;
             }
+            assertEquals(curWeight + model.ramBytesUsed(), store.modelWeight());
             assertTrue(maxIter-- > 0);
-            memStore.clear();
             curWeight = store.modelWeight();
         }
     }
@@ -192,7 +371,45 @@ public class CachedFeatureStoreTests extends LuceneTestCase {
         assertEquals(2, caches.getCachedStoreNames().size());
         caches.evict(one.getStoreName());
         assertEquals(1, caches.getCachedStoreNames().size());
+        // the features of the other store are kept
+        assertEquals(caches.getPerStoreStats(two.getStoreName()).featureRam(), twofs.featuresWeight());
         caches.evict(two.getStoreName());
         assertTrue(caches.getCachedStoreNames().isEmpty());
     }
+
+    /**
+     * Store whose asynchronous model loads are completed by the test.
+     */
+    private class AsyncStore implements FeatureStore {
+        private final List<ActionListener<CompiledLtrModel>> fetches;
+
+        AsyncStore(List<ActionListener<CompiledLtrModel>> fetches) {
+            this.fetches = fetches;
+        }
+
+        @Override
+        public String getStoreName() {
+            return memStore.getStoreName();
+        }
+
+        @Override
+        public Feature load(String name) throws IOException {
+            return memStore.load(name);
+        }
+
+        @Override
+        public FeatureSet loadSet(String name) throws IOException {
+            return memStore.loadSet(name);
+        }
+
+        @Override
+        public CompiledLtrModel loadModel(String name) throws IOException {
+            throw new AssertionError("model should be loaded asynchronously");
+        }
+
+        @Override
+        public void loadModel(String name, ActionListener<CompiledLtrModel> listener) {
+            fetches.add(listener);
+        }
+    }
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.logging;
+
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.GenericNamedWriteable;
+import org.elasticsearch.common.io.stream.NamedWriteableAwareStreamInput;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.test.ESTestCase;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentFactory;
+import org.elasticsearch.xcontent.XContentType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+
+public class FeatureLogTests extends ESTestCase {
+    private FeatureLog buildTestLog() {
+        return buildTestLog(randomFrom(FeatureLog.Format.values()));
+    }
+
+    private FeatureLog buildTestLog(FeatureLog.Format format) {
+        FeatureLog log = new FeatureLog("my_set", new String[] { "feature1", "feature2", "feature3" }, format, Float.NaN);
+        log.setValue(0, 1.5F);
+        log.setValue(2, 0F);
+        return log;
+    }
+
+    public void testToXContent() throws IOException {
+        FeatureLog log = buildTestLog(FeatureLog.Format.JSON);
+        log.getOrCreateExtraLogging().put("extra", 1);
+        XContentBuilder builder = XContentFactory.jsonBuilder();
+        builder.startObject();
+        builder.field("log", log);
+        builder.endObject();
+        assertEquals("{\"log\":[" +
+                "{\"name\":\"feature1\",\"value\":1.5}," +
+                "{\"name\":\"feature2\"}," +
+                "{\"name\":\"feature3\",\"value\":0.0}," +
+                "{\"name\":\"extra_logging\",\"value\":{\"extra\":1}}]}", Strings.toString(builder));
+    }
+
+    public void testBinaryToXContent() throws IOException {
+        FeatureLog log = buildTestLog(FeatureLog.Format.BINARY);
+        XContentBuilder builder = XContentFactory.jsonBuilder();
+        builder.startObject();
+        builder.field("log", log);
+        builder.endObject();
+        Map<String, Object> parsed = XContentHelper.convertToMap(BytesReference.bytes(builder), false, XContentType.JSON).v2();
+        @SuppressWarnings("unchecked")
+        Map<String, Object> rendered = (Map<String, Object>) parsed.get("log");
+        assertEquals("my_set", rendered.get("feature_set"));
+        byte[] bytes = Base64.getDecoder().decode((String) rendered.get("values"));
+        FloatBuffer values = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        assertEquals(3, values.remaining());
+        assertEquals(1.5F, values.get(0), 0F);
+        assertTrue(Float.isNaN(values.get(1)));
+        assertEquals(0F, values.get(2), 0F);
+        assertFalse(rendered.containsKey("extra_logging"));
+    }
+
+    public void testFormatFromName() {
+        assertEquals(FeatureLog.Format.JSON, FeatureLog.Format.fromName("json"));
+        assertEquals(FeatureLog.Format.BINARY, FeatureLog.Format.fromName("binary"));
+        IllegalArgumentException e = expectThrows(IllegalArgumentException.class, () -> FeatureLog.Format.fromName("csv"));
+        assertEquals("Unknown log format [csv], expected one of [json, binary]", e.getMessage());
+    }
+
+    public void testMissingAsZero() {
+        FeatureLog log = new FeatureLog("my_set", new String[] { "feature1", "feature2" }, FeatureLog.Format.JSON, 0F);
+        log.setValue(1, 2F);
+        assertEquals(0F, log.value(0), 0F);
+        assertEquals(2F, log.value(1), 0F);
+    }
+
+    public void testSerialization() throws IOException {
+        FeatureLog log = buildTestLog();
+        if (randomBoolean()) {
+            log.getOrCreateExtraLogging().put("extra", "value");
+        }
+        NamedWriteableRegistry registry = new NamedWriteableRegistry(Collections.singletonList(
+                new NamedWriteableRegistry.Entry(GenericNamedWriteable.class, FeatureLog.NAME, FeatureLog::new)));
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            out.writeGenericValue(log);
+            try (StreamInput in = new NamedWriteableAwareStreamInput(out.bytes().streamInput(), registry)) {
+                Object copy = in.readGenericValue();
+                assertEquals(log, copy);
+                assertEquals(log.hashCode(), copy.hashCode());
+            }
+        }
+    }
+
+    public void testNamesInternedOnRead() throws IOException {
+        String[] names = new String[] { "feature1", "feature2", "feature3" };
+        FeatureLog[] logs = new FeatureLog[] {
+                new FeatureLog("my_set", names, FeatureLog.Format.JSON, Float.NaN),
+                new FeatureLog("my_set", names, FeatureLog.Format.BINARY, 1F)
+        };
+        NamedWriteableRegistry registry = new NamedWriteableRegistry(Collections.singletonList(
+                new NamedWriteableRegistry.Entry(GenericNamedWriteable.class, FeatureLog.NAME, FeatureLog::new)));
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            for (FeatureLog log : logs) {
+                out.writeGenericValue(log);
+            }
+            try (StreamInput in = new NamedWriteableAwareStreamInput(out.bytes().streamInput(), registry)) {
+                FeatureLog first = (FeatureLog) in.readGenericValue();
+                FeatureLog second = (FeatureLog) in.readGenericValue();
+                assertEquals(logs[0], first);
+                assertEquals(logs[1], second);
+                // the logs of the response share their names
+                for (int i = 0; i < names.length; i++) {
+                    assertSame(first.name(i), second.name(i));
+                }
+            }
+        }
+    }
+}
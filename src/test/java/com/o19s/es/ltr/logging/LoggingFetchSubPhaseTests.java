@@ -16,6 +16,7 @@
 
 package com.o19s.es.ltr.logging;
 
+import com.o19s.es.ltr.LtrQueryContext;
 import com.o19s.es.ltr.feature.PrebuiltFeature;
 import com.o19s.es.ltr.feature.PrebuiltFeatureSet;
 import com.o19s.es.ltr.feature.PrebuiltLtrModel;
@@ -35,12 +36,15 @@ import org.apache.lucene.index.StoredFields;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorable;
 import org.apache.lucene.search.ScoreMode;
 import org.apache.lucene.search.SimpleCollector;
 import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.Weight;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.tests.util.LuceneTestCase;
@@ -60,6 +64,7 @@ import org.junit.BeforeClass;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -118,10 +123,115 @@ public class LoggingFetchSubPhaseTests extends LuceneTestCase {
                 .add(new BooleanClause(query2, BooleanClause.Occur.MUST))
                 .build();
         Weight weight = searcher.createWeight(query, ScoreMode.COMPLETE, 1.0F);
-        List<LoggingFetchSubPhase.HitLogConsumer> loggers = Arrays.asList(logger1, logger2);
-        LoggingFetchSubPhaseProcessor processor = new LoggingFetchSubPhaseProcessor(() -> new Tuple<>(weight, loggers));
+        List<Tuple<RankerQuery, LoggingFetchSubPhase.HitLogConsumer>> loggers = Arrays.asList(new Tuple<>(query1, logger1),
+                new Tuple<>(query2, logger2));
+        LoggingFetchSubPhaseProcessor processor = new LoggingFetchSubPhaseProcessor(() -> loggers, () -> weight);
+
+        assertLogs(preprocessRandomHits(processor));
+    }
+
+    public void testLoggingCachedFeatures() throws IOException {
+        RankerQuery query1 = buildQuery("foo", true);
+        RankerQuery query2 = buildQuery("bar", true);
+        // scores all the docs and fills the caches
+        scoreAll(new BooleanQuery.Builder()
+                .add(new BooleanClause(query1, BooleanClause.Occur.MUST))
+                .add(new BooleanClause(query2, BooleanClause.Occur.MUST))
+                .build());
+        LoggingFetchSubPhase.HitLogConsumer logger1 = new LoggingFetchSubPhase.HitLogConsumer("logger1",
+                query1.featureSet(), true);
+        LoggingFetchSubPhase.HitLogConsumer logger2 = new LoggingFetchSubPhase.HitLogConsumer("logger2",
+                query2.featureSet(), false);
+        List<Tuple<RankerQuery, LoggingFetchSubPhase.HitLogConsumer>> loggers = Arrays.asList(
+                new Tuple<>(query1.toLoggerQuery(logger1), logger1),
+                new Tuple<>(query2.toLoggerQuery(logger2), logger2));
+        LoggingFetchSubPhaseProcessor processor = new LoggingFetchSubPhaseProcessor(() -> loggers, () -> {
+            throw new AssertionError("the feature queries must not be run again");
+        });
+
+        assertLogs(preprocessRandomHits(processor));
+    }
+
+    public void testBoostedFeaturesAreNotCached() throws IOException {
+        RankerQuery query = buildQuery("foo", true);
+        // an enclosing boost scales the feature scores, they must not be logged
+        scoreAll(new BooleanQuery.Builder()
+                .add(new BooleanClause(new BoostQuery(query, 2F), BooleanClause.Occur.MUST))
+                .build());
+        for (int doc = 0; doc < searcher.getIndexReader().maxDoc(); doc++) {
+            assertFalse(query.hasCachedFeatures(doc));
+        }
+
+        scoreAll(query);
+        TopDocs docs = searcher.search(query, 1);
+        assertTrue(query.hasCachedFeatures(docs.scoreDocs[0].doc));
+    }
+
+    private static void scoreAll(Query query) throws IOException {
+        searcher.search(query, new SimpleCollector() {
+            private Scorable scorer;
+
+            @Override
+            public ScoreMode scoreMode() {
+                return ScoreMode.COMPLETE;
+            }
+
+            @Override
+            public void setScorer(Scorable scorer) {
+                this.scorer = scorer;
+            }
+
+            @Override
+            public void collect(int doc) throws IOException {
+                scorer.score();
+            }
+        });
+    }
+
+    public void testCompactLogging() throws IOException {
+        RankerQuery query1 = buildQuery("foo");
+        RankerQuery query2 = buildQuery("bar");
+        LoggingFetchSubPhase.HitLogConsumer logger1 = new LoggingFetchSubPhase.HitLogConsumer("logger1",
+                query1.featureSet(), true, true, FeatureLog.Format.JSON);
+        LoggingFetchSubPhase.HitLogConsumer logger2 = new LoggingFetchSubPhase.HitLogConsumer("logger2",
+                query2.featureSet(), false, true, FeatureLog.Format.JSON);
+        query1 = query1.toLoggerQuery(logger1);
+        query2 = query2.toLoggerQuery(logger2);
+        BooleanQuery query = new BooleanQuery.Builder()
+                .add(new BooleanClause(query1, BooleanClause.Occur.MUST))
+                .add(new BooleanClause(query2, BooleanClause.Occur.MUST))
+                .build();
+        Weight weight = searcher.createWeight(query, ScoreMode.COMPLETE, 1.0F);
+        List<Tuple<RankerQuery, LoggingFetchSubPhase.HitLogConsumer>> loggers = Arrays.asList(new Tuple<>(query1, logger1),
+                new Tuple<>(query2, logger2));
+        LoggingFetchSubPhaseProcessor processor = new LoggingFetchSubPhaseProcessor(() -> loggers, () -> weight);
 
         SearchHit[] hits = preprocessRandomHits(processor);
+        for (SearchHit hit : hits) {
+            try {
+                Document d = docs.get(hit.getId());
+                Map<String, Object> logs = hit.getFields().get("_ltrlog").getValue();
+                FeatureLog log1 = (FeatureLog) logs.get("logger1");
+                FeatureLog log2 = (FeatureLog) logs.get("logger2");
+                assertEquals(2, log1.size());
+                assertEquals("text_feat", log1.name(0));
+                assertEquals("score_feat", log1.name(1));
+                if (d.get("text").equals("foo")) {
+                    assertTrue(log1.value(0) > 0F);
+                    assertTrue(Float.isNaN(log2.value(0)));
+                } else {
+                    assertEquals(0F, log1.value(0), 0F);
+                    assertTrue(log2.value(0) > 0F);
+                }
+                assertEquals(log1.value(1), log2.value(1), 0F);
+                assertNull(log1.getExtraLogging());
+            } finally {
+                hit.decRef();
+            }
+        }
+    }
+
+    private void assertLogs(SearchHit[] hits) {
         for (SearchHit hit : hits)
             try {
                 assertTrue(docs.containsKey(hit.getId()));
@@ -207,13 +317,17 @@ public class LoggingFetchSubPhaseTests extends LuceneTestCase {
     }
 
     public RankerQuery buildQuery(String text) {
+        return buildQuery(text, false);
+    }
+
+    public RankerQuery buildQuery(String text, boolean featureScoreCache) {
         List<PrebuiltFeature> features = new ArrayList<>(2);
         features.add(new PrebuiltFeature("text_feat", new TermQuery(new Term("text", text))));
         features.add(new PrebuiltFeature("score_feat", buildFunctionScore()));
         PrebuiltFeatureSet set = new PrebuiltFeatureSet("my_set", features);
         LtrRanker ranker = LinearRankerTests.generateRandomRanker(set.size());
-        return RankerQuery.build(new PrebuiltLtrModel("my_model", ranker, set));
-
+        return RankerQuery.build(new PrebuiltLtrModel("my_model", ranker, set), new LtrQueryContext(null),
+                Collections.emptyMap(), featureScoreCache);
     }
 
     public Query buildFunctionScore() {
@@ -38,7 +38,7 @@ public class LoggingSearchExtBuilderTests extends ESTestCase {
         LoggingSearchExtBuilder builder = new LoggingSearchExtBuilder();
         builder.addQueryLogging("name1", "query1", true);
         builder.addQueryLogging(null, "query2", false);
-        builder.addRescoreLogging("rescore0", 0, true);
+        builder.addRescoreLogging("rescore0", 0, true, true);
         builder.addRescoreLogging(null, 1, false);
         return builder;
     }
@@ -47,7 +47,7 @@ public class LoggingSearchExtBuilderTests extends ESTestCase {
         return "{\"log_specs\":[" +
                 "{\"name\":\"name1\",\"named_query\":\"query1\",\"missing_as_zero\":true}," +
                 "{\"named_query\":\"query2\"}," +
-                "{\"name\":\"rescore0\",\"rescore_index\":0,\"missing_as_zero\":true}," +
+                "{\"name\":\"rescore0\",\"rescore_index\":0,\"missing_as_zero\":true,\"compact\":true}," +
                 "{\"rescore_index\":1}]}";
     }
 
@@ -84,6 +84,39 @@ public class LoggingSearchExtBuilderTests extends ESTestCase {
         assertTestExt(ext);
     }
 
+    public void testBinaryFormat() throws IOException {
+        LoggingSearchExtBuilder ext = new LoggingSearchExtBuilder();
+        ext.addBinaryQueryLogging("name1", "query1", false);
+        ext.addBinaryRescoreLogging(null, 0, true);
+        String json = "{\"log_specs\":[" +
+                "{\"name\":\"name1\",\"named_query\":\"query1\",\"format\":\"binary\"}," +
+                "{\"rescore_index\":0,\"missing_as_zero\":true,\"format\":\"binary\"}]}";
+        LoggingSearchExtBuilder parsed = parse(createParser(JsonXContent.jsonXContent, json));
+        assertEquals(ext, parsed);
+        assertEquals(ext, copyWriteable(ext, writableRegistry(), LoggingSearchExtBuilder::new));
+        parsed.logSpecsStream().forEach((l) -> {
+            assertEquals(FeatureLog.Format.BINARY, l.getFormat());
+            assertTrue(l.isCompact());
+        });
+
+        XContentBuilder builder = XContentFactory.jsonBuilder();
+        builder.startObject();
+        ext.toXContent(builder, ToXContent.EMPTY_PARAMS);
+        builder.endObject();
+        assertEquals("{\"ltr_log\":" + json + "}", Strings.toString(builder));
+    }
+
+    public void testFailOnUnknownFormat() throws IOException {
+        String data = "{\"log_specs\":[{\"named_query\":\"query1\",\"format\":\"csv\"}]}";
+        ParsingException exc = expectThrows(ParsingException.class,
+                () -> parse(createParser(JsonXContent.jsonXContent, data)));
+        Throwable cause = exc;
+        while (cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        assertThat(cause.getMessage(), containsString("Unknown log format [csv]"));
+    }
+
     public void testFailOnNoLogSpecs() throws IOException {
         String data = "{}";
         ParsingException exc = expectThrows(ParsingException.class,
@@ -140,11 +173,13 @@ public class LoggingSearchExtBuilderTests extends ESTestCase {
         assertNull(l.getNamedQuery());
         assertEquals((Integer) 0, l.getRescoreIndex());
         assertTrue(l.isMissingAsZero());
+        assertTrue(l.isCompact());
 
         l = logSpecs.get(3);
         assertEquals("rescore[1]", l.getLoggerName());
         assertNull(l.getNamedQuery());
         assertEquals((Integer) 1, l.getRescoreIndex());
         assertFalse(l.isMissingAsZero());
+        assertFalse(l.isCompact());
     }
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.query;
+
+import org.apache.lucene.tests.util.LuceneTestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.apache.lucene.tests.util.TestUtil.nextInt;
+
+public class FeatureScoreCacheTests extends LuceneTestCase {
+    public void testPutAndGet() {
+        int numFeatures = nextInt(random(), 1, 20);
+        int numDocs = nextInt(random(), 1, 5000);
+        FeatureScoreCache cache = new FeatureScoreCache(numFeatures, numDocs);
+        Map<Integer, float[]> expected = new HashMap<>();
+        while (expected.size() < numDocs) {
+            int doc = random().nextInt(1_000_000);
+            float[] scores = randomScores(numFeatures);
+            assertEquals(expected.containsKey(doc), cache.contains(doc));
+            if (!expected.containsKey(doc)) {
+                cache.put(doc, scores);
+                expected.put(doc, scores);
+            }
+        }
+        assertEquals(numDocs, cache.size());
+        float[] scores = new float[numFeatures];
+        for (Map.Entry<Integer, float[]> entry : expected.entrySet()) {
+            assertTrue(cache.contains(entry.getKey()));
+            assertTrue(cache.get(entry.getKey(), scores));
+            assertArrayEquals(entry.getValue(), scores, 0F);
+        }
+    }
+
+    public void testMissLeavesScoresUntouched() {
+        FeatureScoreCache cache = new FeatureScoreCache(2, 10);
+        cache.put(0, new float[] { 1F, 2F });
+        float[] scores = new float[] { 3F, 4F };
+        assertFalse(cache.get(1, scores));
+        assertArrayEquals(new float[] { 3F, 4F }, scores, 0F);
+    }
+
+    public void testFirstScoresAreKept() {
+        FeatureScoreCache cache = new FeatureScoreCache(1, 10);
+        cache.put(3, new float[] { 1F });
+        cache.put(3, new float[] { 2F });
+        float[] scores = new float[1];
+        assertTrue(cache.get(3, scores));
+        assertEquals(1F, scores[0], 0F);
+        assertEquals(1, cache.size());
+    }
+
+    public void testMaxDocs() {
+        int maxDocs = nextInt(random(), 0, 100);
+        FeatureScoreCache cache = new FeatureScoreCache(3, maxDocs);
+        for (int doc = 0; doc < maxDocs * 2; doc++) {
+            cache.put(doc, randomScores(3));
+        }
+        assertEquals(maxDocs, cache.size());
+        for (int doc = 0; doc < maxDocs * 2; doc++) {
+            assertEquals(doc < maxDocs, cache.contains(doc));
+        }
+    }
+
+    private static float[] randomScores(int numFeatures) {
+        float[] scores = new float[numFeatures];
+        for (int i = 0; i < numFeatures; i++) {
+            scores[i] = random().nextBoolean() ? Float.NaN : random().nextFloat();
+        }
+        return scores;
+    }
+}
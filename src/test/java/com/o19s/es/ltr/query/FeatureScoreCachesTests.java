@@ -0,0 +1,169 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.query;
+
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.breaker.NoopCircuitBreaker;
+import org.elasticsearch.core.TimeValue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class FeatureScoreCachesTests extends LuceneTestCase {
+    public void testRelease() {
+        LimitedBreaker breaker = new LimitedBreaker(1024 * 1024);
+        FeatureScoreCaches caches = new FeatureScoreCaches();
+        caches.setCircuitBreaker(breaker);
+        FeatureScoreCache cache = caches.newCache(10, 1000);
+        FeatureScoreCache other = caches.newCache(10, 1000);
+        assertNotSame(cache, other);
+        fill(cache, 100);
+        assertEquals(2, caches.count());
+        assertEquals(caches.bytesUsed(), breaker.getUsed());
+
+        // the scores of a released cache are no longer served
+        caches.release(cache);
+        assertEquals(1, caches.count());
+        assertEquals(caches.bytesUsed(), breaker.getUsed());
+        assertFalse(cache.contains(0));
+        assertFalse(cache.get(0, new float[10]));
+        caches.release(cache);
+        caches.release(other);
+        assertEquals(0, caches.count());
+        assertEquals(0, breaker.getUsed());
+    }
+
+    public void testStats() {
+        FeatureScoreCaches caches = new FeatureScoreCaches();
+        FeatureScoreCache cache = caches.newCache(2, 10);
+        float[] scores = new float[] { 1F, Float.NaN };
+        assertFalse(cache.get(1, scores));
+        cache.put(1, scores);
+        assertTrue(cache.get(1, scores));
+        assertTrue(cache.get(1, scores));
+        assertEquals(2, caches.hitCount());
+        assertEquals(1, caches.missCount());
+
+        // caches private to a query are not counted
+        FeatureScoreCache privateCache = new FeatureScoreCache(2, 10);
+        privateCache.put(1, scores);
+        assertTrue(privateCache.get(1, scores));
+        assertEquals(2, caches.hitCount());
+    }
+
+    public void testEvictLeastRecentlyUsed() {
+        LimitedBreaker breaker = new LimitedBreaker(16 * 1024);
+        FeatureScoreCaches caches = new FeatureScoreCaches();
+        caches.setCircuitBreaker(breaker);
+        FeatureScoreCache first = caches.newCache(10, 1000);
+        FeatureScoreCache second = caches.newCache(10, 1000);
+        fill(first, 200);
+        assertEquals(200, first.size());
+        assertEquals(caches.bytesUsed(), breaker.getUsed());
+
+        // the first cache is dropped to make room for the second one and no longer serves scores
+        fill(second, 200);
+        assertEquals(200, second.size());
+        assertEquals(1, caches.count());
+        assertEquals(1, caches.evictionCount());
+        assertEquals(caches.bytesUsed(), breaker.getUsed());
+        assertTrue(caches.bytesUsed() <= breaker.getLimit());
+        first.put(200, new float[10]);
+        assertFalse(first.contains(200));
+        assertFalse(first.contains(0));
+        assertTrue(second.contains(0));
+    }
+
+    public void testStopGrowingAtBreakerLimit() {
+        LimitedBreaker breaker = new LimitedBreaker(4 * 1024);
+        FeatureScoreCaches caches = new FeatureScoreCaches();
+        caches.setCircuitBreaker(breaker);
+        FeatureScoreCache cache = caches.newCache(10, 1000);
+        fill(cache, 1000);
+        assertTrue(cache.size() > 0);
+        assertTrue(cache.size() < 1000);
+        assertTrue(breaker.getUsed() <= breaker.getLimit());
+        assertEquals(caches.bytesUsed(), breaker.getUsed());
+        float[] scores = new float[10];
+        for (int doc = 0; doc < cache.size(); doc++) {
+            assertTrue(cache.get(doc, scores));
+            assertEquals(doc, scores[0], 0F);
+        }
+    }
+
+    public void testExpireAfterAccess() {
+        AtomicLong now = new AtomicLong();
+        LimitedBreaker breaker = new LimitedBreaker(1024 * 1024);
+        FeatureScoreCaches caches = new FeatureScoreCaches(now::get);
+        caches.setCircuitBreaker(breaker);
+        FeatureScoreCache cache = caches.newCache(10, 1000);
+        fill(cache, 100);
+        now.addAndGet(TimeValue.timeValueSeconds(30).nanos());
+        caches.newCache(10, 1000);
+        assertEquals(2, caches.count());
+        assertTrue(cache.contains(0));
+
+        // a cache that was never released is dropped once it did not grow for a minute
+        now.addAndGet(TimeValue.timeValueSeconds(31).nanos());
+        caches.newCache(10, 1000);
+        assertEquals(2, caches.count());
+        assertFalse(cache.contains(0));
+        assertEquals(caches.bytesUsed(), breaker.getUsed());
+        assertEquals(0, caches.evictionCount());
+    }
+
+    private static void fill(FeatureScoreCache cache, int numDocs) {
+        for (int doc = 0; doc < numDocs; doc++) {
+            float[] scores = new float[10];
+            scores[0] = doc;
+            cache.put(doc, scores);
+        }
+    }
+
+    private static class LimitedBreaker extends NoopCircuitBreaker {
+        private final long limit;
+        private long used;
+
+        LimitedBreaker(long limit) {
+            super(FeatureScoreCaches.BREAKER_NAME);
+            this.limit = limit;
+        }
+
+        @Override
+        public void addEstimateBytesAndMaybeBreak(long bytes, String label) throws CircuitBreakingException {
+            if (used + bytes > limit) {
+                throw new CircuitBreakingException("[" + label + "] too large", used + bytes, limit, getDurability());
+            }
+            used += bytes;
+        }
+
+        @Override
+        public void addWithoutBreaking(long bytes) {
+            used += bytes;
+        }
+
+        @Override
+        public long getUsed() {
+            return used;
+        }
+
+        @Override
+        public long getLimit() {
+            return limit;
+        }
+    }
+}
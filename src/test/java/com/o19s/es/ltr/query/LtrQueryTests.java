@@ -24,23 +24,29 @@ import ciir.umass.edu.learning.RankerFactory;
 import ciir.umass.edu.learning.RankerTrainer;
 import ciir.umass.edu.metric.NDCGScorer;
 import ciir.umass.edu.utilities.MyThreadPool;
+import com.o19s.es.TestExpressionsPlugin;
+import com.o19s.es.ltr.LtrQueryContext;
 import com.o19s.es.ltr.feature.FeatureSet;
 import com.o19s.es.ltr.feature.PrebuiltFeature;
 import com.o19s.es.ltr.feature.PrebuiltFeatureSet;
 import com.o19s.es.ltr.feature.PrebuiltLtrModel;
 import com.o19s.es.ltr.ranker.LogLtrRanker;
 import com.o19s.es.ltr.ranker.LtrRanker;
+import com.o19s.es.ltr.ranker.linear.LinearRanker;
+import com.o19s.es.ltr.ranker.linear.LinearRankerTests;
 import com.o19s.es.ltr.ranker.normalizer.FeatureNormalizingRanker;
 import com.o19s.es.ltr.ranker.normalizer.Normalizer;
 import com.o19s.es.ltr.ranker.normalizer.StandardFeatureNormalizer;
 import com.o19s.es.ltr.ranker.ranklib.DenseProgramaticDataPoint;
 import com.o19s.es.ltr.ranker.ranklib.RanklibRanker;
+import com.o19s.es.ltr.rescore.LtrRescorer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.document.FieldType;
 import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.NoMergePolicy;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.StoredFields;
 import org.apache.lucene.tests.index.RandomIndexWriter;
@@ -78,8 +84,12 @@ import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.search.similarities.TFIDFSimilarity;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.tests.util.LuceneTestCase;
+import org.apache.lucene.tests.util.TestUtil;
+import org.apache.lucene.util.NamedThreadFactory;
 import org.elasticsearch.common.lucene.search.function.FunctionScoreQuery;
 import org.elasticsearch.common.lucene.search.function.WeightFactorFunction;
+import org.elasticsearch.index.query.ParsedQuery;
+import org.elasticsearch.script.DoubleValuesScript;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -93,8 +103,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
+import static org.hamcrest.Matchers.greaterThan;
+
 @LuceneTestCase.SuppressSysoutChecks(bugUrl = "RankURL does this when training models... ")
 public class LtrQueryTests extends LuceneTestCase {
     // Number of ULPs allowed when checking scores equality
@@ -318,6 +332,9 @@ public class LtrQueryTests extends LuceneTestCase {
             assertScoresMatch(features, scores, ltrQuery, scoreDoc);
         }
 
+        // Score all the docs at once with the ltr rescorer
+        assertRescoredScoresMatch(features, scores, ltrQuery);
+
         // Try again with a model serialized
 
         String modelAsStr = ranker.model();
@@ -358,6 +375,21 @@ public class LtrQueryTests extends LuceneTestCase {
         }
     }
 
+    private void assertRescoredScoresMatch(List<PrebuiltFeature> features, float[] scores,
+            RankerQuery ltrQuery) throws IOException {
+        LtrRescorer.LtrRescoreContext context = new LtrRescorer.LtrRescoreContext(docs.length);
+        context.setQuery(new ParsedQuery(ltrQuery));
+        // only keep the model score
+        context.setQueryWeight(0F);
+        TopDocs firstPass = searcherUnderTest.search(new MatchAllDocsQuery(), docs.length);
+        TopDocs rescored = LtrRescorer.INSTANCE.rescore(firstPass, searcherUnderTest, context);
+        assertEquals(docs.length, rescored.scoreDocs.length);
+        assertEquals(docs.length, context.getRescoredDocs().size());
+        for (ScoreDoc scoreDoc : rescored.scoreDocs) {
+            assertScoresMatch(features, scores, ltrQuery, scoreDoc);
+        }
+    }
+
     private RankerQuery toRankerQuery(List<PrebuiltFeature> features, Ranker ranker,
             Map<Integer, Normalizer> ftrNorms) {
         LtrRanker ltrRanker = new RanklibRanker(ranker, features.size());
@@ -479,6 +511,141 @@ public class LtrQueryTests extends LuceneTestCase {
         checkModelWithFeatures(features, null, ftrNorms);
     }
 
+    public void testSparseFeatures() throws IOException {
+        // a large feature set where only a few features match every doc
+        List<String> terms = new ArrayList<>(Arrays.asList("brown", "cow", "cows", "banana", "color"));
+        for (int i = 0; i < 145; i++) {
+            terms.add("missing" + i);
+        }
+        Collections.shuffle(terms, random());
+        List<PrebuiltFeature> features = terms.stream()
+                .map(t -> new PrebuiltFeature(t, new TermQuery(new Term("field", t))))
+                .collect(Collectors.toList());
+        Map<String, Map<Integer, Float>> featuresPerDoc = getFeatureScores(features, Float.NaN);
+        assertEquals(docs.length, featuresPerDoc.size());
+        for (int ordinal = 0; ordinal < features.size(); ordinal++) {
+            Map<String, Float> expected = new HashMap<>();
+            for (ScoreDoc scoreDoc : searcherUnderTest.search(features.get(ordinal).getPrebuiltQuery(), docs.length).scoreDocs) {
+                expected.put(searcherUnderTest.storedFields().document(scoreDoc.doc).get("id"), scoreDoc.score);
+            }
+            for (Map.Entry<String, Map<Integer, Float>> doc : featuresPerDoc.entrySet()) {
+                assertEquals("Feature [" + terms.get(ordinal) + "] of doc [" + doc.getKey() + "]",
+                        expected.getOrDefault(doc.getKey(), Float.NaN), doc.getValue().get(ordinal), 0F);
+            }
+        }
+    }
+
+    public void testSparseFeaturesScoreLikeDenseVector() throws IOException {
+        int nbTerms = 150;
+        try (Directory dir = newDirectory();
+             RandomIndexWriter writer = new RandomIndexWriter(random(), dir, newIndexWriterConfig())) {
+            int nbDocs = atLeast(100);
+            for (int i = 0; i < nbDocs; i++) {
+                Document doc = new Document();
+                // every doc matches 3 terms at most
+                doc.add(newTextField("field", "t" + random().nextInt(nbTerms) + " t" + random().nextInt(nbTerms)
+                        + " t" + random().nextInt(nbTerms), Store.NO));
+                writer.addDocument(doc);
+            }
+            try (IndexReader reader = writer.getReader()) {
+                IndexSearcher searcher = newSearcher(reader);
+                List<PrebuiltFeature> features = new ArrayList<>(nbTerms);
+                for (int i = 0; i < nbTerms; i++) {
+                    features.add(new PrebuiltFeature("t" + i, new TermQuery(new Term("field", "t" + i))));
+                }
+                LtrRanker ranker = new LinearRanker(LinearRankerTests.generateRandomWeights(features.size()));
+
+                // score every doc with a vector holding the scores of all the features
+                float[][] featureScores = new float[searcher.getIndexReader().maxDoc()][nbTerms];
+                for (int ordinal = 0; ordinal < nbTerms; ordinal++) {
+                    for (ScoreDoc scoreDoc : searcher.search(features.get(ordinal).getPrebuiltQuery(), featureScores.length).scoreDocs) {
+                        featureScores[scoreDoc.doc][ordinal] = scoreDoc.score;
+                    }
+                }
+                RankerQuery query = RankerQuery.build(new PrebuiltLtrModel(ranker.name(), ranker,
+                        new PrebuiltFeatureSet(null, features)));
+                ScoreDoc[] scoreDocs = searcher.search(query, featureScores.length).scoreDocs;
+                assertEquals(featureScores.length, scoreDocs.length);
+                for (ScoreDoc scoreDoc : scoreDocs) {
+                    LtrRanker.FeatureVector vector = ranker.newFeatureVector(null);
+                    for (int ordinal = 0; ordinal < nbTerms; ordinal++) {
+                        if (featureScores[scoreDoc.doc][ordinal] != 0F) {
+                            vector.setFeatureScore(ordinal, featureScores[scoreDoc.doc][ordinal]);
+                        }
+                    }
+                    assertEquals("Score of doc [" + scoreDoc.doc + "]", ranker.score(vector), scoreDoc.score, 0F);
+                }
+            }
+        }
+    }
+
+    public void testConcurrentSearch() throws Exception {
+        try (Directory dir = newDirectory();
+             RandomIndexWriter writer = new RandomIndexWriter(random(), dir,
+                     newIndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE))) {
+            String[] terms = new String[] { "brown", "cow", "banana", "color" };
+            int nbDocs = atLeast(1000);
+            for (int i = 0; i < nbDocs; i++) {
+                Document doc = new Document();
+                StringBuilder text = new StringBuilder();
+                for (int j = random().nextInt(5); j >= 0; j--) {
+                    text.append(terms[random().nextInt(terms.length)]).append(' ');
+                }
+                doc.add(newTextField("field", text.toString(), Store.NO));
+                writer.addDocument(doc);
+                if (random().nextInt(50) == 0) {
+                    // many small segments
+                    writer.flush();
+                }
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(4, new NamedThreadFactory("ltr-concurrent-search"));
+            try (IndexReader reader = writer.getReader()) {
+                IndexSearcher searcher = new IndexSearcher(reader);
+                IndexSearcher concurrentSearcher = new IndexSearcher(reader, executor) {
+                    @Override
+                    protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+                        // one slice per segment
+                        return slices(leaves, 1, 1, false);
+                    }
+                };
+                assertThat(concurrentSearcher.getSlices().length, greaterThan(1));
+                for (boolean featureScoreCache : new boolean[] { false, true }) {
+                    TopDocs expected = searcher.search(concurrentTestQuery(featureScoreCache), nbDocs);
+                    for (int i = 0; i < 10; i++) {
+                        TopDocs actual = concurrentSearcher.search(concurrentTestQuery(featureScoreCache), nbDocs);
+                        assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+                        for (int j = 0; j < expected.scoreDocs.length; j++) {
+                            assertEquals(expected.scoreDocs[j].doc, actual.scoreDocs[j].doc);
+                            assertEquals(expected.scoreDocs[j].score, actual.scoreDocs[j].score, 0F);
+                        }
+                    }
+                }
+            } finally {
+                TestUtil.shutdownExecutorService(executor);
+            }
+        }
+    }
+
+    /**
+     * Features reading the feature vector of the scorer, mixing up
+     * vectors across threads would produce wrong scores.
+     */
+    private static RankerQuery concurrentTestQuery(boolean featureScoreCache) {
+        List<PrebuiltFeature> terms = Arrays.asList(
+                new PrebuiltFeature("brown", new TermQuery(new Term("field", "brown"))),
+                new PrebuiltFeature("cow", new TermQuery(new Term("field", "cow"))));
+        DoubleValuesScript expression = new TestExpressionsPlugin.ExpressionScriptEngine()
+                .compileInternal("brown * 2 + cow", DoubleValuesScript.CONTEXT)
+                .newInstance();
+        List<PrebuiltFeature> features = new ArrayList<>(terms);
+        features.add(new PrebuiltFeature("derived", new DerivedExpressionQuery(new PrebuiltFeatureSet(null, terms), expression,
+                Collections.emptyMap())));
+        LtrRanker ranker = new LinearRanker(new float[] { 0.5F, 0.25F, 1F });
+        PrebuiltLtrModel model = new PrebuiltLtrModel(ranker.name(), ranker, new PrebuiltFeatureSet(null, features));
+        return RankerQuery.build(model, new LtrQueryContext(null, Collections.emptySet()), Collections.emptyMap(),
+                featureScoreCache);
+    }
+
     @After
     public void closeStuff() throws IOException {
         indexReaderUnderTest.close();
@@ -0,0 +1,115 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.ranker.dectree;
+
+import com.o19s.es.ltr.ranker.LtrRanker;
+import com.o19s.es.ltr.ranker.SparseFeatureVector;
+import com.o19s.es.ltr.ranker.linear.LinearRankerTests;
+import com.o19s.es.ltr.ranker.normalizer.Normalizers;
+import org.apache.lucene.tests.util.LuceneTestCase;
+
+import java.io.IOException;
+
+import static com.o19s.es.ltr.ranker.dectree.NaiveAdditiveDecisionTreeTests.fillRandomWeights;
+import static com.o19s.es.ltr.ranker.dectree.QuickScorerTests.completeTree;
+import static com.o19s.es.ltr.ranker.dectree.QuickScorerTests.fill;
+import static com.o19s.es.ltr.ranker.dectree.QuickScorerTests.parseWmfModel;
+import static com.o19s.es.ltr.ranker.dectree.QuickScorerTests.randomTrees;
+import static org.apache.lucene.tests.util.TestUtil.nextInt;
+import static org.hamcrest.Matchers.instanceOf;
+
+public class BytecodeAdditiveDecisionTreeTests extends LuceneTestCase {
+    public void testName() {
+        LtrRanker ranker = BytecodeAdditiveDecisionTree.compile(randomTrees(3, 1, 2));
+        assertEquals("compiled_additive_decision_tree", ranker.name());
+    }
+
+    public void testScoresLikeNaive() {
+        NaiveAdditiveDecisionTree naive = randomTrees(nextInt(random(), 1, 50), nextInt(random(), 1, 30), 8);
+        assertSameScores(naive, BytecodeAdditiveDecisionTree.compile(naive), 1000);
+    }
+
+    public void testManyTrees() {
+        // trees are summed by several generated methods
+        NaiveAdditiveDecisionTree naive = randomTrees(10, nextInt(random(), 1000, 1500), 2);
+        assertSameScores(naive, BytecodeAdditiveDecisionTree.compile(naive), 100);
+    }
+
+    public void testManyNodes() {
+        // a complete tree of depth 5 has 63 nodes, trees are split across several classes
+        int nbTrees = nextInt(random(), 400, 500);
+        NaiveAdditiveDecisionTree.Node[] trees = new NaiveAdditiveDecisionTree.Node[nbTrees];
+        for (int i = 0; i < nbTrees; i++) {
+            trees[i] = completeTree(5);
+        }
+        NaiveAdditiveDecisionTree naive = new NaiveAdditiveDecisionTree(trees, LinearRankerTests.generateRandomWeights(nbTrees), 1,
+                Normalizers.get(Normalizers.NOOP_NORMALIZER_NAME));
+        LtrRanker compiled = BytecodeAdditiveDecisionTree.compile(naive);
+        assertSameScores(naive, compiled, 100);
+        assertEquals(2, ((BytecodeAdditiveDecisionTree) compiled).numClasses());
+    }
+
+    public void testTreesAcrossClasses() {
+        NaiveAdditiveDecisionTree naive = randomTrees(10, BytecodeAdditiveDecisionTree.MAX_TREES_PER_CLASS + nextInt(random(), 1, 1000), 1);
+        LtrRanker compiled = BytecodeAdditiveDecisionTree.compile(naive);
+        assertSameScores(naive, compiled, 100);
+        assertEquals(2, ((BytecodeAdditiveDecisionTree) compiled).numClasses());
+    }
+
+    public void testNormalizer() {
+        NaiveAdditiveDecisionTree.Node[] trees = new NaiveAdditiveDecisionTree.Node[] { completeTree(6), completeTree(4) };
+        NaiveAdditiveDecisionTree naive = new NaiveAdditiveDecisionTree(trees, new float[] { 1F, 0.5F }, 1,
+                Normalizers.get(Normalizers.SIGMOID_NORMALIZER_NAME));
+        assertSameScores(naive, BytecodeAdditiveDecisionTree.compile(naive), 1000);
+    }
+
+    public void testComplexModel() throws IOException {
+        NaiveAdditiveDecisionTree naive = parseWmfModel();
+        assertSameScores(naive, BytecodeAdditiveDecisionTree.compile(naive), 1000);
+    }
+
+    public void testFallbackOnLargeTrees() {
+        // a complete tree of depth 9 has 511 splits
+        NaiveAdditiveDecisionTree.Node[] trees = new NaiveAdditiveDecisionTree.Node[] { completeTree(2), completeTree(9) };
+        NaiveAdditiveDecisionTree naive = new NaiveAdditiveDecisionTree(trees, new float[] { 1F, 1F }, 1,
+                Normalizers.get(Normalizers.NOOP_NORMALIZER_NAME));
+        assertSame(naive, BytecodeAdditiveDecisionTree.compile(naive));
+        assertSame(naive, TreeEvaluator.BYTECODE.compile((LtrRanker) naive));
+    }
+
+    public void testRamSize() {
+        NaiveAdditiveDecisionTree naive = randomTrees(nextInt(random(), 1, 50), nextInt(random(), 1, 100), 6);
+        LtrRanker ranker = BytecodeAdditiveDecisionTree.compile(naive);
+        assertThat(ranker, instanceOf(BytecodeAdditiveDecisionTree.class));
+        long actual = ((BytecodeAdditiveDecisionTree) ranker).ramBytesUsed();
+        // every node is at least a float constant and a branch or return instruction
+        long minSize = (long) naive.ensemble().numNodes() * 3;
+        assertTrue(actual + " >= " + minSize, actual >= minSize);
+    }
+
+    private static void assertSameScores(NaiveAdditiveDecisionTree naive, LtrRanker compiled, int nPass) {
+        assertThat(compiled, instanceOf(BytecodeAdditiveDecisionTree.class));
+        SparseFeatureVector naiveVector = null;
+        LtrRanker.FeatureVector compiledVector = null;
+        for (int i = 0; i < nPass; i++) {
+            naiveVector = naive.newFeatureVector(naiveVector);
+            fillRandomWeights(naiveVector.scores);
+            compiledVector = fill(compiled, compiledVector, naiveVector.scores);
+            assertEquals(naive.score(naiveVector), compiled.score(compiledVector), 0F);
+        }
+    }
+}
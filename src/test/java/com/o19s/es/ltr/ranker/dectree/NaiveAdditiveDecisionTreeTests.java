@@ -19,6 +19,7 @@ package com.o19s.es.ltr.ranker.dectree;
 import com.o19s.es.ltr.feature.FeatureSet;
 import com.o19s.es.ltr.feature.PrebuiltFeature;
 import com.o19s.es.ltr.feature.PrebuiltFeatureSet;
+import com.o19s.es.ltr.ranker.FeatureMatrix;
 import com.o19s.es.ltr.ranker.LtrRanker;
 import com.o19s.es.ltr.ranker.SparseFeatureVector;
 import com.o19s.es.ltr.ranker.linear.LinearRankerTests;
@@ -124,14 +125,62 @@ public class NaiveAdditiveDecisionTreeTests extends LuceneTestCase {
                 100, 1000,
                 5, 50, counts);
         long actualSize = ranker.ramBytesUsed();
-        long expectedApprox = counts.splits.get() * (NUM_BYTES_OBJECT_HEADER + Float.BYTES + NUM_BYTES_OBJECT_REF * 2 + Integer.BYTES * 3);
-        expectedApprox += counts.leaves.get() * (NUM_BYTES_ARRAY_HEADER + NUM_BYTES_OBJECT_HEADER + Float.BYTES);
-        expectedApprox += ranker.size() * Float.BYTES + NUM_BYTES_ARRAY_HEADER;
+        // feature, threshold/output and right child arrays plus the missing direction bit
+        long nodes = counts.splits.get() + counts.leaves.get();
+        long expectedApprox = nodes * (Integer.BYTES * 2 + Float.BYTES) + nodes / Byte.SIZE + NUM_BYTES_ARRAY_HEADER * 4;
+        // roots and weights
+        expectedApprox += counts.trees.get() * (Integer.BYTES + Float.BYTES) + NUM_BYTES_ARRAY_HEADER * 2;
+        expectedApprox += NUM_BYTES_OBJECT_HEADER * 3 + NUM_BYTES_OBJECT_REF * 8;
         assertThat(actualSize, allOf(
                 greaterThan((long) (expectedApprox*0.66F)),
                 lessThan((long) (expectedApprox*1.33F))));
     }
 
+    public void testFlattenedTreesScoreLikeNodes() {
+        int nbFeatures = nextInt(random(), 1, 100);
+        int nbTrees = nextInt(random(), 1, 200);
+        NaiveAdditiveDecisionTree.Node[] trees = new NaiveAdditiveDecisionTree.Node[nbTrees];
+        float[] weights = LinearRankerTests.generateRandomWeights(nbTrees);
+        for (int i = 0; i < nbTrees; i++) {
+            trees[i] = new RandomTreeGenerator(nbFeatures, 1, 20, null).genTree();
+        }
+        NaiveAdditiveDecisionTree ranker = new NaiveAdditiveDecisionTree(trees, weights, nbFeatures,
+                Normalizers.get(Normalizers.NOOP_NORMALIZER_NAME));
+        SparseFeatureVector vector = null;
+        for (int pass = 0; pass < 100; pass++) {
+            vector = ranker.newFeatureVector(vector);
+            fillRandomWeights(vector.scores);
+            float expected = 0;
+            for (int i = 0; i < nbTrees; i++) {
+                expected += weights[i] * trees[i].eval(vector.scores);
+            }
+            assertEquals(expected, ranker.score(vector), 0F);
+        }
+    }
+
+    public void testBatchScoreLikeSingleDocs() {
+        NaiveAdditiveDecisionTree ranker = generateRandomDecTree(1, 50, 1, 200, 1, 10, null);
+        // more rows than a single batch of the flattened ensemble
+        FeatureMatrix matrix = new FeatureMatrix(nextInt(random(), 1, 300), ranker.size());
+        fillRandomWeights(matrix.scores);
+        float[] scores = new float[matrix.numRows()];
+        ranker.score(matrix, scores);
+        SparseFeatureVector vector = null;
+        for (int row = 0; row < matrix.numRows(); row++) {
+            vector = ranker.newFeatureVector(vector);
+            System.arraycopy(matrix.scores, matrix.offset(row), vector.scores, 0, ranker.size());
+            assertEquals(ranker.score(vector), scores[row], 0F);
+        }
+    }
+
+    public void testBuilderRequiresRightChild() {
+        FlatTreeEnsemble.Builder builder = new FlatTreeEnsemble.Builder();
+        builder.newTree(1F);
+        builder.split(0, 0.5F, true);
+        builder.leaf(1F);
+        expectThrows(IllegalStateException.class, builder::build);
+    }
+
     public static NaiveAdditiveDecisionTree generateRandomDecTree(int minFeatures, int maxFeatures, int minTrees,
                                                                   int maxTrees, int minDepth, int maxDepth,
                                                                   RandomTreeGeneratorStatsCollector collector) {
@@ -0,0 +1,93 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.ranker.dectree;
+
+import com.o19s.es.ltr.ranker.FeatureMatrix;
+import com.o19s.es.ltr.ranker.LtrRanker;
+import com.o19s.es.ltr.ranker.SparseFeatureVector;
+import com.o19s.es.ltr.ranker.normalizer.Normalizers;
+import org.apache.lucene.tests.util.LuceneTestCase;
+
+import java.io.IOException;
+
+import static com.o19s.es.ltr.ranker.dectree.NaiveAdditiveDecisionTreeTests.fillRandomWeights;
+import static com.o19s.es.ltr.ranker.dectree.QuickScorerTests.completeTree;
+import static com.o19s.es.ltr.ranker.dectree.QuickScorerTests.fill;
+import static com.o19s.es.ltr.ranker.dectree.QuickScorerTests.parseWmfModel;
+import static com.o19s.es.ltr.ranker.dectree.QuickScorerTests.randomTrees;
+import static org.apache.lucene.tests.util.TestUtil.nextInt;
+import static org.hamcrest.Matchers.instanceOf;
+
+public class OffHeapAdditiveDecisionTreeTests extends LuceneTestCase {
+    public void testName() {
+        LtrRanker ranker = TreeEvaluator.OFF_HEAP.compile((LtrRanker) randomTrees(3, 1, 2));
+        assertThat(ranker, instanceOf(OffHeapAdditiveDecisionTree.class));
+        assertEquals("off_heap_additive_decision_tree", ranker.name());
+    }
+
+    public void testScoresLikeNaive() {
+        NaiveAdditiveDecisionTree naive = randomTrees(nextInt(random(), 1, 50), nextInt(random(), 1, 200), 8);
+        assertSameScores(naive, new OffHeapAdditiveDecisionTree(naive), 1000);
+    }
+
+    public void testNormalizer() {
+        NaiveAdditiveDecisionTree.Node[] trees = new NaiveAdditiveDecisionTree.Node[] { completeTree(6), completeTree(4) };
+        NaiveAdditiveDecisionTree naive = new NaiveAdditiveDecisionTree(trees, new float[] { 1F, 0.5F }, 1,
+                Normalizers.get(Normalizers.SIGMOID_NORMALIZER_NAME));
+        assertSameScores(naive, new OffHeapAdditiveDecisionTree(naive), 1000);
+    }
+
+    public void testComplexModel() throws IOException {
+        NaiveAdditiveDecisionTree naive = parseWmfModel();
+        assertSameScores(naive, new OffHeapAdditiveDecisionTree(naive), 1000);
+    }
+
+    public void testBatchScoreLikeNaive() {
+        NaiveAdditiveDecisionTree naive = randomTrees(nextInt(random(), 1, 50), nextInt(random(), 1, 200), 6);
+        OffHeapAdditiveDecisionTree offHeap = new OffHeapAdditiveDecisionTree(naive);
+        // more rows than a single batch
+        FeatureMatrix matrix = new FeatureMatrix(nextInt(random(), 1, 300), naive.size());
+        fillRandomWeights(matrix.scores);
+        float[] expected = new float[matrix.numRows()];
+        float[] actual = new float[matrix.numRows()];
+        naive.score(matrix, expected);
+        offHeap.score(matrix, actual);
+        assertArrayEquals(expected, actual, 0F);
+    }
+
+    public void testMemoryUsage() {
+        NaiveAdditiveDecisionTree naive = randomTrees(nextInt(random(), 1, 50), nextInt(random(), 1, 200), 6);
+        OffHeapAdditiveDecisionTree offHeap = new OffHeapAdditiveDecisionTree(naive);
+        FlatTreeEnsemble ensemble = naive.ensemble();
+        assertEquals((long) ensemble.numNodes() * OffHeapAdditiveDecisionTree.NODE_BYTES, offHeap.offHeapBytesUsed());
+        // only the roots and weights of the trees stay on the heap
+        assertTrue(offHeap.ramBytesUsed() < naive.ramBytesUsed());
+        long maxHeap = 1024 + 2L * ensemble.numTrees() * Integer.BYTES;
+        assertTrue(offHeap.ramBytesUsed() + " <= " + maxHeap, offHeap.ramBytesUsed() <= maxHeap);
+    }
+
+    private static void assertSameScores(NaiveAdditiveDecisionTree naive, OffHeapAdditiveDecisionTree offHeap, int nPass) {
+        SparseFeatureVector naiveVector = null;
+        LtrRanker.FeatureVector offHeapVector = null;
+        for (int i = 0; i < nPass; i++) {
+            naiveVector = naive.newFeatureVector(naiveVector);
+            fillRandomWeights(naiveVector.scores);
+            offHeapVector = fill(offHeap, offHeapVector, naiveVector.scores);
+            assertEquals(naive.score(naiveVector), offHeap.score(offHeapVector), 0F);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.ranker.dectree;
+
+import com.o19s.es.ltr.LtrTestUtils;
+import com.o19s.es.ltr.feature.store.StoredFeature;
+import com.o19s.es.ltr.feature.store.StoredFeatureSet;
+import com.o19s.es.ltr.ranker.LtrRanker;
+import com.o19s.es.ltr.ranker.SparseFeatureVector;
+import com.o19s.es.ltr.ranker.linear.LinearRankerTests;
+import com.o19s.es.ltr.ranker.normalizer.Normalizers;
+import com.o19s.es.ltr.ranker.parser.XGBoostJsonParser;
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.o19s.es.ltr.ranker.dectree.NaiveAdditiveDecisionTreeTests.fillRandomWeights;
+import static org.apache.lucene.tests.util.TestUtil.nextInt;
+import static org.hamcrest.Matchers.containsString;
+
+public class QuickScorerTests extends LuceneTestCase {
+    public void testName() {
+        QuickScorer ranker = new QuickScorer(randomTrees(3, 1, 2));
+        assertEquals("quickscorer", ranker.name());
+    }
+
+    public void testScoresLikeNaive() {
+        NaiveAdditiveDecisionTree naive = randomTrees(nextInt(random(), 1, 50), nextInt(random(), 1, 200), 6);
+        QuickScorer quickScorer = new QuickScorer(naive);
+        assertSameScores(naive, quickScorer, 1000);
+    }
+
+    public void testTooManyLeaves() {
+        // a complete tree of depth 7 has 128 leaves
+        NaiveAdditiveDecisionTree.Node[] trees = new NaiveAdditiveDecisionTree.Node[] { completeTree(7) };
+        NaiveAdditiveDecisionTree naive = new NaiveAdditiveDecisionTree(trees, new float[] { 1F }, 1,
+                Normalizers.get(Normalizers.NOOP_NORMALIZER_NAME));
+        assertThat(expectThrows(IllegalArgumentException.class, () -> new QuickScorer(naive)).getMessage(),
+                containsString("at most [64] leaves per tree"));
+    }
+
+    public void testCompleteTree() {
+        NaiveAdditiveDecisionTree.Node[] trees = new NaiveAdditiveDecisionTree.Node[] { completeTree(6), completeTree(6) };
+        NaiveAdditiveDecisionTree naive = new NaiveAdditiveDecisionTree(trees, new float[] { 1F, 0.5F }, 1,
+                Normalizers.get(Normalizers.SIGMOID_NORMALIZER_NAME));
+        assertSameScores(naive, new QuickScorer(naive), 1000);
+    }
+
+    public void testComplexModel() throws IOException {
+        NaiveAdditiveDecisionTree naive = parseWmfModel();
+        assertSameScores(naive, new QuickScorer(naive), 1000);
+    }
+
+    public void testRamSize() {
+        NaiveAdditiveDecisionTree naive = randomTrees(nextInt(random(), 1, 50), nextInt(random(), 1, 200), 6);
+        QuickScorer quickScorer = new QuickScorer(naive);
+        FlatTreeEnsemble ensemble = naive.ensemble();
+        int splits = 0;
+        for (int i = 0; i < ensemble.numNodes(); i++) {
+            if (!ensemble.isLeaf(i)) {
+                splits++;
+            }
+        }
+        // every split is stored with its threshold, tree and mask, possibly twice for missing values
+        long minSize = splits * (long) (Float.BYTES + Integer.BYTES + Long.BYTES) + (ensemble.numNodes() - splits) * Float.BYTES;
+        // plus per feature offsets, per tree weights and offsets
+        long maxSize = 2 * minSize + ensemble.ramBytesUsed() + 2L * Integer.BYTES * (naive.size() + 1)
+                + 16L * RamUsageEstimator.NUM_BYTES_ARRAY_HEADER;
+        long actual = quickScorer.ramBytesUsed();
+        assertTrue(actual + " >= " + minSize, actual >= minSize);
+        assertTrue(actual + " <= " + maxSize, actual <= maxSize);
+    }
+
+    public void testLargeModelScoresLikeNaive() {
+        NaiveAdditiveDecisionTree naive = randomTrees(100, 500, 6);
+        QuickScorer quickScorer = new QuickScorer(naive);
+        assertSameScores(naive, quickScorer, 1000);
+
+        // vectors where most features are missing
+        SparseFeatureVector naiveVector = null;
+        LtrRanker.FeatureVector quickScorerVector = null;
+        for (int i = 0; i < 100; i++) {
+            naiveVector = naive.newFeatureVector(naiveVector);
+            Arrays.fill(naiveVector.scores, Float.NaN);
+            int present = nextInt(random(), 0, 10);
+            for (int j = 0; j < present; j++) {
+                naiveVector.scores[random().nextInt(naive.size())] = (float) nextInt(random(), 1, 100000)
+                        / (float) nextInt(random(), 1, 100000);
+            }
+            quickScorerVector = fill(quickScorer, quickScorerVector, naiveVector.scores);
+            assertEquals(naive.score(naiveVector), quickScorer.score(quickScorerVector), 0F);
+        }
+    }
+
+    static LtrRanker.FeatureVector fill(LtrRanker ranker, LtrRanker.FeatureVector vector, float[] scores) {
+        vector = ranker.newFeatureVector(vector);
+        for (int i = 0; i < scores.length; i++) {
+            vector.setFeatureScore(i, scores[i]);
+        }
+        return vector;
+    }
+
+    private static void assertSameScores(NaiveAdditiveDecisionTree naive, QuickScorer quickScorer, int nPass) {
+        SparseFeatureVector naiveVector = null;
+        LtrRanker.FeatureVector quickScorerVector = null;
+        for (int i = 0; i < nPass; i++) {
+            naiveVector = naive.newFeatureVector(naiveVector);
+            fillRandomWeights(naiveVector.scores);
+            quickScorerVector = fill(quickScorer, quickScorerVector, naiveVector.scores);
+            assertEquals(naive.score(naiveVector), quickScorer.score(quickScorerVector), 0F);
+        }
+    }
+
+    static NaiveAdditiveDecisionTree randomTrees(int nbFeatures, int nbTrees, int maxDepth) {
+        NaiveAdditiveDecisionTree.Node[] trees = new NaiveAdditiveDecisionTree.Node[nbTrees];
+        for (int i = 0; i < nbTrees; i++) {
+            trees[i] = randomNode(nbFeatures, 0, maxDepth);
+        }
+        return new NaiveAdditiveDecisionTree(trees, LinearRankerTests.generateRandomWeights(nbTrees), nbFeatures,
+                Normalizers.get(Normalizers.NOOP_NORMALIZER_NAME));
+    }
+
+    private static NaiveAdditiveDecisionTree.Node randomNode(int nbFeatures, int depth, int maxDepth) {
+        if (depth >= maxDepth || (depth > 0 && random().nextInt(4) == 0)) {
+            return new NaiveAdditiveDecisionTree.Leaf(randomOutput());
+        }
+        // use thresholds close to the values generated by fillRandomWeights
+        float threshold = (float) nextInt(random(), 1, 100000) / (float) nextInt(random(), 1, 100000);
+        return new NaiveAdditiveDecisionTree.Split(randomNode(nbFeatures, depth + 1, maxDepth),
+                randomNode(nbFeatures, depth + 1, maxDepth), nextInt(random(), 0, nbFeatures - 1), threshold,
+                1, random().nextBoolean() ? 1 : 2);
+    }
+
+    static NaiveAdditiveDecisionTree.Node completeTree(int depth) {
+        if (depth == 0) {
+            return new NaiveAdditiveDecisionTree.Leaf(randomOutput());
+        }
+        return new NaiveAdditiveDecisionTree.Split(completeTree(depth - 1), completeTree(depth - 1), 0,
+                (float) nextInt(random(), 1, 100000) / (float) nextInt(random(), 1, 100000), 1, random().nextBoolean() ? 1 : 2);
+    }
+
+    private static float randomOutput() {
+        return (random().nextBoolean() ? 1F : -1F) * ((float) nextInt(random(), 0, 1000) / (float) nextInt(random(), 1, 1000));
+    }
+
+    static NaiveAdditiveDecisionTree parseWmfModel() throws IOException {
+        String model;
+        try (InputStream is = QuickScorerTests.class.getResourceAsStream("/models/xgboost-wmf.json")) {
+            model = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        List<StoredFeature> features = new ArrayList<>();
+        for (String n : Arrays.asList("all_near_match", "category", "heading", "incoming_links", "popularity_score",
+                "redirect_or_suggest_dismax", "text_or_opening_text_dismax", "title")) {
+            features.add(LtrTestUtils.randomFeature(n));
+        }
+        return new XGBoostJsonParser().parse(new StoredFeatureSet("set", features), model);
+    }
+}
@@ -17,6 +17,7 @@
 package com.o19s.es.ltr.ranker.linear;
 
 import com.o19s.es.ltr.ranker.DenseFeatureVector;
+import com.o19s.es.ltr.ranker.FeatureMatrix;
 import com.o19s.es.ltr.ranker.LtrRanker;
 import com.o19s.es.ltr.ranker.dectree.NaiveAdditiveDecisionTreeTests;
 import org.apache.logging.log4j.LogManager;
@@ -49,6 +50,30 @@ public class LinearRankerTests extends LuceneTestCase {
         assertEquals(expected, ranker.score(point), Math.ulp(expected));
     }
 
+    public void testBatchScore() {
+        LinearRanker ranker = generateRandomRanker(1, 100);
+        FeatureMatrix matrix = new FeatureMatrix(nextInt(random(), 1, 100), ranker.size());
+        float[] scores = new float[matrix.numRows()];
+        for (int row = 0; row < matrix.numRows(); row++) {
+            // leave some features missing
+            for (int i = 0; i < ranker.size(); i++) {
+                if (random().nextBoolean()) {
+                    matrix.setFeatureScore(row, i, (float) nextInt(random(), 1, 100000) / (float) nextInt(random(), 1, 100000));
+                }
+            }
+        }
+        ranker.score(matrix, scores);
+        for (int row = 0; row < matrix.numRows(); row++) {
+            DenseFeatureVector vector = ranker.newFeatureVector(null);
+            for (int i = 0; i < ranker.size(); i++) {
+                if (!Float.isNaN(matrix.getFeatureScore(row, i))) {
+                    vector.setFeatureScore(i, matrix.getFeatureScore(row, i));
+                }
+            }
+            assertEquals(ranker.score(vector), scores[row], 0F);
+        }
+    }
+
     public void testSize() {
         LinearRanker ranker = new LinearRanker(new float[]{1,2,3});
         assertEquals(ranker.size(), 3);
@@ -81,6 +106,54 @@ public class LinearRankerTests extends LuceneTestCase {
                 nPass, ranker.size(), time, (float) time / (float) nPass);
     }
 
+    public void testDotProduct() {
+        float[] weights = generateRandomWeights(nextInt(random(), 1, 1000));
+        float[] scores = generateRandomWeights(weights.length);
+        float scalar = scalarDotProduct(weights, scores);
+        // summation order differs
+        assertEquals(scalar, LinearRanker.dotProduct(weights, scores), Math.abs(scalar) * 1E-4F);
+    }
+
+    public void testScoresWithinRoundingOfScalarLoop() {
+        float[] weights = generateRandomWeights(nextInt(random(), 1, 2048));
+        for (int i = 0; i < weights.length; i++) {
+            if (random().nextBoolean()) {
+                weights[i] = -weights[i];
+            }
+        }
+        LinearRanker ranker = new LinearRanker(weights);
+        FeatureMatrix matrix = new FeatureMatrix(nextInt(random(), 1, 100), ranker.size());
+        for (int row = 0; row < matrix.numRows(); row++) {
+            for (int i = 0; i < ranker.size(); i++) {
+                matrix.setFeatureScore(row, i, (float) nextInt(random(), 1, 100000) / (float) nextInt(random(), 1, 100000));
+            }
+        }
+        float[] scores = new float[matrix.numRows()];
+        ranker.score(matrix, scores);
+        for (int row = 0; row < matrix.numRows(); row++) {
+            DenseFeatureVector vector = ranker.newFeatureVector(null);
+            double magnitude = 0;
+            for (int i = 0; i < ranker.size(); i++) {
+                vector.setFeatureScore(i, matrix.getFeatureScore(row, i));
+                magnitude += Math.abs((double) weights[i] * vector.scores[i]);
+            }
+            float scalar = scalarDotProduct(weights, vector.scores);
+            // both summation orders are within n rounding errors of the sum of the absolute products
+            double tolerance = ranker.size() * (double) Math.ulp(1F) * magnitude;
+            assertEquals(scalar, ranker.score(vector), tolerance);
+            // single docs and batches use the same dot product
+            assertEquals(ranker.score(vector), scores[row], 0F);
+        }
+    }
+
+    private static float scalarDotProduct(float[] weights, float[] scores) {
+        float score = 0;
+        for (int i = 0; i < weights.length; i++) {
+            score += weights[i]*scores[i];
+        }
+        return score;
+    }
+
     public static LinearRanker generateRandomRanker(int minsize, int maxsize) {
         return generateRandomRanker(nextInt(random(), minsize, maxsize));
     }
@@ -0,0 +1,112 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.rescore;
+
+import com.o19s.es.ltr.LtrQueryParserPlugin;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.TermQueryBuilder;
+import org.elasticsearch.search.SearchModule;
+import org.elasticsearch.search.rescore.QueryRescoreMode;
+import org.elasticsearch.search.rescore.RescorerBuilder;
+import org.elasticsearch.test.ESTestCase;
+import org.elasticsearch.xcontent.NamedXContentRegistry;
+import org.elasticsearch.xcontent.XContentParser;
+import org.elasticsearch.xcontent.json.JsonXContent;
+
+import java.io.IOException;
+
+import static java.util.Collections.singletonList;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.instanceOf;
+
+public class LtrRescorerBuilderTests extends ESTestCase {
+    private final SearchModule searchModule = new SearchModule(Settings.EMPTY,
+            singletonList(new LtrQueryParserPlugin(Settings.EMPTY)));
+
+    @Override
+    protected NamedXContentRegistry xContentRegistry() {
+        return new NamedXContentRegistry(searchModule.getNamedXContents());
+    }
+
+    @Override
+    protected NamedWriteableRegistry writableRegistry() {
+        return new NamedWriteableRegistry(searchModule.getNamedWriteables());
+    }
+
+    private LtrRescorerBuilder buildTestRescorer() {
+        return new LtrRescorerBuilder()
+                .rescoreQuery(new TermQueryBuilder("field", "value"))
+                .queryWeight(0.5F)
+                .rescoreQueryWeight(2F)
+                .scoreMode(QueryRescoreMode.Max)
+                .windowSize(20);
+    }
+
+    public void testParse() throws IOException {
+        String json = "{\"window_size\":20,\"ltr\":{" +
+                "\"rescore_query\":{\"term\":{\"field\":\"value\"}}," +
+                "\"query_weight\":0.5," +
+                "\"rescore_query_weight\":2," +
+                "\"score_mode\":\"max\"}}";
+        assertEquals(buildTestRescorer(), parse(json));
+    }
+
+    public void testDefaults() throws IOException {
+        String json = "{\"ltr\":{\"rescore_query\":{\"term\":{\"field\":\"value\"}}}}";
+        LtrRescorerBuilder builder = (LtrRescorerBuilder) parse(json);
+        assertNull(builder.windowSize());
+        assertEquals(1F, builder.queryWeight(), 0F);
+        assertEquals(1F, builder.rescoreQueryWeight(), 0F);
+        assertEquals(QueryRescoreMode.Total, builder.scoreMode());
+    }
+
+    public void testToXContent() throws IOException {
+        LtrRescorerBuilder builder = buildTestRescorer();
+        RescorerBuilder<?> parsed = parse(Strings.toString(builder));
+        assertThat(parsed, instanceOf(LtrRescorerBuilder.class));
+        assertEquals(builder, parsed);
+        assertEquals(builder.hashCode(), parsed.hashCode());
+    }
+
+    public void testSerialization() throws IOException {
+        LtrRescorerBuilder builder = buildTestRescorer();
+        LtrRescorerBuilder copy = copyWriteable(builder, writableRegistry(), LtrRescorerBuilder::new);
+        assertEquals(builder, copy);
+        assertEquals(builder.hashCode(), copy.hashCode());
+    }
+
+    public void testFailOnMissingQuery() throws IOException {
+        String json = "{\"ltr\":{\"query_weight\":0.5}}";
+        ParsingException exc = expectThrows(ParsingException.class, () -> parse(json));
+        assertThat(exc.getMessage(), containsString("Field [rescore_query] is mandatory."));
+    }
+
+    public void testFailOnUnknownScoreMode() throws IOException {
+        String json = "{\"ltr\":{\"rescore_query\":{\"term\":{\"field\":\"value\"}},\"score_mode\":\"unknown\"}}";
+        expectThrows(ParsingException.class, () -> parse(json));
+    }
+
+    private RescorerBuilder<?> parse(String json) throws IOException {
+        try (XContentParser parser = createParser(JsonXContent.jsonXContent, json)) {
+            parser.nextToken();
+            return RescorerBuilder.parseFromXContent(parser, (s) -> {});
+        }
+    }
+}
@@ -7,6 +7,10 @@ import com.o19s.es.ltr.feature.store.StoredFeature;
 import com.o19s.es.ltr.feature.store.StoredFeatureSet;
 import com.o19s.es.ltr.feature.store.index.CachedFeatureStore;
 import com.o19s.es.ltr.feature.store.index.Caches;
+import com.o19s.es.ltr.query.FeatureScoreCache;
+import com.o19s.es.ltr.ranker.dectree.NaiveAdditiveDecisionTree;
+import com.o19s.es.ltr.ranker.dectree.OffHeapAdditiveDecisionTree;
+import com.o19s.es.ltr.ranker.normalizer.Normalizers;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.test.ESTestCase;
 import org.hamcrest.collection.IsMapContaining;
@@ -16,6 +20,7 @@ import java.io.IOException;
 import java.util.Map;
 
 import static com.o19s.es.ltr.stats.suppliers.CacheStatsOnNodeSupplier.Stat;
+import static org.hamcrest.Matchers.greaterThan;
 
 public class CacheStatsOnNodeSupplierTests extends ESTestCase {
     private MemStore memStore;
@@ -35,6 +40,21 @@ public class CacheStatsOnNodeSupplierTests extends ESTestCase {
         assertCacheStats(stats.get(Stat.CACHE_FEATURE.getName()), 0, 0, 0, 0);
         assertCacheStats(stats.get(Stat.CACHE_FEATURE_SET.getName()), 0, 0, 0, 0);
         assertCacheStats(stats.get(Stat.CACHE_MODEL.getName()), 0, 0, 0, 0);
+        assertCacheStats(stats.get(Stat.CACHE_FEATURE_QUERY.getName()), 0, 0, 0, 0);
+        assertCacheStats(stats.get(Stat.CACHE_FEATURE_SCORE.getName()), 0, 0, 0, 0);
+    }
+
+    public void testGetFeatureScoreCacheStats() {
+        FeatureScoreCache cache = caches.featureScoreCaches().newCache(2, 10);
+        float[] scores = new float[] { 1F, Float.NaN };
+        assertFalse(cache.get(1, scores));
+        cache.put(1, scores);
+        assertTrue(cache.get(1, scores));
+        assertTrue(cache.get(1, scores));
+
+        Map<String, Object> stat = cacheStatsOnNodeSupplier.get().get(Stat.CACHE_FEATURE_SCORE.getName());
+        assertCacheStats(stat, 2, 1, 0, 1);
+        assertThat((long) stat.get(Stat.CACHE_MEMORY_USAGE_IN_BYTES.getName()), greaterThan(0L));
     }
 
     public void testGetCacheStats() throws IOException {
@@ -74,6 +94,68 @@ public class CacheStatsOnNodeSupplierTests extends ESTestCase {
         assertMemoryUsage(stats);
     }
 
+    public void testOffHeapModelStats() throws IOException {
+        CachedFeatureStore store = new CachedFeatureStore(memStore, caches);
+        StoredFeatureSet set = LtrTestUtils.randomFeatureSet();
+        NaiveAdditiveDecisionTree.Node[] trees = new NaiveAdditiveDecisionTree.Node[] {
+                new NaiveAdditiveDecisionTree.Split(new NaiveAdditiveDecisionTree.Leaf(1F), new NaiveAdditiveDecisionTree.Leaf(2F),
+                        0, 0.5F, 1, 1) };
+        OffHeapAdditiveDecisionTree ranker = new OffHeapAdditiveDecisionTree(new NaiveAdditiveDecisionTree(trees,
+                new float[] { 1F }, set.size(), Normalizers.get(Normalizers.NOOP_NORMALIZER_NAME)));
+        CompiledLtrModel model = new CompiledLtrModel("off_heap", set, ranker);
+        memStore.add(model);
+
+        store.loadModel(model.name());
+        Map<String, Object> stat = cacheStatsOnNodeSupplier.get().get(Stat.CACHE_MODEL.getName());
+        assertThat(stat, IsMapContaining.hasEntry(Stat.CACHE_OFF_HEAP_MEMORY_USAGE_IN_BYTES.getName(), ranker.offHeapBytesUsed()));
+        // the cache weight only counts the heap
+        assertThat(stat, IsMapContaining.hasEntry(Stat.CACHE_MEMORY_USAGE_IN_BYTES.getName(), model.ramBytesUsed()));
+
+        caches.evictModel(memStore.getStoreName(), model.name());
+        stat = cacheStatsOnNodeSupplier.get().get(Stat.CACHE_MODEL.getName());
+        assertThat(stat, IsMapContaining.hasEntry(Stat.CACHE_OFF_HEAP_MEMORY_USAGE_IN_BYTES.getName(), 0L));
+    }
+
+    public void testOffHeapBudget() throws IOException {
+        // a single tree of 3 nodes takes 36 bytes off-heap, only one model fits
+        caches = new Caches(Settings.builder().put(Caches.LTR_CACHE_MAX_OFF_HEAP.getKey(), "40b").build());
+        cacheStatsOnNodeSupplier = new CacheStatsOnNodeSupplier(caches);
+        CachedFeatureStore store = new CachedFeatureStore(memStore, caches);
+        CompiledLtrModel first = offHeapModel("first");
+        CompiledLtrModel second = offHeapModel("second");
+        memStore.add(first);
+        memStore.add(second);
+
+        long offHeapBytes = ((OffHeapAdditiveDecisionTree) first.ranker()).offHeapBytesUsed();
+        assertSame(first, store.loadModel(first.name()));
+        // served but not cached
+        assertSame(second, store.loadModel(second.name()));
+        Map<String, Object> stat = cacheStatsOnNodeSupplier.get().get(Stat.CACHE_MODEL.getName());
+        assertThat(stat, IsMapContaining.hasEntry(Stat.CACHE_ENTRY_COUNT.getName(), 1));
+        assertThat(stat, IsMapContaining.hasEntry(Stat.CACHE_OFF_HEAP_MEMORY_USAGE_IN_BYTES.getName(), offHeapBytes));
+
+        // the cached model is still served
+        assertSame(first, store.loadModel(first.name()));
+        stat = cacheStatsOnNodeSupplier.get().get(Stat.CACHE_MODEL.getName());
+        assertThat(stat, IsMapContaining.hasEntry(Stat.CACHE_HIT_COUNT.getName(), 1L));
+
+        caches.evictModel(memStore.getStoreName(), first.name());
+        assertSame(second, store.loadModel(second.name()));
+        stat = cacheStatsOnNodeSupplier.get().get(Stat.CACHE_MODEL.getName());
+        assertThat(stat, IsMapContaining.hasEntry(Stat.CACHE_ENTRY_COUNT.getName(), 1));
+        assertThat(stat, IsMapContaining.hasEntry(Stat.CACHE_OFF_HEAP_MEMORY_USAGE_IN_BYTES.getName(), offHeapBytes));
+    }
+
+    private static CompiledLtrModel offHeapModel(String name) throws IOException {
+        StoredFeatureSet set = LtrTestUtils.randomFeatureSet();
+        NaiveAdditiveDecisionTree.Node[] trees = new NaiveAdditiveDecisionTree.Node[] {
+                new NaiveAdditiveDecisionTree.Split(new NaiveAdditiveDecisionTree.Leaf(1F), new NaiveAdditiveDecisionTree.Leaf(2F),
+                        0, 0.5F, 1, 1) };
+        OffHeapAdditiveDecisionTree ranker = new OffHeapAdditiveDecisionTree(new NaiveAdditiveDecisionTree(trees,
+                new float[] { 1F }, set.size(), Normalizers.get(Normalizers.NOOP_NORMALIZER_NAME)));
+        return new CompiledLtrModel(name, set, ranker);
+    }
+
     private void assertCacheStats(Map<String, Object> stat, long hits,
                                   long misses, long evictions, int entries) {
         assertThat(stat, IsMapContaining.hasEntry(Stat.CACHE_HIT_COUNT.getName(), hits));
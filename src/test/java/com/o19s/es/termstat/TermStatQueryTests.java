@@ -10,10 +10,16 @@ import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.Explanation;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.Weight;
 import org.apache.lucene.store.ByteBuffersDirectory;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.tests.util.LuceneTestCase;
@@ -151,4 +157,40 @@ public class TermStatQueryTests extends LuceneTestCase {
         Explanation explanation = searcher.explain(tsq, docs.scoreDocs[0].doc);
         assertThat(explanation.toString().trim(), equalTo("3.0 = weight(" + expr + " in doc 0)"));
     }
+
+    public void testScoresAllDocsLikeExplain() throws Exception {
+        String expr = "tf * idf + tp + matches";
+        AggrType aggr = AggrType.AVG;
+        AggrType pos_aggr = AggrType.MAX;
+
+        Set<Term> terms = new HashSet<>();
+        terms.add(new Term("text", "brown"));
+        terms.add(new Term("text", "cow"));
+        terms.add(new Term("text", "dance"));
+        terms.add(new Term("text", "break"));
+
+        TermStatQuery tsq = new TermStatQuery(Scripting.compile(expr), aggr, pos_aggr, terms);
+
+        // postings are advanced across documents when searching, explain reads a single document
+        TopDocs docs = searcher.search(tsq, this.docs.length);
+        assertEquals(this.docs.length, docs.scoreDocs.length);
+        for (ScoreDoc scoreDoc : docs.scoreDocs) {
+            assertEquals(searcher.explain(tsq, scoreDoc.doc).getValue().floatValue(), scoreDoc.score, 0F);
+        }
+    }
+
+    public void testScoreTwice() throws Exception {
+        Set<Term> terms = new HashSet<>();
+        terms.add(new Term("text", "break"));
+
+        TermStatQuery tsq = new TermStatQuery(Scripting.compile("tf + tp"), AggrType.AVG, AggrType.AVG, terms);
+        Weight weight = searcher.createWeight(searcher.rewrite(tsq), ScoreMode.COMPLETE, 1F);
+        for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+            Scorer scorer = weight.scorer(context);
+            while (scorer.iterator().nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                // positions can only be read once from the postings
+                assertEquals(scorer.score(), scorer.score(), 0F);
+            }
+        }
+    }
 }